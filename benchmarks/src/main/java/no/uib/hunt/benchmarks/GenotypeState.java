@@ -0,0 +1,197 @@
+package no.uib.hunt.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import no.uib.hunt.Test;
+import no.uib.hunt.columnar.ColumnarGenotypeFile;
+import no.uib.hunt.columnar.ColumnarGenotypeProvider;
+import no.uib.hunt.data.VariantPool;
+import no.uib.hunt.genotypes.GenotypeSource;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.vcf.GenotypeProvider;
+import no.uib.hunt.vcf.VariantContextCache;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Genotype source, samples and variants shared by the benchmarks. Samples and
+ * variants are drawn using a seeded random generator so that runs are
+ * comparable.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+public class GenotypeState {
+
+    /**
+     * Setup using the file of a single chromosome.
+     */
+    public static final String CHROMOSOME_LAYOUT = "chromosome";
+    /**
+     * Setup using the files of all chromosomes.
+     */
+    public static final String MULTIPLE_LAYOUT = "multiple";
+
+    /**
+     * The folder containing the vcf files.
+     */
+    @Param({Test.DEFAULT_VCF_FOLDER})
+    public String vcfFolder;
+    /**
+     * The file listing the variants to draw from.
+     */
+    @Param({VariantPool.DEFAULT_VARIANTS_FILE_PATH})
+    public String variantsFile;
+    /**
+     * The folder containing the columnar genotype files.
+     */
+    @Param({"columnar/"})
+    public String columnarFolder;
+    /**
+     * The backend, Test.VCF_BACKEND or Test.COLUMNAR_BACKEND.
+     */
+    @Param({Test.VCF_BACKEND})
+    public String backend;
+    /**
+     * The file layout, CHROMOSOME_LAYOUT or MULTIPLE_LAYOUT.
+     */
+    @Param({CHROMOSOME_LAYOUT, MULTIPLE_LAYOUT})
+    public String layout;
+    /**
+     * The chromosome to use with the single chromosome layout.
+     */
+    @Param({"22"})
+    public String chr;
+    /**
+     * The number of samples to query.
+     */
+    @Param({"10", "100", "1000"})
+    public int nSamples;
+    /**
+     * The number of variants to query.
+     */
+    @Param({"100"})
+    public int nVariants;
+    /**
+     * The seed used to draw samples and variants.
+     */
+    @Param({"42"})
+    public long seed;
+    /**
+     * Boolean indicating whether decoded variants should be kept in cache
+     * between queries.
+     */
+    @Param({"false"})
+    public boolean cacheVariants;
+
+    /**
+     * The genotype source.
+     */
+    public GenotypeSource genotypeSource;
+    /**
+     * The samples to query.
+     */
+    public List<String> samples;
+    /**
+     * The variants to query.
+     */
+    public ArrayList<Variant> variants;
+
+    /**
+     * Opens the genotype files and draws the samples and variants.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the variant file
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        String[] chromosomes = layout.equals(MULTIPLE_LAYOUT) ? Test.chromosomes : new String[]{chr};
+
+        if (backend.equals(Test.COLUMNAR_BACKEND)) {
+
+            ColumnarGenotypeProvider columnarGenotypeProvider = new ColumnarGenotypeProvider();
+
+            for (String chromosome : chromosomes) {
+
+                File columnarFile = new File(columnarFolder, chromosome + ColumnarGenotypeFile.EXTENSION);
+
+                if (columnarFile.exists()) {
+
+                    columnarGenotypeProvider.addFile(chromosome, columnarFile);
+
+                }
+            }
+
+            genotypeSource = columnarGenotypeProvider;
+
+        } else {
+
+            GenotypeProvider vcfGenotypeProvider = new GenotypeProvider(cacheVariants
+                    ? new VariantContextCache()
+                    : new VariantContextCache(0, VariantContextCache.EvictionPolicy.LRU));
+
+            for (String chromosome : chromosomes) {
+
+                File vcfFile = new File(vcfFolder, chromosome + ".vcf.gz");
+
+                if (vcfFile.exists()) {
+
+                    vcfGenotypeProvider.addVcfFile(chromosome, vcfFile, new File(vcfFolder, chromosome + ".vcf.gz.tbi"));
+
+                }
+            }
+
+            genotypeSource = vcfGenotypeProvider;
+
+        }
+
+        Random random = new Random(seed);
+
+        samples = Test.sample(genotypeSource.getSamples(), nSamples, random);
+
+        VariantPool.variantsFilePath = variantsFile;
+        HashMap<String, ArrayList<Variant>> variantsMap = VariantPool.getTestMap();
+        ArrayList<Variant> allVariants = new ArrayList<>();
+
+        for (String chromosome : chromosomes) {
+
+            ArrayList<Variant> chrVariants = variantsMap.get(chromosome);
+
+            if (chrVariants != null) {
+
+                allVariants.addAll(chrVariants);
+
+            }
+        }
+
+        if (allVariants.isEmpty()) {
+
+            throw new IllegalArgumentException("No variant to test for layout " + layout + ".");
+
+        }
+
+        Collections.shuffle(allVariants, random);
+        variants = new ArrayList<>(allVariants.subList(0, Math.min(nVariants, allVariants.size())));
+
+    }
+
+    /**
+     * Closes the genotype files.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        genotypeSource.close();
+
+    }
+}
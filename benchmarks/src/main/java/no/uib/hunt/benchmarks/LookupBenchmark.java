@@ -0,0 +1,104 @@
+package no.uib.hunt.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import no.uib.hunt.model.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the lookup of single variants and of batches of variants.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LookupBenchmark {
+
+    /**
+     * Cursor cycling through the variants, one per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class VariantCursor {
+
+        /**
+         * The index of the next variant.
+         */
+        private int index = 0;
+
+        /**
+         * Returns the next variant.
+         *
+         * @param genotypeState the benchmark state
+         *
+         * @return the next variant
+         */
+        public Variant next(GenotypeState genotypeState) {
+
+            Variant variant = genotypeState.variants.get(index);
+            index = (index + 1) % genotypeState.variants.size();
+
+            return variant;
+
+        }
+    }
+
+    /**
+     * Queries the samples of a variant one by one.
+     *
+     * @param genotypeState the benchmark state
+     * @param variantCursor the variant cursor
+     * @param blackhole the blackhole consuming the genotypes
+     */
+    @Benchmark
+    public void singleVariant(GenotypeState genotypeState, VariantCursor variantCursor, Blackhole blackhole) {
+
+        Variant variant = variantCursor.next(genotypeState);
+
+        for (String sample : genotypeState.samples) {
+
+            blackhole.consume(genotypeState.genotypeSource.getGenotype(sample, variant));
+
+        }
+    }
+
+    /**
+     * Queries the samples of a variant at once.
+     *
+     * @param genotypeState the benchmark state
+     * @param variantCursor the variant cursor
+     *
+     * @return the genotypes
+     */
+    @Benchmark
+    public Object singleVariantBatched(GenotypeState genotypeState, VariantCursor variantCursor) {
+
+        return genotypeState.genotypeSource.getGenotypes(genotypeState.samples, variantCursor.next(genotypeState));
+
+    }
+
+    /**
+     * Queries the samples of all variants at once.
+     *
+     * @param genotypeState the benchmark state
+     *
+     * @return the genotypes
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object batch(GenotypeState genotypeState) {
+
+        return genotypeState.genotypeSource.getGenotypes(genotypeState.samples, genotypeState.variants);
+
+    }
+}
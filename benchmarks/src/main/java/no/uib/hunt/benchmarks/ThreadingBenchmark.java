@@ -0,0 +1,143 @@
+package no.uib.hunt.benchmarks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import no.uib.hunt.genotypes.GenotypeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the threading strategies of the Test harness: single thread,
+ * thread per sample and thread per variant. All genotypes of the drawn
+ * samples and variants are queried one by one.
+ *
+ * @author Marc Vaudel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ThreadingBenchmark {
+
+    /**
+     * The thread pool used by the multi-threaded strategies.
+     */
+    @State(Scope.Benchmark)
+    public static class ThreadPool {
+
+        /**
+         * The number of threads.
+         */
+        @Param({"1", "4", "16"})
+        public int nThreads;
+        /**
+         * The thread pool.
+         */
+        public ForkJoinPool pool;
+
+        /**
+         * Creates the thread pool.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+
+            pool = new ForkJoinPool(nThreads);
+
+        }
+
+        /**
+         * Shuts the thread pool down.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+
+            pool.shutdown();
+
+        }
+    }
+
+    /**
+     * Queries all genotypes using a single thread.
+     *
+     * @param genotypeState the benchmark state
+     *
+     * @return the number of genotypes found
+     */
+    @Benchmark
+    public long singleThread(GenotypeState genotypeState) {
+
+        GenotypeSource genotypeSource = genotypeState.genotypeSource;
+
+        return genotypeState.variants.stream()
+                .mapToLong(variant -> genotypeState.samples.stream()
+                .filter(sample -> genotypeSource.getGenotype(sample, variant) != null)
+                .count())
+                .sum();
+
+    }
+
+    /**
+     * Queries all genotypes using a thread per group of samples.
+     *
+     * @param genotypeState the benchmark state
+     * @param threadPool the thread pool
+     *
+     * @return the number of genotypes found
+     *
+     * @throws InterruptedException exception thrown if the benchmark thread
+     * is interrupted
+     * @throws ExecutionException exception thrown if a query failed
+     */
+    @Benchmark
+    public long threadPerSample(GenotypeState genotypeState, ThreadPool threadPool) throws InterruptedException, ExecutionException {
+
+        GenotypeSource genotypeSource = genotypeState.genotypeSource;
+
+        return threadPool.pool.submit(() -> genotypeState.samples.parallelStream()
+                .mapToLong(sample -> genotypeState.variants.stream()
+                .filter(variant -> genotypeSource.getGenotype(sample, variant) != null)
+                .count())
+                .sum())
+                .get();
+
+    }
+
+    /**
+     * Queries all genotypes using a thread per group of variants.
+     *
+     * @param genotypeState the benchmark state
+     * @param threadPool the thread pool
+     *
+     * @return the number of genotypes found
+     *
+     * @throws InterruptedException exception thrown if the benchmark thread
+     * is interrupted
+     * @throws ExecutionException exception thrown if a query failed
+     */
+    @Benchmark
+    public long threadPerVariant(GenotypeState genotypeState, ThreadPool threadPool) throws InterruptedException, ExecutionException {
+
+        GenotypeSource genotypeSource = genotypeState.genotypeSource;
+
+        return threadPool.pool.submit(() -> genotypeState.variants.parallelStream()
+                .mapToLong(variant -> genotypeState.samples.stream()
+                .filter(sample -> genotypeSource.getGenotype(sample, variant) != null)
+                .count())
+                .sum())
+                .get();
+
+    }
+}
@@ -0,0 +1,36 @@
+#!/usr/bin/env bash
+
+##
+# This script runs the JMH benchmarks for the query of genotype files.
+##
+
+
+## Parameters
+
+# Repository folder
+repo=/mnt/work/marc/tools/Hunt
+
+# Folder containing the vcf files
+vcfFolder=/mnt/archive/ROTTERDAM1/genotypes-base/imputed/all/
+
+# Benchmark parameters
+nSamples="10,100,1000"
+nThreads="1,4,16"
+seed=42
+ram="32G"
+
+# Result file
+results=benchmark-results.json
+
+## Script
+
+cd $repo
+mvn -q -Pbenchmarks install -DskipTests
+
+java -Xmx$ram -jar benchmarks/target/benchmarks.jar \
+    -p vcfFolder=$vcfFolder \
+    -p nSamples=$nSamples \
+    -p nThreads=$nThreads \
+    -p seed=$seed \
+    -jvmArgsAppend -Xmx$ram \
+    -rf json -rff $results
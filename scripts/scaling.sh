@@ -0,0 +1,41 @@
+#!/usr/bin/env bash
+
+##
+# This script generates synthetic vcf files of increasing size and runs the stress tests on them.
+##
+
+
+## Parameters
+
+# Repository folder
+repo=/mnt/work/marc/tools/Hunt
+
+# Folder where to generate the vcf files
+syntheticFolder=/tmp/hunt-synthetic
+
+# Cohort sizes
+cohortSizes="1000 10000 100000"
+
+# Number of variants per chromosome
+nVariants=1000000
+
+# Chromosomes to generate
+chromosomes="21,22"
+
+# Number of threads and samples to test
+nThreads=16
+nSamples=1000
+ram="32G"
+
+## Script
+
+for nCohort in $cohortSizes
+do
+    folder=$syntheticFolder/$nCohort
+    echo "Generating $nCohort samples"
+    java -Xmx$ram -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.data.SyntheticVcfGenerator -out $folder -samples $nCohort -variants $nVariants -chromosomes $chromosomes -threads $nThreads
+
+    echo "Testing $nCohort samples"
+    java -Xmx$ram -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.tests.MultipleVcfTest -vcf $folder -variants $folder/variants.gz -samples $nSamples -threads $nThreads
+    mv MultipleVcfTest.log MultipleVcfTest_$nCohort.log
+done
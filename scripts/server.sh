@@ -0,0 +1,44 @@
+#!/usr/bin/env bash
+
+##
+# This script starts a genotype server and queries it from a loopback client.
+##
+
+
+## Parameters
+
+# Repository folder
+repo=/mnt/work/marc/tools/Hunt
+
+# Folder containing the vcf files
+vcfFolder=/mnt/archive/ROTTERDAM1/genotypes-base/imputed/all/
+
+# Server and client parameters
+port=9143
+nThreads=16
+nSamples=1000
+batch=100
+pipeline=16
+ram="32G"
+
+## Script
+
+cd $repo
+
+# Start the server and wait for the port to open
+java -Xmx$ram -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.server.GenotypeServer -vcf $vcfFolder -port $port -threads $nThreads &
+serverPid=$!
+
+until (echo > /dev/tcp/127.0.0.1/$port) 2> /dev/null
+do
+    sleep 1
+done
+
+# Query calls and dosages
+for query in calls dosages
+do
+    java -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.server.GenotypeClient -port $port -query $query -samples $nSamples -batch $batch -pipeline $pipeline
+done
+
+kill $serverPid
+wait $serverPid
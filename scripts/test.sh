@@ -10,8 +10,9 @@
 # Repository folder
 repo=/mnt/work/marc/tools/Hunt
 
-# Number of threads
+# Number of threads, and scheduling mode: fixed, work-stealing, or thread-per-query
 nThreads=16
+scheduler=work-stealing
 ram="32G"
 
 ## Script
@@ -20,14 +21,14 @@ ram="32G"
 echo "Testing per chromosome"
 for chr in {1..22}
 do
-    java -Xmx$ram -Djava.util.concurrent.ForkJoinPool.common.parallelism=$nThreads -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.tests.SingleVcfTest $chr
+    java -Xmx$ram -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.tests.SingleVcfTest -threads $nThreads -scheduler $scheduler $chr
 done
 echo
 echo
 
 # Run multiple vcf files
 echo "Testing per chromosome"
-java -Xmx$ram -Djava.util.concurrent.ForkJoinPool.common.parallelism=$nThreads -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.tests.MultipleVcfTest
+java -Xmx$ram -cp $repo/bin/hunt-0.0.1/hunt-0.0.1.jar no.uib.hunt.tests.MultipleVcfTest -threads $nThreads -scheduler $scheduler
 
 
 
@@ -4,16 +4,32 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Spliterator;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import no.uib.hunt.columnar.ColumnarGenotypeFile;
+import no.uib.hunt.columnar.ColumnarGenotypeProvider;
+import no.uib.hunt.data.VariantLoader;
 import no.uib.hunt.data.VariantPool;
+import no.uib.hunt.genotypes.GenotypeRecord;
+import no.uib.hunt.genotypes.GenotypeSource;
+import no.uib.hunt.genotypes.QueryScheduler;
+import no.uib.hunt.genotypes.VariantPartitioner;
 import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.VariantCatalogue;
+import no.uib.hunt.utils.Instrumentation;
 import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.BgzfBlockCache;
 import no.uib.hunt.vcf.GenotypeProvider;
+import no.uib.hunt.vcf.RsIdIndex;
+import no.uib.hunt.vcf.SampleProjection;
+import no.uib.hunt.vcf.VariantContextCache;
+import no.uib.hunt.vcf.VcfFile;
 
 /**
  * This class tests the query of variants.
@@ -25,65 +41,286 @@ public abstract class Test {
     /**
      * Array of all chromosomes.
      */
-    public static final String[] chromosomes = {"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X"};
+    public static final String[] chromosomes = VcfFile.CHROMOSOMES;
+    /**
+     * The default folder containing the vcf files.
+     */
+    public static final String DEFAULT_VCF_FOLDER = "/mnt/archive/ROTTERDAM1/genotypes-base/imputed/all/";
     /**
      * The folder containing the vcf files.
      */
-    public static final String vcfFolder = "/mnt/archive/ROTTERDAM1/genotypes-base/imputed/all/";
+    public static String vcfFolder = DEFAULT_VCF_FOLDER;
+    /**
+     * The folder containing the columnar genotype files converted from the
+     * vcf files.
+     */
+    public static String columnarFolder = "columnar/";
+    /**
+     * The path, without extension, of the instrumentation report, null if no
+     * report should be written.
+     */
+    public static String reportPath = null;
+    /**
+     * Name of the vcf backend.
+     */
+    public static final String VCF_BACKEND = "vcf";
+    /**
+     * Name of the columnar backend.
+     */
+    public static final String COLUMNAR_BACKEND = "columnar";
     /**
      * The number of sample values to test.
      */
-    public static final int nSamples = 10;
+    public static int nSamples = 10;
+    /**
+     * The seed used to sample values.
+     */
+    public static final long seed = 42;
+    /**
+     * The scheduling mode of the threaded tests.
+     */
+    public static QueryScheduler.Mode schedulerMode = QueryScheduler.Mode.WORK_STEALING;
+    /**
+     * The number of threads of the threaded tests, or the number of queries
+     * in flight in the thread per query mode.
+     */
+    public static int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Boolean indicating whether the vcf files should be opened concurrently
+     * at initialization rather than on their first query.
+     */
+    public static boolean openFiles = false;
+    /**
+     * Boolean indicating whether the variants should be loaded from and saved
+     * to a binary sidecar file next to the variants file.
+     */
+    public static boolean catalogueCache = false;
     /**
-     * Number of split to use for the iterators. The number of resulting threads is 2^nSplit.
+     * The rsId index used to locate the variants of variants files without
+     * chromosome or position column, null if none.
      */
-    public static final int nSplit = 5;
+    public static String rsIdIndexPath = null;
     /**
-     * The genotype provider to use to query the vcf files.
+     * The genotype provider to use to query the genotype files.
      */
-    protected final GenotypeProvider genotypeProvider;
+    protected final GenotypeSource genotypeProvider;
+    /**
+     * The scheduler running the threaded tests.
+     */
+    protected final QueryScheduler scheduler;
+    /**
+     * The random generator used to sample values, seeded so that runs are
+     * comparable.
+     */
+    private final Random random = new Random(seed);
 
     /**
      * Constructor.
      *
      * @param genotypeProvider a genotype provider.
      */
-    public Test(GenotypeProvider genotypeProvider) {
+    public Test(GenotypeSource genotypeProvider) {
 
         this.genotypeProvider = genotypeProvider;
+        this.scheduler = new QueryScheduler(schedulerMode, nThreads);
+
+    }
+
+    /**
+     * Parses the options common to the tests and returns the remaining
+     * arguments. Options: -vcf the folder containing the vcf files, -columnar
+     * the folder containing the columnar files, -variants the variants file,
+     * -samples the number of samples to test, -threads the parallelism of the
+     * threaded tests, -scheduler the scheduling mode of the threaded tests
+     * (fixed, work-stealing, or thread-per-query), -report the path without
+     * extension of the CSV and JSON instrumentation report, enabling
+     * instrumentation, -variantsCache true to load the variants from a binary
+     * sidecar file, written on first use, -openFiles true to open the vcf
+     * files concurrently at initialization, -rsIdIndex the rsId index used to
+     * locate the variants of a variants file without chromosome or position
+     * column. Must be called before the test is created.
+     *
+     * @param args the command line arguments
+     *
+     * @return the arguments that are not options
+     */
+    public static String[] parseOptions(String[] args) {
+
+        ArrayList<String> remaining = new ArrayList<>(args.length);
+
+        for (int i = 0; i < args.length; i++) {
+
+            if (i + 1 < args.length) {
+
+                String value = args[i + 1];
+
+                switch (args[i]) {
+
+                    case "-vcf":
+                        vcfFolder = value.endsWith(File.separator) ? value : value + File.separator;
+                        i++;
+                        continue;
+
+                    case "-columnar":
+                        columnarFolder = value.endsWith(File.separator) ? value : value + File.separator;
+                        i++;
+                        continue;
+
+                    case "-variants":
+                        VariantPool.variantsFilePath = value;
+                        i++;
+                        continue;
+
+                    case "-samples":
+                        nSamples = Integer.parseInt(value);
+                        i++;
+                        continue;
+
+                    case "-report":
+                        reportPath = value;
+                        Instrumentation.setEnabled(true);
+                        i++;
+                        continue;
+
+                    case "-threads":
+                        nThreads = Integer.parseInt(value);
+                        i++;
+                        continue;
+
+                    case "-scheduler":
+                        schedulerMode = QueryScheduler.Mode.parse(value);
+                        i++;
+                        continue;
+
+                    case "-variantsCache":
+                        catalogueCache = Boolean.parseBoolean(value);
+                        i++;
+                        continue;
+
+                    case "-openFiles":
+                        openFiles = Boolean.parseBoolean(value);
+                        i++;
+                        continue;
+
+                    case "-rsIdIndex":
+                        rsIdIndexPath = value;
+                        i++;
+                        continue;
+
+                    default:
+                        break;
+
+                }
+            }
+
+            remaining.add(args[i]);
+
+        }
+
+        return remaining.toArray(new String[remaining.size()]);
 
     }
 
+    /**
+     * Returns a new genotype provider for the given backend.
+     *
+     * @param backend the name of the backend, VCF_BACKEND or COLUMNAR_BACKEND
+     *
+     * @return a new genotype provider
+     */
+    public static GenotypeSource getGenotypeSource(String backend) {
+
+        switch (backend) {
+
+            case VCF_BACKEND:
+                return new GenotypeProvider();
+
+            case COLUMNAR_BACKEND:
+                return new ColumnarGenotypeProvider();
+
+            default:
+                throw new IllegalArgumentException("Backend " + backend + " not supported.");
+
+        }
+    }
+
     /**
      * Initializes the genotype provider using the vcf files in the vcfFolder
-     * folder.
+     * folder, or the columnar files in the columnarFolder folder. Chromosomes
+     * without file are skipped. Vcf files are registered, and opened if
+     * openFiles is set, on nThreads threads.
      */
     public void initiatlize() {
 
         ProgressHandler progressHandler = new ProgressHandler();
 
-        String task = "Importing vcf files";
-        progressHandler.start(task);
+        progressHandler.writeLine("Threaded tests run on a " + scheduler);
+
+        if (genotypeProvider instanceof ColumnarGenotypeProvider) {
+
+            ColumnarGenotypeProvider columnarGenotypeProvider = (ColumnarGenotypeProvider) genotypeProvider;
+
+            String task = "Importing columnar files";
+            progressHandler.start(task);
+
+            Arrays.stream(chromosomes)
+                    .filter(chr -> getColumnarFilePath(chr).exists())
+                    .forEach(chr -> columnarGenotypeProvider.addFile(
+                    chr,
+                    getColumnarFilePath(chr)));
+
+            progressHandler.end(task);
+
+        } else {
+
+            GenotypeProvider vcfGenotypeProvider = (GenotypeProvider) genotypeProvider;
+
+            String task = "Importing vcf files";
+            progressHandler.start(task);
 
-        Arrays.stream(chromosomes)
-                .forEach(chr -> genotypeProvider.addVcfFile(
-                chr,
-                getVcfFilePath(chr),
-                getIndexFilePath(chr)));
+            LinkedHashMap<String, File> vcfFiles = new LinkedHashMap<>();
+            LinkedHashMap<String, File> indexFiles = new LinkedHashMap<>();
 
-        progressHandler.end(task);
+            Arrays.stream(chromosomes)
+                    .filter(chr -> getVcfFilePath(chr).exists())
+                    .forEach(chr -> {
+
+                        vcfFiles.put(chr, getVcfFilePath(chr));
+                        indexFiles.put(chr, getIndexFilePath(chr));
+
+                    });
+
+            vcfGenotypeProvider.addVcfFiles(vcfFiles, indexFiles, nThreads, openFiles, progressHandler);
+
+            if (rsIdIndexPath != null) {
+
+                try {
+
+                    vcfGenotypeProvider.setRsIdIndex(new RsIdIndex(new File(rsIdIndexPath)));
+
+                } catch (IOException e) {
+
+                    throw new RuntimeException(e);
+
+                }
+            }
 
+            progressHandler.end(task);
+
+        }
     }
 
     /**
-     * Returns the map of variants to test.
+     * Returns the catalogue of variants to test. If the variants file has no
+     * chromosome or position column, the variants are located using the rsId
+     * index of the genotype provider, variants not found are skipped.
      *
-     * @return a map of variants to test
+     * @return the catalogue of variants to test
      *
      * @throws IOException exception thrown if an error occurs while parsing the
      * variant file.
      */
-    public HashMap<String, ArrayList<Variant>> getTestVariants() throws IOException {
+    public VariantCatalogue getTestVariants() throws IOException {
 
         ProgressHandler progressHandler = new ProgressHandler();
 
@@ -92,11 +329,27 @@ public abstract class Test {
 
         try {
 
-            HashMap<String, ArrayList<Variant>> variantsMap = VariantPool.getTestMap();
+            File variantsFile = new File(VariantPool.variantsFilePath);
+            EnumSet<VariantLoader.Column> columns = VariantLoader.getColumns(variantsFile);
+            columns.retainAll(EnumSet.of(VariantLoader.Column.RSID, VariantLoader.Column.CHR, VariantLoader.Column.BP));
+
+            VariantCatalogue catalogue = VariantLoader.load(variantsFile, columns, nThreads, catalogueCache);
+
+            if (!catalogue.hasChromosomes() || !catalogue.hasPositions()) {
+
+                if (!(genotypeProvider instanceof GenotypeProvider) || ((GenotypeProvider) genotypeProvider).getRsIdIndex() == null) {
+
+                    throw new IllegalArgumentException("No chromosome or position column found in " + variantsFile + ", an rsId index is needed.");
+
+                }
+
+                catalogue = VariantLoader.locate(catalogue, ((GenotypeProvider) genotypeProvider)::getVariant);
+
+            }
 
             progressHandler.end(task);
 
-            return variantsMap;
+            return catalogue;
 
         } catch (Throwable throwable) {
 
@@ -116,32 +369,63 @@ public abstract class Test {
     public void testChromosome(String chr, ArrayList<Variant> variantsList) {
 
         ProgressHandler progressHandler = new ProgressHandler();
+        long nQueries = ((long) variantsList.size()) * nSamples;
 
-        String task = "    Testing " + chr + " single threaded";
-        progressHandler.start(task);
+        BgzfBlockCache blockCache = genotypeProvider instanceof GenotypeProvider
+                ? ((GenotypeProvider) genotypeProvider).getBlockCache() : null;
 
-        try {
+        if (blockCache != null) {
 
-            queryVariantsSingleThread(variantsList);
+            blockCache.resetCounters();
 
-            progressHandler.end(task);
+        }
 
-        } catch (Throwable throwable) {
+        runTask(nQueries, "    Testing " + chr + " single threaded", () -> queryVariantsSingleThread(variantsList));
+        runTask(nQueries, "    Testing " + chr + " threaded per sample", () -> queryVariantsThreadPerSample(variantsList));
+        runTask(nQueries, "    Testing " + chr + " threaded per variant", () -> queryVariantsThreadPerVariant(variantsList));
+        runTask(nQueries, "    Testing " + chr + " threaded per region", () -> queryVariantsThreadPerRegion(variantsList));
 
-            progressHandler.writeLine(task + " failed.");
+        if (blockCache != null) {
 
-            throw (throwable);
+            progressHandler.writeLine("    " + blockCache.getReport());
 
         }
 
-        task = "    Testing " + chr + " threaded per sample";
-        progressHandler.start(task);
+        runTask(nQueries, "    Testing " + chr + " single threaded batched", () -> queryVariantsSingleThreadBatched(variantsList));
+        runTask(nQueries, "    Testing " + chr + " single threaded streamed", () -> queryVariantsSingleThreadStreamed(variantsList));
+        runTask(nQueries, "    Testing " + chr + " single threaded primitive", () -> queryVariantsSingleThreadPrimitive(variantsList));
+        runTask(nQueries, "    Testing " + chr + " threaded per sample batched", () -> queryVariantsThreadPerSampleBatched(variantsList));
+        runTask(nQueries, "    Testing " + chr + " threaded per variant batched", () -> queryVariantsThreadPerVariantBatched(variantsList));
+        runTask(nQueries, "    Testing " + chr + " threaded per region batched", () -> queryVariantsThreadPerRegionBatched(variantsList));
+
+        if (genotypeProvider instanceof GenotypeProvider) {
+
+            runTask(nQueries, "    Testing " + chr + " single threaded projected", () -> queryVariantsSingleThreadProjected(variantsList));
+            runTask(nQueries, "    Testing " + chr + " single threaded dosages", () -> queryVariantsSingleThreadDosages(variantsList));
+
+        }
+
+    }
+
+    /**
+     * Runs a test and logs its duration and throughput. If instrumentation is
+     * enabled, the latency histograms of the test are stored for the report.
+     *
+     * @param nQueries the number of genotypes queried by the test
+     * @param task the name of the task
+     * @param test the test to run
+     */
+    protected void runTask(long nQueries, String task, Runnable test) {
+
+        ProgressHandler progressHandler = new ProgressHandler();
+
+        startTask(progressHandler, task);
 
         try {
 
-            queryVariantsThreadPerSample(variantsList);
+            test.run();
 
-            progressHandler.end(task);
+            endTask(progressHandler, task, nQueries);
 
         } catch (Throwable throwable) {
 
@@ -150,25 +434,90 @@ public abstract class Test {
             throw (throwable);
 
         }
+    }
+
+    /**
+     * Starts a task, emptying the latency histograms and the variant context
+     * cache so that every task starts cold.
+     *
+     * @param progressHandler the progress handler
+     * @param task the name of the task
+     */
+    protected void startTask(ProgressHandler progressHandler, String task) {
+
+        Instrumentation.reset();
+
+        VariantContextCache variantContextCache = getVariantContextCache();
+
+        if (variantContextCache != null) {
+
+            variantContextCache.clear();
+            variantContextCache.resetCounters();
+
+        }
 
-        task = "    Testing " + chr + " threaded per variant";
         progressHandler.start(task);
 
-        try {
+    }
 
-            queryVariantsThreadPerVariant(variantsList);
+    /**
+     * Ends a task, logging its duration, throughput and variant context cache
+     * usage, and storing its latency histograms for the report if
+     * instrumentation is enabled.
+     *
+     * @param progressHandler the progress handler
+     * @param task the name of the task
+     * @param nQueries the number of genotypes queried by the task
+     */
+    protected void endTask(ProgressHandler progressHandler, String task, long nQueries) {
 
-            progressHandler.end(task);
+        long duration = progressHandler.end(task, nQueries);
 
-        } catch (Throwable throwable) {
+        if (Instrumentation.isEnabled()) {
 
-            progressHandler.writeLine(task + " failed.");
+            Instrumentation.addResult(task, duration, nQueries);
 
-            throw (throwable);
+        }
+
+        VariantContextCache variantContextCache = getVariantContextCache();
+
+        if (variantContextCache != null) {
+
+            progressHandler.writeLine("    " + variantContextCache.getReport());
+
+        }
+    }
+
+    /**
+     * Returns the variant context cache of the genotype provider.
+     *
+     * @return the variant context cache, null if the provider has none
+     */
+    private VariantContextCache getVariantContextCache() {
+
+        return genotypeProvider instanceof GenotypeProvider
+                ? ((GenotypeProvider) genotypeProvider).getVariantContextCache() : null;
+
+    }
+
+    /**
+     * Writes the instrumentation report as CSV and JSON if a report path was
+     * given.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the report
+     */
+    public static void writeReport() throws IOException {
+
+        if (reportPath != null) {
+
+            Instrumentation.writeCsv(new File(reportPath + ".csv"));
+            Instrumentation.writeJson(new File(reportPath + ".json"));
 
         }
     }
 
+
     /**
      * Queries the given variant using a single thread.
      *
@@ -192,21 +541,8 @@ public abstract class Test {
 
         List<String> samples = sample(genotypeProvider.getSamples());
 
-        Spliterator<String> mainIt = samples.spliterator();
-
-        List<Spliterator<String>> its = getSampleIterators(mainIt);
-        its.parallelStream().forEach(it -> {
+        scheduler.forEach(samples, sample -> genotypeProvider.getGenotype(sample, variant));
 
-            GenotypeProvider threadGenotypeProvider = new GenotypeProvider();
-            Arrays.stream(chromosomes)
-                    .forEach(chr -> threadGenotypeProvider.addVcfFile(
-                    chr,
-                    getVcfFilePath(chr),
-                    getIndexFilePath(chr)));
-
-            it.forEachRemaining(sample -> threadGenotypeProvider.getGenotype(sample, variant));
-
-        });
     }
 
     /**
@@ -233,22 +569,27 @@ public abstract class Test {
 
         List<String> samples = sample(genotypeProvider.getSamples());
 
-        Spliterator<Variant> mainIt = variants.spliterator();
+        scheduler.forEach(variants, variant -> samples.stream()
+                .forEach(sample -> genotypeProvider.getGenotype(sample, variant)));
 
-        List<Spliterator<Variant>> its = getVariantIterators(mainIt);
-        its.parallelStream().forEach(it -> {
+    }
 
-            GenotypeProvider threadGenotypeProvider = new GenotypeProvider();
-            Arrays.stream(chromosomes)
-                    .forEach(chr -> threadGenotypeProvider.addVcfFile(
-                    chr,
-                    getVcfFilePath(chr),
-                    getIndexFilePath(chr)));
+    /**
+     * Queries the given variants using a thread per work unit of neighbouring
+     * variants, see GenotypeSource.partition.
+     *
+     * @param variants a list of variants to query.
+     */
+    public void queryVariantsThreadPerRegion(ArrayList<Variant> variants) {
+
+        List<String> samples = sample(genotypeProvider.getSamples());
+
+        List<List<Variant>> units = genotypeProvider.partition(variants, VariantPartitioner.getMaxUnitSize(variants.size(), scheduler.getConcurrency()));
 
-            it.forEachRemaining(variant -> samples.stream()
-                    .forEach(sample -> threadGenotypeProvider.getGenotype(sample, variant)));
+        scheduler.forEach(units, unit -> unit.stream()
+                .forEach(variant -> samples.stream()
+                .forEach(sample -> genotypeProvider.getGenotype(sample, variant))));
 
-        });
     }
 
     /**
@@ -260,143 +601,250 @@ public abstract class Test {
 
         List<String> samples = sample(genotypeProvider.getSamples());
 
-        Spliterator<String> mainIt = samples.spliterator();
+        scheduler.forEach(samples, sample -> variants.stream()
+                .forEach(variant -> genotypeProvider.getGenotype(sample, variant)));
 
-        List<Spliterator<String>> its = getSampleIterators(mainIt);
-        its.parallelStream().forEach(it -> {
+    }
 
-            GenotypeProvider threadGenotypeProvider = new GenotypeProvider();
-            Arrays.stream(chromosomes)
-                    .forEach(chr -> threadGenotypeProvider.addVcfFile(
-                    chr,
-                    getVcfFilePath(chr),
-                    getIndexFilePath(chr)));
+    /**
+     * Queries the given variant for all samples at once using a single thread.
+     *
+     * @param variant a variant to query.
+     */
+    public void queryVariantSingleThreadBatched(final Variant variant) {
 
-            it.forEachRemaining(sample -> variants.stream()
-                    .forEach(variant -> threadGenotypeProvider.getGenotype(sample, variant)));
+        List<String> samples = sample(genotypeProvider.getSamples());
 
-        });
+        genotypeProvider.getGenotypes(samples, variant);
 
     }
 
     /**
-     * Returns the vcf file for a given chromosome.
+     * Queries the given variants for all samples at once using a single
+     * thread.
      *
-     * @param chromosome the chromosome of interest
-     *
-     * @return the vcf file
+     * @param variants a list of variants to query.
      */
-    public static File getVcfFilePath(String chromosome) {
-        return new File(String.join("", vcfFolder, chromosome, ".vcf.gz"));
+    public void queryVariantsSingleThreadBatched(ArrayList<Variant> variants) {
+
+        List<String> samples = sample(genotypeProvider.getSamples());
+
+        genotypeProvider.getGenotypes(samples, variants);
+
     }
 
     /**
-     * Returns the vcf index file for a given chromosome.
+     * Streams the genotypes of the given variants for all samples, the
+     * variants are queried by a producer thread ahead of the consumer.
      *
-     * @param chromosome the chromosome of interest
+     * @param variants a list of variants to query.
      *
-     * @return the vcf index file
+     * @return the number of genotypes received
      */
-    public static File getIndexFilePath(String chromosome) {
-        return new File(String.join("", vcfFolder, chromosome, ".vcf.gz.tbi"));
+    public long queryVariantsSingleThreadStreamed(ArrayList<Variant> variants) {
+
+        List<String> samples = sample(genotypeProvider.getSamples());
+
+        try (Stream<GenotypeRecord> records = genotypeProvider.streamGenotypes(variants, samples)) {
+
+            return records
+                    .mapToLong(record -> record.genotypes.length)
+                    .sum();
+
+        }
     }
 
     /**
-     * Closes the vcf files.
+     * Queries the dosages and hard calls of the given variants for all
+     * samples at once using a single thread. The samples are resolved to
+     * indexes once and the genotypes are written to primitive arrays reused
+     * for all variants.
+     *
+     * @param variants a list of variants to query.
+     *
+     * @return the number of variants found
      */
-    public void close() {
-        genotypeProvider.close();
+    public int queryVariantsSingleThreadPrimitive(ArrayList<Variant> variants) {
+
+        int[] sampleIndexes = genotypeProvider.getSampleIndexes(sample(genotypeProvider.getSamples()));
+        byte[] calls = new byte[sampleIndexes.length];
+        float[] dosages = new float[sampleIndexes.length];
+
+        int nFound = 0;
+
+        for (Variant variant : variants) {
+
+            if (genotypeProvider.getCalls(variant, sampleIndexes, calls)
+                    && genotypeProvider.getDosages(variant, sampleIndexes, dosages)) {
+
+                nFound++;
+
+            }
+        }
+
+        return nFound;
+
     }
 
     /**
-     * Returns a list of length nSamples of sampled values from the given list.
+     * Queries the given variants for all samples at once using a single
+     * thread, parsing only the sample columns needed.
      *
-     * @param originalList the original list
-     *
-     * @return a list of length nSamples of sampled values from the given list
+     * @param variants a list of variants to query.
      */
-    public List<String> sample(List<String> originalList) {
+    public void queryVariantsSingleThreadProjected(ArrayList<Variant> variants) {
 
-        return IntStream.range(0, nSamples)
-                .map(i -> (int) Math.floor((originalList.size() - 1) * Math.random()))
-                .mapToObj(i -> originalList.get(i))
-                .collect(Collectors.toList());
+        GenotypeProvider vcfGenotypeProvider = (GenotypeProvider) genotypeProvider;
+
+        SampleProjection sampleProjection = vcfGenotypeProvider.getSampleProjection(sample(genotypeProvider.getSamples()));
+
+        variants.stream()
+                .forEach(variant -> vcfGenotypeProvider.getGenotypes(sampleProjection, variant));
 
     }
 
     /**
-     * Returns a list of iterators corresponding to an attempt at splitting this
-     * iterator in 16.
+     * Extracts the dosages of the given variants for all samples at once into
+     * a variants x samples matrix using a single thread. The lines are read in
+     * position order and parsed without building genotypes.
      *
-     * @param iterator the original iterator
+     * @param variants a list of variants to query.
      *
-     * @return a list of iterators.
+     * @return the dosages as a variants x samples matrix in row-major order
      */
-    private List<Spliterator<String>> getSampleIterators(Spliterator<String> iterator) {
+    public double[] queryVariantsSingleThreadDosages(ArrayList<Variant> variants) {
 
-        List<Spliterator<String>> iteratorList = new ArrayList<>(1);
-        iteratorList.add(iterator);
+        GenotypeProvider vcfGenotypeProvider = (GenotypeProvider) genotypeProvider;
 
-        for (int i = 0; i < nSplit; i++) {
+        SampleProjection sampleProjection = vcfGenotypeProvider.getSampleProjection(sample(genotypeProvider.getSamples()));
+        double[] dosages = new double[variants.size() * sampleProjection.size()];
 
-            List<Spliterator<String>> newList = new ArrayList<>(2 * iteratorList.size());
+        vcfGenotypeProvider.getDosages(sampleProjection, variants, SampleProjection.DosageField.AUTO, dosages);
 
-            for (Spliterator<String> it : iteratorList) {
+        return dosages;
 
-                newList.add(it);
+    }
 
-                Spliterator<String> newIt = it.trySplit();
+    /**
+     * Queries the given variants for all samples at once using a thread per
+     * group of variants.
+     *
+     * @param variants a list of variants to query.
+     */
+    public void queryVariantsThreadPerVariantBatched(ArrayList<Variant> variants) {
 
-                if (newIt != null) {
+        List<String> samples = sample(genotypeProvider.getSamples());
 
-                    newList.add(newIt);
+        scheduler.forEach(variants, variant -> genotypeProvider.getGenotypes(samples, variant));
 
-                }
-            }
+    }
 
-            iteratorList = newList;
+    /**
+     * Queries the given variants for all samples at once using a thread per
+     * work unit of neighbouring variants, see GenotypeSource.partition. Every
+     * unit is queried as a batch.
+     *
+     * @param variants a list of variants to query.
+     */
+    public void queryVariantsThreadPerRegionBatched(ArrayList<Variant> variants) {
 
-        }
+        List<String> samples = sample(genotypeProvider.getSamples());
+
+        List<List<Variant>> units = genotypeProvider.partition(variants, VariantPartitioner.getMaxUnitSize(variants.size(), scheduler.getConcurrency()));
 
-        return iteratorList;
+        scheduler.forEach(units, unit -> genotypeProvider.getGenotypes(samples, unit));
 
     }
 
     /**
-     * Returns a list of iterators corresponding to an attempt at splitting this
-     * iterator in 16.
+     * Queries the given variants for groups of samples at once using a thread
+     * per group of samples.
      *
-     * @param iterator the original iterator
-     *
-     * @return a list of iterators.
+     * @param variants a list of variants to query.
      */
-    private List<Spliterator<Variant>> getVariantIterators(Spliterator<Variant> iterator) {
+    public void queryVariantsThreadPerSampleBatched(ArrayList<Variant> variants) {
 
-        List<Spliterator<Variant>> iteratorList = new ArrayList<>(1);
-        iteratorList.add(iterator);
+        List<String> samples = sample(genotypeProvider.getSamples());
 
-        for (int i = 0; i < nSplit; i++) {
+        scheduler.forEachBatch(samples, scheduler.getBatchSize(samples.size()),
+                threadSamples -> genotypeProvider.getGenotypes(threadSamples, variants));
 
-            List<Spliterator<Variant>> newList = new ArrayList<>(2 * iteratorList.size());
+    }
 
-            for (Spliterator<Variant> it : iteratorList) {
+    /**
+     * Returns the vcf file for a given chromosome.
+     *
+     * @param chromosome the chromosome of interest
+     *
+     * @return the vcf file
+     */
+    public static File getVcfFilePath(String chromosome) {
+        return new File(String.join("", vcfFolder, chromosome, ".vcf.gz"));
+    }
 
-                newList.add(it);
+    /**
+     * Returns the columnar genotype file for a given chromosome.
+     *
+     * @param chromosome the chromosome of interest
+     *
+     * @return the columnar genotype file
+     */
+    public static File getColumnarFilePath(String chromosome) {
+        return new File(String.join("", columnarFolder, chromosome, ColumnarGenotypeFile.EXTENSION));
+    }
 
-                Spliterator<Variant> newIt = it.trySplit();
+    /**
+     * Returns the vcf index file for a given chromosome.
+     *
+     * @param chromosome the chromosome of interest
+     *
+     * @return the vcf index file
+     */
+    public static File getIndexFilePath(String chromosome) {
+        return new File(String.join("", vcfFolder, chromosome, ".vcf.gz.tbi"));
+    }
 
-                if (newIt != null) {
+    /**
+     * Closes the vcf files.
+     */
+    public void close() {
+        genotypeProvider.close();
+        scheduler.close();
+    }
 
-                    newList.add(newIt);
+    /**
+     * Returns a list of length nSamples of sampled values from the given list.
+     *
+     * @param originalList the original list
+     *
+     * @return a list of length nSamples of sampled values from the given list
+     */
+    public List<String> sample(List<String> originalList) {
 
-                }
-            }
+        synchronized (random) {
 
-            iteratorList = newList;
+            return sample(originalList, nSamples, random);
 
         }
+    }
 
-        return iteratorList;
+    /**
+     * Returns a list of the given length of values sampled with replacement
+     * from the given list.
+     *
+     * @param <T> the type of values
+     * @param originalList the original list
+     * @param n the number of values to sample
+     * @param random the random generator to use
+     *
+     * @return a list of sampled values
+     */
+    public static <T> List<T> sample(List<T> originalList, int n, Random random) {
+
+        return IntStream.range(0, n)
+                .map(i -> random.nextInt(originalList.size()))
+                .mapToObj(i -> originalList.get(i))
+                .collect(Collectors.toList());
 
     }
 }
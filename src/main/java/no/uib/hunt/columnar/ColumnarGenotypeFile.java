@@ -0,0 +1,800 @@
+package no.uib.hunt.columnar;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import no.uib.hunt.genotypes.GenotypeSource;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.utils.Instrumentation;
+import no.uib.hunt.vcf.VcfLine;
+
+/**
+ * Binary columnar genotype file. Variants are stored one after the other with
+ * a 2-bit hard call per sample, optionally followed by a quantized dosage per
+ * sample. The genotype data is memory mapped and read without parsing.
+ *
+ * File layout: fixed header, sample names, genotype data, variant directory
+ * (position and string offset per variant, sorted by position) and string
+ * table (rsId, reference allele, number of alternative alleles and
+ * alternative alleles). Strings are stored as their length in bytes followed
+ * by their UTF-8 bytes. The directory is memory mapped and the strings of a
+ * variant are only read when needed.
+ *
+ * The hard calls are the number of non-reference alleles: at multi-allelic
+ * sites, genotypes are returned with the first alternative allele. The
+ * ploidy is not stored, genotypes are returned diploid, a haploid call of the
+ * alternative allele being returned heterozygous.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarGenotypeFile implements AutoCloseable {
+
+    /**
+     * Magic number at the start of the file.
+     */
+    public static final int MAGIC = 0x48554E54;
+    /**
+     * Version of the file format.
+     */
+    public static final int VERSION = 2;
+    /**
+     * The extension of the columnar genotype files.
+     */
+    public static final String EXTENSION = ".cgt";
+    /**
+     * The size of the fixed header in bytes.
+     */
+    public static final int HEADER_SIZE = 5 * Integer.BYTES + 3 * Long.BYTES;
+    /**
+     * Flag indicating that dosages are stored.
+     */
+    public static final int FLAG_DOSAGES = 1;
+    /**
+     * Hard call for a homozygous reference genotype.
+     */
+    public static final byte HOM_REF = GenotypeSource.HOM_REF;
+    /**
+     * Hard call for a heterozygous genotype.
+     */
+    public static final byte HET = GenotypeSource.HET;
+    /**
+     * Hard call for a homozygous alternative genotype.
+     */
+    public static final byte HOM_ALT = GenotypeSource.HOM_ALT;
+    /**
+     * Hard call for a missing genotype.
+     */
+    public static final byte MISSING = GenotypeSource.MISSING;
+    /**
+     * Quantized value for a missing dosage.
+     */
+    public static final int MISSING_DOSAGE = 255;
+    /**
+     * The number of quantization steps for a dosage between 0 and 2.
+     */
+    public static final int DOSAGE_STEPS = 254;
+    /**
+     * The size of a directory entry in bytes.
+     */
+    public static final int DIRECTORY_ENTRY_SIZE = Integer.BYTES + Long.BYTES;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The sample names in the order of the file.
+     */
+    private final List<String> samples;
+    /**
+     * Boolean indicating whether dosages are stored.
+     */
+    private final boolean dosages;
+    /**
+     * The number of bytes used by the hard calls of a variant.
+     */
+    private final int callBytes;
+    /**
+     * The number of bytes used by a variant.
+     */
+    private final int stride;
+    /**
+     * The positions of the variants, sorted.
+     */
+    private final int[] positions;
+    /**
+     * The number of directory entries per mapped buffer.
+     */
+    private final int entriesPerBuffer;
+    /**
+     * The mapped variant directory.
+     */
+    private final MappedByteBuffer[] directoryBuffers;
+    /**
+     * The offset of the string table in the file.
+     */
+    private final long stringsOffset;
+    /**
+     * The offset of the end of the string table in the file.
+     */
+    private final long stringsEnd;
+    /**
+     * Buffer per thread for the strings of a variant.
+     */
+    private final ThreadLocal<ByteBuffer> stringBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+    /**
+     * The number of variants per mapped buffer.
+     */
+    private final int variantsPerBuffer;
+    /**
+     * The mapped genotype data.
+     */
+    private final MappedByteBuffer[] buffers;
+
+    /**
+     * Constructor.
+     *
+     * @param file the columnar genotype file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public ColumnarGenotypeFile(File file) throws IOException {
+
+        fileChannel = new RandomAccessFile(file, "r").getChannel();
+
+        ByteBuffer header = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+        if (header.getInt() != MAGIC) {
+
+            throw new IOException("File " + file + " is not a columnar genotype file.");
+
+        }
+
+        int version = header.getInt();
+
+        if (version != VERSION) {
+
+            throw new IOException("Unsupported columnar genotype file version " + version + ".");
+
+        }
+
+        int nSamples = header.getInt();
+        int nVariants = header.getInt();
+        int flags = header.getInt();
+        long dataOffset = header.getLong();
+        long directoryOffset = header.getLong();
+        stringsOffset = header.getLong();
+        stringsEnd = fileChannel.size();
+
+        dosages = (flags & FLAG_DOSAGES) != 0;
+        callBytes = getCallBytes(nSamples);
+        stride = getStride(nSamples, dosages);
+
+        fileChannel.position(HEADER_SIZE);
+        DataInputStream sampleStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(fileChannel)));
+        ArrayList<String> sampleList = new ArrayList<>(nSamples);
+
+        for (int i = 0; i < nSamples; i++) {
+
+            sampleList.add(readString(sampleStream));
+
+        }
+
+        samples = Collections.unmodifiableList(sampleList);
+
+        entriesPerBuffer = Integer.MAX_VALUE / DIRECTORY_ENTRY_SIZE;
+        directoryBuffers = new MappedByteBuffer[nVariants == 0 ? 0 : (nVariants - 1) / entriesPerBuffer + 1];
+        positions = new int[nVariants];
+
+        for (int i = 0; i < directoryBuffers.length; i++) {
+
+            int firstEntry = i * entriesPerBuffer;
+            int lastEntry = Math.min(nVariants, firstEntry + entriesPerBuffer);
+            directoryBuffers[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, directoryOffset + ((long) firstEntry) * DIRECTORY_ENTRY_SIZE, ((long) (lastEntry - firstEntry)) * DIRECTORY_ENTRY_SIZE);
+
+            for (int j = firstEntry; j < lastEntry; j++) {
+
+                positions[j] = directoryBuffers[i].getInt((j - firstEntry) * DIRECTORY_ENTRY_SIZE);
+
+            }
+        }
+
+        variantsPerBuffer = Math.max(1, Integer.MAX_VALUE / stride);
+        int nBuffers = nVariants == 0 ? 0 : (nVariants - 1) / variantsPerBuffer + 1;
+        buffers = new MappedByteBuffer[nBuffers];
+
+        for (int i = 0; i < nBuffers; i++) {
+
+            int firstVariant = i * variantsPerBuffer;
+            int lastVariant = Math.min(nVariants, firstVariant + variantsPerBuffer);
+            buffers[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, dataOffset + ((long) firstVariant) * stride, ((long) (lastVariant - firstVariant)) * stride);
+
+        }
+    }
+
+    /**
+     * Returns the number of bytes used by the hard calls of a variant.
+     *
+     * @param nSamples the number of samples
+     *
+     * @return the number of bytes used by the hard calls of a variant
+     */
+    public static int getCallBytes(int nSamples) {
+
+        return (nSamples + 3) / 4;
+
+    }
+
+    /**
+     * Returns the number of bytes used by a variant.
+     *
+     * @param nSamples the number of samples
+     * @param dosages boolean indicating whether dosages are stored
+     *
+     * @return the number of bytes used by a variant
+     */
+    public static int getStride(int nSamples, boolean dosages) {
+
+        return getCallBytes(nSamples) + (dosages ? nSamples : 0);
+
+    }
+
+    /**
+     * Returns the samples in the order of the file.
+     *
+     * @return the samples in the order of the file
+     */
+    public List<String> getSamples() {
+
+        return samples;
+
+    }
+
+    /**
+     * Returns the number of variants.
+     *
+     * @return the number of variants
+     */
+    public int getNVariants() {
+
+        return positions.length;
+
+    }
+
+    /**
+     * Indicates whether dosages are stored.
+     *
+     * @return a boolean indicating whether dosages are stored
+     */
+    public boolean hasDosages() {
+
+        return dosages;
+
+    }
+
+    /**
+     * Returns the index of the given variant, -1 if not found.
+     *
+     * @param bp the position of the variant
+     * @param rsId the rsId of the variant
+     *
+     * @return the index of the given variant
+     */
+    public int getVariantIndex(int bp, String rsId) {
+
+        int i = Arrays.binarySearch(positions, bp);
+
+        if (i < 0) {
+
+            return -1;
+
+        }
+
+        while (i > 0 && positions[i - 1] == bp) {
+
+            i--;
+
+        }
+
+        for (; i < positions.length && positions[i] == bp; i++) {
+
+            if (hasId(getRsId(i), rsId)) {
+
+                return i;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Indicates whether an ID column is the given id or contains it among ids
+     * separated by semicolons.
+     *
+     * @param ids the content of the ID column
+     * @param id the id
+     *
+     * @return a boolean indicating whether the column has the given id
+     */
+    private static boolean hasId(String ids, String id) {
+
+        if (ids.equals(id)) {
+
+            return true;
+
+        }
+
+        for (int start = 0, end; start < ids.length(); start = end + 1) {
+
+            end = ids.indexOf(VcfLine.ID_SEPARATOR, start);
+
+            if (end == -1) {
+
+                end = ids.length();
+
+            }
+
+            if (end - start == id.length() && ids.startsWith(id, start)) {
+
+                return true;
+
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the position of the variant at the given index.
+     *
+     * @param variantIndex the index of the variant
+     *
+     * @return the position of the variant
+     */
+    public int getPosition(int variantIndex) {
+
+        return positions[variantIndex];
+
+    }
+
+    /**
+     * Returns the rsId of the variant at the given index.
+     *
+     * @param variantIndex the index of the variant
+     *
+     * @return the rsId of the variant
+     */
+    public String getRsId(int variantIndex) {
+
+        return getString(readStrings(variantIndex));
+
+    }
+
+    /**
+     * Returns the alleles of the variant at the given index, the reference
+     * allele first.
+     *
+     * @param variantIndex the index of the variant
+     *
+     * @return the alleles of the variant
+     */
+    public List<Allele> getAlleles(int variantIndex) {
+
+        ByteBuffer strings = readStrings(variantIndex);
+
+        getString(strings);
+        Allele ref = Allele.create(getString(strings), true);
+        int nAlts = strings.getInt();
+
+        ArrayList<Allele> alleles = new ArrayList<>(nAlts + 1);
+        alleles.add(ref);
+
+        for (int i = 0; i < nAlts; i++) {
+
+            alleles.add(Allele.create(getString(strings), false));
+
+        }
+
+        return alleles;
+
+    }
+
+    /**
+     * Reads the strings of a variant from the string table, the extent of the
+     * strings is given by the directory offsets of the variant and of the
+     * next variant.
+     *
+     * @param variantIndex the index of the variant
+     *
+     * @return a buffer of this thread containing the strings of the variant,
+     * valid until the next call
+     */
+    private ByteBuffer readStrings(int variantIndex) {
+
+        long start = stringsOffset + getStringOffset(variantIndex);
+        long end = variantIndex + 1 < positions.length ? stringsOffset + getStringOffset(variantIndex + 1) : stringsEnd;
+        int length = (int) (end - start);
+
+        ByteBuffer buffer = stringBuffers.get();
+
+        if (buffer.capacity() < length) {
+
+            buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));
+            stringBuffers.set(buffer);
+
+        }
+
+        buffer.clear();
+        buffer.limit(length);
+
+        try {
+
+            while (buffer.hasRemaining()) {
+
+                if (fileChannel.read(buffer, start + buffer.position()) < 0) {
+
+                    throw new IOException("Unexpected end of file while reading the strings of variant " + variantIndex + ".");
+
+                }
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+
+        buffer.flip();
+
+        return buffer;
+
+    }
+
+    /**
+     * Returns the offset of the strings of a variant in the string table.
+     *
+     * @param variantIndex the index of the variant
+     *
+     * @return the offset of the strings of the variant
+     */
+    private long getStringOffset(int variantIndex) {
+
+        MappedByteBuffer directory = directoryBuffers[variantIndex / entriesPerBuffer];
+
+        return directory.getLong((variantIndex % entriesPerBuffer) * DIRECTORY_ENTRY_SIZE + Integer.BYTES);
+
+    }
+
+    /**
+     * Reads a string from a buffer: its length in bytes followed by its UTF-8
+     * bytes.
+     *
+     * @param buffer the buffer
+     *
+     * @return the string
+     */
+    private static String getString(ByteBuffer buffer) {
+
+        int length = buffer.getInt();
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+
+        return string;
+
+    }
+
+    /**
+     * Writes a string: its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param outputStream the stream to write to
+     * @param string the string
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    public static void writeString(DataOutputStream outputStream, String string) throws IOException {
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param inputStream the stream to read from
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     */
+    public static String readString(DataInputStream inputStream) throws IOException {
+
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Returns the hard call of a sample, one of HOM_REF, HET, HOM_ALT and
+     * MISSING.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndex the index of the sample in the file
+     *
+     * @return the hard call
+     */
+    public byte getCall(int variantIndex, int sampleIndex) {
+
+        MappedByteBuffer buffer = buffers[variantIndex / variantsPerBuffer];
+        int offset = (variantIndex % variantsPerBuffer) * stride;
+        int b = buffer.get(offset + (sampleIndex >> 2));
+
+        return (byte) ((b >> ((sampleIndex & 3) << 1)) & 3);
+
+    }
+
+    /**
+     * Returns the dosage of the alternative allele for a sample, NaN if
+     * missing or if the file has no dosages.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndex the index of the sample in the file
+     *
+     * @return the dosage
+     */
+    public float getDosage(int variantIndex, int sampleIndex) {
+
+        if (!dosages) {
+
+            return Float.NaN;
+
+        }
+
+        MappedByteBuffer buffer = buffers[variantIndex / variantsPerBuffer];
+        int offset = (variantIndex % variantsPerBuffer) * stride;
+        int quantized = buffer.get(offset + callBytes + sampleIndex) & 0xFF;
+
+        return dequantize(quantized);
+
+    }
+
+    /**
+     * Writes the hard calls of the given samples.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndexes the indexes of the samples in the file
+     * @param calls the array where to write the calls, in the order of the
+     * sample indexes
+     */
+    public void getCalls(int variantIndex, int[] sampleIndexes, byte[] calls) {
+
+        MappedByteBuffer buffer = buffers[variantIndex / variantsPerBuffer];
+        int offset = (variantIndex % variantsPerBuffer) * stride;
+
+        for (int i = 0; i < sampleIndexes.length; i++) {
+
+            int sampleIndex = sampleIndexes[i];
+            int b = buffer.get(offset + (sampleIndex >> 2));
+            calls[i] = (byte) ((b >> ((sampleIndex & 3) << 1)) & 3);
+
+        }
+    }
+
+    /**
+     * Writes the dosages of the alternative allele of the given samples. If
+     * the file has no dosages, the hard calls are used.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndexes the indexes of the samples in the file
+     * @param dosages the array where to write the dosages, in the order of the
+     * sample indexes, NaN if missing
+     */
+    public void getDosages(int variantIndex, int[] sampleIndexes, float[] dosages) {
+
+        MappedByteBuffer buffer = buffers[variantIndex / variantsPerBuffer];
+        int offset = (variantIndex % variantsPerBuffer) * stride;
+
+        for (int i = 0; i < sampleIndexes.length; i++) {
+
+            int sampleIndex = sampleIndexes[i];
+
+            if (this.dosages) {
+
+                dosages[i] = dequantize(buffer.get(offset + callBytes + sampleIndex) & 0xFF);
+
+            } else {
+
+                int call = (buffer.get(offset + (sampleIndex >> 2)) >> ((sampleIndex & 3) << 1)) & 3;
+                dosages[i] = call == MISSING ? Float.NaN : call;
+
+            }
+        }
+    }
+
+    /**
+     * Quantizes a dosage between 0 and 2 on a byte.
+     *
+     * @param dosage the dosage
+     *
+     * @return the quantized dosage
+     */
+    public static int quantize(double dosage) {
+
+        if (Double.isNaN(dosage)) {
+
+            return MISSING_DOSAGE;
+
+        }
+
+        long quantized = Math.round(dosage * DOSAGE_STEPS / 2);
+
+        return (int) Math.max(0, Math.min(DOSAGE_STEPS, quantized));
+
+    }
+
+    /**
+     * Restores a dosage from its quantized value.
+     *
+     * @param quantized the quantized dosage
+     *
+     * @return the dosage
+     */
+    public static float dequantize(int quantized) {
+
+        return quantized == MISSING_DOSAGE ? Float.NaN : 2f * quantized / DOSAGE_STEPS;
+
+    }
+
+    /**
+     * Returns the genotype of a sample.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndex the index of the sample in the file
+     *
+     * @return the genotype
+     */
+    public Genotype getGenotype(int variantIndex, int sampleIndex) {
+
+        List<Allele> alleles = getAlleles(variantIndex);
+
+        return getGenotype(variantIndex, sampleIndex, alleles.get(0), getFirstAlt(alleles));
+
+    }
+
+    /**
+     * Returns the first alternative allele, the allele of the non-reference
+     * calls.
+     *
+     * @param alleles the alleles of the variant, the reference allele first
+     *
+     * @return the first alternative allele, NO_CALL if the variant has none
+     */
+    private static Allele getFirstAlt(List<Allele> alleles) {
+
+        return alleles.size() > 1 ? alleles.get(1) : Allele.NO_CALL;
+
+    }
+
+    /**
+     * Returns the genotype of a sample.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndex the index of the sample in the file
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     *
+     * @return the genotype
+     */
+    private Genotype getGenotype(int variantIndex, int sampleIndex, Allele ref, Allele alt) {
+
+        byte call = getCall(variantIndex, sampleIndex);
+
+        List<Allele> alleles;
+
+        switch (call) {
+
+            case HOM_REF:
+                alleles = Arrays.asList(ref, ref);
+                break;
+
+            case HET:
+                alleles = Arrays.asList(ref, alt);
+                break;
+
+            case HOM_ALT:
+                alleles = Arrays.asList(alt, alt);
+                break;
+
+            default:
+                alleles = Arrays.asList(Allele.NO_CALL, Allele.NO_CALL);
+
+        }
+
+        GenotypeBuilder genotypeBuilder = new GenotypeBuilder(samples.get(sampleIndex), alleles);
+
+        if (dosages) {
+
+            float dosage = getDosage(variantIndex, sampleIndex);
+
+            if (!Float.isNaN(dosage)) {
+
+                genotypeBuilder.attribute("DS", dosage);
+
+            }
+        }
+
+        return genotypeBuilder.make();
+
+    }
+
+    /**
+     * Returns the genotypes of the given samples.
+     *
+     * @param variantIndex the index of the variant
+     * @param sampleIndexes the indexes of the samples in the file
+     *
+     * @return the genotypes in the order of the sample indexes
+     */
+    public Genotype[] getGenotypes(int variantIndex, int[] sampleIndexes) {
+
+        long start = Instrumentation.start();
+
+        List<Allele> alleles = getAlleles(variantIndex);
+        Allele ref = alleles.get(0);
+        Allele alt = getFirstAlt(alleles);
+
+        Genotype[] genotypes = new Genotype[sampleIndexes.length];
+
+        for (int i = 0; i < sampleIndexes.length; i++) {
+
+            genotypes[i] = getGenotype(variantIndex, sampleIndexes[i], ref, alt);
+
+        }
+
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+
+        return genotypes;
+
+    }
+
+    /**
+     * Returns the index of the given variant, -1 if not found.
+     *
+     * @param variant the variant
+     *
+     * @return the index of the given variant
+     */
+    public int getVariantIndex(Variant variant) {
+
+        return getVariantIndex(variant.bp, variant.rsId);
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        fileChannel.close();
+
+    }
+}
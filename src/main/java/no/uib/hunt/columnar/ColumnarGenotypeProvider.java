@@ -0,0 +1,268 @@
+package no.uib.hunt.columnar;
+
+import htsjdk.variant.variantcontext.Genotype;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import no.uib.hunt.genotypes.GenotypeSource;
+import no.uib.hunt.genotypes.VariantPartitioner;
+import no.uib.hunt.model.Variant;
+
+/**
+ * Genotype provider based on memory mapped columnar genotype files. The
+ * provider can be queried concurrently.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarGenotypeProvider implements GenotypeSource {
+
+    /**
+     * Map of all available columnar files indexed by chromosome name.
+     */
+    private final ConcurrentHashMap<String, ColumnarGenotypeFile> columnarFiles = new ConcurrentHashMap<>();
+    /**
+     * The index of every sample in the files.
+     */
+    private volatile HashMap<String, Integer> sampleIndexes = null;
+
+    /**
+     * Constructor.
+     */
+    public ColumnarGenotypeProvider() {
+
+    }
+
+    /**
+     * Adds a columnar genotype file.
+     *
+     * @param chr the chromosome in this file
+     * @param file the columnar genotype file
+     */
+    public void addFile(String chr, File file) {
+
+        try {
+
+            ColumnarGenotypeFile columnarFile = new ColumnarGenotypeFile(file);
+
+            if (sampleIndexes == null) {
+
+                List<String> samples = columnarFile.getSamples();
+                HashMap<String, Integer> indexes = new HashMap<>(samples.size());
+
+                for (int i = 0; i < samples.size(); i++) {
+
+                    indexes.put(samples.get(i), i);
+
+                }
+
+                sampleIndexes = indexes;
+
+            } else if (!columnarFile.getSamples().equals(getSamples())) {
+
+                columnarFile.close();
+
+                throw new IllegalArgumentException("Samples in " + file + " differ from the samples of the other files.");
+
+            }
+
+            ColumnarGenotypeFile previous = columnarFiles.put(chr, columnarFile);
+
+            if (previous != null) {
+
+                previous.close();
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns the columnar genotype file of the given chromosome, null if not
+     * available.
+     *
+     * @param chr the chromosome
+     *
+     * @return the columnar genotype file of the given chromosome
+     */
+    public ColumnarGenotypeFile getFile(String chr) {
+
+        return columnarFiles.get(chr);
+
+    }
+
+    @Override
+    public List<String> getSamples() {
+
+        ColumnarGenotypeFile columnarFile = columnarFiles.values().stream().findAny().orElse(null);
+
+        return columnarFile == null ? new ArrayList<>(0) : columnarFile.getSamples();
+
+    }
+
+    @Override
+    public int[] getSampleIndexes(List<String> samples) {
+
+        int[] result = new int[samples.size()];
+
+        for (int i = 0; i < result.length; i++) {
+
+            Integer index = sampleIndexes == null ? null : sampleIndexes.get(samples.get(i));
+
+            if (index == null) {
+
+                throw new IllegalArgumentException("Sample " + samples.get(i) + " not found.");
+
+            }
+
+            result[i] = index;
+
+        }
+
+        return result;
+
+    }
+
+    @Override
+    public boolean getCalls(Variant variant, int[] sampleIndexes, byte[] calls) {
+
+        ColumnarGenotypeFile columnarFile = columnarFiles.get(variant.chr);
+        int variantIndex = columnarFile == null ? -1 : columnarFile.getVariantIndex(variant);
+
+        if (variantIndex == -1) {
+
+            return false;
+
+        }
+
+        columnarFile.getCalls(variantIndex, sampleIndexes, calls);
+
+        return true;
+
+    }
+
+    @Override
+    public boolean getDosages(Variant variant, int[] sampleIndexes, float[] dosages) {
+
+        ColumnarGenotypeFile columnarFile = columnarFiles.get(variant.chr);
+        int variantIndex = columnarFile == null ? -1 : columnarFile.getVariantIndex(variant);
+
+        if (variantIndex == -1) {
+
+            return false;
+
+        }
+
+        columnarFile.getDosages(variantIndex, sampleIndexes, dosages);
+
+        return true;
+
+    }
+
+    @Override
+    public Genotype getGenotype(String sample, Variant variant) {
+
+        ColumnarGenotypeFile columnarFile = columnarFiles.get(variant.chr);
+
+        if (columnarFile == null) {
+
+            return null;
+
+        }
+
+        int variantIndex = columnarFile.getVariantIndex(variant);
+
+        return variantIndex == -1 ? null : columnarFile.getGenotype(variantIndex, getSampleIndexes(Collections.singletonList(sample))[0]);
+
+    }
+
+    @Override
+    public Genotype[] getGenotypes(List<String> samples, Variant variant) {
+
+        return getGenotypes(getSampleIndexes(samples), variant);
+
+    }
+
+    /**
+     * Returns the genotypes for a given variant in the given samples.
+     *
+     * @param sampleIndexes the indexes of the samples in the files
+     * @param variant the variant of interest
+     *
+     * @return the genotypes in the order of the sample indexes, null if the
+     * variant was not found
+     */
+    public Genotype[] getGenotypes(int[] sampleIndexes, Variant variant) {
+
+        ColumnarGenotypeFile columnarFile = columnarFiles.get(variant.chr);
+
+        if (columnarFile == null) {
+
+            return null;
+
+        }
+
+        int variantIndex = columnarFile.getVariantIndex(variant);
+
+        return variantIndex == -1 ? null : columnarFile.getGenotypes(variantIndex, sampleIndexes);
+
+    }
+
+    @Override
+    public Genotype[][] getGenotypes(List<String> samples, List<Variant> variants) {
+
+        int[] indexes = getSampleIndexes(samples);
+
+        Genotype[][] genotypes = new Genotype[variants.size()][];
+
+        for (int i = 0; i < genotypes.length; i++) {
+
+            genotypes[i] = getGenotypes(indexes, variants.get(i));
+
+        }
+
+        return genotypes;
+
+    }
+
+    /**
+     * Splits the given variants by chromosome and position range, which
+     * correspond to contiguous ranges of the columnar files.
+     *
+     * @param variants the variants to split
+     * @param maxUnitSize the number of variants above which a unit is cut
+     *
+     * @return the work units, sorted by chromosome and position
+     */
+    @Override
+    public List<List<Variant>> partition(List<Variant> variants, int maxUnitSize) {
+
+        return VariantPartitioner.partitionByPosition(variants, maxUnitSize);
+
+    }
+
+    @Override
+    public void close() {
+
+        columnarFiles.values().stream()
+                .forEach(columnarFile -> {
+
+                    try {
+
+                        columnarFile.close();
+
+                    } catch (IOException e) {
+
+                        throw new RuntimeException(e);
+
+                    }
+                });
+    }
+}
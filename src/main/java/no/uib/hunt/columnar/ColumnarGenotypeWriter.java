@@ -0,0 +1,280 @@
+package no.uib.hunt.columnar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.BgzfReadAhead;
+import no.uib.hunt.vcf.RawVcfReader;
+import no.uib.hunt.vcf.VcfFile;
+import no.uib.hunt.vcf.VcfLine;
+
+/**
+ * Converts vcf files to columnar genotype files.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarGenotypeWriter {
+
+    /**
+     * Converts the vcf files of the given folder.
+     *
+     * @param args the command line arguments: the folder containing the vcf
+     * files, the destination folder, and optionally "calls" to store hard
+     * calls only
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("ColumnarGenotypeWriter.log");
+            ProgressHandler.setUpLog();
+
+            String vcfFolder = args[0];
+            File destinationFolder = new File(args[1]);
+            boolean dosages = args.length < 3 || !args[2].equals("calls");
+
+            destinationFolder.mkdirs();
+
+            ProgressHandler progressHandler = new ProgressHandler();
+            ExecutorService inflaters = BgzfReadAhead.newExecutor(Runtime.getRuntime().availableProcessors());
+
+            for (String chr : VcfFile.CHROMOSOMES) {
+
+                File vcfFile = new File(vcfFolder, chr + ".vcf.gz");
+                File indexFile = new File(vcfFolder, chr + ".vcf.gz.tbi");
+
+                if (vcfFile.exists()) {
+
+                    String task = "Converting chromosome " + chr;
+                    progressHandler.start(task);
+
+                    try (VcfFile vcf = new VcfFile(vcfFile, indexFile)) {
+
+                        vcf.setReadAhead(inflaters, BgzfReadAhead.DEFAULT_N_BLOCKS);
+
+                        convert(vcf, new File(destinationFolder, chr + ColumnarGenotypeFile.EXTENSION), dosages);
+
+                    }
+
+                    progressHandler.end(task);
+
+                }
+            }
+
+            inflaters.shutdown();
+
+            ProgressHandler.close();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Converts a vcf file to a columnar genotype file.
+     *
+     * @param vcfFile the vcf file
+     * @param destinationFile the columnar genotype file to write
+     * @param dosages boolean indicating whether dosages should be stored
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public static void convert(VcfFile vcfFile, File destinationFile, boolean dosages) throws IOException {
+
+        List<String> samples = vcfFile.getHeader().getGenotypeSamples();
+        int nSamples = samples.size();
+        int callBytes = ColumnarGenotypeFile.getCallBytes(nSamples);
+        byte[] variantBytes = new byte[ColumnarGenotypeFile.getStride(nSamples, dosages)];
+
+        int nVariants = 0;
+        int[] positions = new int[1024];
+        long[] stringOffsets = new long[1024];
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream stringStream = new DataOutputStream(strings);
+        long dataOffset;
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile), 1 << 20))) {
+
+            outputStream.write(new byte[ColumnarGenotypeFile.HEADER_SIZE]);
+
+            for (String sample : samples) {
+
+                ColumnarGenotypeFile.writeString(outputStream, sample);
+
+            }
+
+            dataOffset = outputStream.size();
+
+            RawVcfReader rawVcfReader = vcfFile.borrowReader();
+
+            try {
+
+                rawVcfReader.seek(0);
+                VcfLine vcfLine = new VcfLine();
+
+                while (rawVcfReader.readLine(vcfLine)) {
+
+                    if (vcfLine.getLength() == 0 || vcfLine.getBytes()[0] == '#') {
+
+                        continue;
+
+                    }
+
+                    int bp = vcfLine.getPosition();
+
+                    if (nVariants > 0 && bp < positions[nVariants - 1]) {
+
+                        throw new IllegalArgumentException("Variants not sorted in " + vcfFile.vcfFile + " at position " + bp + ".");
+
+                    }
+
+                    if (nVariants == positions.length) {
+
+                        positions = Arrays.copyOf(positions, 2 * nVariants);
+                        stringOffsets = Arrays.copyOf(stringOffsets, 2 * nVariants);
+
+                    }
+
+                    positions[nVariants] = bp;
+                    stringOffsets[nVariants] = stringStream.size();
+                    ColumnarGenotypeFile.writeString(stringStream, vcfLine.getColumn(VcfLine.ID));
+                    ColumnarGenotypeFile.writeString(stringStream, vcfLine.getColumn(VcfLine.REF));
+
+                    String alt = vcfLine.getColumn(VcfLine.ALT);
+                    String[] alts = alt.equals(".") ? new String[0] : alt.split(",");
+                    stringStream.writeInt(alts.length);
+
+                    for (String allele : alts) {
+
+                        ColumnarGenotypeFile.writeString(stringStream, allele);
+
+                    }
+
+                    nVariants++;
+
+                    encodeVariant(vcfLine, nSamples, callBytes, dosages, variantBytes);
+                    outputStream.write(variantBytes);
+
+                }
+
+            } finally {
+
+                vcfFile.releaseReader(rawVcfReader);
+
+            }
+        }
+
+        long directoryOffset = dataOffset + ((long) nVariants) * variantBytes.length;
+        long stringsOffset = directoryOffset + ((long) nVariants) * (Integer.BYTES + Long.BYTES);
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destinationFile, true), 1 << 20))) {
+
+            for (int i = 0; i < nVariants; i++) {
+
+                outputStream.writeInt(positions[i]);
+                outputStream.writeLong(stringOffsets[i]);
+
+            }
+
+            strings.writeTo(outputStream);
+
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(destinationFile, "rw")) {
+
+            raf.writeInt(ColumnarGenotypeFile.MAGIC);
+            raf.writeInt(ColumnarGenotypeFile.VERSION);
+            raf.writeInt(nSamples);
+            raf.writeInt(nVariants);
+            raf.writeInt(dosages ? ColumnarGenotypeFile.FLAG_DOSAGES : 0);
+            raf.writeLong(dataOffset);
+            raf.writeLong(directoryOffset);
+            raf.writeLong(stringsOffset);
+
+        }
+    }
+
+    /**
+     * Encodes the genotypes of a vcf line.
+     *
+     * @param vcfLine the vcf line
+     * @param nSamples the number of samples
+     * @param callBytes the number of bytes used by the hard calls
+     * @param dosages boolean indicating whether dosages should be encoded
+     * @param variantBytes the array where to encode the variant
+     */
+    private static void encodeVariant(VcfLine vcfLine, int nSamples, int callBytes, boolean dosages, byte[] variantBytes) {
+
+        Arrays.fill(variantBytes, 0, callBytes, (byte) 0);
+
+        byte[] bytes = vcfLine.getBytes();
+        int length = vcfLine.getLength();
+
+        int gtIndex = vcfLine.getFormatIndex("GT");
+        int dsIndex = vcfLine.getFormatIndex("DS");
+        int gpIndex = vcfLine.getFormatIndex("GP");
+
+        int position = vcfLine.getSamplesStart();
+
+        for (int sample = 0; sample < nSamples; sample++) {
+
+            int fieldEnd = position;
+
+            while (fieldEnd < length && bytes[fieldEnd] != '\t') {
+
+                fieldEnd++;
+
+            }
+
+            int call = ColumnarGenotypeFile.MISSING;
+            double dosage = Double.NaN;
+
+            int subField = 0;
+            int subFieldStart = position;
+
+            for (int i = position; i <= fieldEnd; i++) {
+
+                if (i == fieldEnd || bytes[i] == ':') {
+
+                    if (subField == gtIndex) {
+
+                        call = VcfLine.parseCall(bytes, subFieldStart, i);
+
+                    } else if (subField == dsIndex) {
+
+                        dosage = VcfLine.parseDouble(bytes, subFieldStart, i);
+
+                    } else if (subField == gpIndex && dsIndex == -1) {
+
+                        dosage = VcfLine.parseDosageFromProbabilities(bytes, subFieldStart, i);
+
+                    }
+
+                    subField++;
+                    subFieldStart = i + 1;
+
+                }
+            }
+
+            variantBytes[sample >> 2] |= call << ((sample & 3) << 1);
+
+            if (dosages) {
+
+                variantBytes[callBytes + sample] = (byte) ColumnarGenotypeFile.quantize(dosage);
+
+            }
+
+            position = fieldEnd + 1;
+
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package no.uib.hunt.data;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.VcfFile;
+import no.uib.hunt.vcf.VcfLine;
+
+/**
+ * Writes synthetic bgzipped and tabix-indexed vcf files laid out like
+ * imputed files, one per chromosome, and a matching variants file in the
+ * format of the VariantPool.
+ *
+ * @author Marc Vaudel
+ */
+public class SyntheticVcfGenerator {
+
+    /**
+     * The info fields that can be generated.
+     */
+    public static final String[] INFO_FIELDS = {"AF", "MAF", "R2", "INFO", "AC", "AN", "TYPED"};
+    /**
+     * The header lines of the info fields, in the same order.
+     */
+    private static final String[] INFO_HEADERS = {
+        "##INFO=<ID=AF,Number=A,Type=Float,Description=\"Estimated alternate allele frequency\">",
+        "##INFO=<ID=MAF,Number=1,Type=Float,Description=\"Estimated minor allele frequency\">",
+        "##INFO=<ID=R2,Number=1,Type=Float,Description=\"Estimated imputation accuracy\">",
+        "##INFO=<ID=INFO,Number=1,Type=Float,Description=\"Imputation information score\">",
+        "##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Alternate allele count in the hard calls\">",
+        "##INFO=<ID=AN,Number=1,Type=Integer,Description=\"Total number of alleles in the hard calls\">",
+        "##INFO=<ID=TYPED,Number=0,Type=Flag,Description=\"Typed variant\">"};
+    /**
+     * The header of the variants file, as in the resources.
+     */
+    public static final String VARIANTS_HEADER = String.join("\t",
+            "Nearest gene", VariantPool.rsIdColumn, VariantPool.chrColumn, VariantPool.bpColumnPrefix + " (Build 37 bp)",
+            "Risk allele", "Other allele", "RAF (%)", "MAF (%)", "p-value", "OR (95% CI)", "BMI adjusted",
+            "Novel", "Primary", "Cases", "Controls", "Mean imputation quality score");
+    /**
+     * The nucleotides used for the alleles.
+     */
+    private static final char[] NUCLEOTIDES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * The number of samples.
+     */
+    private final int nSamples;
+    /**
+     * The number of variants per chromosome.
+     */
+    private final int nVariants;
+    /**
+     * The info fields to write.
+     */
+    private final List<String> infoFields;
+    /**
+     * Boolean indicating whether dosages should be written.
+     */
+    private final boolean dosages;
+    /**
+     * Boolean indicating whether genotype probabilities should be written.
+     */
+    private final boolean probabilities;
+    /**
+     * The seed of the random generators.
+     */
+    private final long seed;
+
+    /**
+     * A variant selected for the variants file.
+     */
+    private static class QueryVariant {
+
+        /**
+         * The rsId.
+         */
+        private final String rsId;
+        /**
+         * The chromosome.
+         */
+        private final String chr;
+        /**
+         * The position.
+         */
+        private final int bp;
+        /**
+         * The reference allele.
+         */
+        private final char ref;
+        /**
+         * The alternative allele.
+         */
+        private final char alt;
+        /**
+         * The alternative allele frequency.
+         */
+        private final double af;
+        /**
+         * The imputation quality.
+         */
+        private final double quality;
+
+        /**
+         * Constructor.
+         *
+         * @param rsId the rsId
+         * @param chr the chromosome
+         * @param bp the position
+         * @param ref the reference allele
+         * @param alt the alternative allele
+         * @param af the alternative allele frequency
+         * @param quality the imputation quality
+         */
+        private QueryVariant(String rsId, String chr, int bp, char ref, char alt, double af, double quality) {
+
+            this.rsId = rsId;
+            this.chr = chr;
+            this.bp = bp;
+            this.ref = ref;
+            this.alt = alt;
+            this.af = af;
+            this.quality = quality;
+
+        }
+    }
+
+    /**
+     * Generates synthetic vcf files.
+     *
+     * @param args the command line arguments: -out folder, -samples number of
+     * samples, -variants number of variants per chromosome, and optionally
+     * -chromosomes comma-separated list, -info comma-separated info fields,
+     * -format comma-separated format fields among GT, DS and GP, -queries
+     * number of variants in the variants file, -threads number of threads,
+     * -seed random seed
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("SyntheticVcfGenerator.log");
+            ProgressHandler.setUpLog();
+
+            File outputFolder = null;
+            int nSamples = 1000;
+            int nVariants = 10000;
+            String[] chromosomes = VcfFile.CHROMOSOMES;
+            List<String> infoFields = Arrays.asList("AF", "MAF", "R2");
+            List<String> formatFields = Arrays.asList("GT", "DS", "GP");
+            int nQueries = 400;
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            long seed = 42;
+
+            for (int i = 0; i + 1 < args.length; i += 2) {
+
+                String value = args[i + 1];
+
+                switch (args[i]) {
+
+                    case "-out":
+                        outputFolder = new File(value);
+                        break;
+
+                    case "-samples":
+                        nSamples = Integer.parseInt(value);
+                        break;
+
+                    case "-variants":
+                        nVariants = Integer.parseInt(value);
+                        break;
+
+                    case "-chromosomes":
+                        chromosomes = value.split(",");
+                        break;
+
+                    case "-info":
+                        infoFields = value.isEmpty() ? new ArrayList<>(0) : Arrays.asList(value.split(","));
+                        break;
+
+                    case "-format":
+                        formatFields = Arrays.asList(value.split(","));
+                        break;
+
+                    case "-queries":
+                        nQueries = Integer.parseInt(value);
+                        break;
+
+                    case "-threads":
+                        nThreads = Integer.parseInt(value);
+                        break;
+
+                    case "-seed":
+                        seed = Long.parseLong(value);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Option " + args[i] + " not recognized.");
+
+                }
+            }
+
+            if (outputFolder == null) {
+
+                throw new IllegalArgumentException("No output folder provided, use -out.");
+
+            }
+
+            SyntheticVcfGenerator generator = new SyntheticVcfGenerator(nSamples, nVariants, infoFields,
+                    formatFields.contains("DS"), formatFields.contains("GP"), seed);
+
+            ProgressHandler progressHandler = new ProgressHandler();
+
+            String task = "Generating " + chromosomes.length + " vcf files of " + nVariants + " variants and " + nSamples + " samples";
+            progressHandler.start(task);
+
+            generator.generate(outputFolder, chromosomes, nQueries, nThreads);
+
+            progressHandler.end(task);
+
+            ProgressHandler.close();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param nSamples the number of samples
+     * @param nVariants the number of variants per chromosome
+     * @param infoFields the info fields to write, see INFO_FIELDS
+     * @param dosages boolean indicating whether dosages (DS) should be
+     * written
+     * @param probabilities boolean indicating whether genotype probabilities
+     * (GP) should be written
+     * @param seed the seed of the random generators
+     */
+    public SyntheticVcfGenerator(int nSamples, int nVariants, List<String> infoFields, boolean dosages, boolean probabilities, long seed) {
+
+        for (String infoField : infoFields) {
+
+            if (!Arrays.asList(INFO_FIELDS).contains(infoField)) {
+
+                throw new IllegalArgumentException("Info field " + infoField + " not supported.");
+
+            }
+        }
+
+        this.nSamples = nSamples;
+        this.nVariants = nVariants;
+        this.infoFields = infoFields;
+        this.dosages = dosages;
+        this.probabilities = probabilities;
+        this.seed = seed;
+
+    }
+
+    /**
+     * Writes a vcf file and its tabix index per chromosome, and the variants
+     * file, named variants.gz, in the given folder.
+     *
+     * @param outputFolder the output folder
+     * @param chromosomes the chromosomes
+     * @param nQueries the number of variants to write to the variants file
+     * @param nThreads the number of chromosomes to generate in parallel
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * a file
+     */
+    public void generate(File outputFolder, String[] chromosomes, int nQueries, int nThreads) throws IOException {
+
+        outputFolder.mkdirs();
+
+        int queriesPerChromosome = (nQueries + chromosomes.length - 1) / chromosomes.length;
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            ArrayList<Future<QueryVariant[]>> futures = new ArrayList<>(chromosomes.length);
+
+            for (int i = 0; i < chromosomes.length; i++) {
+
+                String chr = chromosomes[i];
+                int chrIndex = i;
+
+                futures.add(executor.submit(() -> writeChromosome(outputFolder, chr, chrIndex, queriesPerChromosome)));
+
+            }
+
+            ArrayList<QueryVariant> queryVariants = new ArrayList<>(nQueries);
+
+            for (Future<QueryVariant[]> future : futures) {
+
+                queryVariants.addAll(Arrays.asList(future.get()));
+
+            }
+
+            writeVariantsFile(new File(outputFolder, "variants.gz"), queryVariants.subList(0, Math.min(nQueries, queryVariants.size())));
+
+        } catch (Exception e) {
+
+            throw new RuntimeException(e);
+
+        } finally {
+
+            executor.shutdown();
+
+        }
+    }
+
+    /**
+     * Writes the vcf file and index of a chromosome.
+     *
+     * @param outputFolder the output folder
+     * @param chr the chromosome
+     * @param chrIndex the index of the chromosome, used for the seed and the
+     * rsIds
+     * @param nQueries the number of variants to select for the variants file
+     *
+     * @return the variants selected for the variants file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private QueryVariant[] writeChromosome(File outputFolder, String chr, int chrIndex, int nQueries) throws IOException {
+
+        Random random = new Random(seed + chrIndex);
+        File vcfFile = new File(outputFolder, chr + ".vcf.gz");
+
+        QueryVariant[] queryVariants = new QueryVariant[Math.min(nQueries, nVariants)];
+
+        int[] calls = new int[nSamples];
+        int[] probabilityMilli = new int[nSamples];
+        int[] neighbours = new int[nSamples];
+
+        TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.VCF);
+        Index index;
+
+        try (BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(vcfFile)) {
+
+            outputStream.write(getHeader(chr).getBytes(StandardCharsets.US_ASCII));
+
+            VcfLine line = new VcfLine(nSamples * 24 + 1024);
+            int bp = 10000;
+
+            for (int i = 0; i < nVariants; i++) {
+
+                bp += 1 + random.nextInt(200);
+
+                String rsId = "rs" + (chrIndex * 100000000L + i + 1);
+                int refIndex = random.nextInt(4);
+                char ref = NUCLEOTIDES[refIndex];
+                char alt = NUCLEOTIDES[(refIndex + 1 + random.nextInt(3)) & 3];
+
+                double maf = 0.5 * Math.pow(random.nextDouble(), 2);
+                double p = random.nextBoolean() ? maf : 1 - maf;
+                double quality = 0.3 + 0.7 * random.nextDouble();
+
+                long dosageSum = 0;
+                int alleleCount = 0;
+
+                for (int s = 0; s < nSamples; s++) {
+
+                    int call = (random.nextDouble() < p ? 1 : 0) + (random.nextDouble() < p ? 1 : 0);
+                    int certainty = (int) Math.round(1000 * (quality + (1 - quality) * random.nextDouble()));
+                    int neighbour = call == 1 ? (random.nextBoolean() ? 0 : 2) : 1;
+
+                    calls[s] = call;
+                    probabilityMilli[s] = certainty;
+                    neighbours[s] = neighbour;
+                    dosageSum += call * certainty + neighbour * (1000 - certainty);
+                    alleleCount += call;
+
+                }
+
+                double af = nSamples == 0 ? 0 : dosageSum / (2000.0 * nSamples);
+
+                line.clear();
+                append(line, chr);
+                line.append((byte) '\t');
+                append(line, Integer.toString(bp));
+                line.append((byte) '\t');
+                append(line, rsId);
+                line.append((byte) '\t');
+                line.append((byte) ref);
+                line.append((byte) '\t');
+                line.append((byte) alt);
+                append(line, "\t.\tPASS\t");
+                appendInfo(line, af, quality, alleleCount);
+                line.append((byte) '\t');
+                append(line, dosages ? probabilities ? "GT:DS:GP" : "GT:DS" : probabilities ? "GT:GP" : "GT");
+
+                for (int s = 0; s < nSamples; s++) {
+
+                    line.append((byte) '\t');
+                    appendSample(line, calls[s], probabilityMilli[s], neighbours[s], random);
+
+                }
+
+                line.append((byte) '\n');
+
+                indexCreator.addFeature(new SimpleFeature(chr, bp, bp), outputStream.getFilePointer());
+                outputStream.write(line.getBytes(), 0, line.getLength());
+
+                int selected = i < queryVariants.length ? i : random.nextInt(i + 1);
+
+                if (selected < queryVariants.length) {
+
+                    queryVariants[selected] = new QueryVariant(rsId, chr, bp, ref, alt, af, quality);
+
+                }
+            }
+
+            index = indexCreator.finalizeIndex(outputStream.getFilePointer());
+
+        }
+
+        index.writeBasedOnFeatureFile(vcfFile);
+
+        return queryVariants;
+
+    }
+
+    /**
+     * Returns the header of the vcf file of a chromosome.
+     *
+     * @param chr the chromosome
+     *
+     * @return the header
+     */
+    private String getHeader(String chr) {
+
+        StringBuilder header = new StringBuilder();
+        header.append("##fileformat=VCFv4.2\n");
+        header.append("##source=").append(SyntheticVcfGenerator.class.getSimpleName()).append('\n');
+        header.append("##contig=<ID=").append(chr).append(">\n");
+
+        for (String infoField : infoFields) {
+
+            header.append(INFO_HEADERS[Arrays.asList(INFO_FIELDS).indexOf(infoField)]).append('\n');
+
+        }
+
+        header.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+
+        if (dosages) {
+
+            header.append("##FORMAT=<ID=DS,Number=A,Type=Float,Description=\"Estimated alternate allele dosage [P(0/1)+2*P(1/1)]\">\n");
+
+        }
+
+        if (probabilities) {
+
+            header.append("##FORMAT=<ID=GP,Number=G,Type=Float,Description=\"Estimated posterior probabilities for genotypes 0/0, 0/1 and 1/1\">\n");
+
+        }
+
+        header.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+
+        for (int s = 0; s < nSamples; s++) {
+
+            header.append('\t').append(getSampleName(s));
+
+        }
+
+        return header.append('\n').toString();
+
+    }
+
+    /**
+     * Returns the name of a sample.
+     *
+     * @param index the index of the sample
+     *
+     * @return the name of the sample
+     */
+    public static String getSampleName(int index) {
+
+        return "SAMPLE_" + (index + 1);
+
+    }
+
+    /**
+     * Appends the info column.
+     *
+     * @param line the line
+     * @param af the alternative allele frequency
+     * @param quality the imputation quality
+     * @param alleleCount the number of alternative alleles in the hard calls
+     */
+    private void appendInfo(VcfLine line, double af, double quality, int alleleCount) {
+
+        if (infoFields.isEmpty()) {
+
+            line.append((byte) '.');
+
+            return;
+
+        }
+
+        for (int i = 0; i < infoFields.size(); i++) {
+
+            if (i > 0) {
+
+                line.append((byte) ';');
+
+            }
+
+            String infoField = infoFields.get(i);
+            append(line, infoField);
+
+            switch (infoField) {
+
+                case "AF":
+                    line.append((byte) '=');
+                    appendMilli(line, (int) Math.round(1000 * af));
+                    break;
+
+                case "MAF":
+                    line.append((byte) '=');
+                    appendMilli(line, (int) Math.round(1000 * Math.min(af, 1 - af)));
+                    break;
+
+                case "R2":
+                case "INFO":
+                    line.append((byte) '=');
+                    appendMilli(line, (int) Math.round(1000 * quality));
+                    break;
+
+                case "AC":
+                    line.append((byte) '=');
+                    append(line, Integer.toString(alleleCount));
+                    break;
+
+                case "AN":
+                    line.append((byte) '=');
+                    append(line, Integer.toString(2 * nSamples));
+                    break;
+
+                default:
+                    break;
+
+            }
+        }
+    }
+
+    /**
+     * Appends the genotype of a sample. The probability of the call is the
+     * given certainty, the rest is given to the neighbouring genotype.
+     *
+     * @param line the line
+     * @param call the number of alternative alleles called
+     * @param certainty the probability of the call in thousandths
+     * @param neighbour the neighbouring genotype
+     * @param random the random generator used to phase heterozygotes
+     */
+    private void appendSample(VcfLine line, int call, int certainty, int neighbour, Random random) {
+
+        boolean altFirst = call == 2 || call == 1 && random.nextBoolean();
+        boolean altSecond = call == 2 || call == 1 && !altFirst;
+
+        line.append((byte) (altFirst ? '1' : '0'));
+        line.append((byte) '|');
+        line.append((byte) (altSecond ? '1' : '0'));
+
+        if (dosages) {
+
+            line.append((byte) ':');
+            appendMilli(line, call * certainty + neighbour * (1000 - certainty));
+
+        }
+
+        if (probabilities) {
+
+            for (int genotype = 0; genotype < 3; genotype++) {
+
+                line.append((byte) (genotype == 0 ? ':' : ','));
+                appendMilli(line, genotype == call ? certainty : genotype == neighbour ? 1000 - certainty : 0);
+
+            }
+        }
+    }
+
+    /**
+     * Appends a value given in thousandths with three decimals.
+     *
+     * @param line the line
+     * @param milli the value in thousandths
+     */
+    private static void appendMilli(VcfLine line, int milli) {
+
+        line.append((byte) ('0' + milli / 1000));
+        line.append((byte) '.');
+        line.append((byte) ('0' + milli / 100 % 10));
+        line.append((byte) ('0' + milli / 10 % 10));
+        line.append((byte) ('0' + milli % 10));
+
+    }
+
+    /**
+     * Appends an ASCII string.
+     *
+     * @param line the line
+     * @param value the string
+     */
+    private static void append(VcfLine line, String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+
+            line.append((byte) value.charAt(i));
+
+        }
+    }
+
+    /**
+     * Writes the variants file.
+     *
+     * @param variantsFile the variants file
+     * @param queryVariants the variants
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeVariantsFile(File variantsFile, List<QueryVariant> queryVariants) throws IOException {
+
+        Random random = new Random(seed);
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(variantsFile)), VariantPool.encoding))) {
+
+            writer.write(VARIANTS_HEADER);
+            writer.newLine();
+
+            for (QueryVariant variant : queryVariants) {
+
+                if (variant == null) {
+
+                    continue;
+
+                }
+
+                double or = 1.01 + 0.2 * random.nextDouble();
+
+                writer.write(String.join("\t",
+                        "NA",
+                        variant.rsId,
+                        variant.chr,
+                        Integer.toString(variant.bp),
+                        Character.toString(variant.alt),
+                        Character.toString(variant.ref),
+                        String.format(Locale.US, "%.1f", 100 * variant.af),
+                        String.format(Locale.US, "%.1f", 100 * Math.min(variant.af, 1 - variant.af)),
+                        "1.0x10-8",
+                        String.format(Locale.US, "%.2f (%.2f-%.2f)", or, or - 0.02, or + 0.02),
+                        "N", "N", "Y", "10,000", "100,000",
+                        String.format(Locale.US, "%.2f", variant.quality)));
+                writer.newLine();
+
+            }
+        }
+    }
+}
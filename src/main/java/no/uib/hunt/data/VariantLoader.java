@@ -0,0 +1,974 @@
+package no.uib.hunt.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.VariantCatalogue;
+
+/**
+ * Loads variants files in catalogues. The decompressed file is cut in chunks
+ * of whole lines that are parsed in parallel from the bytes, only the columns
+ * needed are decoded. The catalogue can be saved to a binary sidecar file,
+ * later loads then map the sidecar file instead of parsing the variants file.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantLoader {
+
+    /**
+     * The columns that can be loaded.
+     */
+    public enum Column {
+
+        /**
+         * The rsId.
+         */
+        RSID,
+        /**
+         * The chromosome.
+         */
+        CHR,
+        /**
+         * The position.
+         */
+        BP,
+        /**
+         * The risk and other alleles.
+         */
+        ALLELES,
+        /**
+         * The risk allele frequency and the weight, log of the odds ratio.
+         */
+        WEIGHTS
+
+    }
+
+    /**
+     * The extension of the sidecar files.
+     */
+    public static final String CACHE_EXTENSION = ".hvc";
+    /**
+     * The size of the chunks of decompressed bytes parsed by a thread.
+     */
+    public static final int CHUNK_SIZE = 1 << 22;
+    /**
+     * The number of chunks parsed ahead of the merge per thread.
+     */
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    /**
+     * The alleles of one base, indexed by byte.
+     */
+    private static final String[] SINGLE_BASE_ALLELES = new String[128];
+
+    static {
+
+        for (int i = 0; i < SINGLE_BASE_ALLELES.length; i++) {
+
+            SINGLE_BASE_ALLELES[i] = String.valueOf((char) i);
+
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    private VariantLoader() {
+
+    }
+
+    /**
+     * Loads the given variants file in a sorted catalogue. If a sidecar file
+     * written from the same variants file with the needed columns is found,
+     * it is loaded instead.
+     *
+     * @param variantsFile the variants file
+     * @param columns the columns to load
+     * @param nThreads the number of threads to use to parse the file
+     * @param cache boolean indicating whether the sidecar file should be used
+     * and written if missing or stale
+     *
+     * @return the catalogue of the variants
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the variants file or the sidecar file
+     */
+    public static VariantCatalogue load(File variantsFile, EnumSet<Column> columns, int nThreads, boolean cache) throws IOException {
+
+        File cacheFile = new File(variantsFile.getPath() + CACHE_EXTENSION);
+
+        if (cache) {
+
+            VariantCatalogue catalogue = VariantCatalogue.read(cacheFile, variantsFile);
+
+            if (catalogue != null
+                    && (!columns.contains(Column.RSID) || catalogue.hasRsIds())
+                    && (!columns.contains(Column.CHR) || catalogue.hasChromosomes())
+                    && (!columns.contains(Column.BP) || catalogue.hasPositions())
+                    && (!columns.contains(Column.ALLELES) || catalogue.hasAlleles())
+                    && (!columns.contains(Column.WEIGHTS) || catalogue.hasWeights())) {
+
+                return catalogue;
+
+            }
+        }
+
+        VariantCatalogue catalogue = parse(variantsFile, columns, nThreads);
+
+        if (cache) {
+
+            catalogue.write(cacheFile, variantsFile);
+
+        }
+
+        return catalogue;
+
+    }
+
+    /**
+     * Parses the given variants file in a sorted catalogue. The calling thread
+     * inflates the file and merges the parsed chunks in order while the
+     * chunks are parsed on the given number of threads.
+     *
+     * @param variantsFile the variants file
+     * @param columns the columns to load
+     * @param nThreads the number of threads to use to parse the file
+     *
+     * @return the catalogue of the variants
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the variants file
+     */
+    public static VariantCatalogue parse(File variantsFile, EnumSet<Column> columns, int nThreads) throws IOException {
+
+        VariantCatalogue catalogue = new VariantCatalogue(VariantCatalogue.DEFAULT_CAPACITY,
+                columns.contains(Column.RSID), columns.contains(Column.CHR), columns.contains(Column.BP),
+                columns.contains(Column.ALLELES), columns.contains(Column.WEIGHTS));
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.max(nThreads, 1), runnable -> {
+
+            Thread thread = new Thread(runnable, "hunt-variant-parser-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(variantsFile), 1 << 16)) {
+
+            int[] fieldColumns = getFieldColumns(readLine(inputStream), columns, variantsFile);
+
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            byte[] carry = new byte[0];
+            boolean ended = false;
+
+            while (!ended) {
+
+                byte[] bytes = Arrays.copyOf(carry, Math.max(CHUNK_SIZE, 2 * carry.length));
+                int length = carry.length;
+
+                while (length < bytes.length) {
+
+                    int read = inputStream.read(bytes, length, bytes.length - length);
+
+                    if (read == -1) {
+
+                        ended = true;
+                        break;
+
+                    }
+
+                    length += read;
+
+                }
+
+                int end = length;
+
+                if (!ended) {
+
+                    while (end > 0 && bytes[end - 1] != '\n') {
+
+                        end--;
+
+                    }
+                }
+
+                carry = Arrays.copyOfRange(bytes, end, length);
+
+                if (end > 0) {
+
+                    int chunkEnd = end;
+                    pending.add(parsers.submit(() -> parseChunk(bytes, chunkEnd, fieldColumns, columns)));
+
+                }
+
+                while (!pending.isEmpty() && (ended || pending.size() > CHUNKS_AHEAD_PER_THREAD * nThreads)) {
+
+                    merge(pending.poll().get(), catalogue);
+
+                }
+            }
+
+        } catch (InterruptedException | ExecutionException e) {
+
+            throw new RuntimeException(e);
+
+        } finally {
+
+            parsers.shutdownNow();
+
+        }
+
+        catalogue.sort();
+
+        return catalogue;
+
+    }
+
+    /**
+     * Returns the columns available in the given variants file.
+     *
+     * @param variantsFile the variants file
+     *
+     * @return the columns available
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the variants file
+     */
+    public static EnumSet<Column> getColumns(File variantsFile) throws IOException {
+
+        String[] header;
+
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(variantsFile), 1 << 16)) {
+
+            header = readLine(inputStream).split("\t");
+
+        }
+
+        EnumSet<Column> columns = EnumSet.noneOf(Column.class);
+
+        if (hasColumn(header, VariantPool.rsIdColumn, false)) {
+
+            columns.add(Column.RSID);
+
+        }
+
+        if (hasColumn(header, VariantPool.chrColumn, false)) {
+
+            columns.add(Column.CHR);
+
+        }
+
+        if (hasColumn(header, VariantPool.bpColumnPrefix, true)) {
+
+            columns.add(Column.BP);
+
+        }
+
+        if (hasColumn(header, VariantPool.riskAlleleColumn, false) && hasColumn(header, VariantPool.otherAlleleColumn, false)) {
+
+            columns.add(Column.ALLELES);
+
+        }
+
+        if (hasColumn(header, VariantPool.rafColumnPrefix, true) && hasColumn(header, VariantPool.orColumnPrefix, true)) {
+
+            columns.add(Column.WEIGHTS);
+
+        }
+
+        return columns;
+
+    }
+
+    /**
+     * Returns a sorted catalogue of the variants of a catalogue loaded without
+     * chromosome or position, located by rsId. Variants without rsId or not
+     * found are skipped.
+     *
+     * @param catalogue the catalogue loaded with rsIds
+     * @param locator the function returning the variant of an rsId, null if
+     * not found, e.g. GenotypeProvider.getVariant
+     *
+     * @return the catalogue of the located variants
+     */
+    public static VariantCatalogue locate(VariantCatalogue catalogue, Function<String, Variant> locator) {
+
+        VariantCatalogue located = new VariantCatalogue(catalogue.size());
+
+        for (int i = 0; i < catalogue.size(); i++) {
+
+            String rsId = catalogue.getRsId(i);
+
+            if (rsId != null) {
+
+                Variant variant = locator.apply(rsId);
+
+                if (variant != null) {
+
+                    located.add(variant.rsId, variant.chr, variant.bp);
+
+                }
+            }
+        }
+
+        located.sort();
+
+        return located;
+
+    }
+
+    /**
+     * Reads a line from the given stream.
+     *
+     * @param inputStream the stream
+     *
+     * @return the line without line break
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the stream
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = inputStream.read()) != -1 && b != '\n') {
+
+            if (b != '\r') {
+
+                line.write(b);
+
+            }
+        }
+
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Returns the indexes of the columns of the fields to parse, indexed by
+     * field, -1 for fields not loaded.
+     *
+     * @param headerLine the header line
+     * @param columns the columns to load
+     * @param variantsFile the variants file
+     *
+     * @return the indexes of the columns of the fields to parse
+     */
+    private static int[] getFieldColumns(String headerLine, EnumSet<Column> columns, File variantsFile) {
+
+        String[] header = headerLine.split("\t");
+
+        int[] fieldColumns = new int[Field.values().length];
+        Arrays.fill(fieldColumns, -1);
+
+        if (columns.contains(Column.RSID)) {
+
+            fieldColumns[Field.RSID.ordinal()] = getColumn(header, VariantPool.rsIdColumn, false, variantsFile);
+
+        }
+
+        if (columns.contains(Column.CHR)) {
+
+            fieldColumns[Field.CHR.ordinal()] = getColumn(header, VariantPool.chrColumn, false, variantsFile);
+
+        }
+
+        if (columns.contains(Column.BP)) {
+
+            fieldColumns[Field.BP.ordinal()] = getColumn(header, VariantPool.bpColumnPrefix, true, variantsFile);
+
+        }
+
+        if (columns.contains(Column.ALLELES)) {
+
+            fieldColumns[Field.RISK_ALLELE.ordinal()] = getColumn(header, VariantPool.riskAlleleColumn, false, variantsFile);
+            fieldColumns[Field.OTHER_ALLELE.ordinal()] = getColumn(header, VariantPool.otherAlleleColumn, false, variantsFile);
+
+        }
+
+        if (columns.contains(Column.WEIGHTS)) {
+
+            fieldColumns[Field.RAF.ordinal()] = getColumn(header, VariantPool.rafColumnPrefix, true, variantsFile);
+            fieldColumns[Field.OR.ordinal()] = getColumn(header, VariantPool.orColumnPrefix, true, variantsFile);
+
+        }
+
+        return fieldColumns;
+
+    }
+
+    /**
+     * Returns the index of a column in the header.
+     *
+     * @param header the header
+     * @param name the name of the column
+     * @param prefix boolean indicating whether the name is a prefix of the
+     * column name
+     * @param variantsFile the variants file
+     *
+     * @return the index of the column
+     */
+    private static int getColumn(String[] header, String name, boolean prefix, File variantsFile) {
+
+        int column = indexOf(header, name, prefix);
+
+        if (column == -1) {
+
+            throw new IllegalArgumentException("Column " + name + " not found in " + variantsFile + ".");
+
+        }
+
+        return column;
+
+    }
+
+    /**
+     * Indicates whether a column is in the header.
+     *
+     * @param header the header
+     * @param name the name of the column
+     * @param prefix boolean indicating whether the name is a prefix of the
+     * column name
+     *
+     * @return a boolean indicating whether the column is in the header
+     */
+    private static boolean hasColumn(String[] header, String name, boolean prefix) {
+
+        return indexOf(header, name, prefix) != -1;
+
+    }
+
+    /**
+     * Returns the index of a column in the header.
+     *
+     * @param header the header
+     * @param name the name of the column
+     * @param prefix boolean indicating whether the name is a prefix of the
+     * column name
+     *
+     * @return the index of the column, -1 if not found
+     */
+    private static int indexOf(String[] header, String name, boolean prefix) {
+
+        for (int i = 0; i < header.length; i++) {
+
+            if (prefix ? header[i].startsWith(name) : header[i].equals(name)) {
+
+                return i;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * The fields parsed from the lines.
+     */
+    private enum Field {
+
+        /**
+         * The rsId.
+         */
+        RSID,
+        /**
+         * The chromosome.
+         */
+        CHR,
+        /**
+         * The position.
+         */
+        BP,
+        /**
+         * The risk allele.
+         */
+        RISK_ALLELE,
+        /**
+         * The other allele.
+         */
+        OTHER_ALLELE,
+        /**
+         * The risk allele frequency in percent.
+         */
+        RAF,
+        /**
+         * The odds ratio.
+         */
+        OR
+
+    }
+
+    /**
+     * The variants parsed from a chunk of lines.
+     */
+    private static class Chunk {
+
+        /**
+         * The number of variants.
+         */
+        private int size = 0;
+        /**
+         * The chromosome of every variant, null if not loaded.
+         */
+        private String[] chromosomes;
+        /**
+         * The position of every variant, 0 if not loaded.
+         */
+        private int[] positions;
+        /**
+         * The rs number of every variant, NO_RSID if none or if the rsId is
+         * not of the form rs123.
+         */
+        private long[] rsNumbers;
+        /**
+         * The rsIds that are not of the form rs123, null if none.
+         */
+        private String[] rsIds = null;
+        /**
+         * The risk alleles, null if not loaded.
+         */
+        private String[] riskAlleles = null;
+        /**
+         * The other alleles, null if not loaded.
+         */
+        private String[] otherAlleles = null;
+        /**
+         * The risk allele frequencies, null if not loaded.
+         */
+        private double[] riskAlleleFrequencies = null;
+        /**
+         * The weights, null if not loaded.
+         */
+        private double[] weights = null;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the maximal number of variants
+         * @param columns the columns to load
+         */
+        private Chunk(int capacity, EnumSet<Column> columns) {
+
+            chromosomes = new String[capacity];
+            positions = new int[capacity];
+            rsNumbers = new long[capacity];
+
+            if (columns.contains(Column.ALLELES)) {
+
+                riskAlleles = new String[capacity];
+                otherAlleles = new String[capacity];
+
+            }
+
+            if (columns.contains(Column.WEIGHTS)) {
+
+                riskAlleleFrequencies = new double[capacity];
+                weights = new double[capacity];
+
+            }
+        }
+    }
+
+    /**
+     * Parses the lines of a chunk of bytes.
+     *
+     * @param bytes the bytes
+     * @param length the number of bytes to parse, ending with a line break
+     * unless at the end of the file
+     * @param fieldColumns the indexes of the columns of the fields to parse
+     * @param columns the columns to load
+     *
+     * @return the parsed variants
+     */
+    private static Chunk parseChunk(byte[] bytes, int length, int[] fieldColumns, EnumSet<Column> columns) {
+
+        int nLines = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            if (bytes[i] == '\n') {
+
+                nLines++;
+
+            }
+        }
+
+        Chunk chunk = new Chunk(nLines + 1, columns);
+
+        int nFields = fieldColumns.length;
+        int lastColumn = 0;
+
+        for (int column : fieldColumns) {
+
+            lastColumn = Math.max(lastColumn, column);
+
+        }
+
+        int[] fieldStart = new int[nFields];
+        int[] fieldEnd = new int[nFields];
+        String chr = null;
+        int lineStart = 0;
+
+        while (lineStart < length) {
+
+            int lineEnd = lineStart;
+
+            while (lineEnd < length && bytes[lineEnd] != '\n') {
+
+                lineEnd++;
+
+            }
+
+            int next = lineEnd + 1;
+
+            if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+
+                lineEnd--;
+
+            }
+
+            if (lineEnd > lineStart) {
+
+                locateFields(bytes, lineStart, lineEnd, fieldColumns, lastColumn, fieldStart, fieldEnd);
+
+                int i = chunk.size++;
+
+                int start;
+                int end;
+
+                if (fieldColumns[Field.CHR.ordinal()] != -1) {
+
+                    start = fieldStart[Field.CHR.ordinal()];
+                    end = fieldEnd[Field.CHR.ordinal()];
+
+                    if (chr == null || !equals(bytes, start, end, chr)) {
+
+                        chr = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+
+                    }
+
+                    chunk.chromosomes[i] = chr;
+
+                }
+
+                if (fieldColumns[Field.BP.ordinal()] != -1) {
+
+                    chunk.positions[i] = parseInt(bytes, fieldStart[Field.BP.ordinal()], fieldEnd[Field.BP.ordinal()]);
+
+                }
+
+                chunk.rsNumbers[i] = VariantCatalogue.NO_RSID;
+
+                if (fieldColumns[Field.RSID.ordinal()] != -1) {
+
+                    start = fieldStart[Field.RSID.ordinal()];
+                    end = fieldEnd[Field.RSID.ordinal()];
+
+                    long rsNumber = parseRsNumber(bytes, start, end);
+
+                    if (rsNumber == VariantCatalogue.NO_RSID) {
+
+                        if (chunk.rsIds == null) {
+
+                            chunk.rsIds = new String[chunk.rsNumbers.length];
+
+                        }
+
+                        chunk.rsIds[i] = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+
+                    }
+
+                    chunk.rsNumbers[i] = rsNumber;
+
+                }
+
+                if (chunk.riskAlleles != null) {
+
+                    chunk.riskAlleles[i] = getAllele(bytes, fieldStart[Field.RISK_ALLELE.ordinal()], fieldEnd[Field.RISK_ALLELE.ordinal()]);
+                    chunk.otherAlleles[i] = getAllele(bytes, fieldStart[Field.OTHER_ALLELE.ordinal()], fieldEnd[Field.OTHER_ALLELE.ordinal()]);
+
+                }
+
+                if (chunk.weights != null) {
+
+                    chunk.riskAlleleFrequencies[i] = parsePercent(bytes, fieldStart[Field.RAF.ordinal()], fieldEnd[Field.RAF.ordinal()]);
+                    chunk.weights[i] = Math.log(parseOddsRatio(bytes, fieldStart[Field.OR.ordinal()], fieldEnd[Field.OR.ordinal()]));
+
+                }
+            }
+
+            lineStart = next;
+
+        }
+
+        return chunk;
+
+    }
+
+    /**
+     * Locates the fields to parse in a line.
+     *
+     * @param bytes the bytes
+     * @param lineStart the start of the line
+     * @param lineEnd the end of the line (exclusive)
+     * @param fieldColumns the indexes of the columns of the fields to parse
+     * @param lastColumn the largest column index to parse
+     * @param fieldStart the array where to write the start of every field
+     * @param fieldEnd the array where to write the end (exclusive) of every
+     * field
+     */
+    private static void locateFields(byte[] bytes, int lineStart, int lineEnd, int[] fieldColumns, int lastColumn, int[] fieldStart, int[] fieldEnd) {
+
+        int column = 0;
+        int start = lineStart;
+
+        for (int i = lineStart; i <= lineEnd && column <= lastColumn; i++) {
+
+            if (i == lineEnd || bytes[i] == '\t') {
+
+                for (int j = 0; j < fieldColumns.length; j++) {
+
+                    if (fieldColumns[j] == column) {
+
+                        fieldStart[j] = start;
+                        fieldEnd[j] = i;
+
+                    }
+                }
+
+                column++;
+                start = i + 1;
+
+            }
+        }
+
+        if (column <= lastColumn) {
+
+            throw new IllegalArgumentException("Line with " + column + " columns found: " + new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8) + ".");
+
+        }
+    }
+
+    /**
+     * Indicates whether bytes equal a string of ASCII characters.
+     *
+     * @param bytes the bytes
+     * @param start the start of the bytes to compare
+     * @param end the end of the bytes to compare (exclusive)
+     * @param string the string
+     *
+     * @return a boolean indicating whether the bytes equal the string
+     */
+    private static boolean equals(byte[] bytes, int start, int end, String string) {
+
+        if (end - start != string.length()) {
+
+            return false;
+
+        }
+
+        for (int i = start; i < end; i++) {
+
+            if (bytes[i] != string.charAt(i - start)) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Parses a non-negative integer.
+     *
+     * @param bytes the bytes
+     * @param start the start of the integer
+     * @param end the end of the integer (exclusive)
+     *
+     * @return the integer
+     */
+    private static int parseInt(byte[] bytes, int start, int end) {
+
+        if (start == end || end - start > 10) {
+
+            throw new NumberFormatException("Invalid position: " + new String(bytes, start, end - start, StandardCharsets.UTF_8) + ".");
+
+        }
+
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+
+            int digit = bytes[i] - '0';
+
+            if (digit < 0 || digit > 9) {
+
+                throw new NumberFormatException("Invalid position: " + new String(bytes, start, end - start, StandardCharsets.UTF_8) + ".");
+
+            }
+
+            value = 10 * value + digit;
+
+        }
+
+        if (value > Integer.MAX_VALUE) {
+
+            throw new NumberFormatException("Position out of range: " + value + ".");
+
+        }
+
+        return (int) value;
+
+    }
+
+    /**
+     * Returns the number of an rsId of the form rs123.
+     *
+     * @param bytes the bytes
+     * @param start the start of the rsId
+     * @param end the end of the rsId (exclusive)
+     *
+     * @return the rs number, NO_RSID if the rsId is not of the form rs123
+     */
+    private static long parseRsNumber(byte[] bytes, int start, int end) {
+
+        if (end - start < 3 || end - start > 20 || bytes[start] != 'r' || bytes[start + 1] != 's' || bytes[start + 2] == '0') {
+
+            return VariantCatalogue.NO_RSID;
+
+        }
+
+        long value = 0;
+
+        for (int i = start + 2; i < end; i++) {
+
+            int digit = bytes[i] - '0';
+
+            if (digit < 0 || digit > 9) {
+
+                return VariantCatalogue.NO_RSID;
+
+            }
+
+            value = 10 * value + digit;
+
+        }
+
+        return value;
+
+    }
+
+    /**
+     * Returns an allele, single base alleles are shared.
+     *
+     * @param bytes the bytes
+     * @param start the start of the allele
+     * @param end the end of the allele (exclusive)
+     *
+     * @return the allele
+     */
+    private static String getAllele(byte[] bytes, int start, int end) {
+
+        if (end - start == 1 && bytes[start] >= 0) {
+
+            return SINGLE_BASE_ALLELES[bytes[start]];
+
+        }
+
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Parses a percentage to a frequency between 0 and 1.
+     *
+     * @param bytes the bytes
+     * @param start the start of the percentage
+     * @param end the end of the percentage (exclusive)
+     *
+     * @return the frequency, NaN if not a number
+     */
+    private static double parsePercent(byte[] bytes, int start, int end) {
+
+        try {
+
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII)) / 100;
+
+        } catch (NumberFormatException e) {
+
+            return Double.NaN;
+
+        }
+    }
+
+    /**
+     * Parses an odds ratio, ignoring the confidence interval following the
+     * value.
+     *
+     * @param bytes the bytes
+     * @param start the start of the odds ratio
+     * @param end the end of the odds ratio (exclusive)
+     *
+     * @return the odds ratio
+     */
+    private static double parseOddsRatio(byte[] bytes, int start, int end) {
+
+        int valueEnd = start;
+
+        while (valueEnd < end && bytes[valueEnd] != ' ') {
+
+            valueEnd++;
+
+        }
+
+        return Double.parseDouble(new String(bytes, start, valueEnd - start, StandardCharsets.US_ASCII));
+
+    }
+
+    /**
+     * Adds the variants of a chunk to the catalogue.
+     *
+     * @param chunk the chunk
+     * @param catalogue the catalogue
+     */
+    private static void merge(Chunk chunk, VariantCatalogue catalogue) {
+
+        for (int i = 0; i < chunk.size; i++) {
+
+            int index = chunk.rsIds != null && chunk.rsIds[i] != null
+                    ? catalogue.add(chunk.rsIds[i], chunk.chromosomes[i], chunk.positions[i])
+                    : catalogue.addRsNumber(chunk.rsNumbers[i], chunk.chromosomes[i], chunk.positions[i]);
+
+            if (chunk.riskAlleles != null) {
+
+                catalogue.setAlleles(index, chunk.riskAlleles[i], chunk.otherAlleles[i]);
+
+            }
+
+            if (chunk.weights != null) {
+
+                catalogue.setWeight(index, chunk.riskAlleleFrequencies[i], chunk.weights[i]);
+
+            }
+        }
+    }
+}
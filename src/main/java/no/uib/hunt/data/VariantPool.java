@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.zip.GZIPInputStream;
 import no.uib.hunt.model.Variant;
+import no.uib.hunt.vcf.GenotypeProvider;
 
 /**
  * Pool of variants to use for testing.
@@ -23,10 +24,43 @@ public class VariantPool {
      * Encoding for the file, cf the second rule.
      */
     public static final String encoding = "UTF-8";
+    /**
+     * Default file where variants are saved.
+     */
+    public static final String DEFAULT_VARIANTS_FILE_PATH = "resources/variants.gz";
     /**
      * File where variants are saved.
      */
-    public static final String variantsFilePath = "resources/variants.gz";
+    public static String variantsFilePath = DEFAULT_VARIANTS_FILE_PATH;
+
+    /**
+     * Name of the rsId column.
+     */
+    public static final String rsIdColumn = "Index variant";
+    /**
+     * Name of the chromosome column.
+     */
+    public static final String chrColumn = "Chromosome";
+    /**
+     * Prefix of the name of the position column.
+     */
+    public static final String bpColumnPrefix = "Position";
+    /**
+     * Name of the risk allele column.
+     */
+    public static final String riskAlleleColumn = "Risk allele";
+    /**
+     * Name of the other allele column.
+     */
+    public static final String otherAlleleColumn = "Other allele";
+    /**
+     * Prefix of the name of the risk allele frequency column, in percent.
+     */
+    public static final String rafColumnPrefix = "RAF";
+    /**
+     * Prefix of the name of the odds ratio column.
+     */
+    public static final String orColumnPrefix = "OR";
 
     /**
      * Returns a map of variants to test indexed by chromosome.
@@ -38,32 +72,94 @@ public class VariantPool {
      */
     public static HashMap<String, ArrayList<Variant>> getTestMap() throws IOException {
 
-        HashMap<String, ArrayList<Variant>> variantMap = new HashMap<>();
+        return getTestMap(null);
 
-        File variantsFile = new File(variantsFilePath);
-        InputStream fileStream = new FileInputStream(variantsFile);
-        InputStream gzipStream = new GZIPInputStream(fileStream);
-        Reader decoder = new InputStreamReader(gzipStream, encoding);
+    }
+
+    /**
+     * Returns a map of variants to test indexed by chromosome. If the variant
+     * file has no chromosome or position column, the variants are located
+     * using the rsId index of the given genotype provider, variants not found
+     * are skipped.
+     *
+     * @param genotypeProvider the genotype provider to use to locate variants
+     * by rsId, with an rsId index set, can be null if the file has chromosome
+     * and position columns
+     *
+     * @return a map of variants to test indexed by chromosome
+     *
+     * @throws java.io.IOException exception thrown if an error occurred while
+     * reading the variant file
+     */
+    public static HashMap<String, ArrayList<Variant>> getTestMap(GenotypeProvider genotypeProvider) throws IOException {
 
-        try (BufferedReader br = new BufferedReader(decoder)) {
+        HashMap<String, ArrayList<Variant>> variantMap = new HashMap<>();
+
+        try (BufferedReader br = getReader(variantsFilePath)) {
 
             String line = br.readLine();
+            String[] header = line.split("\t");
+
+            int rsIdIndexColumn = 1;
+            int chrIndexColumn = -1;
+            int bpIndexColumn = -1;
+
+            for (int i = 0; i < header.length; i++) {
+
+                if (header[i].equals(rsIdColumn)) {
+
+                    rsIdIndexColumn = i;
+
+                } else if (header[i].equals(chrColumn)) {
+
+                    chrIndexColumn = i;
+
+                } else if (header[i].startsWith(bpColumnPrefix)) {
+
+                    bpIndexColumn = i;
+
+                }
+            }
+
+            boolean located = chrIndexColumn != -1 && bpIndexColumn != -1;
+
+            if (!located && genotypeProvider == null) {
+
+                throw new IllegalArgumentException("No chromosome or position column found in " + variantsFilePath + ", an rsId index is needed.");
+
+            }
+
             while ((line = br.readLine()) != null) {
 
                 String[] lineSplit = line.split("\t");
 
-                String rsId = lineSplit[1];
-                String chr = lineSplit[2];
-                String bpString = lineSplit[3];
-                int bp = Integer.parseInt(bpString);
-                Variant variant = new Variant(rsId, chr, bp);
+                String rsId = lineSplit[rsIdIndexColumn];
+                Variant variant;
+
+                if (located) {
+
+                    String chr = lineSplit[chrIndexColumn];
+                    String bpString = lineSplit[bpIndexColumn];
+                    int bp = Integer.parseInt(bpString);
+                    variant = new Variant(rsId, chr, bp);
+
+                } else {
+
+                    variant = genotypeProvider.getVariant(rsId);
 
-                ArrayList<Variant> variantList = variantMap.get(chr);
+                    if (variant == null) {
+
+                        continue;
+
+                    }
+                }
+
+                ArrayList<Variant> variantList = variantMap.get(variant.chr);
 
                 if (variantList == null) {
 
                     variantList = new ArrayList<>();
-                    variantMap.put(chr, variantList);
+                    variantMap.put(variant.chr, variantList);
 
                 }
 
@@ -75,4 +171,25 @@ public class VariantPool {
 
         }
     }
+
+    /**
+     * Returns a reader for the given gzipped variants file.
+     *
+     * @param variantsFilePath the path to the variants file
+     *
+     * @return a reader for the file
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    private static BufferedReader getReader(String variantsFilePath) throws IOException {
+
+        File variantsFile = new File(variantsFilePath);
+        InputStream fileStream = new FileInputStream(variantsFile);
+        InputStream gzipStream = new GZIPInputStream(fileStream);
+        Reader decoder = new InputStreamReader(gzipStream, encoding);
+
+        return new BufferedReader(decoder);
+
+    }
 }
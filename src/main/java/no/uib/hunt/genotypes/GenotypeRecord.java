@@ -0,0 +1,124 @@
+package no.uib.hunt.genotypes;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import no.uib.hunt.model.Variant;
+
+/**
+ * The genotypes of a variant in a set of samples, as emitted by a genotype
+ * stream.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeRecord {
+
+    /**
+     * The variant.
+     */
+    public final Variant variant;
+    /**
+     * The indexes of the samples in the list of samples of the cohort, shared
+     * by all records of a stream.
+     */
+    public final int[] sampleIndexes;
+    /**
+     * The genotypes in the order of the samples.
+     */
+    public final Genotype[] genotypes;
+
+    /**
+     * Constructor.
+     *
+     * @param variant the variant
+     * @param sampleIndexes the indexes of the samples in the list of samples
+     * of the cohort
+     * @param genotypes the genotypes in the order of the samples
+     */
+    public GenotypeRecord(Variant variant, int[] sampleIndexes, Genotype[] genotypes) {
+
+        this.variant = variant;
+        this.sampleIndexes = sampleIndexes;
+        this.genotypes = genotypes;
+
+    }
+
+    /**
+     * Returns the dosage of the alternative allele for the given sample: the
+     * DS field if available, the number of alternative alleles called
+     * otherwise, NaN if missing.
+     *
+     * @param i the index of the sample in the record
+     *
+     * @return the dosage of the alternative allele
+     */
+    public double getDosage(int i) {
+
+        Genotype genotype = genotypes[i];
+
+        if (genotype == null) {
+
+            return Double.NaN;
+
+        }
+
+        Object ds = genotype.getExtendedAttribute("DS");
+
+        if (ds instanceof Number) {
+
+            return ((Number) ds).doubleValue();
+
+        }
+
+        if (ds != null && !ds.equals(".")) {
+
+            return Double.parseDouble(ds.toString());
+
+        }
+
+        if (genotype.isNoCall()) {
+
+            return Double.NaN;
+
+        }
+
+        int nAlt = 0;
+
+        for (Allele allele : genotype.getAlleles()) {
+
+            if (allele.isNonReference()) {
+
+                nAlt++;
+
+            }
+        }
+
+        return nAlt;
+
+    }
+
+    /**
+     * Returns the dosages of all samples, see getDosage.
+     *
+     * @param dosages an array to reuse, a new array is allocated if null or too
+     * short
+     *
+     * @return the dosages in the order of the samples
+     */
+    public double[] getDosages(double[] dosages) {
+
+        if (dosages == null || dosages.length < genotypes.length) {
+
+            dosages = new double[genotypes.length];
+
+        }
+
+        for (int i = 0; i < genotypes.length; i++) {
+
+            dosages[i] = getDosage(i);
+
+        }
+
+        return dosages;
+
+    }
+}
@@ -0,0 +1,148 @@
+package no.uib.hunt.genotypes;
+
+import htsjdk.variant.variantcontext.Genotype;
+import java.util.List;
+import java.util.stream.Stream;
+import no.uib.hunt.model.Variant;
+
+/**
+ * Interface for the backends providing genotypes.
+ *
+ * @author Marc Vaudel
+ */
+public interface GenotypeSource {
+
+    /**
+     * Hard call for a homozygous reference genotype.
+     */
+    public static final byte HOM_REF = 0;
+    /**
+     * Hard call for a heterozygous genotype, or a haploid genotype carrying
+     * the alternative allele.
+     */
+    public static final byte HET = 1;
+    /**
+     * Hard call for a homozygous alternative genotype.
+     */
+    public static final byte HOM_ALT = 2;
+    /**
+     * Hard call for a missing genotype.
+     */
+    public static final byte MISSING = 3;
+
+    /**
+     * Returns the list of samples in the cohort.
+     *
+     * @return the list of samples in the cohort
+     */
+    public List<String> getSamples();
+
+    /**
+     * Returns the indexes of the given samples in the list of samples of the
+     * cohort. The indexes are dense and can be resolved once for all queries.
+     *
+     * @param samples the samples of interest
+     *
+     * @return the indexes of the samples
+     */
+    public int[] getSampleIndexes(List<String> samples);
+
+    /**
+     * Writes the hard calls of a variant in the given samples: the number of
+     * alternative alleles, HOM_REF, HET or HOM_ALT, or MISSING. The calls are
+     * therefore also the alternative allele counts, a haploid call of the
+     * alternative allele is HET.
+     *
+     * @param variant the variant of interest
+     * @param sampleIndexes the indexes of the samples of interest
+     * @param calls the array where to write the calls, in the order of the
+     * sample indexes
+     *
+     * @return a boolean indicating whether the variant was found
+     */
+    public boolean getCalls(Variant variant, int[] sampleIndexes, byte[] calls);
+
+    /**
+     * Writes the dosages of the alternative allele of a variant in the given
+     * samples: the DS field if available, the dosage computed from the GP
+     * field otherwise, the hard call if no probabilities are available, NaN if
+     * missing.
+     *
+     * @param variant the variant of interest
+     * @param sampleIndexes the indexes of the samples of interest
+     * @param dosages the array where to write the dosages, in the order of the
+     * sample indexes
+     *
+     * @return a boolean indicating whether the variant was found
+     */
+    public boolean getDosages(Variant variant, int[] sampleIndexes, float[] dosages);
+
+    /**
+     * Returns the genotype for a given variant in a given sample.
+     *
+     * @param sample the sample of interest
+     * @param variant the variant of interest
+     *
+     * @return the genotype for a given variant in a given sample, null if the
+     * variant was not found
+     */
+    public Genotype getGenotype(String sample, Variant variant);
+
+    /**
+     * Returns the genotypes for a given variant in the given samples.
+     *
+     * @param samples the samples of interest
+     * @param variant the variant of interest
+     *
+     * @return the genotypes in the same order as the samples, null if the
+     * variant was not found
+     */
+    public Genotype[] getGenotypes(List<String> samples, Variant variant);
+
+    /**
+     * Returns the genotypes for the given variants in the given samples as a
+     * variants x samples matrix.
+     *
+     * @param samples the samples of interest
+     * @param variants the variants of interest
+     *
+     * @return the genotypes indexed by variant and sample in the order of the
+     * given lists, rows are null for variants not found
+     */
+    public Genotype[][] getGenotypes(List<String> samples, List<Variant> variants);
+
+    /**
+     * Returns a stream of the genotypes of the given variants in the given
+     * samples. The variants are queried in batches by a producer thread ahead
+     * of the consumer, with a bounded buffer, see GenotypeStream. Variants
+     * that are not found are skipped. Streams that are not consumed to the end
+     * must be closed.
+     *
+     * @param variants the variants of interest
+     * @param samples the samples of interest
+     *
+     * @return a stream of genotype records in the order of the variants
+     */
+    public default Stream<GenotypeRecord> streamGenotypes(Iterable<Variant> variants, List<String> samples) {
+
+        return GenotypeStream.stream(this, variants, samples);
+
+    }
+
+    /**
+     * Splits the given variants in work units of neighbouring variants on the
+     * same chromosome, to be queried by a single thread.
+     *
+     * @param variants the variants to split
+     * @param maxUnitSize the number of variants above which a unit is cut
+     *
+     * @return the work units, sorted by chromosome and position
+     */
+    public List<List<Variant>> partition(List<Variant> variants, int maxUnitSize);
+
+    /**
+     * Closes the files of this source.
+     */
+    public void close();
+
+}
@@ -0,0 +1,292 @@
+package no.uib.hunt.genotypes;
+
+import htsjdk.variant.variantcontext.Genotype;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import no.uib.hunt.model.Variant;
+
+/**
+ * Streams the genotypes of a sequence of variants. A producer thread queries
+ * the variants in batches and puts the records in a bounded buffer; when the
+ * buffer is full, the producer waits for the consumer. Memory use is
+ * therefore bounded by the batch and buffer sizes whatever the number of
+ * variants. Closing the stream cancels the production, streams that are not
+ * consumed to the end must be closed.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeStream implements Spliterator<GenotypeRecord>, AutoCloseable {
+
+    /**
+     * The default number of variants queried at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    /**
+     * The default number of records buffered ahead of the consumer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    /**
+     * The time the producer waits for room in the buffer before checking for
+     * cancellation, in milliseconds.
+     */
+    private static final long OFFER_TIMEOUT = 100;
+    /**
+     * Record marking the end of the stream.
+     */
+    private static final GenotypeRecord END = new GenotypeRecord(null, null, null);
+
+    /**
+     * The source of the genotypes.
+     */
+    private final GenotypeSource genotypeSource;
+    /**
+     * The variants to query.
+     */
+    private final Iterator<Variant> variants;
+    /**
+     * The samples of interest.
+     */
+    private final List<String> samples;
+    /**
+     * The indexes of the samples in the list of samples of the cohort.
+     */
+    private final int[] sampleIndexes;
+    /**
+     * The number of variants queried at once.
+     */
+    private final int batchSize;
+    /**
+     * The records produced and not yet consumed.
+     */
+    private final ArrayBlockingQueue<GenotypeRecord> buffer;
+    /**
+     * Boolean indicating whether the stream was cancelled.
+     */
+    private volatile boolean cancelled = false;
+    /**
+     * The exception raised by the producer, if any.
+     */
+    private volatile Throwable failure = null;
+    /**
+     * Boolean indicating whether the end of the stream was reached.
+     */
+    private boolean ended = false;
+
+    /**
+     * Constructor, starts the production.
+     *
+     * @param genotypeSource the source of the genotypes
+     * @param variants the variants to query
+     * @param samples the samples of interest
+     * @param batchSize the number of variants queried at once
+     * @param bufferSize the number of records buffered ahead of the consumer
+     */
+    public GenotypeStream(GenotypeSource genotypeSource, Iterable<Variant> variants, List<String> samples, int batchSize, int bufferSize) {
+
+        this.genotypeSource = genotypeSource;
+        this.variants = variants.iterator();
+        this.samples = samples;
+        this.sampleIndexes = genotypeSource.getSampleIndexes(samples);
+        this.batchSize = batchSize;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+
+        Thread producer = new Thread(this::produce, "hunt-genotype-stream");
+        producer.setDaemon(true);
+        producer.start();
+
+    }
+
+    /**
+     * Returns a stream of the genotypes of the given variants in the given
+     * samples, using the default batch and buffer sizes. Variants that are not
+     * found are skipped.
+     *
+     * @param genotypeSource the source of the genotypes
+     * @param variants the variants to query
+     * @param samples the samples of interest
+     *
+     * @return a stream of genotype records in the order of the variants
+     */
+    public static Stream<GenotypeRecord> stream(GenotypeSource genotypeSource, Iterable<Variant> variants, List<String> samples) {
+
+        return stream(genotypeSource, variants, samples, DEFAULT_BATCH_SIZE, DEFAULT_BUFFER_SIZE);
+
+    }
+
+    /**
+     * Returns a stream of the genotypes of the given variants in the given
+     * samples. Variants that are not found are skipped. Closing the stream
+     * cancels the production.
+     *
+     * @param genotypeSource the source of the genotypes
+     * @param variants the variants to query
+     * @param samples the samples of interest
+     * @param batchSize the number of variants queried at once
+     * @param bufferSize the number of records buffered ahead of the consumer
+     *
+     * @return a stream of genotype records in the order of the variants
+     */
+    public static Stream<GenotypeRecord> stream(GenotypeSource genotypeSource, Iterable<Variant> variants, List<String> samples, int batchSize, int bufferSize) {
+
+        GenotypeStream genotypeStream = new GenotypeStream(genotypeSource, variants, samples, batchSize, bufferSize);
+
+        return StreamSupport.stream(genotypeStream, false)
+                .onClose(genotypeStream::close);
+
+    }
+
+    /**
+     * Queries the variants batch by batch and puts the records in the buffer
+     * until all variants are queried or the stream is cancelled.
+     */
+    private void produce() {
+
+        try {
+
+            ArrayList<Variant> batch = new ArrayList<>(batchSize);
+
+            while (variants.hasNext() && !cancelled) {
+
+                batch.clear();
+
+                while (variants.hasNext() && batch.size() < batchSize) {
+
+                    batch.add(variants.next());
+
+                }
+
+                Genotype[][] genotypes = genotypeSource.getGenotypes(samples, batch);
+
+                for (int i = 0; i < genotypes.length && !cancelled; i++) {
+
+                    if (genotypes[i] != null) {
+
+                        put(new GenotypeRecord(batch.get(i), sampleIndexes, genotypes[i]));
+
+                    }
+                }
+            }
+
+        } catch (Throwable e) {
+
+            failure = e;
+
+        } finally {
+
+            try {
+
+                put(END);
+
+            } catch (InterruptedException e) {
+
+                // Nobody is waiting for the end of the stream
+
+            }
+        }
+    }
+
+    /**
+     * Puts a record in the buffer, waiting for room unless the stream is
+     * cancelled.
+     *
+     * @param record the record
+     *
+     * @throws InterruptedException exception thrown if the producer was
+     * interrupted while waiting
+     */
+    private void put(GenotypeRecord record) throws InterruptedException {
+
+        while (!cancelled) {
+
+            if (buffer.offer(record, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+
+                return;
+
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super GenotypeRecord> action) {
+
+        if (ended) {
+
+            return false;
+
+        }
+
+        GenotypeRecord record;
+
+        try {
+
+            record = buffer.take();
+
+        } catch (InterruptedException e) {
+
+            close();
+
+            throw new RuntimeException(e);
+
+        }
+
+        if (record == END) {
+
+            ended = true;
+
+            if (failure != null) {
+
+                throw new RuntimeException(failure);
+
+            }
+
+            return false;
+
+        }
+
+        action.accept(record);
+
+        return true;
+
+    }
+
+    @Override
+    public Spliterator<GenotypeRecord> trySplit() {
+
+        return null;
+
+    }
+
+    @Override
+    public long estimateSize() {
+
+        return Long.MAX_VALUE;
+
+    }
+
+    @Override
+    public int characteristics() {
+
+        return ORDERED | NONNULL;
+
+    }
+
+    /**
+     * Cancels the production. The producer stops after the batch in progress
+     * and the buffered records are released.
+     */
+    @Override
+    public void close() {
+
+        cancelled = true;
+        ended = true;
+        buffer.clear();
+
+    }
+}
@@ -0,0 +1,478 @@
+package no.uib.hunt.genotypes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs genotype queries in parallel according to a scheduling mode: a fixed
+ * pool of platform threads processing even chunks of queries, a work-stealing
+ * pool splitting the queries into fine-grained tasks, or a thread per query
+ * for I/O bound lookups. Queries are submitted from a thread outside the
+ * scheduler; nested calls from a query may deadlock the fixed pool.
+ *
+ * @author Marc Vaudel
+ */
+public class QueryScheduler implements AutoCloseable {
+
+    /**
+     * The scheduling modes.
+     */
+    public enum Mode {
+
+        /**
+         * A fixed pool of platform threads, the queries are split in a few
+         * chunks per thread.
+         */
+        FIXED,
+        /**
+         * A work-stealing pool, the queries are split recursively down to
+         * single queries and idle threads steal the remaining work.
+         */
+        WORK_STEALING,
+        /**
+         * A thread per query, virtual threads when the runtime provides them,
+         * the number of queries in flight is limited by the concurrency.
+         */
+        THREAD_PER_QUERY;
+
+        /**
+         * Returns the mode corresponding to a command line value, e.g.
+         * "work-stealing".
+         *
+         * @param value the command line value
+         *
+         * @return the mode
+         */
+        public static Mode parse(String value) {
+
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+
+        }
+    }
+
+    /**
+     * The number of chunks per thread in the fixed mode.
+     */
+    public static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * The scheduling mode.
+     */
+    private final Mode mode;
+    /**
+     * The number of threads of the pools, or the maximal number of queries in
+     * flight in the thread per query mode.
+     */
+    private final int concurrency;
+    /**
+     * The executor running the queries.
+     */
+    private final ExecutorService executor;
+    /**
+     * Semaphore limiting the number of queries in flight in the thread per
+     * query mode.
+     */
+    private final Semaphore inFlight;
+    /**
+     * Boolean indicating whether the thread per query mode uses virtual
+     * threads.
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param mode the scheduling mode
+     * @param concurrency the number of threads of the pools, or the maximal
+     * number of queries in flight in the thread per query mode
+     */
+    public QueryScheduler(Mode mode, int concurrency) {
+
+        if (concurrency < 1) {
+
+            throw new IllegalArgumentException("Concurrency must be at least 1, " + concurrency + " found.");
+
+        }
+
+        this.mode = mode;
+        this.concurrency = concurrency;
+
+        switch (mode) {
+
+            case FIXED:
+                executor = Executors.newFixedThreadPool(concurrency, getThreadFactory("hunt-query-"));
+                inFlight = null;
+                virtualThreads = false;
+                break;
+
+            case WORK_STEALING:
+                executor = new ForkJoinPool(concurrency);
+                inFlight = null;
+                virtualThreads = false;
+                break;
+
+            case THREAD_PER_QUERY:
+                ExecutorService virtualExecutor = getVirtualThreadExecutor();
+                virtualThreads = virtualExecutor != null;
+                executor = virtualThreads ? virtualExecutor : Executors.newCachedThreadPool(getThreadFactory("hunt-query-"));
+                inFlight = new Semaphore(concurrency);
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Mode " + mode + " not implemented.");
+
+        }
+    }
+
+    /**
+     * Returns the scheduling mode.
+     *
+     * @return the scheduling mode
+     */
+    public Mode getMode() {
+
+        return mode;
+
+    }
+
+    /**
+     * Returns the concurrency.
+     *
+     * @return the concurrency
+     */
+    public int getConcurrency() {
+
+        return concurrency;
+
+    }
+
+    /**
+     * Runs the given query on every item and waits for all queries to
+     * complete. The first failure is rethrown once the other queries are
+     * cancelled.
+     *
+     * @param <T> the type of items
+     * @param items the items to query
+     * @param query the query to run on every item
+     */
+    public <T> void forEach(List<T> items, Consumer<? super T> query) {
+
+        switch (mode) {
+
+            case FIXED:
+                int chunkSize = Math.max(1, (items.size() + CHUNKS_PER_THREAD * concurrency - 1) / (CHUNKS_PER_THREAD * concurrency));
+                runChunks(items, chunkSize, query);
+                break;
+
+            case WORK_STEALING:
+                ((ForkJoinPool) executor).invoke(new ForEachAction<>(items, 0, items.size(), query));
+                break;
+
+            case THREAD_PER_QUERY:
+                runChunks(items, 1, query);
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Mode " + mode + " not implemented.");
+
+        }
+    }
+
+    /**
+     * Splits the items in consecutive batches of the given size and runs the
+     * given query on every batch.
+     *
+     * @param <T> the type of items
+     * @param items the items to query
+     * @param batchSize the number of items per batch
+     * @param query the query to run on every batch
+     */
+    public <T> void forEachBatch(List<T> items, int batchSize, Consumer<List<T>> query) {
+
+        ArrayList<List<T>> batches = new ArrayList<>((items.size() + batchSize - 1) / batchSize);
+
+        for (int start = 0; start < items.size(); start += batchSize) {
+
+            batches.add(items.subList(start, Math.min(start + batchSize, items.size())));
+
+        }
+
+        forEach(batches, query);
+
+    }
+
+    /**
+     * Returns the size of batches splitting the given number of items evenly
+     * between the threads.
+     *
+     * @param nItems the number of items
+     *
+     * @return the size of batches
+     */
+    public int getBatchSize(int nItems) {
+
+        return Math.max(1, (nItems + concurrency - 1) / concurrency);
+
+    }
+
+    /**
+     * Submits the items to the executor in chunks of the given size and waits
+     * for their completion. After the first failure no more chunks are
+     * submitted and the running chunks skip their remaining items, the
+     * failure is then rethrown. If the calling thread is interrupted, the
+     * tasks are cancelled and the interrupt status is restored.
+     *
+     * @param <T> the type of items
+     * @param items the items to query
+     * @param chunkSize the number of items per task
+     * @param query the query to run on every item
+     */
+    private <T> void runChunks(List<T> items, int chunkSize, Consumer<? super T> query) {
+
+        ArrayList<Future<?>> futures = new ArrayList<>((items.size() + chunkSize - 1) / chunkSize);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+
+            for (int start = 0; start < items.size() && failure.get() == null; start += chunkSize) {
+
+                List<T> chunk = items.subList(start, Math.min(start + chunkSize, items.size()));
+
+                Runnable task = () -> {
+
+                    try {
+
+                        for (T item : chunk) {
+
+                            if (failure.get() != null) {
+
+                                return;
+
+                            }
+
+                            query.accept(item);
+
+                        }
+
+                    } catch (RuntimeException | Error e) {
+
+                        failure.compareAndSet(null, e);
+
+                        throw e;
+
+                    }
+                };
+
+                if (inFlight != null) {
+
+                    inFlight.acquire();
+
+                    try {
+
+                        futures.add(executor.submit(() -> {
+
+                            try {
+
+                                task.run();
+
+                            } finally {
+
+                                inFlight.release();
+
+                            }
+                        }));
+
+                    } catch (RuntimeException e) {
+
+                        inFlight.release();
+
+                        throw e;
+
+                    }
+
+                } else {
+
+                    futures.add(executor.submit(task));
+
+                }
+            }
+
+            for (Future<?> future : futures) {
+
+                future.get();
+
+            }
+
+        } catch (InterruptedException e) {
+
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+
+            throw new RuntimeException(e);
+
+        } catch (ExecutionException e) {
+
+            futures.forEach(future -> future.cancel(true));
+
+            Throwable cause = failure.get() != null ? failure.get() : e.getCause();
+
+            if (cause instanceof RuntimeException) {
+
+                throw (RuntimeException) cause;
+
+            }
+
+            if (cause instanceof Error) {
+
+                throw (Error) cause;
+
+            }
+
+            throw new RuntimeException(cause);
+
+        } catch (RuntimeException e) {
+
+            futures.forEach(future -> future.cancel(true));
+
+            throw e;
+
+        }
+    }
+
+    /**
+     * Returns an executor creating a virtual thread per task if the runtime
+     * supports it, null otherwise.
+     *
+     * @return an executor creating a virtual thread per task, null if not
+     * supported
+     */
+    private static ExecutorService getVirtualThreadExecutor() {
+
+        try {
+
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+        } catch (ReflectiveOperationException e) {
+
+            return null;
+
+        }
+    }
+
+    /**
+     * Returns a factory of daemon threads named with the given prefix and a
+     * number.
+     *
+     * @param prefix the prefix of the thread names
+     *
+     * @return a factory of daemon threads
+     */
+    private static ThreadFactory getThreadFactory(String prefix) {
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+
+        };
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+
+    }
+
+    @Override
+    public String toString() {
+
+        String threads = mode == Mode.THREAD_PER_QUERY
+                ? concurrency + " queries in flight on " + (virtualThreads ? "virtual" : "platform") + " threads"
+                : concurrency + " threads";
+
+        return mode.name().toLowerCase().replace('_', '-') + " scheduler, " + threads;
+
+    }
+
+    /**
+     * Action splitting a range of items in halves until single items are
+     * left.
+     *
+     * @param <T> the type of items
+     */
+    private static class ForEachAction<T> extends RecursiveAction {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The items.
+         */
+        private final List<T> items;
+        /**
+         * The start of the range.
+         */
+        private final int start;
+        /**
+         * The end of the range (exclusive).
+         */
+        private final int end;
+        /**
+         * The query to run on every item.
+         */
+        private final Consumer<? super T> query;
+
+        /**
+         * Constructor.
+         *
+         * @param items the items
+         * @param start the start of the range
+         * @param end the end of the range (exclusive)
+         * @param query the query to run on every item
+         */
+        private ForEachAction(List<T> items, int start, int end, Consumer<? super T> query) {
+
+            this.items = items;
+            this.start = start;
+            this.end = end;
+            this.query = query;
+
+        }
+
+        @Override
+        protected void compute() {
+
+            if (end - start == 1) {
+
+                query.accept(items.get(start));
+
+            } else if (end > start) {
+
+                int middle = (start + end) >>> 1;
+
+                invokeAll(new ForEachAction<>(items, start, middle, query),
+                        new ForEachAction<>(items, middle, end, query));
+
+            }
+        }
+    }
+}
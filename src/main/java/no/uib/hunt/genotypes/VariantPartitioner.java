@@ -0,0 +1,95 @@
+package no.uib.hunt.genotypes;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import no.uib.hunt.model.Variant;
+
+/**
+ * Splits lists of variants in work units of neighbouring variants on the same
+ * chromosome, so that a thread processing a unit reads a contiguous slice of a
+ * single file.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantPartitioner {
+
+    /**
+     * The number of work units per thread, leaving room for idle threads to
+     * steal units.
+     */
+    public static final int UNITS_PER_THREAD = 4;
+
+    /**
+     * Constructor.
+     */
+    private VariantPartitioner() {
+
+    }
+
+    /**
+     * Returns the number of variants above which a unit is cut so that every
+     * thread gets UNITS_PER_THREAD units.
+     *
+     * @param nVariants the number of variants to query
+     * @param nThreads the number of threads
+     *
+     * @return the maximal number of variants per unit
+     */
+    public static int getMaxUnitSize(int nVariants, int nThreads) {
+
+        int nUnits = UNITS_PER_THREAD * nThreads;
+
+        return Math.max(1, (nVariants + nUnits - 1) / nUnits);
+
+    }
+
+    /**
+     * Splits the given variants in work units by chromosome and position
+     * range. Variants are sorted by chromosome and position, and units are cut
+     * at chromosome changes, or when they reach the maximal size, between two
+     * positions.
+     *
+     * @param variants the variants to split
+     * @param maxUnitSize the number of variants above which a unit is cut
+     *
+     * @return the work units, sorted by chromosome and position
+     */
+    public static List<List<Variant>> partitionByPosition(List<Variant> variants, int maxUnitSize) {
+
+        ArrayList<Variant> sorted = new ArrayList<>(variants);
+        sorted.sort(Comparator.comparing((Variant variant) -> variant.chr)
+                .thenComparingInt(variant -> variant.bp));
+
+        ArrayList<List<Variant>> units = new ArrayList<>();
+        ArrayList<Variant> unit = new ArrayList<>();
+
+        for (Variant variant : sorted) {
+
+            if (!unit.isEmpty()) {
+
+                Variant previous = unit.get(unit.size() - 1);
+
+                if (!variant.chr.equals(previous.chr)
+                        || unit.size() >= maxUnitSize && variant.bp != previous.bp) {
+
+                    units.add(unit);
+                    unit = new ArrayList<>();
+
+                }
+            }
+
+            unit.add(variant);
+
+        }
+
+        if (!unit.isEmpty()) {
+
+            units.add(unit);
+
+        }
+
+        return units;
+
+    }
+}
@@ -0,0 +1,173 @@
+package no.uib.hunt.genotypes;
+
+import no.uib.hunt.model.Variant;
+
+/**
+ * Aggregate statistics of the hard calls of a variant in a set of samples.
+ * Haploid calls carrying the alternative allele are counted as heterozygous,
+ * one copy of the allele, and allele frequencies are computed over the number
+ * of called alleles.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantSummary {
+
+    /**
+     * The index of the number of called alleles in the counts.
+     */
+    public static final int CALLED_ALLELES = GenotypeSource.MISSING + 1;
+    /**
+     * The number of counts.
+     */
+    public static final int N_COUNTS = CALLED_ALLELES + 1;
+    /**
+     * The variant.
+     */
+    public final Variant variant;
+    /**
+     * The reference allele.
+     */
+    public final String ref;
+    /**
+     * The alternative allele.
+     */
+    public final String alt;
+    /**
+     * The number of samples homozygous for the reference allele.
+     */
+    public final int nHomRef;
+    /**
+     * The number of heterozygous samples.
+     */
+    public final int nHet;
+    /**
+     * The number of samples homozygous for the alternative allele.
+     */
+    public final int nHomAlt;
+    /**
+     * The number of samples without call.
+     */
+    public final int nMissing;
+    /**
+     * The number of alleles of the called samples, two per diploid call and
+     * one per haploid call.
+     */
+    public final int nCalledAlleles;
+
+    /**
+     * Constructor.
+     *
+     * @param variant the variant
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param counts the number of samples per call, see
+     * GenotypeSource.getCalls, followed by the number of called alleles
+     */
+    public VariantSummary(Variant variant, String ref, String alt, int[] counts) {
+
+        this.variant = variant;
+        this.ref = ref;
+        this.alt = alt;
+        this.nHomRef = counts[GenotypeSource.HOM_REF];
+        this.nHet = counts[GenotypeSource.HET];
+        this.nHomAlt = counts[GenotypeSource.HOM_ALT];
+        this.nMissing = counts[GenotypeSource.MISSING];
+        this.nCalledAlleles = counts[CALLED_ALLELES];
+
+    }
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return the number of samples
+     */
+    public int getNSamples() {
+
+        return nHomRef + nHet + nHomAlt + nMissing;
+
+    }
+
+    /**
+     * Returns the number of samples with a call.
+     *
+     * @return the number of samples with a call
+     */
+    public int getNCalled() {
+
+        return nHomRef + nHet + nHomAlt;
+
+    }
+
+    /**
+     * Returns the number of samples carrying at least one copy of the
+     * alternative allele.
+     *
+     * @return the number of carriers
+     */
+    public int getNCarriers() {
+
+        return nHet + nHomAlt;
+
+    }
+
+    /**
+     * Returns the number of copies of the alternative allele among the called
+     * samples.
+     *
+     * @return the alternative allele count
+     */
+    public int getAltAlleleCount() {
+
+        return nHet + 2 * nHomAlt;
+
+    }
+
+    /**
+     * Returns the share of samples without call.
+     *
+     * @return the missingness, NaN if no sample
+     */
+    public double getMissingness() {
+
+        return ((double) nMissing) / getNSamples();
+
+    }
+
+    /**
+     * Returns the frequency of the alternative allele among the alleles of
+     * the called samples.
+     *
+     * @return the alternative allele frequency, NaN if no sample is called
+     */
+    public double getAltAlleleFrequency() {
+
+        return ((double) getAltAlleleCount()) / nCalledAlleles;
+
+    }
+
+    /**
+     * Returns the frequency of the given allele among the called samples.
+     *
+     * @param allele the allele
+     *
+     * @return the frequency of the allele, NaN if it is neither the reference
+     * nor the alternative allele or if no sample is called
+     */
+    public double getAlleleFrequency(String allele) {
+
+        if (allele.equals(alt)) {
+
+            return getAltAlleleFrequency();
+
+        }
+
+        if (allele.equals(ref)) {
+
+            return 1 - getAltAlleleFrequency();
+
+        }
+
+        return Double.NaN;
+
+    }
+}
@@ -0,0 +1,1430 @@
+package no.uib.hunt.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Compact catalogue of variants stored as parallel primitive arrays: a
+ * chromosome code per variant as byte, positions as int and rsIds as numeric
+ * keys, the rs number for ids of the form rs123 and a negative index in a
+ * table of strings otherwise. Once sorted, variants are ordered by chromosome
+ * and position and can be searched per chromosome by binary search, and by
+ * rsId. Lists of Variant objects are available as views, the objects are
+ * created on access.
+ *
+ * A catalogue is filled and sorted by a single thread, once sorted it can be
+ * read concurrently.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantCatalogue {
+
+    /**
+     * The maximal number of chromosomes.
+     */
+    public static final int MAX_CHROMOSOMES = 256;
+    /**
+     * The default initial capacity.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Magic number at the start of the binary files.
+     */
+    public static final int MAGIC = 0x48564354;
+    /**
+     * Version of the binary file format.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The rsId key of variants without rsId.
+     */
+    public static final long NO_RSID = Long.MIN_VALUE;
+    /**
+     * The maximal number of digits of the rs numbers stored as numeric keys.
+     */
+    private static final int MAX_RS_DIGITS = 18;
+    /**
+     * The chromosome names indexed by code.
+     */
+    private final ArrayList<String> chromosomes = new ArrayList<>();
+    /**
+     * The chromosome codes indexed by name.
+     */
+    private final HashMap<String, Integer> chromosomeCodes = new HashMap<>();
+    /**
+     * The rsIds that cannot be stored as numbers.
+     */
+    private final ArrayList<String> rsIdTable = new ArrayList<>();
+    /**
+     * The index of the rsIds in the table.
+     */
+    private final HashMap<String, Integer> rsIdTableIndexes = new HashMap<>();
+    /**
+     * The chromosome code of every variant.
+     */
+    private byte[] chrCodes;
+    /**
+     * The position of every variant.
+     */
+    private int[] positions;
+    /**
+     * The rsId key of every variant.
+     */
+    private long[] rsIdKeys;
+    /**
+     * Boolean indicating whether the rsIds are stored, if not the rsId key of
+     * every variant is NO_RSID.
+     */
+    private final boolean rsIds;
+    /**
+     * Boolean indicating whether the chromosomes are stored, if not the
+     * chromosome of every variant is null.
+     */
+    private final boolean storesChromosomes;
+    /**
+     * Boolean indicating whether the positions are stored, if not the
+     * position of every variant is 0.
+     */
+    private final boolean storesPositions;
+    /**
+     * The risk allele of every variant, null if alleles are not stored.
+     */
+    private String[] riskAlleles = null;
+    /**
+     * The other allele of every variant, null if alleles are not stored.
+     */
+    private String[] otherAlleles = null;
+    /**
+     * The risk allele frequency of every variant, null if weights are not
+     * stored.
+     */
+    private double[] riskAlleleFrequencies = null;
+    /**
+     * The weight of every variant, null if weights are not stored.
+     */
+    private double[] weights = null;
+    /**
+     * The number of variants.
+     */
+    private int size = 0;
+    /**
+     * The index of the first variant of every chromosome code once sorted,
+     * the variants of chromosome code c are between chrStarts[c] and
+     * chrStarts[c + 1] (exclusive).
+     */
+    private int[] chrStarts = null;
+    /**
+     * The indexes of the variants sorted by rsId key once sorted.
+     */
+    private int[] rsIdOrder = null;
+
+    /**
+     * Constructor.
+     */
+    public VariantCatalogue() {
+
+        this(DEFAULT_CAPACITY);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial number of variants the catalogue can hold
+     */
+    public VariantCatalogue(int capacity) {
+
+        this(capacity, false, false);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial number of variants the catalogue can hold
+     * @param alleles boolean indicating whether the risk and other alleles
+     * should be stored
+     * @param weights boolean indicating whether the risk allele frequencies
+     * and weights should be stored
+     */
+    public VariantCatalogue(int capacity, boolean alleles, boolean weights) {
+
+        this(capacity, true, true, true, alleles, weights);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial number of variants the catalogue can hold
+     * @param rsIds boolean indicating whether the rsIds are stored
+     * @param chromosomes boolean indicating whether the chromosomes are
+     * stored
+     * @param positions boolean indicating whether the positions are stored
+     * @param alleles boolean indicating whether the risk and other alleles
+     * should be stored
+     * @param weights boolean indicating whether the risk allele frequencies
+     * and weights should be stored
+     */
+    public VariantCatalogue(int capacity, boolean rsIds, boolean chromosomes, boolean positions, boolean alleles, boolean weights) {
+
+        this.rsIds = rsIds;
+        this.storesChromosomes = chromosomes;
+        this.storesPositions = positions;
+        capacity = Math.max(capacity, 1);
+
+        chrCodes = new byte[capacity];
+        this.positions = new int[capacity];
+        rsIdKeys = new long[capacity];
+
+        if (alleles) {
+
+            riskAlleles = new String[capacity];
+            otherAlleles = new String[capacity];
+
+        }
+
+        if (weights) {
+
+            riskAlleleFrequencies = new double[capacity];
+            this.weights = new double[capacity];
+
+        }
+    }
+
+    /**
+     * Adds a variant. The catalogue must be sorted again before searching.
+     *
+     * @param rsId the marker rs id, null if none
+     * @param chr the chromosome
+     * @param bp the position
+     *
+     * @return the index of the variant
+     */
+    public int add(String rsId, String chr, int bp) {
+
+        return add(rsId == null ? NO_RSID : getRsIdKey(rsId, true), chr, bp);
+
+    }
+
+    /**
+     * Adds a variant with an rsId of the form rs123 given by its number. The
+     * catalogue must be sorted again before searching.
+     *
+     * @param rsNumber the number of the rsId, NO_RSID if none
+     * @param chr the chromosome
+     * @param bp the position
+     *
+     * @return the index of the variant
+     */
+    public int addRsNumber(long rsNumber, String chr, int bp) {
+
+        if (rsNumber < 0 && rsNumber != NO_RSID) {
+
+            throw new IllegalArgumentException("Negative rs number " + rsNumber + ".");
+
+        }
+
+        return add(rsNumber, chr, bp);
+
+    }
+
+    /**
+     * Adds a variant given its rsId key.
+     *
+     * @param rsIdKey the rsId key
+     * @param chr the chromosome
+     * @param bp the position
+     *
+     * @return the index of the variant
+     */
+    private int add(long rsIdKey, String chr, int bp) {
+
+        if (size == positions.length) {
+
+            grow(size + (size >> 1) + 1);
+
+        }
+
+        chrCodes[size] = (byte) getChrCode(chr);
+        positions[size] = bp;
+        rsIdKeys[size] = rsIdKey;
+
+        chrStarts = null;
+        rsIdOrder = null;
+
+        return size++;
+
+    }
+
+    /**
+     * Grows the arrays to the given capacity.
+     *
+     * @param capacity the new capacity
+     */
+    private void grow(int capacity) {
+
+        chrCodes = Arrays.copyOf(chrCodes, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        rsIdKeys = Arrays.copyOf(rsIdKeys, capacity);
+
+        if (riskAlleles != null) {
+
+            riskAlleles = Arrays.copyOf(riskAlleles, capacity);
+            otherAlleles = Arrays.copyOf(otherAlleles, capacity);
+
+        }
+
+        if (weights != null) {
+
+            riskAlleleFrequencies = Arrays.copyOf(riskAlleleFrequencies, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+
+        }
+    }
+
+    /**
+     * Sets the alleles of a variant.
+     *
+     * @param i the index of the variant
+     * @param riskAllele the risk allele
+     * @param otherAllele the other allele
+     */
+    public void setAlleles(int i, String riskAllele, String otherAllele) {
+
+        if (riskAlleles == null) {
+
+            throw new IllegalStateException("Alleles not stored in this catalogue.");
+
+        }
+
+        riskAlleles[i] = riskAllele;
+        otherAlleles[i] = otherAllele;
+
+    }
+
+    /**
+     * Sets the risk allele frequency and weight of a variant.
+     *
+     * @param i the index of the variant
+     * @param riskAlleleFrequency the risk allele frequency, between 0 and 1,
+     * NaN if not available
+     * @param weight the weight of a copy of the risk allele
+     */
+    public void setWeight(int i, double riskAlleleFrequency, double weight) {
+
+        if (weights == null) {
+
+            throw new IllegalStateException("Weights not stored in this catalogue.");
+
+        }
+
+        riskAlleleFrequencies[i] = riskAlleleFrequency;
+        weights[i] = weight;
+
+    }
+
+    /**
+     * Returns the code of a chromosome, registering it if needed.
+     *
+     * @param chr the chromosome name
+     *
+     * @return the code of the chromosome
+     */
+    private int getChrCode(String chr) {
+
+        Integer code = chromosomeCodes.get(chr);
+
+        if (code == null) {
+
+            if (chromosomes.size() == MAX_CHROMOSOMES) {
+
+                throw new IllegalArgumentException("More than " + MAX_CHROMOSOMES + " chromosomes in catalogue.");
+
+            }
+
+            code = chromosomes.size();
+            chromosomes.add(chr);
+            chromosomeCodes.put(chr, code);
+
+        }
+
+        return code;
+
+    }
+
+    /**
+     * Returns the key of an rsId: the rs number for ids of the form rs123,
+     * minus one minus the index in the table of strings otherwise.
+     *
+     * @param rsId the rsId
+     * @param register boolean indicating whether an rsId missing from the
+     * table of strings should be registered
+     *
+     * @return the key of the rsId, NO_RSID if not registered
+     */
+    private long getRsIdKey(String rsId, boolean register) {
+
+        int length = rsId.length();
+
+        if (length > 2 && length <= MAX_RS_DIGITS + 2 && rsId.startsWith("rs") && rsId.charAt(2) != '0') {
+
+            long key = 0;
+            int i = 2;
+
+            for (; i < length; i++) {
+
+                char c = rsId.charAt(i);
+
+                if (c < '0' || c > '9') {
+
+                    break;
+
+                }
+
+                key = 10 * key + (c - '0');
+
+            }
+
+            if (i == length) {
+
+                return key;
+
+            }
+        }
+
+        Integer index = rsIdTableIndexes.get(rsId);
+
+        if (index == null) {
+
+            if (!register) {
+
+                return NO_RSID;
+
+            }
+
+            index = rsIdTable.size();
+            rsIdTable.add(rsId);
+            rsIdTableIndexes.put(rsId, index);
+
+        }
+
+        return -1L - index;
+
+    }
+
+    /**
+     * Sorts the variants by chromosome and position, chromosomes in the order
+     * they were added, and indexes them by rsId. The arrays are trimmed to the
+     * number of variants.
+     */
+    public void sort() {
+
+        int nChromosomes = chromosomes.size();
+        int[] starts = new int[nChromosomes + 1];
+
+        for (int i = 0; i < size; i++) {
+
+            starts[(chrCodes[i] & 0xff) + 1]++;
+
+        }
+
+        for (int c = 0; c < nChromosomes; c++) {
+
+            starts[c + 1] += starts[c];
+
+        }
+
+        long[] keys = new long[size];
+        int[] next = Arrays.copyOf(starts, nChromosomes);
+
+        for (int i = 0; i < size; i++) {
+
+            keys[next[chrCodes[i] & 0xff]++] = (((long) positions[i]) << 32) | i;
+
+        }
+
+        int[] order = new int[size];
+
+        for (int c = 0; c < nChromosomes; c++) {
+
+            Arrays.sort(keys, starts[c], starts[c + 1]);
+
+            for (int j = starts[c]; j < starts[c + 1]; j++) {
+
+                order[j] = (int) keys[j];
+
+            }
+        }
+
+        byte[] sortedChrCodes = new byte[size];
+        int[] sortedPositions = new int[size];
+        long[] sortedRsIdKeys = new long[size];
+
+        for (int j = 0; j < size; j++) {
+
+            int i = order[j];
+
+            sortedChrCodes[j] = chrCodes[i];
+            sortedPositions[j] = positions[i];
+            sortedRsIdKeys[j] = rsIdKeys[i];
+
+        }
+
+        chrCodes = sortedChrCodes;
+        positions = sortedPositions;
+        rsIdKeys = sortedRsIdKeys;
+
+        if (riskAlleles != null) {
+
+            String[] sortedRiskAlleles = new String[size];
+            String[] sortedOtherAlleles = new String[size];
+
+            for (int j = 0; j < size; j++) {
+
+                sortedRiskAlleles[j] = riskAlleles[order[j]];
+                sortedOtherAlleles[j] = otherAlleles[order[j]];
+
+            }
+
+            riskAlleles = sortedRiskAlleles;
+            otherAlleles = sortedOtherAlleles;
+
+        }
+
+        if (weights != null) {
+
+            double[] sortedRiskAlleleFrequencies = new double[size];
+            double[] sortedWeights = new double[size];
+
+            for (int j = 0; j < size; j++) {
+
+                sortedRiskAlleleFrequencies[j] = riskAlleleFrequencies[order[j]];
+                sortedWeights[j] = weights[order[j]];
+
+            }
+
+            riskAlleleFrequencies = sortedRiskAlleleFrequencies;
+            weights = sortedWeights;
+
+        }
+
+        chrStarts = starts;
+        rsIdOrder = sortByRsIdKey(rsIdKeys, size);
+
+    }
+
+    /**
+     * Returns the indexes of the variants sorted by rsId key, ties in index
+     * order.
+     *
+     * @param rsIdKeys the rsId keys
+     * @param size the number of variants
+     *
+     * @return the indexes of the variants sorted by rsId key
+     */
+    private static int[] sortByRsIdKey(long[] rsIdKeys, int size) {
+
+        int[] order = new int[size];
+
+        for (int i = 0; i < size; i++) {
+
+            order[i] = i;
+
+        }
+
+        int[] buffer = new int[size];
+
+        for (int width = 1; width < size; width <<= 1) {
+
+            for (int start = 0; start < size; start += 2 * width) {
+
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                int left = start;
+                int right = middle;
+
+                for (int k = start; k < end; k++) {
+
+                    if (right >= end || left < middle && rsIdKeys[order[left]] <= rsIdKeys[order[right]]) {
+
+                        buffer[k] = order[left++];
+
+                    } else {
+
+                        buffer[k] = order[right++];
+
+                    }
+                }
+            }
+
+            int[] temp = order;
+            order = buffer;
+            buffer = temp;
+
+        }
+
+        return order;
+
+    }
+
+    /**
+     * Throws an exception if the catalogue is not sorted.
+     */
+    private void checkSorted() {
+
+        if (chrStarts == null) {
+
+            throw new IllegalStateException("Variant catalogue not sorted.");
+
+        }
+    }
+
+    /**
+     * Returns the number of variants.
+     *
+     * @return the number of variants
+     */
+    public int size() {
+
+        return size;
+
+    }
+
+    /**
+     * Returns the chromosomes in the order of their codes.
+     *
+     * @return the chromosomes
+     */
+    public List<String> getChromosomes() {
+
+        return Collections.unmodifiableList(chromosomes);
+
+    }
+
+    /**
+     * Returns the chromosome of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the chromosome of the variant
+     */
+    public String getChr(int i) {
+
+        return chromosomes.get(chrCodes[i] & 0xff);
+
+    }
+
+    /**
+     * Returns the position of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the position of the variant
+     */
+    public int getPosition(int i) {
+
+        return positions[i];
+
+    }
+
+    /**
+     * Returns the rsId key of a variant, see getRsId.
+     *
+     * @param i the index of the variant
+     *
+     * @return the rsId key of the variant
+     */
+    public long getRsIdKey(int i) {
+
+        return rsIdKeys[i];
+
+    }
+
+    /**
+     * Returns the rsId of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the rsId of the variant, null if none
+     */
+    public String getRsId(int i) {
+
+        long key = rsIdKeys[i];
+
+        if (key == NO_RSID) {
+
+            return null;
+
+        }
+
+        return key >= 0 ? "rs" + key : rsIdTable.get((int) (-1L - key));
+
+    }
+
+    /**
+     * Indicates whether the rsIds are stored.
+     *
+     * @return a boolean indicating whether the rsIds are stored
+     */
+    public boolean hasRsIds() {
+
+        return rsIds;
+
+    }
+
+    /**
+     * Indicates whether the chromosomes are stored.
+     *
+     * @return a boolean indicating whether the chromosomes are stored
+     */
+    public boolean hasChromosomes() {
+
+        return storesChromosomes;
+
+    }
+
+    /**
+     * Indicates whether the positions are stored.
+     *
+     * @return a boolean indicating whether the positions are stored
+     */
+    public boolean hasPositions() {
+
+        return storesPositions;
+
+    }
+
+    /**
+     * Indicates whether the alleles are stored.
+     *
+     * @return a boolean indicating whether the alleles are stored
+     */
+    public boolean hasAlleles() {
+
+        return riskAlleles != null;
+
+    }
+
+    /**
+     * Indicates whether the risk allele frequencies and weights are stored.
+     *
+     * @return a boolean indicating whether the weights are stored
+     */
+    public boolean hasWeights() {
+
+        return weights != null;
+
+    }
+
+    /**
+     * Returns the risk allele of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the risk allele of the variant
+     */
+    public String getRiskAllele(int i) {
+
+        return riskAlleles[i];
+
+    }
+
+    /**
+     * Returns the other allele of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the other allele of the variant
+     */
+    public String getOtherAllele(int i) {
+
+        return otherAlleles[i];
+
+    }
+
+    /**
+     * Returns the risk allele frequency of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the risk allele frequency of the variant, NaN if not available
+     */
+    public double getRiskAlleleFrequency(int i) {
+
+        return riskAlleleFrequencies[i];
+
+    }
+
+    /**
+     * Returns the weight of a variant.
+     *
+     * @param i the index of the variant
+     *
+     * @return the weight of a copy of the risk allele
+     */
+    public double getWeight(int i) {
+
+        return weights[i];
+
+    }
+
+    /**
+     * Returns a variant object for a variant of the catalogue.
+     *
+     * @param i the index of the variant
+     *
+     * @return the variant
+     */
+    public Variant getVariant(int i) {
+
+        return new Variant(getRsId(i), getChr(i), positions[i]);
+
+    }
+
+    /**
+     * Returns a weighted variant object for a variant of a catalogue storing
+     * alleles and weights.
+     *
+     * @param i the index of the variant
+     *
+     * @return the weighted variant
+     */
+    public WeightedVariant getWeightedVariant(int i) {
+
+        if (riskAlleles == null || weights == null) {
+
+            throw new IllegalStateException("Alleles or weights not stored in this catalogue.");
+
+        }
+
+        return new WeightedVariant(getRsId(i), getChr(i), positions[i], riskAlleles[i], otherAlleles[i], riskAlleleFrequencies[i], weights[i]);
+
+    }
+
+    /**
+     * Returns the index of the first variant of a chromosome in the sorted
+     * catalogue.
+     *
+     * @param chr the chromosome
+     *
+     * @return the index of the first variant of the chromosome
+     */
+    public int getStart(String chr) {
+
+        checkSorted();
+
+        Integer code = chromosomeCodes.get(chr);
+
+        return code == null ? 0 : chrStarts[code];
+
+    }
+
+    /**
+     * Returns the index after the last variant of a chromosome in the sorted
+     * catalogue.
+     *
+     * @param chr the chromosome
+     *
+     * @return the index after the last variant of the chromosome
+     */
+    public int getEnd(String chr) {
+
+        checkSorted();
+
+        Integer code = chromosomeCodes.get(chr);
+
+        return code == null ? 0 : chrStarts[code + 1];
+
+    }
+
+    /**
+     * Returns the index of the first variant of a chromosome at or after a
+     * position in the sorted catalogue.
+     *
+     * @param chr the chromosome
+     * @param bp the position
+     *
+     * @return the index of the first variant at or after the position, the
+     * end of the chromosome if none
+     */
+    public int search(String chr, int bp) {
+
+        int low = getStart(chr);
+        int high = getEnd(chr);
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (positions[middle] < bp) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle;
+
+            }
+        }
+
+        return low;
+
+    }
+
+    /**
+     * Returns the index of the first variant at a position in the sorted
+     * catalogue.
+     *
+     * @param chr the chromosome
+     * @param bp the position
+     *
+     * @return the index of the variant, -1 if not found
+     */
+    public int indexOf(String chr, int bp) {
+
+        int i = search(chr, bp);
+
+        return i < getEnd(chr) && positions[i] == bp ? i : -1;
+
+    }
+
+    /**
+     * Returns the index of the first variant with an rsId in the sorted
+     * catalogue.
+     *
+     * @param rsId the rsId
+     *
+     * @return the index of the variant, -1 if not found
+     */
+    public int indexOf(String rsId) {
+
+        checkSorted();
+
+        long key = getRsIdKey(rsId, false);
+
+        if (key == NO_RSID) {
+
+            return -1;
+
+        }
+
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (rsIdKeys[rsIdOrder[middle]] < key) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle;
+
+            }
+        }
+
+        return low < size && rsIdKeys[rsIdOrder[low]] == key ? rsIdOrder[low] : -1;
+
+    }
+
+    /**
+     * Returns a view of all variants.
+     *
+     * @return a list of the variants
+     */
+    public List<Variant> getVariants() {
+
+        return new VariantView(0, size, null);
+
+    }
+
+    /**
+     * Returns a view of the variants of a chromosome in the sorted catalogue,
+     * ordered by position.
+     *
+     * @param chr the chromosome
+     *
+     * @return a list of the variants of the chromosome
+     */
+    public List<Variant> getVariants(String chr) {
+
+        return new VariantView(getStart(chr), getEnd(chr), null);
+
+    }
+
+    /**
+     * Returns a view of the variants of the sorted catalogue ordered by rsId
+     * key, keeping the first variant of every rsId and skipping variants
+     * without rsId.
+     *
+     * @return a list of the variants with distinct rsIds
+     */
+    public List<Variant> getDistinctVariantsByRsId() {
+
+        checkSorted();
+
+        int[] distinct = new int[size];
+        int nDistinct = 0;
+
+        for (int j = 0; j < size; j++) {
+
+            int i = rsIdOrder[j];
+
+            if (rsIdKeys[i] != NO_RSID && (nDistinct == 0 || rsIdKeys[distinct[nDistinct - 1]] != rsIdKeys[i])) {
+
+                distinct[nDistinct++] = i;
+
+            }
+        }
+
+        return new VariantView(0, nDistinct, Arrays.copyOf(distinct, nDistinct));
+
+    }
+
+    /**
+     * Writes the sorted catalogue to a binary file. The length and
+     * modification time of the file the catalogue was loaded from are stored
+     * so that stale files can be detected. The catalogue is written to a
+     * temporary file that is then renamed, and ends with the magic number, so
+     * that readers never see a partially written file.
+     *
+     * @param file the file to write
+     * @param source the file the catalogue was loaded from
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void write(File file, File source) throws IOException {
+
+        checkSorted();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20))) {
+
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(source.length());
+            outputStream.writeLong(source.lastModified());
+            outputStream.writeBoolean(rsIds);
+            outputStream.writeBoolean(storesChromosomes);
+            outputStream.writeBoolean(storesPositions);
+            outputStream.writeBoolean(riskAlleles != null);
+            outputStream.writeBoolean(weights != null);
+
+            writeStrings(outputStream, chromosomes);
+            writeStrings(outputStream, rsIdTable);
+
+            outputStream.writeInt(size);
+
+            for (int start : chrStarts) {
+
+                outputStream.writeInt(start);
+
+            }
+
+            outputStream.write(chrCodes, 0, size);
+
+            for (int i = 0; i < size; i++) {
+
+                outputStream.writeInt(positions[i]);
+
+            }
+
+            for (int i = 0; i < size; i++) {
+
+                outputStream.writeLong(rsIdKeys[i]);
+
+            }
+
+            for (int i = 0; i < size; i++) {
+
+                outputStream.writeInt(rsIdOrder[i]);
+
+            }
+
+            if (riskAlleles != null) {
+
+                ArrayList<String> alleles = new ArrayList<>();
+                HashMap<String, Integer> alleleCodes = new HashMap<>();
+                int[] riskCodes = getAlleleCodes(riskAlleles, alleles, alleleCodes);
+                int[] otherCodes = getAlleleCodes(otherAlleles, alleles, alleleCodes);
+
+                writeStrings(outputStream, alleles);
+
+                for (int i = 0; i < size; i++) {
+
+                    outputStream.writeInt(riskCodes[i]);
+
+                }
+
+                for (int i = 0; i < size; i++) {
+
+                    outputStream.writeInt(otherCodes[i]);
+
+                }
+            }
+
+            if (weights != null) {
+
+                for (int i = 0; i < size; i++) {
+
+                    outputStream.writeDouble(riskAlleleFrequencies[i]);
+
+                }
+
+                for (int i = 0; i < size; i++) {
+
+                    outputStream.writeDouble(weights[i]);
+
+                }
+            }
+
+            outputStream.writeInt(MAGIC);
+
+        }
+
+        try {
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (AtomicMoveNotSupportedException e) {
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        }
+    }
+
+    /**
+     * Reads a catalogue from a binary file written by write. The file is
+     * memory mapped and the arrays are copied in bulk.
+     *
+     * @param file the file to read
+     * @param source the file the catalogue was loaded from
+     *
+     * @return the catalogue, null if the file does not exist, is too large to
+     * be mapped, was written by another version, is truncated, or if the
+     * source changed since it was written; any other inconsistency is thrown
+     * as an exception
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static VariantCatalogue read(File file, File source) throws IOException {
+
+        if (!file.exists() || file.length() > Integer.MAX_VALUE || file.length() < 2 * Integer.BYTES) {
+
+            return null;
+
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getInt(buffer.limit() - Integer.BYTES) != MAGIC) {
+
+                return null;
+
+            }
+
+            buffer.limit(buffer.limit() - Integer.BYTES);
+
+            if (buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()) {
+
+                return null;
+
+            }
+
+            boolean rsIds = buffer.get() != 0;
+            boolean chromosomesStored = buffer.get() != 0;
+            boolean positionsStored = buffer.get() != 0;
+            boolean alleles = buffer.get() != 0;
+            boolean weights = buffer.get() != 0;
+
+            ArrayList<String> chromosomes = readStrings(buffer);
+            ArrayList<String> rsIdTable = readStrings(buffer);
+
+            int size = buffer.getInt();
+
+            if (size < 0) {
+
+                throw new IOException("Negative number of variants in " + file + ".");
+
+            }
+
+            if ((long) size * (Byte.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES) > buffer.remaining()) {
+
+                return null;
+
+            }
+
+            VariantCatalogue catalogue = new VariantCatalogue(size, rsIds, chromosomesStored, positionsStored, alleles, weights);
+
+            for (String chr : chromosomes) {
+
+                catalogue.getChrCode(chr);
+
+            }
+
+            for (int i = 0; i < rsIdTable.size(); i++) {
+
+                catalogue.rsIdTable.add(rsIdTable.get(i));
+                catalogue.rsIdTableIndexes.put(rsIdTable.get(i), i);
+
+            }
+
+            catalogue.size = size;
+            catalogue.chrStarts = new int[chromosomes.size() + 1];
+            getInts(buffer, catalogue.chrStarts, catalogue.chrStarts.length);
+            buffer.get(catalogue.chrCodes, 0, size);
+            getInts(buffer, catalogue.positions, size);
+
+            buffer.asLongBuffer().get(catalogue.rsIdKeys, 0, size);
+            buffer.position(buffer.position() + Long.BYTES * size);
+
+            catalogue.rsIdOrder = new int[size];
+            getInts(buffer, catalogue.rsIdOrder, size);
+
+            if (alleles) {
+
+                ArrayList<String> alleleTable = readStrings(buffer);
+                int[] codes = new int[size];
+
+                getInts(buffer, codes, size);
+
+                for (int i = 0; i < size; i++) {
+
+                    catalogue.riskAlleles[i] = alleleTable.get(codes[i]);
+
+                }
+
+                getInts(buffer, codes, size);
+
+                for (int i = 0; i < size; i++) {
+
+                    catalogue.otherAlleles[i] = alleleTable.get(codes[i]);
+
+                }
+            }
+
+            if (weights) {
+
+                buffer.asDoubleBuffer().get(catalogue.riskAlleleFrequencies, 0, size);
+                buffer.position(buffer.position() + Double.BYTES * size);
+                buffer.asDoubleBuffer().get(catalogue.weights, 0, size);
+                buffer.position(buffer.position() + Double.BYTES * size);
+
+            }
+
+            return buffer.hasRemaining() ? null : catalogue;
+
+        } catch (BufferUnderflowException e) {
+
+            return null;
+
+        }
+    }
+
+    /**
+     * Returns the codes of alleles in a table of distinct alleles, filling the
+     * table as needed.
+     *
+     * @param alleles the alleles
+     * @param table the table of distinct alleles
+     * @param codes the code of every allele in the table
+     *
+     * @return the codes of the alleles
+     */
+    private int[] getAlleleCodes(String[] alleles, ArrayList<String> table, HashMap<String, Integer> codes) {
+
+        int[] result = new int[size];
+
+        for (int i = 0; i < size; i++) {
+
+            Integer code = codes.get(alleles[i]);
+
+            if (code == null) {
+
+                code = table.size();
+                table.add(alleles[i]);
+                codes.put(alleles[i], code);
+
+            }
+
+            result[i] = code;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Writes a list of strings as a count followed by the length and UTF-8
+     * bytes of every string, a length of -1 for null strings.
+     *
+     * @param outputStream the stream to write to
+     * @param strings the strings
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private static void writeStrings(DataOutputStream outputStream, List<String> strings) throws IOException {
+
+        outputStream.writeInt(strings.size());
+
+        for (String string : strings) {
+
+            if (string == null) {
+
+                outputStream.writeInt(-1);
+
+            } else {
+
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+                outputStream.writeInt(bytes.length);
+                outputStream.write(bytes);
+
+            }
+        }
+    }
+
+    /**
+     * Reads a list of strings written by writeStrings.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the strings
+     *
+     * @throws BufferUnderflowException exception thrown if the buffer is too
+     * short for the number of strings
+     */
+    private static ArrayList<String> readStrings(ByteBuffer buffer) {
+
+        int nStrings = buffer.getInt();
+
+        if ((long) nStrings * Integer.BYTES > buffer.remaining()) {
+
+            throw new BufferUnderflowException();
+
+        }
+        ArrayList<String> strings = new ArrayList<>(nStrings);
+
+        for (int i = 0; i < nStrings; i++) {
+
+            int length = buffer.getInt();
+
+            if (length == -1) {
+
+                strings.add(null);
+
+            } else {
+
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                strings.add(new String(bytes, StandardCharsets.UTF_8));
+
+            }
+
+        }
+
+        return strings;
+
+    }
+
+    /**
+     * Copies ints from a buffer to an array and advances the buffer.
+     *
+     * @param buffer the buffer
+     * @param destination the array to fill
+     * @param length the number of ints to copy
+     */
+    private static void getInts(ByteBuffer buffer, int[] destination, int length) {
+
+        buffer.asIntBuffer().get(destination, 0, length);
+        buffer.position(buffer.position() + Integer.BYTES * length);
+
+    }
+
+    /**
+     * View of a range of the catalogue as list of variants.
+     */
+    private class VariantView extends AbstractList<Variant> implements RandomAccess {
+
+        /**
+         * The start of the range.
+         */
+        private final int start;
+        /**
+         * The end of the range (exclusive).
+         */
+        private final int end;
+        /**
+         * The indexes of the variants in the catalogue, null for the variants
+         * of the range in catalogue order.
+         */
+        private final int[] indexes;
+
+        /**
+         * Constructor.
+         *
+         * @param start the start of the range
+         * @param end the end of the range (exclusive)
+         * @param indexes the indexes of the variants in the catalogue, null
+         * for the variants of the range in catalogue order
+         */
+        private VariantView(int start, int end, int[] indexes) {
+
+            this.start = start;
+            this.end = end;
+            this.indexes = indexes;
+
+        }
+
+        @Override
+        public Variant get(int index) {
+
+            if (index < 0 || index >= end - start) {
+
+                throw new IndexOutOfBoundsException("Index " + index + " out of range for " + (end - start) + " variants.");
+
+            }
+
+            int i = start + index;
+
+            return getVariant(indexes == null ? i : indexes[i]);
+
+        }
+
+        @Override
+        public int size() {
+
+            return end - start;
+
+        }
+    }
+}
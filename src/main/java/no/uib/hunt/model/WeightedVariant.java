@@ -0,0 +1,50 @@
+package no.uib.hunt.model;
+
+/**
+ * A variant with its weight in a risk score, oriented to the risk allele.
+ *
+ * @author Marc Vaudel
+ */
+public class WeightedVariant extends Variant {
+
+    /**
+     * The risk allele.
+     */
+    public final String riskAllele;
+    /**
+     * The other allele.
+     */
+    public final String otherAllele;
+    /**
+     * The frequency of the risk allele, between 0 and 1, NaN if not
+     * available.
+     */
+    public final double riskAlleleFrequency;
+    /**
+     * The weight of a copy of the risk allele, the log of the odds ratio.
+     */
+    public final double weight;
+
+    /**
+     * Constructor.
+     *
+     * @param rsId the marker rs id
+     * @param chr the chromosome number
+     * @param bp the base pair number
+     * @param riskAllele the risk allele
+     * @param otherAllele the other allele
+     * @param riskAlleleFrequency the frequency of the risk allele, between 0
+     * and 1, NaN if not available
+     * @param weight the weight of a copy of the risk allele
+     */
+    public WeightedVariant(String rsId, String chr, int bp, String riskAllele, String otherAllele, double riskAlleleFrequency, double weight) {
+
+        super(rsId, chr, bp);
+
+        this.riskAllele = riskAllele;
+        this.otherAllele = otherAllele;
+        this.riskAlleleFrequency = riskAlleleFrequency;
+        this.weight = weight;
+
+    }
+}
@@ -0,0 +1,181 @@
+package no.uib.hunt.scores;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Locale;
+import no.uib.hunt.data.VariantLoader;
+import no.uib.hunt.data.VariantPool;
+import no.uib.hunt.genotypes.QueryScheduler;
+import no.uib.hunt.genotypes.VariantSummary;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.VariantCatalogue;
+import no.uib.hunt.model.WeightedVariant;
+import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.GenotypeProvider;
+
+/**
+ * Compares the risk allele frequencies of the variants file to the
+ * frequencies observed in the cohort. The calls are aggregated per variant
+ * while scanning the vcf files, one chromosome per thread.
+ *
+ * @author Marc Vaudel
+ */
+public class AlleleFrequencyCheck {
+
+    /**
+     * Summarizes the variants of the variants file in all samples of the
+     * cohort and writes the observed and expected risk allele frequencies to
+     * a file.
+     *
+     * @param args the command line arguments: -vcf the folder containing the
+     * vcf files, -out the file where to write the statistics, and optionally
+     * -variants the variants file, -threads the number of threads, -scheduler
+     * the scheduling mode
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("AlleleFrequencyCheck.log");
+            ProgressHandler.setUpLog();
+
+            String vcfFolder = null;
+            File outputFile = null;
+            String variantsFilePath = VariantPool.DEFAULT_VARIANTS_FILE_PATH;
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            QueryScheduler.Mode mode = QueryScheduler.Mode.WORK_STEALING;
+
+            for (int i = 0; i + 1 < args.length; i += 2) {
+
+                String value = args[i + 1];
+
+                switch (args[i]) {
+
+                    case "-vcf":
+                        vcfFolder = value;
+                        break;
+
+                    case "-out":
+                        outputFile = new File(value);
+                        break;
+
+                    case "-variants":
+                        variantsFilePath = value;
+                        break;
+
+                    case "-threads":
+                        nThreads = Integer.parseInt(value);
+                        break;
+
+                    case "-scheduler":
+                        mode = QueryScheduler.Mode.parse(value);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Option " + args[i] + " not recognized.");
+
+                }
+            }
+
+            if (vcfFolder == null || outputFile == null) {
+
+                throw new IllegalArgumentException("No vcf folder or output file provided, use -vcf and -out.");
+
+            }
+
+            ProgressHandler progressHandler = new ProgressHandler();
+
+            String task = "Loading variants";
+            progressHandler.start(task);
+
+            VariantCatalogue catalogue = VariantLoader.load(new File(variantsFilePath), EnumSet.allOf(VariantLoader.Column.class), nThreads, true);
+            ArrayList<WeightedVariant> variants = new ArrayList<>(catalogue.size());
+
+            for (int i = 0; i < catalogue.size(); i++) {
+
+                variants.add(catalogue.getWeightedVariant(i));
+
+            }
+
+            progressHandler.end(task);
+
+            task = "Opening vcf files";
+            progressHandler.start(task);
+
+            GenotypeProvider genotypeProvider = new GenotypeProvider();
+
+            for (String chr : catalogue.getChromosomes()) {
+
+                File vcfFile = new File(vcfFolder, chr + ".vcf.gz");
+
+                if (vcfFile.exists()) {
+
+                    genotypeProvider.addVcfFile(chr, vcfFile, new File(vcfFolder, chr + ".vcf.gz.tbi"));
+
+                }
+            }
+
+            progressHandler.end(task);
+
+            task = "Summarizing " + variants.size() + " variants in " + genotypeProvider.getSamples().size() + " samples";
+            progressHandler.start(task);
+
+            VariantSummary[] summaries;
+
+            try (QueryScheduler scheduler = new QueryScheduler(mode, nThreads)) {
+
+                summaries = genotypeProvider.summarize(new ArrayList<Variant>(variants), genotypeProvider.getSamples(), scheduler);
+
+            }
+
+            progressHandler.end(task, ((long) variants.size()) * genotypeProvider.getSamples().size());
+
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
+
+                bw.write("rsId\tchr\tbp\tref\talt\triskAllele\tcalled\tmissingness\taltAlleleCount\tcarriers\tobservedRaf\texpectedRaf\tdifference");
+                bw.newLine();
+
+                for (int i = 0; i < summaries.length; i++) {
+
+                    VariantSummary summary = summaries[i];
+
+                    if (summary == null) {
+
+                        continue;
+
+                    }
+
+                    WeightedVariant variant = variants.get(i);
+                    double observedRaf = summary.getAlleleFrequency(variant.riskAllele);
+
+                    bw.write(String.join("\t",
+                            variant.rsId,
+                            variant.chr,
+                            Integer.toString(variant.bp),
+                            summary.ref,
+                            summary.alt,
+                            variant.riskAllele,
+                            Integer.toString(summary.getNCalled()),
+                            String.format(Locale.US, "%.4f", summary.getMissingness()),
+                            Integer.toString(summary.getAltAlleleCount()),
+                            Integer.toString(summary.getNCarriers()),
+                            String.format(Locale.US, "%.4f", observedRaf),
+                            String.format(Locale.US, "%.4f", variant.riskAlleleFrequency),
+                            String.format(Locale.US, "%.4f", observedRaf - variant.riskAlleleFrequency)));
+                    bw.newLine();
+
+                }
+            }
+
+            genotypeProvider.close();
+
+            ProgressHandler.close();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package no.uib.hunt.scores;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.IntStream;
+import no.uib.hunt.data.VariantLoader;
+import no.uib.hunt.data.VariantPool;
+import no.uib.hunt.genotypes.QueryScheduler;
+import no.uib.hunt.genotypes.VariantPartitioner;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.VariantCatalogue;
+import no.uib.hunt.model.WeightedVariant;
+import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.GenotypeProvider;
+import no.uib.hunt.vcf.SampleProjection;
+import no.uib.hunt.vcf.VcfLine;
+
+/**
+ * Computes polygenic risk scores: the sum over the weighted variants of the
+ * dosage of the risk allele times its weight. The variants are split in work
+ * units by chromosome and block range that are scanned in parallel, every
+ * thread accumulates the scores of all samples in its own array, and the
+ * arrays are summed at the end. Missing dosages are imputed to twice the risk
+ * allele frequency.
+ *
+ * Every weighted variant is resolved to a single record: among the records
+ * with its id, split multi-allelic records for example, the first record
+ * whose alleles match the risk and other alleles is used.
+ *
+ * @author Marc Vaudel
+ */
+public class PolygenicRiskScore {
+
+    /**
+     * Status of a weighted variant without record.
+     */
+    private static final byte NOT_FOUND = 0;
+    /**
+     * Status of a weighted variant whose records all have other alleles.
+     */
+    private static final byte MISMATCHED = 1;
+    /**
+     * Status of a weighted variant resolved to a record.
+     */
+    private static final byte USED = 2;
+    /**
+     * The genotype provider to read the dosages from.
+     */
+    private final GenotypeProvider genotypeProvider;
+    /**
+     * The scheduler running the work units.
+     */
+    private final QueryScheduler scheduler;
+
+    /**
+     * The scores of a cohort.
+     */
+    public static class Result {
+
+        /**
+         * The samples.
+         */
+        public final List<String> samples;
+        /**
+         * The score of every sample, in the order of the samples.
+         */
+        public final double[] scores;
+        /**
+         * The number of variants used.
+         */
+        public final int nVariantsUsed;
+        /**
+         * The number of variants found with alleles not matching the risk
+         * and other alleles.
+         */
+        public final int nAllelesMismatched;
+        /**
+         * The number of variants not found.
+         */
+        public final int nVariantsNotFound;
+
+        /**
+         * Constructor.
+         *
+         * @param samples the samples
+         * @param scores the score of every sample, in the order of the samples
+         * @param nVariantsUsed the number of variants used
+         * @param nAllelesMismatched the number of variants found with alleles
+         * not matching the risk and other alleles
+         * @param nVariantsNotFound the number of variants not found
+         */
+        public Result(List<String> samples, double[] scores, int nVariantsUsed, int nAllelesMismatched, int nVariantsNotFound) {
+
+            this.samples = samples;
+            this.scores = scores;
+            this.nVariantsUsed = nVariantsUsed;
+            this.nAllelesMismatched = nAllelesMismatched;
+            this.nVariantsNotFound = nVariantsNotFound;
+
+        }
+
+        /**
+         * Writes the scores as a tab-separated table with a sample and a
+         * score column.
+         *
+         * @param file the file to write
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * writing the file
+         */
+        public void write(File file) throws IOException {
+
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+
+                bw.write("sample\tscore");
+                bw.newLine();
+
+                for (int i = 0; i < scores.length; i++) {
+
+                    bw.write(samples.get(i));
+                    bw.write('\t');
+                    bw.write(Double.toString(scores[i]));
+                    bw.newLine();
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param genotypeProvider the genotype provider to read the dosages from
+     * @param scheduler the scheduler running the work units
+     */
+    public PolygenicRiskScore(GenotypeProvider genotypeProvider, QueryScheduler scheduler) {
+
+        this.genotypeProvider = genotypeProvider;
+        this.scheduler = scheduler;
+
+    }
+
+    /**
+     * Computes the scores of all samples of the cohort.
+     *
+     * @param weights the weighted variants
+     *
+     * @return the scores
+     */
+    public Result compute(List<WeightedVariant> weights) {
+
+        List<String> samples = genotypeProvider.getSamples();
+        int[] sampleIndexes = IntStream.range(0, samples.size()).toArray();
+
+        List<Accumulator> accumulators = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<Accumulator> threadAccumulator = ThreadLocal.withInitial(() -> {
+
+            Accumulator accumulator = new Accumulator(new SampleProjection(samples, sampleIndexes));
+            accumulators.add(accumulator);
+
+            return accumulator;
+
+        });
+
+        List<List<Variant>> units = genotypeProvider.partition(new ArrayList<>(weights),
+                VariantPartitioner.getMaxUnitSize(weights.size(), scheduler.getConcurrency()));
+
+        scheduler.forEach(units, unit -> {
+
+            Accumulator accumulator = threadAccumulator.get();
+            byte[] status = new byte[unit.size()];
+
+            genotypeProvider.queryLines(unit, (vcfLine, variantIndex) -> {
+
+                if (status[variantIndex] != USED) {
+
+                    status[variantIndex] = accumulator.add(vcfLine, (WeightedVariant) unit.get(variantIndex)) ? USED : MISMATCHED;
+
+                }
+            });
+
+            accumulator.count(status);
+
+        });
+
+        double[] scores = new double[samples.size()];
+        int nVariantsUsed = 0;
+        int nAllelesMismatched = 0;
+        int nVariantsNotFound = 0;
+
+        for (Accumulator accumulator : accumulators) {
+
+            for (int i = 0; i < scores.length; i++) {
+
+                scores[i] += accumulator.scores[i];
+
+            }
+
+            nVariantsUsed += accumulator.nVariantsUsed;
+            nAllelesMismatched += accumulator.nAllelesMismatched;
+            nVariantsNotFound += accumulator.nVariantsNotFound;
+
+        }
+
+        return new Result(samples, scores, nVariantsUsed, nAllelesMismatched, nVariantsNotFound);
+
+    }
+
+    /**
+     * The partial scores accumulated by a thread.
+     */
+    private static class Accumulator {
+
+        /**
+         * The projection on all samples.
+         */
+        private final SampleProjection sampleProjection;
+        /**
+         * The dosages of the alternative allele of the current variant.
+         */
+        private final double[] dosages;
+        /**
+         * The partial score of every sample.
+         */
+        private final double[] scores;
+        /**
+         * The number of variants used.
+         */
+        private int nVariantsUsed = 0;
+        /**
+         * The number of variants with alleles not matching.
+         */
+        private int nAllelesMismatched = 0;
+        /**
+         * The number of variants not found.
+         */
+        private int nVariantsNotFound = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param sampleProjection the projection on all samples
+         */
+        private Accumulator(SampleProjection sampleProjection) {
+
+            this.sampleProjection = sampleProjection;
+            this.dosages = new double[sampleProjection.size()];
+            this.scores = new double[sampleProjection.size()];
+
+        }
+
+        /**
+         * Adds the contribution of a variant to the scores if the alleles of
+         * the line match the risk and other alleles. The dosages of the
+         * alternative allele are used if it is the risk allele, their
+         * complement to two if it is the other allele.
+         *
+         * @param vcfLine the line of the variant
+         * @param variant the weighted variant
+         *
+         * @return a boolean indicating whether the alleles matched and the
+         * variant was added
+         */
+        private boolean add(VcfLine vcfLine, WeightedVariant variant) {
+
+            boolean riskAlt = vcfLine.columnEquals(VcfLine.ALT, variant.riskAllele) && vcfLine.columnEquals(VcfLine.REF, variant.otherAllele);
+            boolean riskRef = !riskAlt && vcfLine.columnEquals(VcfLine.REF, variant.riskAllele) && vcfLine.columnEquals(VcfLine.ALT, variant.otherAllele);
+
+            if (!riskAlt && !riskRef) {
+
+                return false;
+
+            }
+
+            sampleProjection.getDosages(vcfLine, SampleProjection.DosageField.AUTO, dosages, 0);
+
+            double weight = variant.weight;
+            double imputed = Double.isNaN(variant.riskAlleleFrequency) ? 0 : 2 * variant.riskAlleleFrequency;
+
+            for (int i = 0; i < scores.length; i++) {
+
+                double dosage = dosages[i];
+                double riskDosage = Double.isNaN(dosage) ? imputed : riskAlt ? dosage : 2 - dosage;
+
+                scores[i] += weight * riskDosage;
+
+            }
+
+            return true;
+
+        }
+
+        /**
+         * Counts the variants of a work unit per status.
+         *
+         * @param status the status of every variant of the unit
+         */
+        private void count(byte[] status) {
+
+            for (byte variantStatus : status) {
+
+                switch (variantStatus) {
+
+                    case USED:
+                        nVariantsUsed++;
+                        break;
+
+                    case MISMATCHED:
+                        nAllelesMismatched++;
+                        break;
+
+                    default:
+                        nVariantsNotFound++;
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the polygenic risk scores of a cohort and writes them to a
+     * file.
+     *
+     * @param args the command line arguments: -vcf the folder containing the
+     * vcf files, -out the file where to write the scores, and optionally
+     * -weights the variants file with the weights, -threads the number of
+     * threads, -scheduler the scheduling mode
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("PolygenicRiskScore.log");
+            ProgressHandler.setUpLog();
+
+            String vcfFolder = null;
+            File outputFile = null;
+            String weightsFilePath = VariantPool.DEFAULT_VARIANTS_FILE_PATH;
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            QueryScheduler.Mode mode = QueryScheduler.Mode.WORK_STEALING;
+
+            for (int i = 0; i + 1 < args.length; i += 2) {
+
+                String value = args[i + 1];
+
+                switch (args[i]) {
+
+                    case "-vcf":
+                        vcfFolder = value;
+                        break;
+
+                    case "-out":
+                        outputFile = new File(value);
+                        break;
+
+                    case "-weights":
+                        weightsFilePath = value;
+                        break;
+
+                    case "-threads":
+                        nThreads = Integer.parseInt(value);
+                        break;
+
+                    case "-scheduler":
+                        mode = QueryScheduler.Mode.parse(value);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Option " + args[i] + " not recognized.");
+
+                }
+            }
+
+            if (vcfFolder == null || outputFile == null) {
+
+                throw new IllegalArgumentException("No vcf folder or output file provided, use -vcf and -out.");
+
+            }
+
+            ProgressHandler progressHandler = new ProgressHandler();
+
+            String task = "Loading weights";
+            progressHandler.start(task);
+
+            VariantCatalogue catalogue = VariantLoader.load(new File(weightsFilePath), EnumSet.allOf(VariantLoader.Column.class), nThreads, true);
+            ArrayList<WeightedVariant> weights = new ArrayList<>(catalogue.size());
+
+            for (int i = 0; i < catalogue.size(); i++) {
+
+                weights.add(catalogue.getWeightedVariant(i));
+
+            }
+
+            progressHandler.end(task);
+
+            task = "Opening vcf files";
+            progressHandler.start(task);
+
+            GenotypeProvider genotypeProvider = new GenotypeProvider();
+
+            for (String chr : catalogue.getChromosomes()) {
+
+                File vcfFile = new File(vcfFolder, chr + ".vcf.gz");
+
+                if (vcfFile.exists()) {
+
+                    genotypeProvider.addVcfFile(chr, vcfFile, new File(vcfFolder, chr + ".vcf.gz.tbi"));
+
+                }
+            }
+
+            progressHandler.end(task);
+
+            task = "Scoring " + genotypeProvider.getSamples().size() + " samples on " + weights.size() + " variants";
+            progressHandler.start(task);
+
+            Result result;
+
+            try (QueryScheduler scheduler = new QueryScheduler(mode, nThreads)) {
+
+                result = new PolygenicRiskScore(genotypeProvider, scheduler).compute(weights);
+
+            }
+
+            progressHandler.end(task, ((long) weights.size()) * result.samples.size());
+            progressHandler.writeLine(result.nVariantsUsed + " variants used, " + result.nAllelesMismatched + " with mismatching alleles, " + result.nVariantsNotFound + " not found.");
+
+            result.write(outputFile);
+
+            genotypeProvider.close();
+
+            ProgressHandler.close();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+}
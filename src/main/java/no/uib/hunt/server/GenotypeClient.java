@@ -0,0 +1,474 @@
+package no.uib.hunt.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import no.uib.hunt.data.VariantLoader;
+import no.uib.hunt.data.VariantPool;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.utils.LatencyHistogram;
+import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.SampleProjection;
+
+/**
+ * Client of the genotype server, see GenotypeServer for the protocol.
+ * Requests can be pipelined: several requests can be sent before reading
+ * their responses, which are returned in the order of the requests. The
+ * client is not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeClient implements AutoCloseable {
+
+    /**
+     * The socket.
+     */
+    private final Socket socket;
+    /**
+     * The reader of the responses.
+     */
+    private final BufferedReader reader;
+    /**
+     * The writer of the requests.
+     */
+    private final BufferedWriter writer;
+
+    /**
+     * Queries a genotype server running on the loopback interface with
+     * batches of variants from the variants file and reports the latency of
+     * the requests.
+     *
+     * @param args the command line arguments, optionally: -port the port of
+     * the server, -variants the variants file, -query calls or dosages,
+     * -samples the number of samples per request, all samples by default,
+     * -batch the number of variants per request, -requests the number of
+     * requests, -pipeline the number of requests in flight
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("GenotypeClient.log");
+            ProgressHandler.setUpLog();
+
+            int port = GenotypeServer.DEFAULT_PORT;
+            String variantsFilePath = VariantPool.DEFAULT_VARIANTS_FILE_PATH;
+            boolean dosages = false;
+            int nSamples = -1;
+            int batchSize = 100;
+            int nRequests = 1000;
+            int pipeline = 16;
+
+            for (int i = 0; i + 1 < args.length; i += 2) {
+
+                String value = args[i + 1];
+
+                switch (args[i]) {
+
+                    case "-port":
+                        port = Integer.parseInt(value);
+                        break;
+
+                    case "-variants":
+                        variantsFilePath = value;
+                        break;
+
+                    case "-query":
+                        dosages = value.equals("dosages");
+                        break;
+
+                    case "-samples":
+                        nSamples = Integer.parseInt(value);
+                        break;
+
+                    case "-batch":
+                        batchSize = Integer.parseInt(value);
+                        break;
+
+                    case "-requests":
+                        nRequests = Integer.parseInt(value);
+                        break;
+
+                    case "-pipeline":
+                        pipeline = Integer.parseInt(value);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Option " + args[i] + " not recognized.");
+
+                }
+            }
+
+            ProgressHandler progressHandler = new ProgressHandler();
+
+            String task = "Loading variants";
+            progressHandler.start(task);
+
+            List<Variant> variants = VariantLoader.load(new File(variantsFilePath), EnumSet.of(VariantLoader.Column.RSID, VariantLoader.Column.CHR, VariantLoader.Column.BP), Runtime.getRuntime().availableProcessors(), true).getVariants();
+
+            progressHandler.end(task);
+
+            try (GenotypeClient client = new GenotypeClient(port)) {
+
+                List<String> samples = client.getSamples();
+                List<String> requestSamples = null;
+
+                if (nSamples >= 0 && nSamples < samples.size()) {
+
+                    samples = samples.subList(0, nSamples);
+                    requestSamples = samples;
+
+                }
+
+                // Warm up the connection and the server before measuring
+
+                client.request("PING");
+
+                task = "Sending " + nRequests + " " + (dosages ? "dosages" : "calls") + " requests of " + batchSize + " variants in " + samples.size() + " samples, " + pipeline + " in flight";
+                progressHandler.start(task);
+
+                LatencyHistogram latencies = new LatencyHistogram();
+                ArrayDeque<Long> sendTimes = new ArrayDeque<>(pipeline);
+                int nErrors = 0;
+
+                for (int i = 0; i < nRequests || !sendTimes.isEmpty();) {
+
+                    if (i < nRequests && sendTimes.size() < pipeline) {
+
+                        int start = (int) (((long) i * batchSize) % variants.size());
+                        List<Variant> batch = variants.subList(start, Math.min(start + batchSize, variants.size()));
+
+                        sendTimes.add(System.nanoTime());
+                        client.send(dosages
+                                ? getDosagesRequest(SampleProjection.DosageField.AUTO, requestSamples, batch)
+                                : getCallsRequest(requestSamples, batch));
+                        i++;
+
+                    } else {
+
+                        String response = client.receive();
+                        latencies.record(System.nanoTime() - sendTimes.poll());
+
+                        if (!response.startsWith(GenotypeServer.OK)) {
+
+                            nErrors++;
+
+                        }
+                    }
+                }
+
+                progressHandler.end(task, ((long) nRequests) * batchSize * samples.size());
+
+                progressHandler.writeLine("Latency: mean " + ProgressHandler.formatDuration((long) latencies.getMean())
+                        + ", p50 " + ProgressHandler.formatDuration(latencies.getPercentile(50))
+                        + ", p99 " + ProgressHandler.formatDuration(latencies.getPercentile(99))
+                        + ", max " + ProgressHandler.formatDuration(latencies.getMax())
+                        + ", " + nErrors + " errors");
+
+            }
+
+            ProgressHandler.close();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Constructor, connects to a server on the loopback interface.
+     *
+     * @param port the port of the server
+     *
+     * @throws IOException exception thrown if the connection failed
+     */
+    public GenotypeClient(int port) throws IOException {
+
+        this(InetAddress.getLoopbackAddress().getHostAddress(), port);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     *
+     * @throws IOException exception thrown if the connection failed
+     */
+    public GenotypeClient(String host, int port) throws IOException {
+
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+    }
+
+    /**
+     * Sends a request without waiting for the response.
+     *
+     * @param request the request line
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * to the socket
+     */
+    public void send(String request) throws IOException {
+
+        writer.write(request);
+        writer.newLine();
+        writer.flush();
+
+    }
+
+    /**
+     * Reads the response to the oldest request sent.
+     *
+     * @return the response line
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * from the socket or if the server closed the connection
+     */
+    public String receive() throws IOException {
+
+        String response = reader.readLine();
+
+        if (response == null) {
+
+            throw new IOException("Connection closed by the server.");
+
+        }
+
+        return response;
+
+    }
+
+    /**
+     * Sends a request and waits for its response, no request must be pending.
+     *
+     * @param request the request line
+     *
+     * @return the response line
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * communicating with the server
+     */
+    public String request(String request) throws IOException {
+
+        send(request);
+
+        return receive();
+
+    }
+
+    /**
+     * Returns the samples of the cohort.
+     *
+     * @return the samples of the cohort
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * communicating with the server
+     */
+    public List<String> getSamples() throws IOException {
+
+        String[] fields = getFields(request("SAMPLES"));
+
+        return Arrays.asList(Arrays.copyOfRange(fields, 1, fields.length));
+
+    }
+
+    /**
+     * Returns the calls of the given variants in the given samples, see
+     * GenotypeSource.getCalls.
+     *
+     * @param samples the samples of interest
+     * @param variants the variants of interest
+     *
+     * @return the calls per variant in the order of the samples, null for
+     * variants not found
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * communicating with the server
+     */
+    public byte[][] getCalls(List<String> samples, List<Variant> variants) throws IOException {
+
+        String[] fields = getFields(request(getCallsRequest(samples, variants)));
+        byte[][] calls = new byte[variants.size()][];
+
+        for (int i = 0; i < calls.length; i++) {
+
+            String row = fields[i + 1];
+
+            if (!row.equals(GenotypeServer.NOT_FOUND)) {
+
+                calls[i] = new byte[row.length()];
+
+                for (int j = 0; j < row.length(); j++) {
+
+                    calls[i][j] = (byte) (row.charAt(j) - '0');
+
+                }
+            }
+        }
+
+        return calls;
+
+    }
+
+    /**
+     * Returns the dosages of the given variants in the given samples.
+     *
+     * @param dosageField the field to read the dosages from
+     * @param samples the samples of interest
+     * @param variants the variants of interest
+     *
+     * @return the dosages per variant in the order of the samples, NaN if
+     * missing, null for variants not found
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * communicating with the server
+     */
+    public double[][] getDosages(SampleProjection.DosageField dosageField, List<String> samples, List<Variant> variants) throws IOException {
+
+        String[] fields = getFields(request(getDosagesRequest(dosageField, samples, variants)));
+        double[][] dosages = new double[variants.size()][];
+
+        for (int i = 0; i < dosages.length; i++) {
+
+            String row = fields[i + 1];
+
+            if (!row.equals(GenotypeServer.NOT_FOUND)) {
+
+                String[] values = row.split(",");
+                dosages[i] = new double[values.length];
+
+                for (int j = 0; j < values.length; j++) {
+
+                    dosages[i][j] = Double.parseDouble(values[j]);
+
+                }
+            }
+        }
+
+        return dosages;
+
+    }
+
+    /**
+     * Returns the request for the calls of the given variants in the given
+     * samples.
+     *
+     * @param samples the samples of interest, null for all samples
+     * @param variants the variants of interest
+     *
+     * @return the request line
+     */
+    public static String getCallsRequest(List<String> samples, List<Variant> variants) {
+
+        return "CALLS\t" + getSamplesField(samples) + "\t" + getVariantsField(variants);
+
+    }
+
+    /**
+     * Returns the request for the dosages of the given variants in the given
+     * samples.
+     *
+     * @param dosageField the field to read the dosages from
+     * @param samples the samples of interest, null for all samples
+     * @param variants the variants of interest
+     *
+     * @return the request line
+     */
+    public static String getDosagesRequest(SampleProjection.DosageField dosageField, List<String> samples, List<Variant> variants) {
+
+        return "DOSAGES\t" + dosageField + "\t" + getSamplesField(samples) + "\t" + getVariantsField(variants);
+
+    }
+
+    /**
+     * Returns the samples field of a request.
+     *
+     * @param samples the samples, null for all samples
+     *
+     * @return the samples field
+     */
+    private static String getSamplesField(List<String> samples) {
+
+        return samples == null ? "*" : String.join(",", samples);
+
+    }
+
+    /**
+     * Returns the variants field of a request.
+     *
+     * @param variants the variants
+     *
+     * @return the variants field
+     */
+    private static String getVariantsField(List<Variant> variants) {
+
+        StringBuilder field = new StringBuilder(24 * variants.size());
+
+        for (Variant variant : variants) {
+
+            if (field.length() > 0) {
+
+                field.append(',');
+
+            }
+
+            field.append(variant.chr).append(':').append(variant.bp).append(':').append(variant.rsId);
+
+        }
+
+        return field.toString();
+
+    }
+
+    /**
+     * Splits a response in fields.
+     *
+     * @param response the response line
+     *
+     * @return the fields of the response, the status first
+     *
+     * @throws IllegalStateException exception thrown if the server returned
+     * an error
+     */
+    private static String[] getFields(String response) {
+
+        String[] fields = response.split("\t", -1);
+
+        if (!fields[0].equals(GenotypeServer.OK)) {
+
+            throw new IllegalStateException("Server error: " + (fields.length > 1 ? fields[1] : response));
+
+        }
+
+        return fields;
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+
+            send("QUIT");
+
+        } finally {
+
+            socket.close();
+
+        }
+    }
+}
@@ -0,0 +1,711 @@
+package no.uib.hunt.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.utils.LatencyHistogram;
+import no.uib.hunt.utils.ProgressHandler;
+import no.uib.hunt.vcf.GenotypeProvider;
+import no.uib.hunt.vcf.SampleProjection;
+
+/**
+ * Long-running server answering genotype queries from local clients. The vcf
+ * files are opened once and the genotype provider, with its readers, indexes
+ * and caches, stays warm between queries.
+ *
+ * The protocol is line based, UTF-8, fields separated by tabs. Every request
+ * gets exactly one response line, in the order of the requests: clients can
+ * send several requests without waiting for the responses, the requests of a
+ * connection are processed concurrently on the worker threads. Requests:
+ *
+ * PING: returns OK.
+ *
+ * SAMPLES: returns OK followed by the samples of the cohort.
+ *
+ * CALLS samples variants: returns OK followed by a row per variant, the
+ * calls of the samples as digits, see GenotypeSource.getCalls.
+ *
+ * DOSAGES field samples variants: returns OK followed by a row per variant,
+ * the comma-separated dosages of the samples read from the given field, see
+ * SampleProjection.DosageField.
+ *
+ * QUIT: closes the connection after the pending responses.
+ *
+ * Samples are comma-separated names, or * for all samples. Variants are
+ * comma-separated chr:bp:id. The row of a variant not found is a dot. Errors
+ * are returned as ERROR followed by a message.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeServer implements AutoCloseable {
+
+    /**
+     * The default port.
+     */
+    public static final int DEFAULT_PORT = 9143;
+    /**
+     * The maximal number of requests of a connection in flight, the reading
+     * of requests waits when reached.
+     */
+    public static final int MAX_PENDING_REQUESTS = 256;
+    /**
+     * The response to a successful request.
+     */
+    public static final String OK = "OK";
+    /**
+     * The response to a failed request.
+     */
+    public static final String ERROR = "ERROR";
+    /**
+     * The row of a variant not found.
+     */
+    public static final String NOT_FOUND = ".";
+    /**
+     * The genotype provider.
+     */
+    private final GenotypeProvider genotypeProvider;
+    /**
+     * The server socket.
+     */
+    private final ServerSocket serverSocket;
+    /**
+     * The threads processing the requests.
+     */
+    private final ExecutorService workers;
+    /**
+     * The thread accepting connections.
+     */
+    private final Thread acceptThread;
+    /**
+     * The number of connections accepted.
+     */
+    private final AtomicInteger connectionCounter = new AtomicInteger();
+    /**
+     * The processing time of the requests.
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    /**
+     * Projection on all samples per worker thread, projections are not thread
+     * safe.
+     */
+    private final ThreadLocal<SampleProjection> allSamplesProjection;
+
+    /**
+     * Starts a genotype server with vcf files from a folder, named after the
+     * chromosome.
+     *
+     * @param args the command line arguments: -vcf the folder containing the
+     * vcf files, and optionally -port the port to listen to on the loopback
+     * interface, -threads the number of threads processing requests,
+     * -openFiles whether the vcf files should be opened at startup (true) or
+     * on first query (false)
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("GenotypeServer.log");
+            ProgressHandler.setUpLog();
+
+            String vcfFolder = null;
+            int port = DEFAULT_PORT;
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            boolean openFiles = true;
+
+            for (int i = 0; i + 1 < args.length; i += 2) {
+
+                String value = args[i + 1];
+
+                switch (args[i]) {
+
+                    case "-vcf":
+                        vcfFolder = value;
+                        break;
+
+                    case "-port":
+                        port = Integer.parseInt(value);
+                        break;
+
+                    case "-threads":
+                        nThreads = Integer.parseInt(value);
+                        break;
+
+                    case "-openFiles":
+                        openFiles = Boolean.parseBoolean(value);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Option " + args[i] + " not recognized.");
+
+                }
+            }
+
+            if (vcfFolder == null) {
+
+                throw new IllegalArgumentException("No vcf folder provided, use -vcf.");
+
+            }
+
+            ProgressHandler progressHandler = new ProgressHandler();
+
+            String task = "Opening vcf files";
+            progressHandler.start(task);
+
+            LinkedHashMap<String, File> vcfFiles = new LinkedHashMap<>();
+            LinkedHashMap<String, File> indexFiles = new LinkedHashMap<>();
+
+            File[] files = new File(vcfFolder).listFiles((dir, name) -> name.endsWith(".vcf.gz"));
+
+            if (files == null || files.length == 0) {
+
+                throw new IllegalArgumentException("No vcf file found in " + vcfFolder + ".");
+
+            }
+
+            Arrays.sort(files);
+
+            for (File vcfFile : files) {
+
+                String chr = vcfFile.getName().substring(0, vcfFile.getName().length() - ".vcf.gz".length());
+                vcfFiles.put(chr, vcfFile);
+                indexFiles.put(chr, new File(vcfFolder, vcfFile.getName() + ".tbi"));
+
+            }
+
+            GenotypeProvider genotypeProvider = new GenotypeProvider();
+            genotypeProvider.addVcfFiles(vcfFiles, indexFiles, nThreads, openFiles, progressHandler);
+
+            progressHandler.end(task);
+
+            GenotypeServer server = new GenotypeServer(genotypeProvider, port, nThreads);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+
+                server.close();
+                genotypeProvider.close();
+
+                progressHandler.writeLine("Server stopped, " + server.getNRequests() + " requests, mean " + ProgressHandler.formatDuration((long) server.latencies.getMean())
+                        + ", p99 " + ProgressHandler.formatDuration(server.latencies.getPercentile(99)));
+
+                try {
+
+                    ProgressHandler.close();
+
+                } catch (IOException e) {
+
+                    e.printStackTrace();
+
+                }
+            }));
+
+            progressHandler.writeLine("Serving " + vcfFiles.size() + " vcf files, " + genotypeProvider.getSamples().size() + " samples, on port " + server.getPort() + " (" + nThreads + " threads)");
+
+            server.acceptThread.join();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Constructor, binds the loopback interface and starts accepting
+     * connections.
+     *
+     * @param genotypeProvider the genotype provider
+     * @param port the port, 0 for any free port
+     * @param nThreads the number of threads processing requests
+     *
+     * @throws IOException exception thrown if the port could not be bound
+     */
+    public GenotypeServer(GenotypeProvider genotypeProvider, int port, int nThreads) throws IOException {
+
+        this.genotypeProvider = genotypeProvider;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.allSamplesProjection = ThreadLocal.withInitial(() -> genotypeProvider.getSampleProjection(genotypeProvider.getSamples()));
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(Math.max(1, nThreads), runnable -> {
+
+            Thread thread = new Thread(runnable, "hunt-server-worker-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+
+        acceptThread = new Thread(this::accept, "hunt-server-accept");
+        acceptThread.start();
+
+    }
+
+    /**
+     * Returns the port the server listens to.
+     *
+     * @return the port the server listens to
+     */
+    public int getPort() {
+
+        return serverSocket.getLocalPort();
+
+    }
+
+    /**
+     * Returns the number of requests processed.
+     *
+     * @return the number of requests processed
+     */
+    public long getNRequests() {
+
+        return latencies.getCount();
+
+    }
+
+    /**
+     * Returns the histogram of the processing time of the requests.
+     *
+     * @return the histogram of the processing time of the requests
+     */
+    public LatencyHistogram getLatencies() {
+
+        return latencies;
+
+    }
+
+    /**
+     * Accepts connections until the server socket is closed, every connection
+     * is read by its own thread.
+     */
+    private void accept() {
+
+        while (!serverSocket.isClosed()) {
+
+            try {
+
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Thread thread = new Thread(() -> serve(socket), "hunt-server-connection-" + connectionCounter.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+
+            } catch (SocketException e) {
+
+                // Server socket closed
+
+            } catch (IOException e) {
+
+                e.printStackTrace();
+
+            }
+        }
+    }
+
+    /**
+     * Serves a connection: requests are read and submitted to the workers as
+     * they arrive, and a writer thread returns the responses in the order of
+     * the requests. If the writer fails, the socket is closed and the pending
+     * requests are cancelled.
+     *
+     * @param socket the socket of the connection
+     */
+    private void serve(Socket socket) {
+
+        BlockingQueue<Future<String>> responses = new ArrayBlockingQueue<>(MAX_PENDING_REQUESTS);
+        CompletableFuture<String> end = new CompletableFuture<>();
+
+        try (Socket connection = socket) {
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+
+            Thread writerThread = new Thread(() -> writeResponses(responses, end, writer, connection), Thread.currentThread().getName() + "-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+
+            try {
+
+                String request;
+
+                while ((request = reader.readLine()) != null && !request.equals("QUIT")) {
+
+                    String line = request;
+
+                    if (!enqueue(responses, workers.submit(() -> process(line)), writerThread)) {
+
+                        break;
+
+                    }
+                }
+
+            } catch (SocketException e) {
+
+                // Connection closed by the client
+
+            } finally {
+
+                enqueue(responses, end, writerThread);
+                writerThread.join();
+
+                Future<String> pending;
+
+                while ((pending = responses.poll()) != null) {
+
+                    pending.cancel(true);
+
+                }
+            }
+
+        } catch (IOException | InterruptedException e) {
+
+            e.printStackTrace();
+
+        }
+    }
+
+    /**
+     * Adds a response to the queue of a connection, waiting for space as long
+     * as the writer thread is alive. The response is cancelled if the writer
+     * thread exited.
+     *
+     * @param responses the responses in the order of the requests
+     * @param response the response to add
+     * @param writerThread the writer thread of the connection
+     *
+     * @return a boolean indicating whether the response was added
+     *
+     * @throws InterruptedException exception thrown if the thread was
+     * interrupted while waiting
+     */
+    private static boolean enqueue(BlockingQueue<Future<String>> responses, Future<String> response, Thread writerThread) throws InterruptedException {
+
+        while (!responses.offer(response, 100, TimeUnit.MILLISECONDS)) {
+
+            if (!writerThread.isAlive()) {
+
+                response.cancel(true);
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Writes the responses of a connection in order until the end marker is
+     * reached. The output is flushed when no response is ready. If writing
+     * fails, the socket is closed so that the reading of requests stops.
+     *
+     * @param responses the responses in the order of the requests
+     * @param end the end marker
+     * @param writer the writer of the connection
+     * @param socket the socket of the connection
+     */
+    private void writeResponses(BlockingQueue<Future<String>> responses, Future<String> end, BufferedWriter writer, Socket socket) {
+
+        try {
+
+            Future<String> response;
+
+            while ((response = responses.take()) != end) {
+
+                String line;
+
+                try {
+
+                    line = response.get();
+
+                } catch (ExecutionException e) {
+
+                    line = error(e.getCause());
+
+                }
+
+                writer.write(line);
+                writer.newLine();
+
+                if (responses.isEmpty()) {
+
+                    writer.flush();
+
+                }
+            }
+
+            writer.flush();
+
+        } catch (IOException | InterruptedException e) {
+
+            // Connection closed, the pending responses are dropped
+
+            try {
+
+                socket.close();
+
+            } catch (IOException closeException) {
+
+                // Already closed
+
+            }
+        }
+    }
+
+    /**
+     * Processes a request.
+     *
+     * @param request the request line
+     *
+     * @return the response line
+     */
+    public String process(String request) {
+
+        long start = System.nanoTime();
+
+        try {
+
+            String[] fields = request.split("\t", -1);
+
+            switch (fields[0]) {
+
+                case "PING":
+                    return OK;
+
+                case "SAMPLES":
+                    return OK + "\t" + String.join("\t", genotypeProvider.getSamples());
+
+                case "CALLS":
+                    checkFields(fields, 3);
+                    return getCalls(getProjection(fields[1]), parseVariants(fields[2]));
+
+                case "DOSAGES":
+                    checkFields(fields, 4);
+                    return getDosages(getProjection(fields[2]), parseVariants(fields[3]), SampleProjection.DosageField.valueOf(fields[1]));
+
+                default:
+                    throw new IllegalArgumentException("Request " + fields[0] + " not recognized.");
+
+            }
+
+        } catch (RuntimeException e) {
+
+            return error(e);
+
+        } finally {
+
+            latencies.record(System.nanoTime() - start);
+
+        }
+    }
+
+    /**
+     * Returns the calls of the given variants in the samples of a projection.
+     *
+     * @param sampleProjection the projection on the samples of interest
+     * @param variants the variants of interest
+     *
+     * @return the response line
+     */
+    private String getCalls(SampleProjection sampleProjection, List<Variant> variants) {
+
+        String[] rows = new String[variants.size()];
+        byte[] calls = new byte[sampleProjection.size()];
+        char[] row = new char[calls.length];
+
+        genotypeProvider.queryLines(variants, (vcfLine, variantIndex) -> {
+
+            sampleProjection.getCalls(vcfLine, calls);
+
+            for (int i = 0; i < calls.length; i++) {
+
+                row[i] = (char) ('0' + calls[i]);
+
+            }
+
+            rows[variantIndex] = new String(row);
+
+        });
+
+        return getResponse(rows);
+
+    }
+
+    /**
+     * Returns the dosages of the given variants in the samples of a
+     * projection.
+     *
+     * @param sampleProjection the projection on the samples of interest
+     * @param variants the variants of interest
+     * @param dosageField the field to read the dosages from
+     *
+     * @return the response line
+     */
+    private String getDosages(SampleProjection sampleProjection, List<Variant> variants, SampleProjection.DosageField dosageField) {
+
+        String[] rows = new String[variants.size()];
+        double[] dosages = new double[sampleProjection.size()];
+        StringBuilder row = new StringBuilder();
+
+        genotypeProvider.queryLines(variants, (vcfLine, variantIndex) -> {
+
+            sampleProjection.getDosages(vcfLine, dosageField, dosages, 0);
+
+            row.setLength(0);
+
+            for (int i = 0; i < dosages.length; i++) {
+
+                if (i > 0) {
+
+                    row.append(',');
+
+                }
+
+                row.append(dosages[i]);
+
+            }
+
+            rows[variantIndex] = row.toString();
+
+        });
+
+        return getResponse(rows);
+
+    }
+
+    /**
+     * Returns the response line for the given rows, null rows are returned as
+     * not found.
+     *
+     * @param rows the rows
+     *
+     * @return the response line
+     */
+    private static String getResponse(String[] rows) {
+
+        StringBuilder response = new StringBuilder(OK);
+
+        for (String row : rows) {
+
+            response.append('\t').append(row == null ? NOT_FOUND : row);
+
+        }
+
+        return response.toString();
+
+    }
+
+    /**
+     * Returns the projection on the samples of a request.
+     *
+     * @param samples the samples as comma-separated names, or * for all
+     * samples
+     *
+     * @return the projection on the samples
+     */
+    private SampleProjection getProjection(String samples) {
+
+        return samples.equals("*")
+                ? allSamplesProjection.get()
+                : genotypeProvider.getSampleProjection(Arrays.asList(samples.split(",")));
+
+    }
+
+    /**
+     * Parses the variants of a request.
+     *
+     * @param variants the variants as comma-separated chr:bp:id
+     *
+     * @return the variants
+     */
+    private static List<Variant> parseVariants(String variants) {
+
+        String[] variantsSplit = variants.split(",");
+        ArrayList<Variant> result = new ArrayList<>(variantsSplit.length);
+
+        for (String variant : variantsSplit) {
+
+            String[] variantSplit = variant.split(":", 3);
+
+            if (variantSplit.length != 3) {
+
+                throw new IllegalArgumentException("Variant " + variant + " not formatted as chr:bp:id.");
+
+            }
+
+            result.add(new Variant(variantSplit[2], variantSplit[0], Integer.parseInt(variantSplit[1])));
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Checks the number of fields of a request.
+     *
+     * @param fields the fields of the request
+     * @param nFields the expected number of fields
+     */
+    private static void checkFields(String[] fields, int nFields) {
+
+        if (fields.length != nFields) {
+
+            throw new IllegalArgumentException(fields[0] + " expects " + (nFields - 1) + " arguments, " + (fields.length - 1) + " found.");
+
+        }
+    }
+
+    /**
+     * Returns the response line for an error.
+     *
+     * @param e the error
+     *
+     * @return the response line
+     */
+    private static String error(Throwable e) {
+
+        String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+
+        return ERROR + "\t" + message.replace('\t', ' ').replace('\n', ' ');
+
+    }
+
+    @Override
+    public void close() {
+
+        try {
+
+            serverSocket.close();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+
+        workers.shutdownNow();
+
+    }
+}
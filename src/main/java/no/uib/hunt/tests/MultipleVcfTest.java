@@ -3,13 +3,12 @@ package no.uib.hunt.tests;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.TreeMap;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 import no.uib.hunt.Test;
+import no.uib.hunt.genotypes.GenotypeSource;
 import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.VariantCatalogue;
 import no.uib.hunt.utils.ProgressHandler;
 import no.uib.hunt.vcf.GenotypeProvider;
 
@@ -23,19 +22,32 @@ public class MultipleVcfTest extends Test {
     /**
      * Runs the tests.
      *
-     * @param args the command line arguments
+     * @param args the command line arguments: optionally the backend (vcf or
+     * columnar) and the folder of the columnar files, and the options of
+     * Test.parseOptions
      */
     public static void main(String[] args) {
 
         try {
             
+            args = parseOptions(args);
+            
             ProgressHandler.logFile = new File("MultipleVcfTest.log");
             ProgressHandler.setUpLog();
 
-            MultipleVcfTest test = new MultipleVcfTest();
+            String backend = args.length > 0 ? args[0] : VCF_BACKEND;
+
+            if (args.length > 1) {
+
+                columnarFolder = args[1];
+
+            }
+
+            MultipleVcfTest test = new MultipleVcfTest(getGenotypeSource(backend));
             test.initiatlize();
             test.runTests();
             test.close();
+            writeReport();
             
             ProgressHandler.close();
 
@@ -49,7 +61,18 @@ public class MultipleVcfTest extends Test {
      */
     public MultipleVcfTest() {
 
-        super(new GenotypeProvider());
+        this(new GenotypeProvider());
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param genotypeProvider the genotype provider to test
+     */
+    public MultipleVcfTest(GenotypeSource genotypeProvider) {
+
+        super(genotypeProvider);
 
     }
 
@@ -61,7 +84,7 @@ public class MultipleVcfTest extends Test {
      */
     public void runTests() throws IOException {
 
-        final HashMap<String, ArrayList<Variant>> variantsMap = getTestVariants();
+        VariantCatalogue catalogue = getTestVariants();
 
         ProgressHandler progressHandler = new ProgressHandler();
 
@@ -70,8 +93,8 @@ public class MultipleVcfTest extends Test {
 
         try {
 
-            variantsMap.entrySet().stream()
-                    .forEach(entry -> testChromosome(entry.getKey(), entry.getValue()));
+            catalogue.getChromosomes().stream()
+                    .forEach(chr -> testChromosome(chr, new ArrayList<>(catalogue.getVariants(chr))));
 
             progressHandler.end(task);
 
@@ -84,20 +107,12 @@ public class MultipleVcfTest extends Test {
 
         }
 
-        TreeMap<String, Variant> variantsMapByRsid = variantsMap.values().stream()
-                .flatMap(variantList -> variantList.stream())
-                .collect(Collectors.toMap(
-                        variant -> variant.rsId,
-                        Function.identity(),
-                        (a, b) -> a,
-                        TreeMap::new));
-
         task = "Testing all variants";
         progressHandler.start(task);
 
         try {
 
-            testVariants(variantsMapByRsid);
+            testVariants(catalogue.getDistinctVariantsByRsId());
 
             progressHandler.end(task);
 
@@ -112,23 +127,24 @@ public class MultipleVcfTest extends Test {
     }
 
     /**
-     * Queries the variants in the given map.
+     * Queries the given variants.
      *
-     * @param variantsMap a map of the variants ordered by rsid
+     * @param variants the variants, ordered by rsid
      */
-    public void testVariants(final TreeMap<String, Variant> variantsMap) {
+    public void testVariants(final List<Variant> variants) {
 
         ProgressHandler progressHandler = new ProgressHandler();
+        long nQueries = ((long) variants.size()) * nSamples;
 
         String task = "    Testing variants single threaded";
-        progressHandler.start(task);
+        startTask(progressHandler, task);
 
         try {
 
-            variantsMap.values().stream()
+            variants.stream()
                     .forEach(variant -> queryVariantSingleThread(variant));
 
-            progressHandler.end(task);
+            endTask(progressHandler, task, nQueries);
 
         } catch (Throwable throwable) {
 
@@ -140,14 +156,14 @@ public class MultipleVcfTest extends Test {
         }
 
         task = "    Testing variants threaded per sample";
-        progressHandler.start(task);
+        startTask(progressHandler, task);
 
         try {
             
-            variantsMap.values().stream()
+            variants.stream()
                     .forEach(variant -> queryVariantThreadPerSample(variant));
             
-            progressHandler.end(task);
+            endTask(progressHandler, task, nQueries);
 
         } catch (Throwable throwable) {
 
@@ -159,16 +175,140 @@ public class MultipleVcfTest extends Test {
         }
 
         task = "    Testing variants threaded per variant";
-        progressHandler.start(task);
+        startTask(progressHandler, task);
 
         try {
             
-            ArrayList<Variant> variantList = variantsMap.values().stream()
+            ArrayList<Variant> variantList = variants.stream()
                     .collect(Collectors.toCollection(ArrayList::new));
             
             queryVariantsThreadPerVariant(variantList);
 
-            progressHandler.end(task);
+            endTask(progressHandler, task, nQueries);
+
+        } catch (Throwable throwable) {
+
+            progressHandler.writeLine(task + " failed.");
+
+            throwable.printStackTrace();
+            ProgressHandler.writeToLog(throwable.toString());
+
+        }
+
+        task = "    Testing variants threaded per region";
+        startTask(progressHandler, task);
+
+        try {
+
+            ArrayList<Variant> variantList = variants.stream()
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            queryVariantsThreadPerRegion(variantList);
+
+            endTask(progressHandler, task, nQueries);
+
+        } catch (Throwable throwable) {
+
+            progressHandler.writeLine(task + " failed.");
+
+            throwable.printStackTrace();
+            ProgressHandler.writeToLog(throwable.toString());
+
+        }
+
+        task = "    Testing variants single threaded batched";
+        startTask(progressHandler, task);
+
+        try {
+
+            variants.stream()
+                    .forEach(variant -> queryVariantSingleThreadBatched(variant));
+
+            endTask(progressHandler, task, nQueries);
+
+        } catch (Throwable throwable) {
+
+            progressHandler.writeLine(task + " failed.");
+
+            throwable.printStackTrace();
+            ProgressHandler.writeToLog(throwable.toString());
+
+        }
+
+        task = "    Testing variants single threaded streamed";
+        startTask(progressHandler, task);
+
+        try {
+
+            ArrayList<Variant> variantList = variants.stream()
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            queryVariantsSingleThreadStreamed(variantList);
+
+            endTask(progressHandler, task, nQueries);
+
+        } catch (Throwable throwable) {
+
+            progressHandler.writeLine(task + " failed.");
+
+            throwable.printStackTrace();
+            ProgressHandler.writeToLog(throwable.toString());
+
+        }
+
+        task = "    Testing variants single threaded primitive";
+        startTask(progressHandler, task);
+
+        try {
+
+            ArrayList<Variant> variantList = variants.stream()
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            queryVariantsSingleThreadPrimitive(variantList);
+
+            endTask(progressHandler, task, nQueries);
+
+        } catch (Throwable throwable) {
+
+            progressHandler.writeLine(task + " failed.");
+
+            throwable.printStackTrace();
+            ProgressHandler.writeToLog(throwable.toString());
+
+        }
+
+        task = "    Testing variants threaded per variant batched";
+        startTask(progressHandler, task);
+
+        try {
+            
+            ArrayList<Variant> variantList = variants.stream()
+                    .collect(Collectors.toCollection(ArrayList::new));
+            
+            queryVariantsThreadPerVariantBatched(variantList);
+
+            endTask(progressHandler, task, nQueries);
+
+        } catch (Throwable throwable) {
+
+            progressHandler.writeLine(task + " failed.");
+
+            throwable.printStackTrace();
+            ProgressHandler.writeToLog(throwable.toString());
+
+        }
+
+        task = "    Testing variants threaded per region batched";
+        startTask(progressHandler, task);
+
+        try {
+
+            ArrayList<Variant> variantList = variants.stream()
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+            queryVariantsThreadPerRegionBatched(variantList);
+
+            endTask(progressHandler, task, nQueries);
 
         } catch (Throwable throwable) {
 
@@ -3,9 +3,10 @@ package no.uib.hunt.tests;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import no.uib.hunt.Test;
+import no.uib.hunt.genotypes.GenotypeSource;
 import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.VariantCatalogue;
 import no.uib.hunt.utils.ProgressHandler;
 import no.uib.hunt.vcf.GenotypeProvider;
 
@@ -19,19 +20,32 @@ public class SingleVcfTest extends Test {
     /**
      * Runs the tests.
      *
-     * @param args the command line arguments
+     * @param args the command line arguments: the chromosome, optionally the
+     * backend (vcf or columnar) and the folder of the columnar files, and the
+     * options of Test.parseOptions
      */
     public static void main(String[] args) {
 
         try {
             
+            args = parseOptions(args);
+            
             ProgressHandler.logFile = new File("SingleVcfTest.log");
             ProgressHandler.setUpLog();
 
-            SingleVcfTest test = new SingleVcfTest(args[0]);
+            String backend = args.length > 1 ? args[1] : VCF_BACKEND;
+
+            if (args.length > 2) {
+
+                columnarFolder = args[2];
+
+            }
+
+            SingleVcfTest test = new SingleVcfTest(args[0], getGenotypeSource(backend));
             test.initiatlize();
             test.runTests();
             test.close();
+            writeReport();
             
             ProgressHandler.close();
 
@@ -52,7 +66,19 @@ public class SingleVcfTest extends Test {
      */
     public SingleVcfTest(String chr) {
 
-        super(new GenotypeProvider());
+        this(chr, new GenotypeProvider());
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param chr the chromosome to test
+     * @param genotypeProvider the genotype provider to test
+     */
+    public SingleVcfTest(String chr, GenotypeSource genotypeProvider) {
+
+        super(genotypeProvider);
 
         this.chr = chr;
 
@@ -66,8 +92,8 @@ public class SingleVcfTest extends Test {
      */
     public void runTests() throws IOException {
 
-        final HashMap<String, ArrayList<Variant>> variantsMap = getTestVariants();
-        ArrayList<Variant> variantList = variantsMap.get(chr);
+        VariantCatalogue catalogue = getTestVariants();
+        ArrayList<Variant> variantList = new ArrayList<>(catalogue.getVariants(chr));
 
         ProgressHandler progressHandler = new ProgressHandler();
 
@@ -0,0 +1,287 @@
+package no.uib.hunt.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log lines from any number of threads without locking. Lines are put
+ * in a bounded ring buffer and written in batches by a single background
+ * thread.
+ *
+ * @author Marc Vaudel
+ */
+public class AsyncLogWriter implements AutoCloseable {
+
+    /**
+     * The default capacity of the ring buffer, in lines.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    /**
+     * The time the writer thread sleeps when there is nothing to write, in
+     * nanoseconds.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * What to do with a line when the buffer is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * The line is dropped and counted, the number of dropped lines is
+         * written to the log when the writer catches up.
+         */
+        DROP,
+        /**
+         * The calling thread waits until the writer makes room for the line.
+         */
+        BLOCK
+
+    }
+
+    /**
+     * The destination of the lines.
+     */
+    private final BufferedWriter bw;
+    /**
+     * The slots of the ring buffer, null when free.
+     */
+    private final AtomicReferenceArray<String> slots;
+    /**
+     * The mask to get a slot from a sequence number.
+     */
+    private final int mask;
+    /**
+     * The overflow policy.
+     */
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * The sequence number of the next line to claim, producers side.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * The sequence number of the next line to write, only advanced by the
+     * writer thread.
+     */
+    private volatile long head = 0;
+    /**
+     * The number of lines dropped since the last report.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * Boolean indicating whether the writer was closed, or whether the writer
+     * thread stopped after a failure.
+     */
+    private volatile boolean closed = false;
+    /**
+     * The exception raised by the writer thread, if any.
+     */
+    private volatile IOException writeException = null;
+    /**
+     * The writer thread.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Constructor.
+     *
+     * @param bw the writer to write to, closed with this writer
+     * @param capacity the capacity of the buffer, rounded up to a power of two
+     * @param overflowPolicy what to do with a line when the buffer is full
+     */
+    public AsyncLogWriter(BufferedWriter bw, int capacity, OverflowPolicy overflowPolicy) {
+
+        this.bw = bw;
+        this.overflowPolicy = overflowPolicy;
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+
+        writerThread = new Thread(this::drainLoop, "hunt-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+    }
+
+    /**
+     * Queues a line for writing. Lines written after close or after the
+     * writer thread failed are ignored.
+     *
+     * @param line the line to write
+     *
+     * @return a boolean indicating whether the line was queued, false if it
+     * was dropped
+     *
+     * @throws IllegalArgumentException exception thrown if the line is null
+     */
+    public boolean write(String line) {
+
+        if (line == null) {
+
+            throw new IllegalArgumentException("Null log line.");
+
+        }
+
+        while (!closed) {
+
+            long sequence = tail.get();
+
+            if (sequence - head > mask) {
+
+                if (overflowPolicy == OverflowPolicy.DROP) {
+
+                    dropped.incrementAndGet();
+                    return false;
+
+                }
+
+                LockSupport.unpark(writerThread);
+                Thread.yield();
+                continue;
+
+            }
+
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+
+                slots.lazySet((int) sequence & mask, line);
+                return true;
+
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the number of lines dropped and not yet reported in the log.
+     *
+     * @return the number of lines dropped
+     */
+    public long getDropped() {
+
+        return dropped.get();
+
+    }
+
+    /**
+     * Writes the queued lines until closed. If writing fails, the exception
+     * is kept for close and the writer is marked as closed so that producers
+     * waiting for room return.
+     */
+    private void drainLoop() {
+
+        try {
+
+            while (!closed) {
+
+                if (drain() == 0) {
+
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+
+                }
+            }
+
+            drain();
+
+            bw.flush();
+
+        } catch (IOException e) {
+
+            writeException = e;
+
+        } finally {
+
+            closed = true;
+
+        }
+    }
+
+    /**
+     * Writes the lines published so far and flushes the batch.
+     *
+     * @return the number of lines written
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private int drain() throws IOException {
+
+        int nLines = 0;
+        long sequence = head;
+
+        while (true) {
+
+            int slot = (int) sequence & mask;
+            String line = slots.get(slot);
+
+            if (line == null) {
+
+                break;
+
+            }
+
+            bw.write(line);
+            bw.newLine();
+
+            slots.lazySet(slot, null);
+            head = ++sequence;
+            nLines++;
+
+        }
+
+        long nDropped = dropped.getAndSet(0);
+
+        if (nDropped > 0) {
+
+            bw.write("[" + nDropped + " log lines dropped, buffer full]");
+            bw.newLine();
+
+        }
+
+        if (nLines > 0 || nDropped > 0) {
+
+            bw.flush();
+
+        }
+
+        return nLines;
+
+    }
+
+    /**
+     * Writes the remaining lines and closes the underlying writer. Lines
+     * queued concurrently to closing may be lost.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * or closing the log
+     */
+    @Override
+    public void close() throws IOException {
+
+        closed = true;
+        LockSupport.unpark(writerThread);
+
+        try {
+
+            writerThread.join();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+        bw.close();
+
+        if (writeException != null) {
+
+            throw writeException;
+
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package no.uib.hunt.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects latency histograms per operation. Instrumentation is disabled by
+ * default, in which case timers cost a volatile read. The histograms can be
+ * snapshot per test mode and written as CSV or JSON.
+ *
+ * @author Marc Vaudel
+ */
+public class Instrumentation {
+
+    /**
+     * Operation: lookup of the blocks of a region in the tabix index.
+     */
+    public static final String INDEX_QUERY = "index_query";
+    /**
+     * Operation: reading and inflating a BGZF block.
+     */
+    public static final String BGZF_INFLATE = "bgzf_inflate";
+    /**
+     * Operation: decoding a vcf line into a variant context.
+     */
+    public static final String LINE_DECODE = "line_decode";
+    /**
+     * Operation: extracting the genotypes of the requested samples.
+     */
+    public static final String GENOTYPE_EXTRACTION = "genotype_extraction";
+    /**
+     * The percentiles reported.
+     */
+    public static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    /**
+     * Boolean indicating whether instrumentation is enabled.
+     */
+    private static volatile boolean enabled = false;
+    /**
+     * The histograms indexed by operation.
+     */
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    /**
+     * The results of the test modes in order.
+     */
+    private static final ArrayList<ModeResult> results = new ArrayList<>();
+
+    /**
+     * The result of a test mode.
+     */
+    private static class ModeResult {
+
+        /**
+         * The name of the mode.
+         */
+        private final String mode;
+        /**
+         * The duration of the mode in nanoseconds.
+         */
+        private final long elapsedNanos;
+        /**
+         * The number of queries run.
+         */
+        private final long nQueries;
+        /**
+         * The statistics per operation: count, mean, percentiles and max in
+         * nanoseconds.
+         */
+        private final LinkedHashMap<String, double[]> statistics = new LinkedHashMap<>();
+
+        /**
+         * Constructor.
+         *
+         * @param mode the name of the mode
+         * @param elapsedNanos the duration of the mode in nanoseconds
+         * @param nQueries the number of queries run
+         */
+        private ModeResult(String mode, long elapsedNanos, long nQueries) {
+
+            this.mode = mode;
+            this.elapsedNanos = elapsedNanos;
+            this.nQueries = nQueries;
+
+        }
+
+        /**
+         * Returns the number of queries per second.
+         *
+         * @return the number of queries per second
+         */
+        private double getQps() {
+
+            return elapsedNanos == 0 ? 0 : nQueries * 1e9 / elapsedNanos;
+
+        }
+    }
+
+    /**
+     * Enables or disables instrumentation.
+     *
+     * @param enable boolean indicating whether instrumentation should be
+     * enabled
+     */
+    public static void setEnabled(boolean enable) {
+
+        enabled = enable;
+
+    }
+
+    /**
+     * Indicates whether instrumentation is enabled.
+     *
+     * @return a boolean indicating whether instrumentation is enabled
+     */
+    public static boolean isEnabled() {
+
+        return enabled;
+
+    }
+
+    /**
+     * Starts a timer.
+     *
+     * @return the start time in nanoseconds, 0 if instrumentation is disabled
+     */
+    public static long start() {
+
+        return enabled ? System.nanoTime() : 0;
+
+    }
+
+    /**
+     * Stops a timer and records the latency of the given operation.
+     *
+     * @param operation the operation
+     * @param start the start time as returned by start
+     */
+    public static void stop(String operation, long start) {
+
+        if (start != 0) {
+
+            getHistogram(operation).record(System.nanoTime() - start);
+
+        }
+    }
+
+    /**
+     * Returns the histogram of an operation.
+     *
+     * @param operation the operation
+     *
+     * @return the histogram of the operation
+     */
+    public static LatencyHistogram getHistogram(String operation) {
+
+        return histograms.computeIfAbsent(operation, key -> new LatencyHistogram());
+
+    }
+
+    /**
+     * Empties the histograms.
+     */
+    public static void reset() {
+
+        histograms.values().forEach(LatencyHistogram::reset);
+
+    }
+
+    /**
+     * Stores the current histograms as the result of a test mode, and empties
+     * them.
+     *
+     * @param mode the name of the mode
+     * @param elapsedNanos the duration of the mode in nanoseconds
+     * @param nQueries the number of queries run
+     */
+    public static void addResult(String mode, long elapsedNanos, long nQueries) {
+
+        ModeResult result = new ModeResult(mode, elapsedNanos, nQueries);
+
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+
+            LatencyHistogram histogram = entry.getValue();
+
+            if (histogram.getCount() == 0) {
+
+                continue;
+
+            }
+
+            double[] statistics = new double[3 + PERCENTILES.length];
+            statistics[0] = histogram.getCount();
+            statistics[1] = histogram.getMean();
+
+            for (int i = 0; i < PERCENTILES.length; i++) {
+
+                statistics[2 + i] = histogram.getPercentile(PERCENTILES[i]);
+
+            }
+
+            statistics[statistics.length - 1] = histogram.getMax();
+
+            result.statistics.put(entry.getKey(), statistics);
+
+        }
+
+        synchronized (results) {
+
+            results.add(result);
+
+        }
+
+        reset();
+
+    }
+
+    /**
+     * Returns the name of a percentile for the reports, e.g. p999 for 99.9.
+     *
+     * @param percentile the percentile
+     *
+     * @return the name of the percentile
+     */
+    private static String getPercentileName(double percentile) {
+
+        String name = Double.toString(percentile).replace(".", "");
+
+        return "p" + (name.endsWith("0") ? name.substring(0, name.length() - 1) : name);
+
+    }
+
+    /**
+     * Writes the results as CSV, one line per mode and operation. Durations
+     * are in nanoseconds.
+     *
+     * @param file the file to write
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public static void writeCsv(File file) throws IOException {
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+
+            StringBuilder header = new StringBuilder("mode,elapsed_ns,queries,qps,operation,count,mean_ns");
+
+            for (double percentile : PERCENTILES) {
+
+                header.append(',').append(getPercentileName(percentile)).append("_ns");
+
+            }
+
+            writer.write(header.append(",max_ns").toString());
+            writer.newLine();
+
+            synchronized (results) {
+
+                for (ModeResult result : results) {
+
+                    String modePrefix = String.format(Locale.US, "\"%s\",%d,%d,%.1f", result.mode.trim().replace("\"", "\"\""), result.elapsedNanos, result.nQueries, result.getQps());
+
+                    if (result.statistics.isEmpty()) {
+
+                        StringBuilder line = new StringBuilder(modePrefix);
+
+                        for (int i = 0; i < PERCENTILES.length + 4; i++) {
+
+                            line.append(',');
+
+                        }
+
+                        writer.write(line.toString());
+                        writer.newLine();
+
+                    }
+
+                    for (Map.Entry<String, double[]> entry : result.statistics.entrySet()) {
+
+                        double[] statistics = entry.getValue();
+                        StringBuilder line = new StringBuilder(modePrefix);
+                        line.append(',').append(entry.getKey());
+                        line.append(',').append((long) statistics[0]);
+                        line.append(',').append(String.format(Locale.US, "%.1f", statistics[1]));
+
+                        for (int i = 2; i < statistics.length; i++) {
+
+                            line.append(',').append((long) statistics[i]);
+
+                        }
+
+                        writer.write(line.toString());
+                        writer.newLine();
+
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the results as JSON. Durations are in nanoseconds.
+     *
+     * @param file the file to write
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public static void writeJson(File file) throws IOException {
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+
+            writer.write("[");
+
+            synchronized (results) {
+
+                for (int i = 0; i < results.size(); i++) {
+
+                    ModeResult result = results.get(i);
+
+                    writer.write(i == 0 ? "\n" : ",\n");
+                    writer.write(String.format(Locale.US, "  {\"mode\": \"%s\", \"elapsed_ns\": %d, \"queries\": %d, \"qps\": %.1f, \"operations\": {",
+                            result.mode.trim().replace("\\", "\\\\").replace("\"", "\\\""), result.elapsedNanos, result.nQueries, result.getQps()));
+
+                    int j = 0;
+
+                    for (Map.Entry<String, double[]> entry : result.statistics.entrySet()) {
+
+                        double[] statistics = entry.getValue();
+
+                        writer.write(j++ == 0 ? "\n" : ",\n");
+                        writer.write(String.format(Locale.US, "    \"%s\": {\"count\": %d, \"mean_ns\": %.1f", entry.getKey(), (long) statistics[0], statistics[1]));
+
+                        for (int k = 0; k < PERCENTILES.length; k++) {
+
+                            writer.write(String.format(Locale.US, ", \"%s_ns\": %d", getPercentileName(PERCENTILES[k]), (long) statistics[2 + k]));
+
+                        }
+
+                        writer.write(String.format(Locale.US, ", \"max_ns\": %d}", (long) statistics[statistics.length - 1]));
+
+                    }
+
+                    writer.write(j == 0 ? "}}" : "\n  }}");
+
+                }
+            }
+
+            writer.write("\n]\n");
+
+        }
+    }
+}
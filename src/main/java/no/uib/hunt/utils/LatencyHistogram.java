@@ -0,0 +1,199 @@
+package no.uib.hunt.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of latencies in nanoseconds. Buckets are log-linear:
+ * each power of two is split in 16 buckets, giving percentiles within about
+ * 6% of the recorded values.
+ *
+ * @author Marc Vaudel
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits used to split each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+    /**
+     * The number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * The number of buckets.
+     */
+    private static final int N_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    /**
+     * The number of values per bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(N_BUCKETS);
+    /**
+     * The number of values recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * The sum of the values recorded.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * The largest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+
+        if (nanos < 0) {
+
+            nanos = 0;
+
+        }
+
+        counts.incrementAndGet(getBucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long currentMax = max.get();
+
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+
+            currentMax = max.get();
+
+        }
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value the value
+     *
+     * @return the bucket of the value
+     */
+    private static int getBucket(long value) {
+
+        if (value < 2 * SUB_BUCKETS) {
+
+            return (int) value;
+
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+
+    }
+
+    /**
+     * Returns the middle of the range of values of a bucket.
+     *
+     * @param bucket the bucket
+     *
+     * @return the middle of the range of values of the bucket
+     */
+    private static long getBucketValue(int bucket) {
+
+        if (bucket < 2 * SUB_BUCKETS) {
+
+            return bucket;
+
+        }
+
+        int exponent = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+
+        return (mantissa << exponent) + ((1L << exponent) >> 1);
+
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values recorded
+     */
+    public long getCount() {
+
+        return count.get();
+
+    }
+
+    /**
+     * Returns the mean of the values recorded in nanoseconds.
+     *
+     * @return the mean of the values recorded
+     */
+    public double getMean() {
+
+        long n = count.get();
+
+        return n == 0 ? 0 : ((double) sum.get()) / n;
+
+    }
+
+    /**
+     * Returns the largest value recorded in nanoseconds.
+     *
+     * @return the largest value recorded
+     */
+    public long getMax() {
+
+        return max.get();
+
+    }
+
+    /**
+     * Returns the value at the given percentile in nanoseconds.
+     *
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the value at the given percentile
+     */
+    public long getPercentile(double percentile) {
+
+        long n = count.get();
+
+        if (n == 0) {
+
+            return 0;
+
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long cumulated = 0;
+
+        for (int bucket = 0; bucket < N_BUCKETS; bucket++) {
+
+            cumulated += counts.get(bucket);
+
+            if (cumulated >= rank) {
+
+                return Math.min(getBucketValue(bucket), max.get());
+
+            }
+        }
+
+        return max.get();
+
+    }
+
+    /**
+     * Empties the histogram.
+     */
+    public void reset() {
+
+        for (int bucket = 0; bucket < N_BUCKETS; bucket++) {
+
+            counts.set(bucket, 0);
+
+        }
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+
+    }
+}
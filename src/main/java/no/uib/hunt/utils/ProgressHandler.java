@@ -6,7 +6,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.HashMap;
-import java.util.concurrent.Semaphore;
+import java.util.Locale;
 
 /**
  * this class displays feedback on the progress in command line.
@@ -20,13 +20,17 @@ public class ProgressHandler {
      */
     public static File logFile = new File("log.txt");
     /**
-     * Mutex for log writing.
+     * The capacity of the log buffer, in lines.
      */
-    private static Semaphore mutex = new Semaphore(1);
+    public static int logCapacity = AsyncLogWriter.DEFAULT_CAPACITY;
     /**
-     * Writer to write to the file.
+     * What to do with log lines when the log buffer is full.
      */
-    public static BufferedWriter bw;
+    public static AsyncLogWriter.OverflowPolicy overflowPolicy = AsyncLogWriter.OverflowPolicy.DROP;
+    /**
+     * Writer to write to the file in the background.
+     */
+    private static volatile AsyncLogWriter logWriter;
 
     /**
      * Sets up the log.
@@ -36,29 +40,36 @@ public class ProgressHandler {
      */
     public static void setUpLog() throws IOException {
 
-        bw = new BufferedWriter(new FileWriter(logFile));
+        BufferedWriter bw = new BufferedWriter(new FileWriter(logFile));
         bw.write(Instant.now() + " HUNT TEST LOG");
         bw.newLine();
         bw.newLine();
 
+        logWriter = new AsyncLogWriter(bw, logCapacity, overflowPolicy);
+
     }
 
     /**
-     * Closes the log.
+     * Closes the log, the lines queued are written before closing.
      *
      * @throws IOException exception thrown if an error occurs while closing the
      * log file
      */
     public static void close() throws IOException {
 
-        bw.close();
+        if (logWriter != null) {
+
+            logWriter.close();
+            logWriter = null;
+
+        }
 
     }
 
     /**
-     * Map to keep track of the tasks start and end time.
+     * Map to keep track of the tasks start time in nanoseconds.
      */
-    private final HashMap<String, Instant> startTime = new HashMap<>();
+    private final HashMap<String, Long> startTime = new HashMap<>();
 
     /**
      * Constructor.
@@ -77,7 +88,7 @@ public class ProgressHandler {
         Instant t = Instant.now();
 
         writeLine(t, taskName);
-        startTime.put(taskName, t);
+        startTime.put(taskName, System.nanoTime());
 
     }
 
@@ -85,59 +96,102 @@ public class ProgressHandler {
      * Task ended.
      *
      * @param taskName the name of the task
+     *
+     * @return the duration of the task in nanoseconds, -1 if the task was not
+     * started
+     */
+    public long end(String taskName) {
+
+        return end(taskName, -1);
+
+    }
+
+    /**
+     * Task ended, the throughput is reported along with the duration.
+     *
+     * @param taskName the name of the task
+     * @param nQueries the number of queries run by the task, -1 to not report
+     * the throughput
+     *
+     * @return the duration of the task in nanoseconds, -1 if the task was not
+     * started
      */
-    public void end(String taskName) {
+    public long end(String taskName, long nQueries) {
 
+        long endNanos = System.nanoTime();
         Instant t = Instant.now();
 
-        Instant start = startTime.get(taskName);
-        startTime.remove(taskName);
+        Long start = startTime.remove(taskName);
 
         StringBuilder text = new StringBuilder(taskName);
         text.append(" Completed");
 
+        long duration = -1;
+
         if (start != null) {
 
-            long duration = t.getEpochSecond() - start.getEpochSecond();
+            duration = endNanos - start;
+
+            text.append(" ( ").append(formatDuration(duration));
+
+            if (nQueries >= 0 && duration > 0) {
+
+                text.append(", ").append(String.format(Locale.US, "%.1f", nQueries * 1e9 / duration)).append(" queries/s");
+
+            }
+
+            text.append(")");
 
-            if (duration < 120) {
+        }
 
-                text.append(" ( ").append(duration).append("s)");
+        writeLine(t, text.toString());
 
-            } else {
+        return duration;
 
-                double tempDuration = duration / 60.0;
-                long durationInMin = Math.round(tempDuration);
-                int restInSec = (int) ((tempDuration - durationInMin) * 60.0);
+    }
 
-                if (durationInMin < 120) {
+    /**
+     * Returns a human readable duration.
+     *
+     * @param nanos the duration in nanoseconds
+     *
+     * @return a human readable duration
+     */
+    public static String formatDuration(long nanos) {
 
-                    text.append(" ( ").append(durationInMin).append("min ").append(restInSec).append("s)");
+        if (nanos < 1000000000L) {
 
-                } else {
+            return String.format(Locale.US, "%.1fms", nanos / 1e6);
 
-                    tempDuration = durationInMin / 60.0;
-                    long durationInH = Math.round(tempDuration);
-                    int restInMin = (int) ((tempDuration - durationInH) * 60.0);
+        }
 
-                    if (durationInH < 24) {
+        long seconds = nanos / 1000000000L;
 
-                        text.append(" ( ").append(durationInH).append("h ").append(restInMin).append("min ").append(restInSec).append("s)");
+        if (seconds < 120) {
 
-                    } else {
+            return String.format(Locale.US, "%.3fs", nanos / 1e9);
 
-                        tempDuration = durationInMin / 24.0;
-                        long durationInD = Math.round(tempDuration);
-                        int restInH = (int) ((tempDuration - durationInH) * 24.0);
+        }
 
-                        text.append(" ( ").append(durationInD).append("d ").append(restInH).append("h ").append(restInMin).append("min ").append(restInSec).append("s)");
+        long minutes = seconds / 60;
+        long restInSec = seconds % 60;
+
+        if (minutes < 120) {
+
+            return minutes + "min " + restInSec + "s";
 
-                    }
-                }
-            }
         }
 
-        writeLine(t, text.toString());
+        long hours = minutes / 60;
+        long restInMin = minutes % 60;
+
+        if (hours < 24) {
+
+            return hours + "h " + restInMin + "min " + restInSec + "s";
+
+        }
+
+        return (hours / 24) + "d " + (hours % 24) + "h " + restInMin + "min " + restInSec + "s";
 
     }
 
@@ -168,24 +222,20 @@ public class ProgressHandler {
     }
 
     /**
-     * Writes the given string to the log file.
+     * Queues the given string for writing to the log file. The line is written
+     * by a background thread, if the log buffer is full it is handled
+     * according to the overflow policy. Nothing is written if the log is not
+     * set up.
      *
      * @param log the string to log
      */
     public static void writeToLog(String log) {
 
-        try {
-
-            mutex.acquire();
-
-            bw.write(log);
-            bw.newLine();
-
-            mutex.release();
+        AsyncLogWriter writer = logWriter;
 
-        } catch (Exception e) {
+        if (writer != null) {
 
-            throw new RuntimeException(e);
+            writer.write(log);
 
         }
     }
@@ -0,0 +1,55 @@
+package no.uib.hunt.vcf;
+
+/**
+ * A decompressed BGZF block. Blocks can be shared between threads and must
+ * not be modified.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfBlock {
+
+    /**
+     * The address of the block in the compressed file.
+     */
+    public final long address;
+    /**
+     * The size of the block in the compressed file.
+     */
+    public final int compressedSize;
+    /**
+     * The decompressed data, only the first length bytes are valid.
+     */
+    public final byte[] data;
+    /**
+     * The length of the decompressed data.
+     */
+    public final int length;
+
+    /**
+     * Constructor.
+     *
+     * @param address the address of the block in the compressed file
+     * @param compressedSize the size of the block in the compressed file
+     * @param data the decompressed data
+     * @param length the length of the decompressed data
+     */
+    public BgzfBlock(long address, int compressedSize, byte[] data, int length) {
+
+        this.address = address;
+        this.compressedSize = compressedSize;
+        this.data = data;
+        this.length = length;
+
+    }
+
+    /**
+     * Returns the address of the next block in the compressed file.
+     *
+     * @return the address of the next block
+     */
+    public long getNextAddress() {
+
+        return address + compressedSize;
+
+    }
+}
@@ -0,0 +1,544 @@
+package no.uib.hunt.vcf;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of decompressed BGZF blocks shared by all readers and
+ * threads. Blocks are indexed by file and compressed address, the cache is
+ * bounded in bytes of decompressed data and split in segments with their own
+ * lock and LRU eviction.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfBlockCache {
+
+    /**
+     * The default capacity of the cache in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 256L << 20;
+    /**
+     * The default number of segments.
+     */
+    public static final int DEFAULT_N_SEGMENTS = 16;
+    /**
+     * The cache shared by the whole process.
+     */
+    private static final BgzfBlockCache sharedCache = new BgzfBlockCache(DEFAULT_CAPACITY, DEFAULT_N_SEGMENTS, false);
+    /**
+     * Counter used to attribute ids to files.
+     */
+    private static final AtomicLong fileIdCounter = new AtomicLong();
+
+    /**
+     * The key of a block: the id of its file and its compressed address.
+     */
+    private static final class BlockKey {
+
+        /**
+         * The id of the file.
+         */
+        private final long fileId;
+        /**
+         * The address of the block in the compressed file.
+         */
+        private final long address;
+
+        /**
+         * Constructor.
+         *
+         * @param fileId the id of the file
+         * @param address the address of the block in the compressed file
+         */
+        private BlockKey(long fileId, long address) {
+
+            this.fileId = fileId;
+            this.address = address;
+
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof BlockKey)) {
+
+                return false;
+
+            }
+
+            BlockKey other = (BlockKey) object;
+
+            return fileId == other.fileId && address == other.address;
+
+        }
+
+        @Override
+        public int hashCode() {
+
+            long hash = (fileId * 0x9E3779B97F4A7C15L + address) * 0x9E3779B97F4A7C15L;
+
+            return (int) (hash >>> 32);
+
+        }
+    }
+
+    /**
+     * A block in cache, the data are held on heap or off heap.
+     */
+    private static class CachedBlock {
+
+        /**
+         * The size of the block in the compressed file.
+         */
+        private final int compressedSize;
+        /**
+         * The block, null if held off heap.
+         */
+        private final BgzfBlock block;
+        /**
+         * The data held off heap, null if held on heap.
+         */
+        private final ByteBuffer offHeapData;
+
+        /**
+         * Constructor.
+         *
+         * @param block the block
+         * @param offHeap boolean indicating whether the data should be held
+         * off heap
+         */
+        private CachedBlock(BgzfBlock block, boolean offHeap) {
+
+            this.compressedSize = block.compressedSize;
+
+            if (offHeap) {
+
+                this.block = null;
+                this.offHeapData = ByteBuffer.allocateDirect(block.length);
+                offHeapData.put(block.data, 0, block.length);
+                offHeapData.flip();
+
+            } else {
+
+                this.block = block;
+                this.offHeapData = null;
+
+            }
+        }
+
+        /**
+         * Returns the block, data held off heap are copied.
+         *
+         * @param address the address of the block
+         *
+         * @return the block
+         */
+        private BgzfBlock getBlock(long address) {
+
+            if (block != null) {
+
+                return block;
+
+            }
+
+            byte[] data = new byte[offHeapData.capacity()];
+            offHeapData.duplicate().get(data);
+
+            return new BgzfBlock(address, compressedSize, data, data.length);
+
+        }
+
+        /**
+         * Returns the number of decompressed bytes held.
+         *
+         * @return the number of decompressed bytes held
+         */
+        private int getWeight() {
+
+            return block != null ? block.length : offHeapData.capacity();
+
+        }
+    }
+
+    /**
+     * A segment of the cache.
+     */
+    private static class Segment {
+
+        /**
+         * The blocks indexed by key in access order.
+         */
+        private final LinkedHashMap<BlockKey, CachedBlock> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        /**
+         * The number of decompressed bytes held.
+         */
+        private long weight = 0;
+
+    }
+
+    /**
+     * The capacity of the cache in bytes.
+     */
+    private final long capacity;
+    /**
+     * The capacity of a segment in bytes.
+     */
+    private final long segmentCapacity;
+    /**
+     * Boolean indicating whether the decompressed data are held off heap.
+     */
+    private final boolean offHeap;
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments;
+    /**
+     * The number of hits.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of misses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of evictions.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+    /**
+     * The number of decompressed bytes held.
+     */
+    private final AtomicLong bytesHeld = new AtomicLong();
+
+    /**
+     * Constructor using the default capacity and number of segments, on heap.
+     */
+    public BgzfBlockCache() {
+
+        this(DEFAULT_CAPACITY, DEFAULT_N_SEGMENTS, false);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity of the cache in bytes, 0 disables the cache
+     * @param nSegments the number of segments, i.e. of independent locks
+     * @param offHeap boolean indicating whether the decompressed data should
+     * be held off heap
+     */
+    public BgzfBlockCache(long capacity, int nSegments, boolean offHeap) {
+
+        this.capacity = capacity;
+        this.segmentCapacity = capacity / nSegments;
+        this.offHeap = offHeap;
+        this.segments = new Segment[nSegments];
+
+        for (int i = 0; i < nSegments; i++) {
+
+            segments[i] = new Segment();
+
+        }
+    }
+
+    /**
+     * Returns the cache shared by the whole process.
+     *
+     * @return the cache shared by the whole process
+     */
+    public static BgzfBlockCache getSharedCache() {
+
+        return sharedCache;
+
+    }
+
+    /**
+     * Returns a new id to use for a file, ids are never reused.
+     *
+     * @return a new file id
+     */
+    public static long getNewFileId() {
+
+        return fileIdCounter.incrementAndGet();
+
+    }
+
+    /**
+     * Returns the segment of a key.
+     *
+     * @param key the key
+     *
+     * @return the segment of the key
+     */
+    private Segment getSegment(BlockKey key) {
+
+        return segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+
+    }
+
+    /**
+     * Returns the given block, null if not in cache.
+     *
+     * @param fileId the id of the file
+     * @param address the address of the block in the compressed file
+     *
+     * @return the block
+     */
+    public BgzfBlock get(long fileId, long address) {
+
+        if (segmentCapacity == 0) {
+
+            return null;
+
+        }
+
+        BlockKey key = new BlockKey(fileId, address);
+        Segment segment = getSegment(key);
+
+        CachedBlock cachedBlock;
+
+        synchronized (segment) {
+
+            cachedBlock = segment.blocks.get(key);
+
+        }
+
+        if (cachedBlock == null) {
+
+            misses.incrementAndGet();
+
+            return null;
+
+        }
+
+        hits.incrementAndGet();
+
+        return cachedBlock.getBlock(address);
+
+    }
+
+    /**
+     * Adds a block to the cache, evicting the least recently used blocks of
+     * its segment if the capacity is exceeded.
+     *
+     * @param fileId the id of the file
+     * @param block the block
+     */
+    public void put(long fileId, BgzfBlock block) {
+
+        if (block.length > segmentCapacity) {
+
+            return;
+
+        }
+
+        BlockKey key = new BlockKey(fileId, block.address);
+        Segment segment = getSegment(key);
+        CachedBlock cachedBlock = new CachedBlock(block, offHeap);
+
+        synchronized (segment) {
+
+            CachedBlock previous = segment.blocks.put(key, cachedBlock);
+            long delta = cachedBlock.getWeight() - (previous == null ? 0 : previous.getWeight());
+
+            Iterator<Map.Entry<BlockKey, CachedBlock>> iterator = segment.blocks.entrySet().iterator();
+
+            while (segment.weight + delta > segmentCapacity && iterator.hasNext()) {
+
+                Map.Entry<BlockKey, CachedBlock> entry = iterator.next();
+
+                if (!entry.getKey().equals(key)) {
+
+                    delta -= entry.getValue().getWeight();
+                    iterator.remove();
+                    evictions.incrementAndGet();
+
+                }
+            }
+
+            segment.weight += delta;
+            bytesHeld.addAndGet(delta);
+
+        }
+    }
+
+    /**
+     * Removes all blocks of the given file.
+     *
+     * @param fileId the id of the file
+     */
+    public void invalidate(long fileId) {
+
+        for (Segment segment : segments) {
+
+            synchronized (segment) {
+
+                Iterator<Map.Entry<BlockKey, CachedBlock>> iterator = segment.blocks.entrySet().iterator();
+
+                while (iterator.hasNext()) {
+
+                    Map.Entry<BlockKey, CachedBlock> entry = iterator.next();
+
+                    if (entry.getKey().fileId == fileId) {
+
+                        long weight = entry.getValue().getWeight();
+                        segment.weight -= weight;
+                        bytesHeld.addAndGet(-weight);
+                        iterator.remove();
+
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+
+        for (Segment segment : segments) {
+
+            synchronized (segment) {
+
+                bytesHeld.addAndGet(-segment.weight);
+                segment.blocks.clear();
+                segment.weight = 0;
+
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity of the cache in bytes.
+     *
+     * @return the capacity of the cache in bytes
+     */
+    public long getCapacity() {
+
+        return capacity;
+
+    }
+
+    /**
+     * Indicates whether the decompressed data are held off heap.
+     *
+     * @return a boolean indicating whether the decompressed data are held off
+     * heap
+     */
+    public boolean isOffHeap() {
+
+        return offHeap;
+
+    }
+
+    /**
+     * Returns the number of decompressed bytes held.
+     *
+     * @return the number of decompressed bytes held
+     */
+    public long getBytesHeld() {
+
+        return bytesHeld.get();
+
+    }
+
+    /**
+     * Returns the number of blocks in cache.
+     *
+     * @return the number of blocks in cache
+     */
+    public int size() {
+
+        int size = 0;
+
+        for (Segment segment : segments) {
+
+            synchronized (segment) {
+
+                size += segment.blocks.size();
+
+            }
+        }
+
+        return size;
+
+    }
+
+    /**
+     * Returns the number of hits.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+
+        return hits.get();
+
+    }
+
+    /**
+     * Returns the number of misses.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+
+        return misses.get();
+
+    }
+
+    /**
+     * Returns the share of lookups that were hits.
+     *
+     * @return the hit rate
+     */
+    public double getHitRate() {
+
+        long nHits = getHits();
+        long nLookups = nHits + getMisses();
+
+        return nLookups == 0 ? 0 : ((double) nHits) / nLookups;
+
+    }
+
+    /**
+     * Returns the number of evictions.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+
+        return evictions.get();
+
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetCounters() {
+
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+
+    }
+
+    /**
+     * Returns a short report on the cache usage.
+     *
+     * @return a short report on the cache usage
+     */
+    public String getReport() {
+
+        return String.join(" ",
+                "BGZF block cache:",
+                Long.toString(getHits()), "hits,",
+                Long.toString(getMisses()), "misses,",
+                String.format("%.1f%%", 100 * getHitRate()), "hit rate,",
+                Long.toString(getEvictions()), "evictions,",
+                Long.toString(getBytesHeld() >> 20), "MB held");
+
+    }
+}
@@ -0,0 +1,251 @@
+package no.uib.hunt.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import no.uib.hunt.utils.Instrumentation;
+
+/**
+ * Reads and inflates the BGZF blocks of a file by address. Instances are not
+ * thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfBlockReader implements AutoCloseable {
+
+    /**
+     * The maximal size of a BGZF block, compressed or not.
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 16;
+    /**
+     * The size of the fixed part of the gzip header.
+     */
+    private static final int HEADER_SIZE = 12;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The size of the file.
+     */
+    private final long fileSize;
+    /**
+     * The inflater.
+     */
+    private final Inflater inflater = new Inflater(true);
+    /**
+     * Buffer for the compressed block.
+     */
+    private final ByteBuffer compressedBuffer = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+
+    /**
+     * Constructor.
+     *
+     * @param file the bgzipped file
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    public BgzfBlockReader(File file) throws IOException {
+
+        fileChannel = new RandomAccessFile(file, "r").getChannel();
+        fileSize = fileChannel.size();
+
+    }
+
+    /**
+     * Returns the size of the compressed file.
+     *
+     * @return the size of the compressed file
+     */
+    public long getFileSize() {
+
+        return fileSize;
+
+    }
+
+    /**
+     * Reads the header of the block at the given address and returns the size
+     * of the block in the compressed file.
+     *
+     * @param address the address of the block in the compressed file
+     *
+     * @return the size of the block, -1 if the address is at or past the end
+     * of the file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file or if the block is malformed
+     */
+    public int readBlockSize(long address) throws IOException {
+
+        if (address >= fileSize) {
+
+            return -1;
+
+        }
+
+        compressedBuffer.clear();
+        compressedBuffer.limit(HEADER_SIZE);
+        readFully(address);
+
+        byte[] bytes = compressedBuffer.array();
+
+        if ((bytes[0] & 0xFF) != 31 || (bytes[1] & 0xFF) != 139 || (bytes[3] & 4) == 0) {
+
+            throw new IOException("Invalid BGZF block header at " + address + ".");
+
+        }
+
+        int extraLength = getExtraLength();
+
+        compressedBuffer.limit(HEADER_SIZE + extraLength);
+        readFully(address + HEADER_SIZE);
+
+        for (int i = HEADER_SIZE; i + 4 <= HEADER_SIZE + extraLength;) {
+
+            int subfieldLength = (bytes[i + 2] & 0xFF) | (bytes[i + 3] & 0xFF) << 8;
+
+            if (bytes[i] == 'B' && bytes[i + 1] == 'C' && subfieldLength == 2) {
+
+                return ((bytes[i + 4] & 0xFF) | (bytes[i + 5] & 0xFF) << 8) + 1;
+
+            }
+
+            i += 4 + subfieldLength;
+
+        }
+
+        throw new IOException("No BGZF block size found at " + address + ".");
+
+    }
+
+    /**
+     * Returns the length of the extra field of the header in the compressed
+     * buffer.
+     *
+     * @return the length of the extra field
+     */
+    private int getExtraLength() {
+
+        byte[] bytes = compressedBuffer.array();
+
+        return (bytes[10] & 0xFF) | (bytes[11] & 0xFF) << 8;
+
+    }
+
+    /**
+     * Reads and inflates the block at the given address.
+     *
+     * @param address the address of the block in the compressed file
+     *
+     * @return the decompressed block, null if the address is at or past the
+     * end of the file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file or if the block is malformed
+     */
+    public BgzfBlock readBlock(long address) throws IOException {
+
+        long start = Instrumentation.start();
+
+        int blockSize = readBlockSize(address);
+
+        if (blockSize == -1) {
+
+            return null;
+
+        }
+
+        byte[] bytes = compressedBuffer.array();
+        int extraLength = getExtraLength();
+
+        compressedBuffer.limit(blockSize);
+        readFully(address + HEADER_SIZE + extraLength);
+
+        int dataStart = HEADER_SIZE + extraLength;
+        int dataLength = blockSize - dataStart - 8;
+        int uncompressedSize = (bytes[blockSize - 4] & 0xFF) | (bytes[blockSize - 3] & 0xFF) << 8
+                | (bytes[blockSize - 2] & 0xFF) << 16 | (bytes[blockSize - 1] & 0xFF) << 24;
+
+        byte[] data = new byte[uncompressedSize];
+
+        if (uncompressedSize > 0) {
+
+            inflater.reset();
+            inflater.setInput(bytes, dataStart, dataLength);
+
+            try {
+
+                int inflated = 0;
+
+                while (inflated < uncompressedSize && !inflater.finished()) {
+
+                    int n = inflater.inflate(data, inflated, uncompressedSize - inflated);
+
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+
+                        break;
+
+                    }
+
+                    inflated += n;
+
+                }
+
+                if (inflated != uncompressedSize) {
+
+                    throw new IOException("Truncated BGZF block at " + address + ".");
+
+                }
+
+            } catch (DataFormatException e) {
+
+                throw new IOException("Corrupted BGZF block at " + address + ".", e);
+
+            }
+        }
+
+        Instrumentation.stop(Instrumentation.BGZF_INFLATE, start);
+
+        return new BgzfBlock(address, blockSize, data, uncompressedSize);
+
+    }
+
+    /**
+     * Reads from the file into the compressed buffer until its limit.
+     *
+     * @param position the position in the file corresponding to the buffer
+     * position
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private void readFully(long position) throws IOException {
+
+        while (compressedBuffer.hasRemaining()) {
+
+            int n = fileChannel.read(compressedBuffer, position);
+
+            if (n < 0) {
+
+                throw new IOException("Unexpected end of file in BGZF block.");
+
+            }
+
+            position += n;
+
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        inflater.end();
+        fileChannel.close();
+
+    }
+}
@@ -0,0 +1,248 @@
+package no.uib.hunt.vcf;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflates the blocks following a given address in parallel, ahead of a
+ * sequential reader. The headers of the blocks are read by the reader thread
+ * to locate the next blocks, which are read and inflated by the threads of an
+ * executor. At most a given number of blocks are pending, the blocks must be
+ * retrieved in order. If the executor is shut down while the pipeline is in
+ * use, the pipeline ends after the blocks already submitted and the reader
+ * falls back to reading the following blocks itself. Instances are not
+ * thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfReadAhead implements AutoCloseable {
+
+    /**
+     * The default number of blocks to inflate ahead of the reader.
+     */
+    public static final int DEFAULT_N_BLOCKS = 32;
+
+    /**
+     * A block being inflated.
+     */
+    private static class PendingBlock {
+
+        /**
+         * The address of the block in the compressed file.
+         */
+        private final long address;
+        /**
+         * The future of the inflated block.
+         */
+        private final Future<BgzfBlock> future;
+
+        /**
+         * Constructor.
+         *
+         * @param address the address of the block in the compressed file
+         * @param future the future of the inflated block
+         */
+        private PendingBlock(long address, Future<BgzfBlock> future) {
+
+            this.address = address;
+            this.future = future;
+
+        }
+    }
+
+    /**
+     * The block reader used to read the block headers.
+     */
+    private final BgzfBlockReader headerReader;
+    /**
+     * The pool of block readers used to inflate the blocks.
+     */
+    private final ReaderPool<BgzfBlockReader> inflaters;
+    /**
+     * The executor inflating the blocks.
+     */
+    private final ExecutorService executor;
+    /**
+     * The maximal number of pending blocks.
+     */
+    private final int nBlocks;
+    /**
+     * The address where to stop reading (exclusive).
+     */
+    private long endAddress;
+    /**
+     * The address of the next block to submit.
+     */
+    private long nextAddress;
+    /**
+     * The blocks pending in order.
+     */
+    private final ArrayDeque<PendingBlock> pending;
+
+    /**
+     * Constructor.
+     *
+     * @param headerReader the block reader used to read the block headers
+     * @param inflaters the pool of block readers used to inflate the blocks
+     * @param executor the executor inflating the blocks
+     * @param nBlocks the maximal number of blocks to inflate ahead
+     * @param startAddress the address of the first block
+     * @param endAddress the address where to stop reading (exclusive)
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * a block header
+     */
+    public BgzfReadAhead(BgzfBlockReader headerReader, ReaderPool<BgzfBlockReader> inflaters, ExecutorService executor, int nBlocks, long startAddress, long endAddress) throws IOException {
+
+        this.headerReader = headerReader;
+        this.inflaters = inflaters;
+        this.executor = executor;
+        this.nBlocks = nBlocks;
+        this.endAddress = endAddress;
+        this.nextAddress = startAddress;
+        this.pending = new ArrayDeque<>(nBlocks);
+
+        fill();
+
+    }
+
+    /**
+     * Returns a fixed thread pool of daemon threads to use to inflate blocks.
+     *
+     * @param nThreads the number of threads
+     *
+     * @return a thread pool to use to inflate blocks
+     */
+    public static ExecutorService newExecutor(int nThreads) {
+
+        AtomicInteger threadCounter = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(nThreads, runnable -> {
+
+            Thread thread = new Thread(runnable, "bgzf-inflater-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+    }
+
+    /**
+     * Submits blocks until the maximal number of pending blocks or the end
+     * address is reached.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * a block header
+     */
+    private void fill() throws IOException {
+
+        while (pending.size() < nBlocks && nextAddress < endAddress) {
+
+            int blockSize = headerReader.readBlockSize(nextAddress);
+
+            if (blockSize == -1) {
+
+                break;
+
+            }
+
+            long address = nextAddress;
+            Future<BgzfBlock> future;
+
+            try {
+
+                future = executor.submit(() -> {
+
+                    BgzfBlockReader blockReader = inflaters.borrow();
+
+                    try {
+
+                        return blockReader.readBlock(address);
+
+                    } finally {
+
+                        inflaters.release(blockReader);
+
+                    }
+                });
+
+            } catch (RejectedExecutionException e) {
+
+                // The executor was shut down, end the pipeline here
+                endAddress = nextAddress;
+
+                break;
+
+            }
+
+            pending.add(new PendingBlock(address, future));
+            nextAddress += blockSize;
+
+        }
+    }
+
+    /**
+     * Returns the block at the given address if it is the next block of the
+     * pipeline, null otherwise.
+     *
+     * @param address the address of the block in the compressed file
+     *
+     * @return the block at the given address
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or inflating a block
+     */
+    public BgzfBlock next(long address) throws IOException {
+
+        PendingBlock pendingBlock = pending.peekFirst();
+
+        if (pendingBlock == null || pendingBlock.address != address) {
+
+            return null;
+
+        }
+
+        pending.pollFirst();
+        fill();
+
+        try {
+
+            return pendingBlock.future.get();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            throw new IOException(e);
+
+        } catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+
+        }
+    }
+
+    /**
+     * Cancels the pending blocks.
+     */
+    @Override
+    public void close() {
+
+        for (PendingBlock pendingBlock : pending) {
+
+            pendingBlock.future.cancel(false);
+
+        }
+
+        pending.clear();
+
+    }
+}
@@ -1,32 +1,121 @@
 package no.uib.hunt.vcf;
 
-import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFFileReader;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import no.uib.hunt.genotypes.GenotypeSource;
+import no.uib.hunt.genotypes.QueryScheduler;
+import no.uib.hunt.genotypes.VariantSummary;
 import no.uib.hunt.model.Variant;
+import no.uib.hunt.model.WeightedVariant;
+import no.uib.hunt.utils.Instrumentation;
+import no.uib.hunt.utils.ProgressHandler;
 
 /**
- * Genotype provider based on vcf files.
+ * Genotype provider based on vcf files. The provider can be queried
+ * concurrently, readers are pooled per vcf file.
  *
  * @author Marc Vaudel
  */
-public class GenotypeProvider {
+public class GenotypeProvider implements GenotypeSource {
 
     /**
      * Map of all available vcf files indexed by chromosome name.
      */
-    private final HashMap<String, VCFFileReader> vcfFiles = new HashMap<>();
+    private final ConcurrentHashMap<String, VcfFile> vcfFiles = new ConcurrentHashMap<>();
+    /**
+     * Cache for the decoded variant contexts.
+     */
+    private final VariantContextCache variantContextCache;
+    /**
+     * Cache for the decompressed blocks of the vcf files.
+     */
+    private final BgzfBlockCache blockCache;
+    /**
+     * The samples of the cohort, in the order of the first vcf file added.
+     */
+    private volatile List<String> samples = null;
+    /**
+     * The hash of the list of samples.
+     */
+    private volatile long samplesHash;
+    /**
+     * The index of every sample in the list of samples.
+     */
+    private volatile HashMap<String, Integer> sampleIndexMap = null;
+    /**
+     * The line and projection used by every thread for the queries of
+     * primitive genotypes.
+     */
+    private final ThreadLocal<PrimitiveQuery> primitiveQueries = ThreadLocal.withInitial(PrimitiveQuery::new);
+    /**
+     * Index of the variants by rsId, null if not set.
+     */
+    private RsIdIndex rsIdIndex = null;
+    /**
+     * The planner used to query lists of variants.
+     */
+    private final QueryPlanner queryPlanner = new QueryPlanner();
+    /**
+     * The executor used to inflate blocks ahead of sequential reads, null if
+     * read-ahead is disabled.
+     */
+    private ExecutorService readAheadExecutor = null;
+    /**
+     * The number of blocks to inflate ahead of sequential reads.
+     */
+    private int readAheadBlocks = BgzfReadAhead.DEFAULT_N_BLOCKS;
 
     /**
-     * Constructor.
+     * Constructor using a variant context cache with default settings and the
+     * block cache shared by the process.
      */
     public GenotypeProvider() {
 
+        this(new VariantContextCache());
+
+    }
+
+    /**
+     * Constructor using the block cache shared by the process.
+     *
+     * @param variantContextCache the cache to use for the decoded variant
+     * contexts
+     */
+    public GenotypeProvider(VariantContextCache variantContextCache) {
+
+        this(variantContextCache, BgzfBlockCache.getSharedCache());
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param variantContextCache the cache to use for the decoded variant
+     * contexts
+     * @param blockCache the cache to use for the decompressed blocks of the
+     * vcf files
+     */
+    public GenotypeProvider(VariantContextCache variantContextCache, BgzfBlockCache blockCache) {
+
+        this.variantContextCache = variantContextCache;
+        this.blockCache = blockCache;
+
     }
     
     /**
@@ -36,14 +125,41 @@ public class GenotypeProvider {
      */
     public List<String> getSamples() {
         
-        VCFFileReader vcfFileReader = vcfFiles.values().stream().findAny().orElse(null);
+        List<String> cohortSamples = samples;
+        
+        return cohortSamples == null ? new ArrayList<>(0) : cohortSamples;
+        
+    }
+    
+    @Override
+    public int[] getSampleIndexes(List<String> samples) {
+        
+        HashMap<String, Integer> indexMap = sampleIndexMap;
+        int[] result = new int[samples.size()];
+        
+        for (int i = 0; i < result.length; i++) {
+            
+            Integer index = indexMap == null ? null : indexMap.get(samples.get(i));
+            
+            if (index == null) {
+                
+                throw new IllegalArgumentException("Sample " + samples.get(i) + " not found.");
+                
+            }
+            
+            result[i] = index;
+            
+        }
         
-        return vcfFileReader == null ? new ArrayList<>(0) : vcfFileReader.getFileHeader().getSampleNamesInOrder();
+        return result;
         
     }
 
     /**
-     * Adds a vcf file.
+     * Adds a vcf file. The file is only registered, its header and index are
+     * loaded on the first query. The samples are read from the sample list
+     * sidecar file when available, for files after the first only the hash of
+     * the sample list is read and compared to the samples of the cohort.
      * 
      * @param chr the chromosome in this vcf file.
      * @param vcfFile the vcf file
@@ -51,13 +167,182 @@ public class GenotypeProvider {
      */
     public void addVcfFile(String chr, File vcfFile, File indexFile) {
 
-        VCFFileReader vcfFileReader = new VCFFileReader(vcfFile, indexFile);
-        vcfFiles.put(chr, vcfFileReader);
+        try {
+
+            VcfSamples vcfSamples = VcfSamples.get(vcfFile, samples == null);
+            VcfFile newVcfFile = new VcfFile(vcfFile, indexFile, blockCache);
+
+            synchronized (this) {
+
+                newVcfFile.setReadAhead(readAheadExecutor, readAheadBlocks);
+
+                if (samples == null) {
+
+                    if (vcfSamples.samples == null) {
+
+                        vcfSamples = VcfSamples.get(vcfFile, true);
+
+                    }
+
+                    List<String> headerSamples = vcfSamples.samples;
+                    HashMap<String, Integer> indexMap = new HashMap<>(headerSamples.size());
+
+                    for (int i = 0; i < headerSamples.size(); i++) {
+
+                        indexMap.put(headerSamples.get(i), i);
+
+                    }
+
+                    samplesHash = vcfSamples.hash;
+                    sampleIndexMap = indexMap;
+                    samples = headerSamples;
+
+                } else if (vcfSamples.hash != samplesHash) {
 
+                    throw new IllegalArgumentException("The samples of " + vcfFile + " differ from the samples of the files already added.");
+
+                }
+            }
+
+            VcfFile previous = vcfFiles.put(chr, newVcfFile);
+
+            if (previous != null) {
+
+                previous.close();
+
+            }
+
+            // Variants cached as absent or from a replaced file may be stale
+            variantContextCache.clear();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
     }
     
     /**
-     * Returns the variant context for a variant.
+     * Adds vcf files concurrently. Files are registered and, if requested,
+     * opened on a bounded pool of threads: headers are parsed, indexes are
+     * loaded and the samples of every header are checked against the samples
+     * of the cohort. The time taken by every file is reported through the
+     * given progress handler.
+     * 
+     * @param vcfFiles the vcf files indexed by chromosome
+     * @param indexFiles the tbi index files indexed by chromosome
+     * @param nThreads the number of files processed concurrently
+     * @param open boolean indicating whether the files should be opened now rather than on first query
+     * @param progressHandler the progress handler to report the time taken by every file to, can be null
+     */
+    public void addVcfFiles(Map<String, File> vcfFiles, Map<String, File> indexFiles, int nThreads, boolean open, ProgressHandler progressHandler) {
+        
+        ArrayList<String> chromosomes = new ArrayList<>(vcfFiles.keySet());
+        
+        if (chromosomes.isEmpty()) {
+            
+            return;
+            
+        }
+        
+        // The first file sets the samples of the cohort, the other files are checked against it
+        
+        String firstChr = chromosomes.get(0);
+        addVcfFile(firstChr, vcfFiles.get(firstChr), indexFiles.get(firstChr));
+        
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, chromosomes.size())), runnable -> {
+            
+            Thread thread = new Thread(runnable, "hunt-vcf-opener-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            
+            return thread;
+            
+        });
+        
+        try {
+            
+            ArrayList<Future<?>> futures = new ArrayList<>(chromosomes.size());
+            
+            for (int i = 0; i < chromosomes.size(); i++) {
+                
+                String chr = chromosomes.get(i);
+                boolean registered = i == 0;
+                
+                futures.add(executor.submit(() -> {
+                    
+                    long start = System.nanoTime();
+                    
+                    if (!registered) {
+                        
+                        addVcfFile(chr, vcfFiles.get(chr), indexFiles.get(chr));
+                        
+                    }
+                    
+                    if (open) {
+                        
+                        VcfFile vcfFile = this.vcfFiles.get(chr);
+                        vcfFile.open();
+                        
+                        if (!vcfFile.getHeader().getGenotypeSamples().equals(samples)) {
+                            
+                            throw new IllegalArgumentException("The samples in the header of " + vcfFile.vcfFile + " differ from the samples of the cohort.");
+                            
+                        }
+                    }
+                    
+                    if (progressHandler != null) {
+                        
+                        progressHandler.writeLine("    " + (open ? "Opened " : "Registered ") + vcfFiles.get(chr) + " (" + ProgressHandler.formatDuration(System.nanoTime() - start) + ")");
+                        
+                    }
+                }));
+            }
+            
+            for (Future<?> future : futures) {
+                
+                future.get();
+                
+            }
+            
+        } catch (ExecutionException e) {
+            
+            if (e.getCause() instanceof RuntimeException) {
+                
+                throw (RuntimeException) e.getCause();
+                
+            }
+            
+            throw new RuntimeException(e.getCause());
+            
+        } catch (InterruptedException e) {
+            
+            throw new RuntimeException(e);
+            
+        } finally {
+            
+            executor.shutdownNow();
+            
+        }
+    }
+    
+    /**
+     * Returns the number of vcf files opened, files are opened on their first
+     * query.
+     * 
+     * @return the number of vcf files opened
+     */
+    public int getNOpenedFiles() {
+        
+        return (int) vcfFiles.values().stream()
+                .filter(VcfFile::isOpen)
+                .count();
+        
+    }
+    
+    /**
+     * Returns the variant context for a variant. Variant contexts are decoded
+     * once and kept in cache, absent variants are cached as well.
      * 
      * @param variant the variant of interest
      * 
@@ -65,19 +350,209 @@ public class GenotypeProvider {
      */
     public VariantContext getVariantContext(Variant variant) {
 
-        VCFFileReader vcfFileReader = vcfFiles.get(variant.chr);
-
-        try (CloseableIterator<VariantContext> iterator = vcfFileReader.query(variant.chr, variant.bp, variant.bp)) {
+        return variantContextCache.get(variant, this::queryVariantContext);
 
-            while (iterator.hasNext()) {
-
-                VariantContext variantContext = iterator.next();
+    }
+    
+    /**
+     * Queries the vcf file for the variant context of a variant.
+     * 
+     * @param variant the variant of interest
+     * 
+     * @return the variant context
+     */
+    private VariantContext queryVariantContext(Variant variant) {
 
-                if (variantContext.getID().equals(variant.rsId)) {
+        VcfFile vcfFile = vcfFiles.get(variant.chr);
+        
+        if (vcfFile == null) {
+            
+            return null;
+            
+        }
+        
+        VcfLine vcfLine = new VcfLine();
 
-                    return variantContext;
+        if (!getVcfLine(vcfFile, variant, vcfLine)) {
+            
+            return null;
+            
+        }
+        
+        VcfDecoder vcfDecoder = vcfFile.borrowDecoder();
+        
+        try {
+            
+            return vcfDecoder.decodeFully(vcfLine);
+            
+        } finally {
+            
+            vcfFile.releaseDecoder(vcfDecoder);
+            
+        }
+        
+    }
 
+    /**
+     * Returns the variant contexts for a list of variants. Variants are
+     * queried sorted by position, variants in neighbouring blocks are read in
+     * a single scan.
+     * 
+     * @param variants the variants of interest
+     * 
+     * @return the variant contexts in the order of the variants, null for variants not found
+     */
+    public VariantContext[] getVariantContexts(List<Variant> variants) {
+        
+        VariantContext[] variantContexts = new VariantContext[variants.size()];
+        
+        ArrayList<Variant> toQuery = new ArrayList<>();
+        ArrayList<Integer> toQueryIndexes = new ArrayList<>();
+        
+        for (int i = 0; i < variantContexts.length; i++) {
+            
+            Variant variant = variants.get(i);
+            variantContexts[i] = variantContextCache.get(variant);
+            
+            if (variantContexts[i] == null) {
+                
+                toQuery.add(variant);
+                toQueryIndexes.add(i);
+                
+            } else if (variantContexts[i] == VariantContextCache.ABSENT) {
+                
+                variantContexts[i] = null;
+                
+            }
+        }
+        
+        List<QueryPlanner.Region> regions = queryPlanner.plan(toQuery, chr -> {
+            
+            VcfFile vcfFile = vcfFiles.get(chr);
+            
+            return vcfFile == null ? null : vcfFile.getIndex();
+            
+        });
+        
+        VariantContext[] queried = new VariantContext[toQuery.size()];
+        
+        for (QueryPlanner.Region region : regions) {
+            
+            VcfFile vcfFile = vcfFiles.get(region.chr);
+            VcfDecoder vcfDecoder = vcfFile.borrowDecoder();
+            
+            try {
+                
+                queryRegion(vcfFile, region, toQuery, (vcfLine, variantIndex) -> {
+                    
+                    VariantContext variantContext = vcfDecoder.decodeFully(vcfLine);
+                    variantContextCache.put(toQuery.get(variantIndex), variantContext);
+                    queried[variantIndex] = variantContext;
+                    
+                });
+                
+            } finally {
+                
+                vcfFile.releaseDecoder(vcfDecoder);
+                
+            }
+        }
+        
+        for (int i = 0; i < queried.length; i++) {
+            
+            if (queried[i] == null) {
+                
+                variantContextCache.put(toQuery.get(i), null);
+                
+            }
+            
+            variantContexts[toQueryIndexes.get(i)] = queried[i];
+            
+        }
+        
+        return variantContexts;
+        
+    }
+    
+    /**
+     * Reads the variants of a region in a single scan and passes the line of
+     * every variant found to the given handler.
+     * 
+     * @param vcfFile the vcf file of the region
+     * @param region the region
+     * @param variants the variants planned
+     * @param handler the handler of the lines found, called with the index of the variant in the variants planned
+     */
+    private void queryRegion(VcfFile vcfFile, QueryPlanner.Region region, List<Variant> variants, ObjIntConsumer<VcfLine> handler) {
+        
+        RawVcfReader rawVcfReader = vcfFile.borrowReader();
+        
+        try {
+            
+            int[] variantIndexes = region.variantIndexes;
+            int[] next = new int[1];
+            
+            rawVcfReader.query(region.chr, region.start, region.end, new VcfLine(), vcfLine -> {
+                
+                int bp = vcfLine.getPosition();
+                
+                while (next[0] < variantIndexes.length && variants.get(variantIndexes[next[0]]).bp < bp) {
+                    
+                    next[0]++;
+                    
+                }
+                
+                for (int i = next[0]; i < variantIndexes.length && variants.get(variantIndexes[i]).bp == bp; i++) {
+                    
+                    Variant variant = variants.get(variantIndexes[i]);
+                    
+                    if (vcfLine.hasId(variant.rsId)) {
+                        
+                        handler.accept(vcfLine, variantIndexes[i]);
+                        
+                    }
                 }
+                
+                return next[0] < variantIndexes.length;
+                
+            });
+            
+        } catch (IOException e) {
+            
+            throw new RuntimeException(e);
+            
+        } finally {
+            
+            vcfFile.releaseReader(rawVcfReader);
+            
+        }
+    }
+
+    /**
+     * Returns the variant context for an rsId using the rsId index. The line
+     * of the variant is read directly at the indexed file pointer.
+     * 
+     * @param rsId the rsId of the variant of interest
+     * 
+     * @return the variant context, null if not found
+     */
+    public VariantContext getVariantContext(String rsId) {
+        
+        if (rsIdIndex == null) {
+            
+            throw new IllegalStateException("No rsId index set.");
+            
+        }
+        
+        for (long entry : rsIdIndex.find(rsId)) {
+            
+            Variant variant = new Variant(rsId, rsIdIndex.getChromosome(entry), rsIdIndex.getPosition(entry));
+            VariantContext variantContext = variantContextCache.get(variant, indexedVariant -> readVariantContext(indexedVariant, rsIdIndex.getFilePointer(entry)));
+            
+            if (variantContext != null) {
+                
+                return variantContext;
+                
             }
         }
         
@@ -85,6 +560,78 @@ public class GenotypeProvider {
         
     }
 
+    /**
+     * Reads and decodes the line of a variant at the given file pointer.
+     * 
+     * @param variant the variant of interest
+     * @param filePointer the virtual file pointer of the line
+     * 
+     * @return the variant context, null if the vcf file of the chromosome is
+     * not available or if the line does not have the id of the variant
+     */
+    private VariantContext readVariantContext(Variant variant, long filePointer) {
+        
+        VcfFile vcfFile = vcfFiles.get(variant.chr);
+        
+        if (vcfFile == null) {
+            
+            return null;
+            
+        }
+        
+        VcfLine vcfLine = new VcfLine();
+        RawVcfReader rawVcfReader = vcfFile.borrowReader();
+        
+        try {
+            
+            rawVcfReader.seek(filePointer);
+            
+            if (!rawVcfReader.readLine(vcfLine) || !vcfLine.hasId(variant.rsId)) {
+                
+                return null;
+                
+            }
+            
+        } catch (IOException e) {
+            
+            throw new RuntimeException(e);
+            
+        } finally {
+            
+            vcfFile.releaseReader(rawVcfReader);
+            
+        }
+        
+        VcfDecoder vcfDecoder = vcfFile.borrowDecoder();
+        
+        try {
+            
+            return vcfDecoder.decodeFully(vcfLine);
+            
+        } finally {
+            
+            vcfFile.releaseDecoder(vcfDecoder);
+            
+        }
+    }
+
+    /**
+     * Returns the genotype for a given variant in a given sample using the
+     * rsId index.
+     * 
+     * @param sample the sample of interest
+     * @param rsId the rsId of the variant of interest
+     * 
+     * @return the genotype for a given variant in a given sample
+     */
+    public Genotype getGenotype(String sample, String rsId) {
+        
+        VariantContext variantContext = getVariantContext(rsId);
+        
+        return variantContext == null ? null : variantContext.getGenotype(sample);
+
+    }
+
     /**
      * Returns the genotype for a given variant in a given sample.
      * 
@@ -97,18 +644,661 @@ public class GenotypeProvider {
         
         VariantContext variantContext = getVariantContext(variant);
         
-        return variantContext == null ? null : variantContext.getGenotype(sample);
+        if (variantContext == null) {
+            
+            return null;
+            
+        }
+        
+        long start = Instrumentation.start();
+        
+        Genotype genotype = variantContext.getGenotype(sample);
+        
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+        
+        return genotype;
+
+    }
+    
+    /**
+     * Returns the genotypes for a given variant in the given samples. The
+     * variant is decoded only once for all samples.
+     * 
+     * @param samples the samples of interest
+     * @param variant the variant of interest
+     * 
+     * @return the genotypes in the same order as the samples, null if the variant was not found
+     */
+    public Genotype[] getGenotypes(List<String> samples, Variant variant) {
+        
+        return getGenotypes(samples, getVariantContext(variant));
 
     }
     
+    /**
+     * Returns the genotypes of the given samples in a variant context.
+     * 
+     * @param samples the samples of interest
+     * @param variantContext the variant context, can be null
+     * 
+     * @return the genotypes in the same order as the samples, null if the variant context is null
+     */
+    private static Genotype[] getGenotypes(List<String> samples, VariantContext variantContext) {
+        
+        if (variantContext == null) {
+            
+            return null;
+            
+        }
+        
+        long start = Instrumentation.start();
+        
+        Genotype[] genotypes = new Genotype[samples.size()];
+        
+        for (int i = 0; i < genotypes.length; i++) {
+            
+            genotypes[i] = variantContext.getGenotype(samples.get(i));
+            
+        }
+        
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+        
+        return genotypes;
+
+    }
+
+    /**
+     * Returns the genotypes for the given variants in the given samples as a
+     * variants x samples matrix. Every variant is decoded only once for all
+     * samples, and the variants are read in position order using the query
+     * planner.
+     * 
+     * @param samples the samples of interest
+     * @param variants the variants of interest
+     * 
+     * @return the genotypes indexed by variant and sample in the order of the given lists, rows are null for variants not found
+     */
+    public Genotype[][] getGenotypes(List<String> samples, List<Variant> variants) {
+        
+        VariantContext[] variantContexts = getVariantContexts(variants);
+        
+        Genotype[][] genotypes = new Genotype[variants.size()][];
+        
+        for (int i = 0; i < genotypes.length; i++) {
+            
+            genotypes[i] = getGenotypes(samples, variantContexts[i]);
+            
+        }
+        
+        return genotypes;
+
+    }
+    
+    /**
+     * Splits the given variants by chromosome and compressed block range using
+     * the query planner: no block is shared by two units, and variants in
+     * distant blocks are in different units. Variants on chromosomes without
+     * vcf file are left out.
+     * 
+     * @param variants the variants to split
+     * @param maxUnitSize the number of variants above which a unit is cut
+     * 
+     * @return the work units, sorted by chromosome and position
+     */
+    @Override
+    public List<List<Variant>> partition(List<Variant> variants, int maxUnitSize) {
+        
+        QueryPlanner planner = new QueryPlanner(QueryPlanner.DEFAULT_MAX_GAP, maxUnitSize);
+        
+        List<QueryPlanner.Region> regions = planner.plan(variants, chr -> {
+            
+            VcfFile vcfFile = vcfFiles.get(chr);
+            
+            return vcfFile == null ? null : vcfFile.getIndex();
+            
+        });
+        
+        ArrayList<List<Variant>> units = new ArrayList<>(regions.size());
+        
+        for (QueryPlanner.Region region : regions) {
+            
+            ArrayList<Variant> unit = new ArrayList<>(region.variantIndexes.length);
+            
+            for (int variantIndex : region.variantIndexes) {
+                
+                unit.add(variants.get(variantIndex));
+                
+            }
+            
+            units.add(unit);
+            
+        }
+        
+        return units;
+        
+    }
+    
+    /**
+     * Returns a projection of the vcf lines on the given samples.
+     * 
+     * @param samples the samples of interest
+     * 
+     * @return a projection of the vcf lines on the given samples
+     */
+    public SampleProjection getSampleProjection(List<String> samples) {
+        
+        return new SampleProjection(getSamples(), samples);
+        
+    }
+
+    /**
+     * Returns the genotypes for a given variant in the samples of the given
+     * projection. Only the fields of these samples are parsed from the vcf
+     * line.
+     * 
+     * @param sampleProjection the projection on the samples of interest
+     * @param variant the variant of interest
+     * 
+     * @return the genotypes in the order of the projection, null if the variant was not found
+     */
+    public Genotype[] getGenotypes(SampleProjection sampleProjection, Variant variant) {
+        
+        VcfLine vcfLine = new VcfLine();
+        
+        return getVcfLine(variant, vcfLine) ? sampleProjection.getGenotypes(vcfLine) : null;
+        
+    }
+    
+    @Override
+    public boolean getCalls(Variant variant, int[] sampleIndexes, byte[] calls) {
+        
+        PrimitiveQuery query = primitiveQueries.get();
+        
+        if (!getVcfLine(variant, query.vcfLine)) {
+            
+            return false;
+            
+        }
+        
+        query.getProjection(samples, sampleIndexes).getCalls(query.vcfLine, calls);
+        
+        return true;
+        
+    }
+    
+    @Override
+    public boolean getDosages(Variant variant, int[] sampleIndexes, float[] dosages) {
+        
+        PrimitiveQuery query = primitiveQueries.get();
+        
+        if (!getVcfLine(variant, query.vcfLine)) {
+            
+            return false;
+            
+        }
+        
+        query.getProjection(samples, sampleIndexes).getDosages(query.vcfLine, dosages);
+        
+        return true;
+        
+    }
+    
+    /**
+     * Writes the dosages of a variant in the samples of a projection to the
+     * given buffer, parsing the raw line without decoding it.
+     * 
+     * @param sampleProjection the projection on the samples of interest
+     * @param variant the variant of interest
+     * @param dosageField the field to read the dosages from
+     * @param buffer the buffer where to write the dosages
+     * @param offset the index in the buffer where to write the dosage of the first sample
+     * 
+     * @return a boolean indicating whether the variant was found
+     */
+    public boolean getDosages(SampleProjection sampleProjection, Variant variant, SampleProjection.DosageField dosageField, double[] buffer, int offset) {
+        
+        VcfLine vcfLine = primitiveQueries.get().vcfLine;
+        
+        if (!getVcfLine(variant, vcfLine)) {
+            
+            return false;
+            
+        }
+        
+        sampleProjection.getDosages(vcfLine, dosageField, buffer, offset);
+        
+        return true;
+        
+    }
+    
+    /**
+     * Writes the dosages of the given variants in the samples of a projection
+     * to the given buffer as a variants x samples matrix in row-major order.
+     * The variants are read in position order using the query planner and the
+     * raw lines are parsed without decoding. The rows of variants not found
+     * are filled with NaN.
+     * 
+     * @param sampleProjection the projection on the samples of interest
+     * @param variants the variants of interest
+     * @param dosageField the field to read the dosages from
+     * @param buffer the buffer where to write the dosages, of length at least the number of variants times the number of samples
+     * 
+     * @return the number of variants found
+     */
+    public int getDosages(SampleProjection sampleProjection, List<Variant> variants, SampleProjection.DosageField dosageField, double[] buffer) {
+        
+        int nSamples = sampleProjection.size();
+        
+        Arrays.fill(buffer, 0, variants.size() * nSamples, Double.NaN);
+        
+        return queryLines(variants, (vcfLine, variantIndex) -> sampleProjection.getDosages(vcfLine, dosageField, buffer, variantIndex * nSamples));
+        
+    }
+    
+    /**
+     * Returns summary statistics of the hard calls of the given variants in
+     * the given samples. The calls are counted while scanning the sample
+     * columns of the raw lines, no genotype is materialized. When several
+     * records share the id of a variant, split multi-allelic records for
+     * example, the first record is summarized, or for weighted variants the
+     * first record whose alleles match the risk and other alleles.
+     * 
+     * @param variants the variants of interest
+     * @param samples the samples of interest
+     * 
+     * @return the summary of every variant, in the order of the variants, null for variants not found
+     */
+    public VariantSummary[] summarize(List<Variant> variants, List<String> samples) {
+        
+        SampleProjection sampleProjection = new SampleProjection(getSamples(), getSampleIndexes(samples));
+        VariantSummary[] summaries = new VariantSummary[variants.size()];
+        int[] counts = new int[VariantSummary.N_COUNTS];
+        
+        queryLines(variants, (vcfLine, variantIndex) -> {
+            
+            Variant variant = variants.get(variantIndex);
+            
+            if (summaries[variantIndex] == null && allelesMatch(vcfLine, variant)) {
+                
+                sampleProjection.countCalls(vcfLine, counts);
+                summaries[variantIndex] = new VariantSummary(variant, vcfLine.getColumn(VcfLine.REF), vcfLine.getColumn(VcfLine.ALT), counts);
+                
+            }
+        });
+        
+        return summaries;
+        
+    }
+    
+    /**
+     * Indicates whether the alleles of a line match the alleles of a variant:
+     * the risk and other alleles of weighted variants in either orientation,
+     * any alleles for other variants.
+     * 
+     * @param vcfLine the line
+     * @param variant the variant
+     * 
+     * @return a boolean indicating whether the alleles match
+     */
+    private static boolean allelesMatch(VcfLine vcfLine, Variant variant) {
+        
+        if (!(variant instanceof WeightedVariant)) {
+            
+            return true;
+            
+        }
+        
+        WeightedVariant weightedVariant = (WeightedVariant) variant;
+        
+        if (weightedVariant.riskAllele == null || weightedVariant.otherAllele == null) {
+            
+            return true;
+            
+        }
+        
+        return vcfLine.columnEquals(VcfLine.ALT, weightedVariant.riskAllele) && vcfLine.columnEquals(VcfLine.REF, weightedVariant.otherAllele)
+                || vcfLine.columnEquals(VcfLine.REF, weightedVariant.riskAllele) && vcfLine.columnEquals(VcfLine.ALT, weightedVariant.otherAllele);
+        
+    }
+    
+    /**
+     * Returns summary statistics of the hard calls of the given variants in
+     * the given samples, see summarize. The chromosomes are summarized in
+     * parallel on the given scheduler.
+     * 
+     * @param variants the variants of interest
+     * @param samples the samples of interest
+     * @param scheduler the scheduler to run the chromosomes on
+     * 
+     * @return the summary of every variant, in the order of the variants, null for variants not found
+     */
+    public VariantSummary[] summarize(List<Variant> variants, List<String> samples, QueryScheduler scheduler) {
+        
+        LinkedHashMap<String, ArrayList<Integer>> chrIndexes = new LinkedHashMap<>();
+        
+        for (int i = 0; i < variants.size(); i++) {
+            
+            chrIndexes.computeIfAbsent(variants.get(i).chr, chr -> new ArrayList<>()).add(i);
+            
+        }
+        
+        VariantSummary[] summaries = new VariantSummary[variants.size()];
+        
+        scheduler.forEach(new ArrayList<>(chrIndexes.values()), indexes -> {
+            
+            ArrayList<Variant> chrVariants = new ArrayList<>(indexes.size());
+            
+            for (int index : indexes) {
+                
+                chrVariants.add(variants.get(index));
+                
+            }
+            
+            VariantSummary[] chrSummaries = summarize(chrVariants, samples);
+            
+            for (int i = 0; i < chrSummaries.length; i++) {
+                
+                summaries[indexes.get(i)] = chrSummaries[i];
+                
+            }
+        });
+        
+        return summaries;
+        
+    }
+    
+    /**
+     * Reads the raw lines of the given variants and passes them to the given
+     * handler. The variants are read in position order using the query
+     * planner, the handler is called from the calling thread and the line is
+     * only valid during the call.
+     * 
+     * @param variants the variants of interest
+     * @param handler the handler of the lines, called with the index of the variant in the list
+     * 
+     * @return the number of variants found
+     */
+    public int queryLines(List<Variant> variants, ObjIntConsumer<VcfLine> handler) {
+        
+        List<QueryPlanner.Region> regions = queryPlanner.plan(variants, chr -> {
+            
+            VcfFile vcfFile = vcfFiles.get(chr);
+            
+            return vcfFile == null ? null : vcfFile.getIndex();
+            
+        });
+        
+        int[] nFound = new int[1];
+        
+        for (QueryPlanner.Region region : regions) {
+            
+            queryRegion(vcfFiles.get(region.chr), region, variants, (vcfLine, variantIndex) -> {
+                
+                handler.accept(vcfLine, variantIndex);
+                nFound[0]++;
+                
+            });
+        }
+        
+        return nFound[0];
+        
+    }
+    
+    /**
+     * Reads the raw vcf line of a variant.
+     * 
+     * @param variant the variant of interest
+     * @param vcfLine the line object to fill
+     * 
+     * @return a boolean indicating whether the variant was found
+     */
+    public boolean getVcfLine(Variant variant, VcfLine vcfLine) {
+        
+        VcfFile vcfFile = vcfFiles.get(variant.chr);
+        
+        return vcfFile != null && getVcfLine(vcfFile, variant, vcfLine);
+        
+    }
+    
+    /**
+     * Reads the raw vcf line of a variant in the given file using a pooled
+     * reader.
+     * 
+     * @param vcfFile the vcf file
+     * @param variant the variant of interest
+     * @param vcfLine the line object to fill
+     * 
+     * @return a boolean indicating whether the variant was found
+     */
+    private boolean getVcfLine(VcfFile vcfFile, Variant variant, VcfLine vcfLine) {
+        
+        RawVcfReader rawVcfReader = vcfFile.borrowReader();
+        
+        try {
+            
+            return rawVcfReader.findLine(variant.chr, variant.bp, variant.rsId, vcfLine);
+            
+        } catch (IOException e) {
+            
+            throw new RuntimeException(e);
+            
+        } finally {
+            
+            vcfFile.releaseReader(rawVcfReader);
+            
+        }
+    }
+    
+    /**
+     * Enables streaming mode: sequential reads of long regions and whole
+     * chromosomes inflate the next blocks in parallel ahead of the parser.
+     * 
+     * @param nThreads the number of inflater threads, 0 disables read-ahead
+     * @param nBlocks the number of blocks to inflate ahead
+     */
+    public synchronized void setReadAhead(int nThreads, int nBlocks) {
+        
+        ExecutorService previous = readAheadExecutor;
+        
+        readAheadExecutor = nThreads > 0 ? BgzfReadAhead.newExecutor(nThreads) : null;
+        readAheadBlocks = nBlocks;
+        
+        vcfFiles.values().forEach(vcfFile -> vcfFile.setReadAhead(readAheadExecutor, readAheadBlocks));
+        
+        if (previous != null) {
+            
+            previous.shutdown();
+            
+        }
+    }
+    
+    /**
+     * Passes the raw lines of all variants of a chromosome in order to the
+     * given consumer, until the consumer returns false. The line object is
+     * reused between calls.
+     * 
+     * @param chr the chromosome
+     * @param consumer the consumer of the lines
+     * 
+     * @return a boolean indicating whether a vcf file is available for the
+     * chromosome
+     */
+    public boolean scan(String chr, Predicate<VcfLine> consumer) {
+        
+        VcfFile vcfFile = vcfFiles.get(chr);
+        
+        if (vcfFile == null) {
+            
+            return false;
+            
+        }
+        
+        RawVcfReader rawVcfReader = vcfFile.borrowReader();
+        
+        try {
+            
+            rawVcfReader.seek(0);
+            VcfLine vcfLine = new VcfLine();
+            
+            while (rawVcfReader.readLine(vcfLine)) {
+                
+                if (vcfLine.getLength() == 0 || vcfLine.getBytes()[0] == '#') {
+                    
+                    continue;
+                    
+                }
+                
+                if (!consumer.test(vcfLine)) {
+                    
+                    break;
+                    
+                }
+            }
+            
+            return true;
+            
+        } catch (IOException e) {
+            
+            throw new RuntimeException(e);
+            
+        } finally {
+            
+            vcfFile.releaseReader(rawVcfReader);
+            
+        }
+    }
+    
+    /**
+     * Sets the index to use to look up variants by rsId. The index is closed
+     * together with the provider.
+     * 
+     * @param rsIdIndex the rsId index
+     */
+    public void setRsIdIndex(RsIdIndex rsIdIndex) {
+        
+        this.rsIdIndex = rsIdIndex;
+        
+    }
+    
+    /**
+     * Returns the variant with the given rsId using the rsId index, the id is
+     * verified on the vcf line.
+     * 
+     * @param rsId the rsId of the variant of interest
+     * 
+     * @return the variant, null if not found
+     */
+    public Variant getVariant(String rsId) {
+        
+        if (rsIdIndex == null) {
+            
+            throw new IllegalStateException("No rsId index set.");
+            
+        }
+        
+        return rsIdIndex.getVariant(rsId, vcfFiles::get);
+        
+    }
+    
+    /**
+     * Returns the index used to look up variants by rsId, null if not set.
+     * 
+     * @return the rsId index
+     */
+    public RsIdIndex getRsIdIndex() {
+        
+        return rsIdIndex;
+        
+    }
+    
+    /**
+     * Returns the cache used for the decoded variant contexts.
+     * 
+     * @return the cache used for the decoded variant contexts
+     */
+    public VariantContextCache getVariantContextCache() {
+        
+        return variantContextCache;
+        
+    }
+    
+    /**
+     * Returns the cache used for the decompressed blocks of the vcf files.
+     * 
+     * @return the cache used for the decompressed blocks of the vcf files
+     */
+    public BgzfBlockCache getBlockCache() {
+        
+        return blockCache;
+        
+    }
+    
     /**
      * Closes all vcf files.
      */
     public void close() {
         
         vcfFiles.values().stream()
-                .forEach(fileReader -> fileReader.close());
+                .forEach(vcfFile -> vcfFile.close());
+        
+        synchronized (this) {
+            
+            if (readAheadExecutor != null) {
+                
+                readAheadExecutor.shutdown();
+                
+            }
+        }
+        
+        if (rsIdIndex != null) {
+            
+            try {
+                
+                rsIdIndex.close();
+                
+            } catch (IOException e) {
+                
+                throw new RuntimeException(e);
+                
+            }
+        }
         
     }
 
+    /**
+     * The line and projection reused by a thread for the queries of primitive
+     * genotypes.
+     */
+    private static class PrimitiveQuery {
+
+        /**
+         * The line buffer.
+         */
+        private final VcfLine vcfLine = new VcfLine();
+        /**
+         * The projection on the samples of the last query, null if none.
+         */
+        private SampleProjection projection = null;
+
+        /**
+         * Returns a projection on the given samples, the projection of the
+         * last query is reused if it selects the same samples.
+         *
+         * @param samples the samples of the cohort
+         * @param sampleIndexes the indexes of the samples of interest
+         *
+         * @return a projection on the given samples
+         */
+        private SampleProjection getProjection(List<String> samples, int[] sampleIndexes) {
+
+            if (projection == null || !projection.selects(sampleIndexes)) {
+
+                projection = new SampleProjection(samples, sampleIndexes);
+
+            }
+
+            return projection;
+
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import no.uib.hunt.model.Variant;
+
+/**
+ * Plans the query of a list of variants: variants are sorted by chromosome and
+ * position, and variants located in the same or neighbouring compressed blocks
+ * are grouped in a region that is read in a single sequential scan. Regions
+ * can be capped in number of variants, they are then cut between blocks so
+ * that no block is shared by two regions.
+ *
+ * @author Marc Vaudel
+ */
+public class QueryPlanner {
+
+    /**
+     * The default maximal distance in compressed bytes between the blocks of
+     * two variants of the same region, the maximal size of a BGZF block.
+     */
+    public static final long DEFAULT_MAX_GAP = 1 << 16;
+
+    /**
+     * A region to scan sequentially.
+     */
+    public static class Region {
+
+        /**
+         * The chromosome.
+         */
+        public final String chr;
+        /**
+         * The indexes of the variants of this region in the original list,
+         * sorted by position.
+         */
+        public final int[] variantIndexes;
+        /**
+         * The position of the first variant.
+         */
+        public final int start;
+        /**
+         * The position of the last variant.
+         */
+        public final int end;
+
+        /**
+         * Constructor.
+         *
+         * @param chr the chromosome
+         * @param variantIndexes the indexes of the variants of this region in
+         * the original list, sorted by position
+         * @param start the position of the first variant
+         * @param end the position of the last variant
+         */
+        public Region(String chr, int[] variantIndexes, int start, int end) {
+
+            this.chr = chr;
+            this.variantIndexes = variantIndexes;
+            this.start = start;
+            this.end = end;
+
+        }
+    }
+
+    /**
+     * The maximal distance in compressed bytes between the blocks of two
+     * variants of the same region.
+     */
+    private final long maxGap;
+    /**
+     * The number of variants above which a region is cut at the next block.
+     */
+    private final int maxRegionSize;
+
+    /**
+     * Constructor using the default maximal gap and regions of unlimited
+     * size.
+     */
+    public QueryPlanner() {
+
+        this(DEFAULT_MAX_GAP);
+
+    }
+
+    /**
+     * Constructor using regions of unlimited size.
+     *
+     * @param maxGap the maximal distance in compressed bytes between the
+     * blocks of two variants of the same region
+     */
+    public QueryPlanner(long maxGap) {
+
+        this(maxGap, Integer.MAX_VALUE);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxGap the maximal distance in compressed bytes between the
+     * blocks of two variants of the same region
+     * @param maxRegionSize the number of variants above which a region is cut
+     * at the next block
+     */
+    public QueryPlanner(long maxGap, int maxRegionSize) {
+
+        this.maxGap = maxGap;
+        this.maxRegionSize = maxRegionSize;
+
+    }
+
+    /**
+     * Plans the query of the given variants.
+     *
+     * @param variants the variants to query
+     * @param indexes function returning the tabix index of a chromosome, or
+     * null if the chromosome is not available
+     *
+     * @return the regions to scan, variants on chromosomes without index are
+     * left out
+     */
+    public List<Region> plan(List<Variant> variants, Function<String, TabixIndex> indexes) {
+
+        Integer[] order = new Integer[variants.size()];
+
+        for (int i = 0; i < order.length; i++) {
+
+            order[i] = i;
+
+        }
+
+        Arrays.sort(order, Comparator.comparing((Integer i) -> variants.get(i).chr)
+                .thenComparingInt(i -> variants.get(i).bp));
+
+        ArrayList<Region> regions = new ArrayList<>();
+
+        int regionStart = 0;
+        long regionEndAddress = -1;
+        TabixIndex index = null;
+
+        for (int i = 0; i < order.length; i++) {
+
+            Variant variant = variants.get(order[i]);
+
+            if (i == regionStart || !variant.chr.equals(variants.get(order[regionStart]).chr)) {
+
+                if (i > regionStart) {
+
+                    addRegion(regions, variants, order, regionStart, i);
+                    regionStart = i;
+
+                }
+
+                index = indexes.apply(variant.chr);
+                regionEndAddress = -1;
+
+            }
+
+            if (index == null) {
+
+                regionStart = i + 1;
+                continue;
+
+            }
+
+            List<Block> blocks = index.getBlocks(variant.chr, variant.bp, variant.bp);
+
+            if (blocks.isEmpty()) {
+
+                continue;
+
+            }
+
+            long startAddress = BlockCompressedFilePointerUtil.getBlockAddress(blocks.get(0).getStartPosition());
+            long endAddress = BlockCompressedFilePointerUtil.getBlockAddress(blocks.get(blocks.size() - 1).getEndPosition());
+
+            if (regionEndAddress != -1 && (startAddress > regionEndAddress + maxGap
+                    || i - regionStart >= maxRegionSize && startAddress > regionEndAddress)) {
+
+                addRegion(regions, variants, order, regionStart, i);
+                regionStart = i;
+
+            }
+
+            regionEndAddress = Math.max(regionEndAddress, endAddress);
+
+        }
+
+        if (regionStart < order.length) {
+
+            addRegion(regions, variants, order, regionStart, order.length);
+
+        }
+
+        return regions;
+
+    }
+
+    /**
+     * Adds a region made of the given sorted variants.
+     *
+     * @param regions the list of regions
+     * @param variants the variants
+     * @param order the indexes of the variants sorted
+     * @param from the first sorted index of the region
+     * @param to the last sorted index of the region (exclusive)
+     */
+    private static void addRegion(List<Region> regions, List<Variant> variants, Integer[] order, int from, int to) {
+
+        int[] variantIndexes = new int[to - from];
+
+        for (int i = from; i < to; i++) {
+
+            variantIndexes[i - from] = order[i];
+
+        }
+
+        Variant first = variants.get(order[from]);
+        Variant last = variants.get(order[to - 1]);
+
+        regions.add(new Region(first.chr, variantIndexes, first.bp, last.bp));
+
+    }
+}
@@ -0,0 +1,446 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Predicate;
+import no.uib.hunt.utils.Instrumentation;
+
+/**
+ * Reader returning the lines of a bgzipped and tabix-indexed vcf file as raw
+ * bytes. Decompressed blocks can be shared between readers through a block
+ * cache. When read-ahead is enabled, sequential reads past a block boundary
+ * start a pipeline inflating the next blocks in parallel; these blocks bypass
+ * the block cache. Instances are not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class RawVcfReader implements AutoCloseable {
+
+    /**
+     * The tabix index of the file.
+     */
+    private final TabixIndex index;
+    /**
+     * The reader for the compressed blocks.
+     */
+    private final BgzfBlockReader blockReader;
+    /**
+     * The cache of decompressed blocks, null if not used.
+     */
+    private final BgzfBlockCache blockCache;
+    /**
+     * The id of the file in the block cache.
+     */
+    private final long fileId;
+    /**
+     * The current block, null if the end of the file is reached.
+     */
+    private BgzfBlock block = null;
+    /**
+     * The offset in the current block.
+     */
+    private int offset = 0;
+    /**
+     * The executor used to inflate blocks ahead, null if read-ahead is
+     * disabled.
+     */
+    private ExecutorService readAheadExecutor = null;
+    /**
+     * The pool of block readers used to inflate blocks ahead.
+     */
+    private ReaderPool<BgzfBlockReader> inflaters = null;
+    /**
+     * The number of blocks to inflate ahead.
+     */
+    private int readAheadBlocks = BgzfReadAhead.DEFAULT_N_BLOCKS;
+    /**
+     * The address where read-ahead stops (exclusive).
+     */
+    private long readAheadEnd = Long.MAX_VALUE;
+    /**
+     * The current read-ahead pipeline, null if none.
+     */
+    private BgzfReadAhead readAhead = null;
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFile the vcf file
+     * @param indexFile the tbi index file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the index or opening the file
+     */
+    public RawVcfReader(File vcfFile, File indexFile) throws IOException {
+
+        this(vcfFile, new TabixIndex(indexFile));
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFile the vcf file
+     * @param index the tabix index of the file
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    public RawVcfReader(File vcfFile, TabixIndex index) throws IOException {
+
+        this(vcfFile, index, null, 0);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFile the vcf file
+     * @param index the tabix index of the file
+     * @param blockCache the cache of decompressed blocks, null if not used
+     * @param fileId the id of the file in the block cache
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    public RawVcfReader(File vcfFile, TabixIndex index, BgzfBlockCache blockCache, long fileId) throws IOException {
+
+        this.index = index;
+        this.blockReader = new BgzfBlockReader(vcfFile);
+        this.blockCache = blockCache;
+        this.fileId = fileId;
+
+        loadBlock(0, false);
+
+    }
+
+    /**
+     * Sets up read-ahead for sequential reads.
+     *
+     * @param executor the executor used to inflate blocks ahead, null to
+     * disable read-ahead
+     * @param inflaters the pool of block readers used to inflate blocks ahead
+     * @param nBlocks the number of blocks to inflate ahead
+     */
+    public void setReadAhead(ExecutorService executor, ReaderPool<BgzfBlockReader> inflaters, int nBlocks) {
+
+        if (executor != readAheadExecutor || inflaters != this.inflaters || nBlocks != readAheadBlocks) {
+
+            stopReadAhead();
+
+        }
+
+        this.readAheadExecutor = executor;
+        this.inflaters = inflaters;
+        this.readAheadBlocks = nBlocks;
+
+    }
+
+    /**
+     * Stops the current read-ahead pipeline, if any.
+     */
+    public void stopReadAhead() {
+
+        if (readAhead != null) {
+
+            readAhead.close();
+            readAhead = null;
+
+        }
+    }
+
+    /**
+     * Returns the tabix index of the file.
+     *
+     * @return the tabix index of the file
+     */
+    public TabixIndex getIndex() {
+
+        return index;
+
+    }
+
+    /**
+     * Moves to the given virtual file pointer.
+     *
+     * @param virtualFilePointer the virtual file pointer
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public void seek(long virtualFilePointer) throws IOException {
+
+        long address = virtualFilePointer >>> 16;
+        int blockOffset = (int) (virtualFilePointer & 0xFFFF);
+
+        if (block == null || block.address != address) {
+
+            loadBlock(address, false);
+
+        }
+
+        if (block == null ? blockOffset > 0 : blockOffset > block.length) {
+
+            throw new IOException("Invalid file pointer " + virtualFilePointer + ".");
+
+        }
+
+        offset = blockOffset;
+
+    }
+
+    /**
+     * Loads the block at the given address, from the read-ahead pipeline or
+     * the cache if possible.
+     *
+     * @param address the address of the block in the compressed file
+     * @param sequential boolean indicating whether the block directly follows
+     * the current block
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private void loadBlock(long address, boolean sequential) throws IOException {
+
+        block = null;
+
+        if (readAhead != null) {
+
+            block = readAhead.next(address);
+
+            if (block == null) {
+
+                stopReadAhead();
+
+            }
+
+        } else if (sequential && readAheadExecutor != null && !readAheadExecutor.isShutdown()) {
+
+            readAhead = new BgzfReadAhead(blockReader, inflaters, readAheadExecutor, readAheadBlocks, address, readAheadEnd);
+            block = readAhead.next(address);
+
+        }
+
+        if (block == null && blockCache != null) {
+
+            block = blockCache.get(fileId, address);
+
+        }
+
+        if (block == null) {
+
+            block = blockReader.readBlock(address);
+
+            if (block != null && blockCache != null) {
+
+                blockCache.put(fileId, block);
+
+            }
+        }
+
+        offset = 0;
+
+    }
+
+    /**
+     * Returns the current virtual file pointer.
+     *
+     * @return the current virtual file pointer
+     */
+    public long getFilePointer() {
+
+        if (block == null) {
+
+            return blockReader.getFileSize() << 16;
+
+        }
+
+        if (offset == block.length) {
+
+            return block.getNextAddress() << 16;
+
+        }
+
+        return block.address << 16 | offset;
+
+    }
+
+    /**
+     * Reads the next line into the given line object.
+     *
+     * @param line the line to fill
+     *
+     * @return a boolean indicating whether a line could be read
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public boolean readLine(VcfLine line) throws IOException {
+
+        line.clear();
+
+        boolean read = false;
+
+        while (block != null) {
+
+            if (offset == block.length) {
+
+                loadBlock(block.getNextAddress(), true);
+                continue;
+
+            }
+
+            read = true;
+
+            byte[] data = block.data;
+            int i = offset;
+
+            while (i < block.length && data[i] != '\n') {
+
+                i++;
+
+            }
+
+            line.append(data, offset, i - offset);
+
+            if (i < block.length) {
+
+                offset = i + 1;
+                line.trimCarriageReturn();
+
+                return true;
+
+            }
+
+            offset = i;
+
+        }
+
+        line.trimCarriageReturn();
+
+        return read;
+
+    }
+
+    /**
+     * Passes the lines of variants starting in the given region to the given
+     * consumer, until the consumer returns false.
+     *
+     * @param chr the chromosome
+     * @param start the start of the region (inclusive, 1-based)
+     * @param end the end of the region (inclusive, 1-based)
+     * @param line the line object to use as buffer
+     * @param consumer the consumer of the lines
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public void query(String chr, int start, int end, VcfLine line, Predicate<VcfLine> consumer) throws IOException {
+
+        long indexStart = Instrumentation.start();
+
+        List<Block> chunks = index.getBlocks(chr, start, end);
+
+        Instrumentation.stop(Instrumentation.INDEX_QUERY, indexStart);
+
+        if (chunks.isEmpty()) {
+
+            return;
+
+        }
+
+        readAheadEnd = BlockCompressedFilePointerUtil.getBlockAddress(chunks.get(chunks.size() - 1).getEndPosition()) + 1;
+
+        try {
+
+            long lastPointer = 0;
+
+            for (Block chunk : chunks) {
+
+                long chunkStart = Math.max(chunk.getStartPosition(), lastPointer);
+
+                if (chunkStart >= chunk.getEndPosition()) {
+
+                    continue;
+
+                }
+
+                seek(chunkStart);
+
+                while (getFilePointer() < chunk.getEndPosition() && readLine(line)) {
+
+                    if (line.getLength() == 0 || line.getBytes()[0] == '#' || !line.columnEquals(VcfLine.CHROM, chr)) {
+
+                        continue;
+
+                    }
+
+                    int bp = line.getPosition();
+
+                    if (bp > end) {
+
+                        return;
+
+                    }
+
+                    if (bp >= start && !consumer.test(line)) {
+
+                        return;
+
+                    }
+                }
+
+                lastPointer = getFilePointer();
+
+            }
+
+        } finally {
+
+            readAheadEnd = Long.MAX_VALUE;
+            stopReadAhead();
+
+        }
+    }
+
+    /**
+     * Returns the line of the given variant.
+     *
+     * @param chr the chromosome
+     * @param bp the position
+     * @param id the id of the variant
+     * @param line the line object to fill
+     *
+     * @return a boolean indicating whether the variant was found
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public boolean findLine(String chr, int bp, String id, VcfLine line) throws IOException {
+
+        boolean[] found = new boolean[1];
+
+        query(chr, bp, bp, line, vcfLine -> {
+
+            found[0] = vcfLine.hasId(id);
+
+            return !found[0];
+
+        });
+
+        return found[0];
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        stopReadAhead();
+        blockReader.close();
+
+    }
+}
@@ -0,0 +1,256 @@
+package no.uib.hunt.vcf;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe pool of objects that cannot be used concurrently, like file
+ * readers. Objects are created on demand, borrowed by a thread and returned
+ * after use. At most a given number of idle objects are kept, objects
+ * returned beyond this number are closed. All objects created are closed when
+ * the pool is closed.
+ *
+ * @author Marc Vaudel
+ *
+ * @param <T> the type of object pooled
+ */
+public class ReaderPool<T> implements AutoCloseable {
+
+    /**
+     * Factory creating new objects for the pool.
+     *
+     * @param <T> the type of object pooled
+     */
+    public interface Factory<T> {
+
+        /**
+         * Creates a new object.
+         *
+         * @return a new object
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * creating the object
+         */
+        public T create() throws IOException;
+
+    }
+
+    /**
+     * The default maximal number of idle objects kept by the pool.
+     */
+    public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors();
+    /**
+     * The factory to use to create new objects.
+     */
+    private final Factory<T> factory;
+    /**
+     * The objects available for borrowing.
+     */
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+    /**
+     * The maximal number of idle objects kept by the pool.
+     */
+    private final int maxIdle;
+    /**
+     * The number of objects available for borrowing.
+     */
+    private final AtomicInteger nIdle = new AtomicInteger();
+    /**
+     * The number of objects created by this pool and not closed yet.
+     */
+    private final AtomicInteger nOpen = new AtomicInteger();
+    /**
+     * The number of objects currently borrowed.
+     */
+    private final AtomicInteger nBorrowed = new AtomicInteger();
+    /**
+     * Boolean indicating whether the pool is closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param factory the factory to use to create new objects
+     */
+    public ReaderPool(Factory<T> factory) {
+
+        this(factory, DEFAULT_MAX_IDLE);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param factory the factory to use to create new objects
+     * @param maxIdle the maximal number of idle objects kept by the pool
+     */
+    public ReaderPool(Factory<T> factory, int maxIdle) {
+
+        this.factory = factory;
+        this.maxIdle = Math.max(maxIdle, 1);
+
+    }
+
+    /**
+     * Borrows an object from the pool, creating one if none is available. The
+     * object must be returned using the release method.
+     *
+     * @return an object
+     */
+    public T borrow() {
+
+        if (closed) {
+
+            throw new IllegalStateException("Pool closed.");
+
+        }
+
+        T object = idle.poll();
+
+        if (object != null) {
+
+            nIdle.decrementAndGet();
+
+        } else {
+
+            try {
+
+                object = factory.create();
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+
+            nOpen.incrementAndGet();
+
+        }
+
+        nBorrowed.incrementAndGet();
+
+        return object;
+
+    }
+
+    /**
+     * Returns an object to the pool. The object is closed if the pool is
+     * closed or already holds the maximal number of idle objects.
+     *
+     * @param object the object borrowed
+     */
+    public void release(T object) {
+
+        nBorrowed.decrementAndGet();
+
+        if (closed) {
+
+            discard(object);
+            return;
+
+        }
+
+        if (nIdle.incrementAndGet() > maxIdle) {
+
+            nIdle.decrementAndGet();
+            discard(object);
+            return;
+
+        }
+
+        idle.add(object);
+
+        // The pool might have been closed and drained before the object was added
+
+        if (closed) {
+
+            closeIdle();
+
+        }
+    }
+
+    /**
+     * Returns the number of objects created by this pool and not closed yet.
+     *
+     * @return the number of objects open
+     */
+    public int size() {
+
+        return nOpen.get();
+
+    }
+
+    /**
+     * Returns the number of objects currently borrowed.
+     *
+     * @return the number of objects currently borrowed
+     */
+    public int getNBorrowed() {
+
+        return nBorrowed.get();
+
+    }
+
+    /**
+     * Closes the pool and all the objects that are not borrowed. Borrowed
+     * objects are closed upon release.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+
+        closeIdle();
+
+    }
+
+    /**
+     * Closes all the idle objects.
+     */
+    private void closeIdle() {
+
+        T object;
+
+        while ((object = idle.poll()) != null) {
+
+            nIdle.decrementAndGet();
+            discard(object);
+
+        }
+    }
+
+    /**
+     * Closes an object that leaves the pool.
+     *
+     * @param object the object to close
+     */
+    private void discard(T object) {
+
+        nOpen.decrementAndGet();
+        closeObject(object);
+
+    }
+
+    /**
+     * Closes the given object if closeable.
+     *
+     * @param object the object to close
+     */
+    private void closeObject(T object) {
+
+        if (object instanceof AutoCloseable) {
+
+            try {
+
+                ((AutoCloseable) object).close();
+
+            } catch (Exception e) {
+
+                throw new RuntimeException(e);
+
+            }
+        }
+    }
+}
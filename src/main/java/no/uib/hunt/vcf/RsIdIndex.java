@@ -0,0 +1,644 @@
+package no.uib.hunt.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import no.uib.hunt.model.Variant;
+import no.uib.hunt.utils.ProgressHandler;
+
+/**
+ * Persistent index of the variants of a set of vcf files by rsId. Every entry
+ * holds the chromosome, position and virtual file pointer of the line of the
+ * variant, entries are sorted by a 64-bit key derived from the rsId and
+ * searched by binary search in the memory mapped file. Lines with multiple
+ * ids separated by semicolons have one entry per id.
+ *
+ * @author Marc Vaudel
+ */
+public class RsIdIndex implements AutoCloseable {
+
+    /**
+     * Magic number at the start of the file.
+     */
+    public static final int MAGIC = 0x48524958;
+    /**
+     * Version of the file format.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The size of an entry in bytes: key, chromosome index, position and
+     * virtual file pointer.
+     */
+    public static final int ENTRY_SIZE = Long.BYTES + Short.BYTES + Integer.BYTES + Long.BYTES;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The chromosomes, in the order used by the entries.
+     */
+    private final String[] chromosomes;
+    /**
+     * The number of entries.
+     */
+    private final long nEntries;
+    /**
+     * The number of entries per mapped buffer.
+     */
+    private final int entriesPerBuffer = Integer.MAX_VALUE / ENTRY_SIZE;
+    /**
+     * The mapped entries.
+     */
+    private final MappedByteBuffer[] buffers;
+
+    /**
+     * Builds the rsId index of the vcf files of the given folder.
+     *
+     * @param args the command line arguments: the folder containing the vcf
+     * files and the index file to write
+     */
+    public static void main(String[] args) {
+
+        try {
+
+            ProgressHandler.logFile = new File("RsIdIndex.log");
+            ProgressHandler.setUpLog();
+
+            ArrayList<String> chromosomes = new ArrayList<>();
+            ArrayList<VcfFile> vcfFiles = new ArrayList<>();
+            ExecutorService inflaters = BgzfReadAhead.newExecutor(Runtime.getRuntime().availableProcessors());
+
+            for (String chr : VcfFile.CHROMOSOMES) {
+
+                File vcfFile = new File(args[0], chr + ".vcf.gz");
+
+                if (vcfFile.exists()) {
+
+                    VcfFile vcf = new VcfFile(vcfFile, new File(args[0], chr + ".vcf.gz.tbi"));
+                    vcf.setReadAhead(inflaters, BgzfReadAhead.DEFAULT_N_BLOCKS);
+
+                    chromosomes.add(chr);
+                    vcfFiles.add(vcf);
+
+                }
+            }
+
+            ProgressHandler progressHandler = new ProgressHandler();
+
+            String task = "Building rsId index";
+            progressHandler.start(task);
+
+            build(chromosomes, vcfFiles, new File(args[1]));
+
+            progressHandler.end(task);
+
+            vcfFiles.stream()
+                    .forEach(vcfFile -> vcfFile.close());
+            inflaters.shutdown();
+
+            ProgressHandler.close();
+
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Builds an rsId index by scanning the given vcf files.
+     *
+     * @param chromosomes the chromosomes
+     * @param vcfFiles the vcf files, in the same order as the chromosomes
+     * @param indexFile the index file to write
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public static void build(List<String> chromosomes, List<VcfFile> vcfFiles, File indexFile) throws IOException {
+
+        int nEntries = 0;
+        long[] keys = new long[1024];
+        short[] chrIndexes = new short[1024];
+        int[] positions = new int[1024];
+        long[] filePointers = new long[1024];
+
+        VcfLine vcfLine = new VcfLine();
+
+        for (short chrIndex = 0; chrIndex < vcfFiles.size(); chrIndex++) {
+
+            VcfFile vcfFile = vcfFiles.get(chrIndex);
+            RawVcfReader rawVcfReader = vcfFile.borrowReader();
+
+            try {
+
+                rawVcfReader.seek(0);
+                long filePointer = rawVcfReader.getFilePointer();
+
+                while (rawVcfReader.readLine(vcfLine)) {
+
+                    if (vcfLine.getLength() > 0 && vcfLine.getBytes()[0] != '#') {
+
+                        byte[] bytes = vcfLine.getBytes();
+                        int idEnd = vcfLine.getColumnEnd(VcfLine.ID);
+
+                        for (int start = vcfLine.getColumnStart(VcfLine.ID); start < idEnd;) {
+
+                            int end = getIdEnd(bytes, start, idEnd);
+
+                            if (end > start && !(end - start == 1 && bytes[start] == '.')) {
+
+                                if (nEntries == keys.length) {
+
+                                    keys = Arrays.copyOf(keys, 2 * nEntries);
+                                    chrIndexes = Arrays.copyOf(chrIndexes, 2 * nEntries);
+                                    positions = Arrays.copyOf(positions, 2 * nEntries);
+                                    filePointers = Arrays.copyOf(filePointers, 2 * nEntries);
+
+                                }
+
+                                keys[nEntries] = getKey(bytes, start, end);
+                                chrIndexes[nEntries] = chrIndex;
+                                positions[nEntries] = vcfLine.getPosition();
+                                filePointers[nEntries] = filePointer;
+                                nEntries++;
+
+                            }
+
+                            start = end + 1;
+
+                        }
+                    }
+
+                    filePointer = rawVcfReader.getFilePointer();
+
+                }
+
+            } finally {
+
+                vcfFile.releaseReader(rawVcfReader);
+
+            }
+        }
+
+        sort(keys, chrIndexes, positions, filePointers, 0, nEntries - 1);
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 20))) {
+
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(chromosomes.size());
+
+            for (String chr : chromosomes) {
+
+                outputStream.writeUTF(chr);
+
+            }
+
+            outputStream.writeLong(nEntries);
+
+            for (int i = 0; i < nEntries; i++) {
+
+                outputStream.writeLong(keys[i]);
+                outputStream.writeShort(chrIndexes[i]);
+                outputStream.writeInt(positions[i]);
+                outputStream.writeLong(filePointers[i]);
+
+            }
+        }
+    }
+
+    /**
+     * Returns the end of the id starting at the given index in an ID column.
+     *
+     * @param bytes the bytes of the line
+     * @param start the start of the id
+     * @param columnEnd the end of the ID column (exclusive)
+     *
+     * @return the end of the id (exclusive)
+     */
+    private static int getIdEnd(byte[] bytes, int start, int columnEnd) {
+
+        int end = start;
+
+        while (end < columnEnd && bytes[end] != VcfLine.ID_SEPARATOR) {
+
+            end++;
+
+        }
+
+        return end;
+
+    }
+
+    /**
+     * Sorts the entries by key.
+     *
+     * @param keys the keys
+     * @param chrIndexes the chromosome indexes
+     * @param positions the positions
+     * @param filePointers the file pointers
+     * @param from the first index to sort
+     * @param to the last index to sort (inclusive)
+     */
+    private static void sort(long[] keys, short[] chrIndexes, int[] positions, long[] filePointers, int from, int to) {
+
+        while (from < to) {
+
+            long pivot = keys[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+
+            while (i <= j) {
+
+                while (keys[i] < pivot) {
+
+                    i++;
+
+                }
+
+                while (keys[j] > pivot) {
+
+                    j--;
+
+                }
+
+                if (i <= j) {
+
+                    long key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+
+                    short chrIndex = chrIndexes[i];
+                    chrIndexes[i] = chrIndexes[j];
+                    chrIndexes[j] = chrIndex;
+
+                    int position = positions[i];
+                    positions[i] = positions[j];
+                    positions[j] = position;
+
+                    long filePointer = filePointers[i];
+                    filePointers[i] = filePointers[j];
+                    filePointers[j] = filePointer;
+
+                    i++;
+                    j--;
+
+                }
+            }
+
+            // Recurse on the smaller part to bound the stack depth
+            if (j - from < to - i) {
+
+                sort(keys, chrIndexes, positions, filePointers, from, j);
+                from = i;
+
+            } else {
+
+                sort(keys, chrIndexes, positions, filePointers, i, to);
+                to = j;
+
+            }
+        }
+    }
+
+    /**
+     * Returns the key of an rsId: the rs number for ids of the form rs123
+     * without leading zero, a negative hash otherwise. Different ids can
+     * share a key, see find.
+     *
+     * @param rsId the rsId
+     *
+     * @return the key of the rsId
+     */
+    public static long getKey(String rsId) {
+
+        byte[] bytes = rsId.getBytes(StandardCharsets.US_ASCII);
+
+        return getKey(bytes, 0, bytes.length);
+
+    }
+
+    /**
+     * Returns the key of an rsId: the rs number for ids of the form rs123
+     * without leading zero, a negative hash otherwise. Different ids can
+     * share a key, see find.
+     *
+     * @param bytes the bytes containing the rsId
+     * @param start the start of the rsId
+     * @param end the end of the rsId (exclusive)
+     *
+     * @return the key of the rsId
+     */
+    public static long getKey(byte[] bytes, int start, int end) {
+
+        if (end - start > 2 && end - start < 20 && bytes[start] == 'r' && bytes[start + 1] == 's' && bytes[start + 2] != '0') {
+
+            long number = 0;
+            boolean numeric = true;
+
+            for (int i = start + 2; i < end && numeric; i++) {
+
+                int digit = bytes[i] - '0';
+                numeric = digit >= 0 && digit <= 9;
+                number = 10 * number + digit;
+
+            }
+
+            if (numeric) {
+
+                return number;
+
+            }
+        }
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = start; i < end; i++) {
+
+            hash ^= bytes[i];
+            hash *= 0x100000001b3L;
+
+        }
+
+        return hash | Long.MIN_VALUE;
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param indexFile the index file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public RsIdIndex(File indexFile) throws IOException {
+
+        fileChannel = new RandomAccessFile(indexFile, "r").getChannel();
+
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(fileChannel)));
+
+        if (inputStream.readInt() != MAGIC) {
+
+            throw new IOException("File " + indexFile + " is not an rsId index.");
+
+        }
+
+        int version = inputStream.readInt();
+
+        if (version != VERSION) {
+
+            throw new IOException("Unsupported rsId index version " + version + ".");
+
+        }
+
+        chromosomes = new String[inputStream.readInt()];
+        long headerSize = 3 * Integer.BYTES + Long.BYTES;
+
+        for (int i = 0; i < chromosomes.length; i++) {
+
+            chromosomes[i] = inputStream.readUTF();
+            headerSize += Short.BYTES + chromosomes[i].getBytes(StandardCharsets.UTF_8).length;
+
+        }
+
+        nEntries = inputStream.readLong();
+
+        int nBuffers = nEntries == 0 ? 0 : (int) ((nEntries - 1) / entriesPerBuffer + 1);
+        buffers = new MappedByteBuffer[nBuffers];
+
+        for (int i = 0; i < nBuffers; i++) {
+
+            long firstEntry = ((long) i) * entriesPerBuffer;
+            long lastEntry = Math.min(nEntries, firstEntry + entriesPerBuffer);
+            buffers[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, headerSize + firstEntry * ENTRY_SIZE, (lastEntry - firstEntry) * ENTRY_SIZE);
+
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public long size() {
+
+        return nEntries;
+
+    }
+
+    /**
+     * Returns the buffer holding the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the buffer holding the given entry
+     */
+    private ByteBuffer getBuffer(long entry) {
+
+        return buffers[(int) (entry / entriesPerBuffer)];
+
+    }
+
+    /**
+     * Returns the offset of the given entry in its buffer.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the offset of the given entry in its buffer
+     */
+    private int getOffset(long entry) {
+
+        return (int) (entry % entriesPerBuffer) * ENTRY_SIZE;
+
+    }
+
+    /**
+     * Returns the key of the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the key of the given entry
+     */
+    public long getKey(long entry) {
+
+        return getBuffer(entry).getLong(getOffset(entry));
+
+    }
+
+    /**
+     * Returns the chromosome of the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the chromosome of the given entry
+     */
+    public String getChromosome(long entry) {
+
+        return chromosomes[getBuffer(entry).getShort(getOffset(entry) + Long.BYTES)];
+
+    }
+
+    /**
+     * Returns the position of the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the position of the given entry
+     */
+    public int getPosition(long entry) {
+
+        return getBuffer(entry).getInt(getOffset(entry) + Long.BYTES + Short.BYTES);
+
+    }
+
+    /**
+     * Returns the virtual file pointer of the line of the given entry.
+     *
+     * @param entry the index of the entry
+     *
+     * @return the virtual file pointer of the given entry
+     */
+    public long getFilePointer(long entry) {
+
+        return getBuffer(entry).getLong(getOffset(entry) + Long.BYTES + Short.BYTES + Integer.BYTES);
+
+    }
+
+    /**
+     * Returns the indexes of the entries matching the given rsId. More than
+     * one entry is returned for multiple variants sharing an rsId and for
+     * hash collisions, the id must therefore be verified on the vcf line.
+     *
+     * @param rsId the rsId
+     *
+     * @return the indexes of the entries matching the given rsId
+     */
+    public long[] find(String rsId) {
+
+        long key = getKey(rsId);
+
+        long low = 0;
+        long high = nEntries - 1;
+
+        while (low <= high) {
+
+            long middle = (low + high) >>> 1;
+            long middleKey = getKey(middle);
+
+            if (middleKey < key) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle - 1;
+
+            }
+        }
+
+        long end = low;
+
+        while (end < nEntries && getKey(end) == key) {
+
+            end++;
+
+        }
+
+        long[] result = new long[(int) (end - low)];
+
+        for (int i = 0; i < result.length; i++) {
+
+            result[i] = low + i;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the first variant with the given rsId. The entries matching the
+     * key of the rsId are verified by reading the line at their file pointer
+     * and comparing its id.
+     *
+     * @param rsId the rsId
+     * @param vcfFiles function returning the vcf file of a chromosome, null
+     * if not available
+     *
+     * @return the variant, null if not found
+     */
+    public Variant getVariant(String rsId, Function<String, VcfFile> vcfFiles) {
+
+        VcfLine vcfLine = new VcfLine();
+
+        for (long entry : find(rsId)) {
+
+            String chr = getChromosome(entry);
+            VcfFile vcfFile = vcfFiles.apply(chr);
+
+            if (vcfFile == null) {
+
+                continue;
+
+            }
+
+            RawVcfReader rawVcfReader = vcfFile.borrowReader();
+
+            try {
+
+                rawVcfReader.seek(getFilePointer(entry));
+
+                if (rawVcfReader.readLine(vcfLine) && vcfLine.hasId(rsId)) {
+
+                    return new Variant(rsId, chr, getPosition(entry));
+
+                }
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            } finally {
+
+                vcfFile.releaseReader(rawVcfReader);
+
+            }
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the chromosomes of the index.
+     *
+     * @return the chromosomes of the index
+     */
+    public List<String> getChromosomes() {
+
+        return Arrays.asList(chromosomes);
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        fileChannel.close();
+
+    }
+}
@@ -0,0 +1,817 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.vcf.VCFConstants;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import no.uib.hunt.genotypes.GenotypeSource;
+import no.uib.hunt.genotypes.VariantSummary;
+import no.uib.hunt.utils.Instrumentation;
+
+/**
+ * Projection of vcf lines on a subset of the sample columns. The sample
+ * columns not needed are skipped by scanning the line bytes, only the fields
+ * of the selected samples are extracted. A projection holds the fields of the
+ * last projected line and must not be shared between threads.
+ *
+ * @author Marc Vaudel
+ */
+public class SampleProjection {
+
+    /**
+     * The fields dosages can be read from.
+     */
+    public enum DosageField {
+
+        /**
+         * The DS field if present, otherwise the dosage computed from the GP
+         * field, otherwise the hard call from the GT field.
+         */
+        AUTO,
+        /**
+         * The DS field, NaN if absent.
+         */
+        DS,
+        /**
+         * The dosage computed from the GP field, NaN if absent.
+         */
+        GP
+
+    }
+
+    /**
+     * The names of the selected samples in the order requested.
+     */
+    private final String[] sampleNames;
+    /**
+     * The indexes of the selected columns among the sample columns, sorted.
+     */
+    private final int[] sortedColumns;
+    /**
+     * For every sorted column, the index of the sample in the requested order.
+     */
+    private final int[] sortedToRequested;
+    /**
+     * The start of the field of every selected sample in the last projected
+     * line, in the requested order.
+     */
+    private final int[] fieldStart;
+    /**
+     * The end (exclusive) of the field of every selected sample in the last
+     * projected line, in the requested order.
+     */
+    private final int[] fieldEnd;
+    /**
+     * The index of the DS sub-field used for the dosages of the current line,
+     * -1 if not used.
+     */
+    private int dsIndex;
+    /**
+     * The index of the GP sub-field used for the dosages of the current line,
+     * -1 if not used.
+     */
+    private int gpIndex;
+    /**
+     * The index of the GT sub-field used for the dosages of the current line,
+     * -1 if not used.
+     */
+    private int gtIndex;
+    /**
+     * The start of the last sub-field located.
+     */
+    private int subFieldStart;
+    /**
+     * The end (exclusive) of the last sub-field located.
+     */
+    private int subFieldEnd;
+
+    /**
+     * Constructor.
+     *
+     * @param headerSamples the samples in the order of the vcf file
+     * @param samples the samples to select
+     */
+    public SampleProjection(List<String> headerSamples, List<String> samples) {
+
+        this(samples.toArray(new String[samples.size()]), getColumns(headerSamples, samples));
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param headerSamples the samples in the order of the vcf file
+     * @param columns the indexes of the samples to select among the sample
+     * columns
+     */
+    public SampleProjection(List<String> headerSamples, int[] columns) {
+
+        this(getNames(headerSamples, columns), columns.clone());
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sampleNames the names of the selected samples in the order
+     * requested
+     * @param columns the indexes of the selected columns among the sample
+     * columns in the order requested
+     */
+    private SampleProjection(String[] sampleNames, int[] columns) {
+
+        this.sampleNames = sampleNames;
+        this.sortedToRequested = sortIndexes(columns);
+        this.sortedColumns = new int[columns.length];
+
+        for (int i = 0; i < columns.length; i++) {
+
+            sortedColumns[i] = columns[sortedToRequested[i]];
+
+        }
+
+        this.fieldStart = new int[columns.length];
+        this.fieldEnd = new int[columns.length];
+
+    }
+
+    /**
+     * Returns the indexes of the given samples among the sample columns.
+     *
+     * @param headerSamples the samples in the order of the vcf file
+     * @param samples the samples to select
+     *
+     * @return the indexes of the samples among the sample columns
+     */
+    private static int[] getColumns(List<String> headerSamples, List<String> samples) {
+
+        HashMap<String, Integer> columnMap = new HashMap<>(headerSamples.size());
+
+        for (int i = 0; i < headerSamples.size(); i++) {
+
+            columnMap.put(headerSamples.get(i), i);
+
+        }
+
+        int[] columns = new int[samples.size()];
+
+        for (int i = 0; i < samples.size(); i++) {
+
+            Integer column = columnMap.get(samples.get(i));
+
+            if (column == null) {
+
+                throw new IllegalArgumentException("Sample " + samples.get(i) + " not found.");
+
+            }
+
+            columns[i] = column;
+
+        }
+
+        return columns;
+
+    }
+
+    /**
+     * Returns the names of the samples at the given columns.
+     *
+     * @param headerSamples the samples in the order of the vcf file
+     * @param columns the indexes of the samples among the sample columns
+     *
+     * @return the names of the samples
+     */
+    private static String[] getNames(List<String> headerSamples, int[] columns) {
+
+        String[] names = new String[columns.length];
+
+        for (int i = 0; i < columns.length; i++) {
+
+            names[i] = headerSamples.get(columns[i]);
+
+        }
+
+        return names;
+
+    }
+
+    /**
+     * Indicates whether this projection selects the given columns in the
+     * given order.
+     *
+     * @param columns the indexes of the samples among the sample columns
+     *
+     * @return a boolean indicating whether this projection selects the given
+     * columns
+     */
+    public boolean selects(int[] columns) {
+
+        if (columns.length != sortedColumns.length) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < sortedColumns.length; i++) {
+
+            if (columns[sortedToRequested[i]] != sortedColumns[i]) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the indexes of the given values sorted by value.
+     *
+     * @param values the values
+     *
+     * @return the indexes of the given values sorted by value
+     */
+    private static int[] sortIndexes(int[] values) {
+
+        long[] keys = new long[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+
+            keys[i] = (((long) values[i]) << 32) | i;
+
+        }
+
+        Arrays.sort(keys);
+
+        int[] result = new int[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+
+            result[i] = (int) keys[i];
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the number of samples selected.
+     *
+     * @return the number of samples selected
+     */
+    public int size() {
+
+        return sampleNames.length;
+
+    }
+
+    /**
+     * Returns the name of the selected sample at the given index.
+     *
+     * @param i the index of the sample in the requested order
+     *
+     * @return the name of the sample
+     */
+    public String getSampleName(int i) {
+
+        return sampleNames[i];
+
+    }
+
+    /**
+     * Locates the fields of the selected samples in the given line.
+     *
+     * @param line the vcf line
+     */
+    public void project(VcfLine line) {
+
+        byte[] bytes = line.getBytes();
+        int length = line.getLength();
+
+        int column = 0;
+        int start = line.getSamplesStart();
+        int position = start;
+
+        for (int i = 0; i < sortedColumns.length; i++) {
+
+            int targetColumn = sortedColumns[i];
+
+            while (column < targetColumn) {
+
+                while (position < length && bytes[position] != '\t') {
+
+                    position++;
+
+                }
+
+                position++;
+                column++;
+                start = position;
+
+            }
+
+            while (position < length && bytes[position] != '\t') {
+
+                position++;
+
+            }
+
+            if (start > length) {
+
+                throw new IllegalArgumentException("Sample column " + targetColumn + " not found in line.");
+
+            }
+
+            int sampleIndex = sortedToRequested[i];
+            fieldStart[sampleIndex] = start;
+            fieldEnd[sampleIndex] = position;
+
+        }
+    }
+
+    /**
+     * Returns the start of the field of the given sample in the last
+     * projected line.
+     *
+     * @param i the index of the sample in the requested order
+     *
+     * @return the start of the field
+     */
+    public int getFieldStart(int i) {
+
+        return fieldStart[i];
+
+    }
+
+    /**
+     * Returns the end (exclusive) of the field of the given sample in the last
+     * projected line.
+     *
+     * @param i the index of the sample in the requested order
+     *
+     * @return the end of the field
+     */
+    public int getFieldEnd(int i) {
+
+        return fieldEnd[i];
+
+    }
+
+    /**
+     * Returns the field of the given sample in the last projected line as
+     * string.
+     *
+     * @param line the projected line
+     * @param i the index of the sample in the requested order
+     *
+     * @return the field of the given sample
+     */
+    public String getField(VcfLine line, int i) {
+
+        return new String(line.getBytes(), fieldStart[i], fieldEnd[i] - fieldStart[i], StandardCharsets.US_ASCII);
+
+    }
+
+    /**
+     * Projects the given line and returns the genotypes of the selected
+     * samples.
+     *
+     * @param line the vcf line
+     *
+     * @return the genotypes in the requested order
+     */
+    public Genotype[] getGenotypes(VcfLine line) {
+
+        long start = Instrumentation.start();
+
+        project(line);
+
+        String[] formatKeys = line.getColumn(VcfLine.FORMAT).split(":");
+        List<Allele> alleles = getAlleles(line);
+
+        Genotype[] genotypes = new Genotype[sampleNames.length];
+
+        for (int i = 0; i < sampleNames.length; i++) {
+
+            genotypes[i] = getGenotype(line, i, formatKeys, alleles);
+
+        }
+
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+
+        return genotypes;
+
+    }
+
+    /**
+     * Projects the given line and writes the hard calls of the selected
+     * samples, see GenotypeSource.getCalls.
+     *
+     * @param line the vcf line
+     * @param calls the array where to write the calls, in the requested order
+     */
+    public void getCalls(VcfLine line, byte[] calls) {
+
+        long start = Instrumentation.start();
+
+        project(line);
+
+        byte[] bytes = line.getBytes();
+        int gtIndex = line.getFormatIndex("GT");
+
+        for (int i = 0; i < sampleNames.length; i++) {
+
+            calls[i] = gtIndex == -1 || !locateSubField(bytes, i, gtIndex)
+                    ? GenotypeSource.MISSING
+                    : VcfLine.parseCall(bytes, subFieldStart, subFieldEnd);
+
+        }
+
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+
+    }
+
+    /**
+     * Projects the given line and counts the hard calls of the selected
+     * samples by value, without writing the calls of every sample, and the
+     * number of alleles of the called samples.
+     *
+     * @param line the vcf line
+     * @param counts the array where to write the counts, indexed by call, see
+     * GenotypeSource.getCalls, followed by the number of called alleles, of
+     * length at least VariantSummary.N_COUNTS
+     */
+    public void countCalls(VcfLine line, int[] counts) {
+
+        long start = Instrumentation.start();
+
+        project(line);
+
+        Arrays.fill(counts, 0, VariantSummary.N_COUNTS, 0);
+
+        byte[] bytes = line.getBytes();
+        int gtIndex = line.getFormatIndex("GT");
+
+        for (int i = 0; i < sampleNames.length; i++) {
+
+            if (gtIndex == -1 || !locateSubField(bytes, i, gtIndex)) {
+
+                counts[GenotypeSource.MISSING]++;
+
+                continue;
+
+            }
+
+            int call = VcfLine.parseCall(bytes, subFieldStart, subFieldEnd);
+
+            counts[call]++;
+
+            if (call != GenotypeSource.MISSING) {
+
+                counts[VariantSummary.CALLED_ALLELES] += VcfLine.parsePloidy(bytes, subFieldStart, subFieldEnd);
+
+            }
+        }
+
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+
+    }
+
+    /**
+     * Projects the given line and writes the dosages of the selected samples,
+     * see GenotypeSource.getDosages.
+     *
+     * @param line the vcf line
+     * @param dosages the array where to write the dosages, in the requested
+     * order
+     */
+    public void getDosages(VcfLine line, float[] dosages) {
+
+        long start = Instrumentation.start();
+
+        project(line);
+        locateDosageFields(line, DosageField.AUTO);
+
+        byte[] bytes = line.getBytes();
+
+        for (int i = 0; i < sampleNames.length; i++) {
+
+            dosages[i] = (float) parseDosage(bytes, i);
+
+        }
+
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+
+    }
+
+    /**
+     * Projects the given line and writes the dosages of the selected samples
+     * in the given buffer. Numbers are parsed from the line bytes directly.
+     *
+     * @param line the vcf line
+     * @param dosageField the field to read the dosages from
+     * @param buffer the buffer where to write the dosages
+     * @param offset the index in the buffer where to write the dosage of the
+     * first sample, the others follow in the requested order
+     */
+    public void getDosages(VcfLine line, DosageField dosageField, double[] buffer, int offset) {
+
+        long start = Instrumentation.start();
+
+        project(line);
+        locateDosageFields(line, dosageField);
+
+        byte[] bytes = line.getBytes();
+
+        for (int i = 0; i < sampleNames.length; i++) {
+
+            buffer[offset + i] = parseDosage(bytes, i);
+
+        }
+
+        Instrumentation.stop(Instrumentation.GENOTYPE_EXTRACTION, start);
+
+    }
+
+    /**
+     * Sets the indexes of the sub-fields to read the dosages from in the
+     * given line: DS or GP as requested, or the first available of DS, GP and
+     * GT in automatic mode.
+     *
+     * @param line the vcf line
+     * @param dosageField the field to read the dosages from
+     */
+    private void locateDosageFields(VcfLine line, DosageField dosageField) {
+
+        dsIndex = dosageField == DosageField.GP ? -1 : line.getFormatIndex("DS");
+        gpIndex = dosageField == DosageField.DS || dsIndex != -1 ? -1 : line.getFormatIndex("GP");
+        gtIndex = dosageField == DosageField.AUTO && dsIndex == -1 && gpIndex == -1 ? line.getFormatIndex("GT") : -1;
+
+    }
+
+    /**
+     * Parses the dosage of a sample in the last projected line from the
+     * sub-field located by locateDosageFields.
+     *
+     * @param bytes the line bytes
+     * @param i the index of the sample in the requested order
+     *
+     * @return the dosage, NaN if missing
+     */
+    private double parseDosage(byte[] bytes, int i) {
+
+        if (dsIndex != -1) {
+
+            return locateSubField(bytes, i, dsIndex) ? VcfLine.parseDouble(bytes, subFieldStart, subFieldEnd) : Double.NaN;
+
+        }
+
+        if (gpIndex != -1) {
+
+            return locateSubField(bytes, i, gpIndex) ? VcfLine.parseDosageFromProbabilities(bytes, subFieldStart, subFieldEnd) : Double.NaN;
+
+        }
+
+        if (gtIndex != -1 && locateSubField(bytes, i, gtIndex)) {
+
+            byte call = VcfLine.parseCall(bytes, subFieldStart, subFieldEnd);
+
+            return call == GenotypeSource.MISSING ? Double.NaN : call;
+
+        }
+
+        return Double.NaN;
+
+    }
+
+    /**
+     * Locates a sub-field in the field of a sample of the last projected line,
+     * the bounds are stored in subFieldStart and subFieldEnd.
+     *
+     * @param bytes the line bytes
+     * @param i the index of the sample in the requested order
+     * @param subField the index of the sub-field
+     *
+     * @return a boolean indicating whether the sub-field was found
+     */
+    private boolean locateSubField(byte[] bytes, int i, int subField) {
+
+        int start = fieldStart[i];
+        int end = fieldEnd[i];
+        int key = 0;
+
+        for (int j = start; j <= end; j++) {
+
+            if (j == end || bytes[j] == ':') {
+
+                if (key == subField) {
+
+                    subFieldStart = start;
+                    subFieldEnd = j;
+
+                    return true;
+
+                }
+
+                key++;
+                start = j + 1;
+
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the alleles of the given line, reference first.
+     *
+     * @param line the vcf line
+     *
+     * @return the alleles of the given line
+     */
+    private static List<Allele> getAlleles(VcfLine line) {
+
+        ArrayList<Allele> alleles = new ArrayList<>(2);
+        alleles.add(Allele.create(line.getColumn(VcfLine.REF), true));
+
+        for (String alt : line.getColumn(VcfLine.ALT).split(",")) {
+
+            alleles.add(Allele.create(alt, false));
+
+        }
+
+        return alleles;
+
+    }
+
+    /**
+     * Builds the genotype of the given sample from the last projected line.
+     *
+     * @param line the vcf line
+     * @param i the index of the sample in the requested order
+     * @param formatKeys the keys of the format column
+     * @param alleles the alleles of the variant
+     *
+     * @return the genotype of the sample
+     */
+    private Genotype getGenotype(VcfLine line, int i, String[] formatKeys, List<Allele> alleles) {
+
+        byte[] bytes = line.getBytes();
+        int start = fieldStart[i];
+        int end = fieldEnd[i];
+
+        GenotypeBuilder genotypeBuilder = new GenotypeBuilder(sampleNames[i]);
+
+        int key = 0;
+        int subFieldStart = start;
+
+        for (int j = start; j <= end && key < formatKeys.length; j++) {
+
+            if (j == end || bytes[j] == ':') {
+
+                if (key == 0 && formatKeys[0].equals("GT")) {
+
+                    setAlleles(genotypeBuilder, bytes, subFieldStart, j, alleles);
+
+                } else if (j > subFieldStart && !(j == subFieldStart + 1 && bytes[subFieldStart] == '.')) {
+
+                    setAttribute(genotypeBuilder, formatKeys[key], new String(bytes, subFieldStart, j - subFieldStart, StandardCharsets.US_ASCII));
+
+                }
+
+                key++;
+                subFieldStart = j + 1;
+
+            }
+        }
+
+        return genotypeBuilder.make();
+
+    }
+
+    /**
+     * Sets a format field of a genotype. Like the htsjdk decoder, GQ, DP, AD
+     * and PL are set as typed fields, other keys as extended attributes.
+     *
+     * @param genotypeBuilder the builder of the genotype
+     * @param key the format key
+     * @param value the value, not missing
+     */
+    private static void setAttribute(GenotypeBuilder genotypeBuilder, String key, String value) {
+
+        switch (key) {
+
+            case VCFConstants.GENOTYPE_QUALITY_KEY:
+
+                if (value.equals(VCFConstants.MISSING_GENOTYPE_QUALITY_v3)) {
+
+                    genotypeBuilder.noGQ();
+
+                } else {
+
+                    genotypeBuilder.GQ((int) Math.round(Double.parseDouble(value)));
+
+                }
+
+                break;
+
+            case VCFConstants.DEPTH_KEY:
+                genotypeBuilder.DP(Integer.parseInt(value));
+                break;
+
+            case VCFConstants.GENOTYPE_ALLELE_DEPTHS:
+                genotypeBuilder.AD(parseInts(value));
+                break;
+
+            case VCFConstants.GENOTYPE_PL_KEY:
+                genotypeBuilder.PL(parseInts(value));
+                break;
+
+            default:
+                genotypeBuilder.attribute(key, value);
+
+        }
+    }
+
+    /**
+     * Parses a comma separated list of integers.
+     *
+     * @param value the list as string
+     *
+     * @return the integers, null if a value is not an integer
+     */
+    private static int[] parseInts(String value) {
+
+        String[] split = value.split(",");
+        int[] result = new int[split.length];
+
+        try {
+
+            for (int i = 0; i < split.length; i++) {
+
+                result[i] = Integer.parseInt(split[i]);
+
+            }
+
+        } catch (NumberFormatException e) {
+
+            return null;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Sets the alleles of a genotype from the GT field.
+     *
+     * @param genotypeBuilder the builder of the genotype
+     * @param bytes the line bytes
+     * @param start the start of the GT field
+     * @param end the end of the GT field (exclusive)
+     * @param alleles the alleles of the variant
+     */
+    private static void setAlleles(GenotypeBuilder genotypeBuilder, byte[] bytes, int start, int end, List<Allele> alleles) {
+
+        ArrayList<Allele> genotypeAlleles = new ArrayList<>(2);
+        boolean phased = false;
+        int alleleStart = start;
+
+        for (int j = start; j <= end; j++) {
+
+            if (j == end || bytes[j] == '|' || bytes[j] == '/') {
+
+                if (j < end && bytes[j] == '|') {
+
+                    phased = true;
+
+                }
+
+                if (j - alleleStart == 1 && bytes[alleleStart] == '.') {
+
+                    genotypeAlleles.add(Allele.NO_CALL);
+
+                } else {
+
+                    genotypeAlleles.add(alleles.get((int) VcfLine.parseLong(bytes, alleleStart, j)));
+
+                }
+
+                alleleStart = j + 1;
+
+            }
+        }
+
+        genotypeBuilder.alleles(genotypeAlleles).phased(phased);
+
+    }
+}
@@ -0,0 +1,532 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import no.uib.hunt.model.Variant;
+
+/**
+ * Bounded cache of decoded variant contexts. The size of the cache is
+ * estimated in genotypes, i.e. a variant context weighs one plus its number of
+ * samples. Variants absent from the vcf files are cached as ABSENT with a
+ * weight of one, and concurrent misses on a variant wait for a single load.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantContextCache {
+
+    /**
+     * The policies that can be used to evict variant contexts.
+     */
+    public enum EvictionPolicy {
+
+        /**
+         * Evicts the least recently used variant context.
+         */
+        LRU,
+        /**
+         * Evicts the first variant context inserted.
+         */
+        FIFO;
+
+    }
+
+    /**
+     * The default capacity of the cache in number of genotypes.
+     */
+    public static final long DEFAULT_CAPACITY = 10000000;
+    /**
+     * Sentinel returned by get for variants cached as absent from the vcf
+     * files.
+     */
+    public static final VariantContext ABSENT = new VariantContextBuilder("absent", "absent", 1, 1, Collections.singletonList(Allele.create("N", true))).make();
+    /**
+     * The capacity of the cache in number of genotypes.
+     */
+    private final long capacity;
+    /**
+     * The eviction policy.
+     */
+    private final EvictionPolicy evictionPolicy;
+    /**
+     * The variant contexts indexed by key, the future of a variant being
+     * loaded is not done, the future of an absent variant holds ABSENT.
+     */
+    private final LinkedHashMap<Key, CompletableFuture<VariantContext>> variantContexts;
+    /**
+     * The current weight of the cache in number of genotypes.
+     */
+    private long weight = 0;
+    /**
+     * The number of hits.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of misses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of evictions.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor using the default capacity and an LRU eviction policy.
+     */
+    public VariantContextCache() {
+
+        this(DEFAULT_CAPACITY, EvictionPolicy.LRU);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity of the cache in number of genotypes, 0
+     * disables the cache
+     * @param evictionPolicy the eviction policy
+     */
+    public VariantContextCache(long capacity, EvictionPolicy evictionPolicy) {
+
+        this.capacity = capacity;
+        this.evictionPolicy = evictionPolicy;
+        this.variantContexts = new LinkedHashMap<>(16, 0.75f, evictionPolicy == EvictionPolicy.LRU);
+
+    }
+
+    /**
+     * Returns the variant context for the given variant, waiting if it is
+     * being loaded by another thread.
+     *
+     * @param variant the variant
+     *
+     * @return the variant context for the given variant, ABSENT if the
+     * variant is cached as absent, null if not in cache
+     */
+    public VariantContext get(Variant variant) {
+
+        CompletableFuture<VariantContext> future = null;
+
+        if (capacity > 0) {
+
+            Key key = new Key(variant);
+
+            synchronized (this) {
+
+                future = variantContexts.get(key);
+
+            }
+        }
+
+        if (future == null) {
+
+            misses.incrementAndGet();
+
+            return null;
+
+        }
+
+        hits.incrementAndGet();
+
+        return join(future);
+
+    }
+
+    /**
+     * Returns the variant context for the given variant, loading it on a
+     * miss. Concurrent misses on a variant wait for the load of the first
+     * one, and variants not found are cached as absent.
+     *
+     * @param variant the variant
+     * @param loader function loading the variant context of a variant, null
+     * if not found
+     *
+     * @return the variant context for the given variant, null if not found
+     */
+    public VariantContext get(Variant variant, Function<Variant, VariantContext> loader) {
+
+        if (capacity == 0) {
+
+            misses.incrementAndGet();
+
+            return loader.apply(variant);
+
+        }
+
+        Key key = new Key(variant);
+        CompletableFuture<VariantContext> future;
+        boolean load = false;
+
+        synchronized (this) {
+
+            future = variantContexts.get(key);
+
+            if (future == null) {
+
+                future = new CompletableFuture<>();
+                variantContexts.put(key, future);
+                load = true;
+
+            }
+        }
+
+        if (!load) {
+
+            hits.incrementAndGet();
+
+            VariantContext variantContext = join(future);
+
+            return variantContext == ABSENT ? null : variantContext;
+
+        }
+
+        misses.incrementAndGet();
+
+        VariantContext variantContext;
+
+        try {
+
+            variantContext = loader.apply(variant);
+
+        } catch (RuntimeException | Error e) {
+
+            synchronized (this) {
+
+                variantContexts.remove(key, future);
+
+            }
+
+            future.completeExceptionally(e);
+
+            throw e;
+
+        }
+
+        complete(key, future, variantContext == null ? ABSENT : variantContext);
+
+        return variantContext;
+
+    }
+
+    /**
+     * Adds the variant context of the given variant to the cache, evicting
+     * variant contexts if the capacity is exceeded.
+     *
+     * @param variant the variant
+     * @param variantContext the variant context, null or ABSENT if the
+     * variant is absent from the vcf files
+     */
+    public void put(Variant variant, VariantContext variantContext) {
+
+        if (capacity == 0) {
+
+            return;
+
+        }
+
+        Key key = new Key(variant);
+        CompletableFuture<VariantContext> future = new CompletableFuture<>();
+
+        synchronized (this) {
+
+            CompletableFuture<VariantContext> previous = variantContexts.put(key, future);
+
+            if (previous != null && previous.isDone()) {
+
+                weight -= getWeight(previous.join());
+
+            } else if (previous != null) {
+
+                variantContexts.put(key, previous);
+                future = previous;
+
+            }
+        }
+
+        complete(key, future, variantContext == null ? ABSENT : variantContext);
+
+    }
+
+    /**
+     * Completes the future of a variant and accounts for its weight, the
+     * entry is dropped if it weighs more than the capacity.
+     *
+     * @param key the key of the variant
+     * @param future the future of the variant in the cache
+     * @param variantContext the variant context, ABSENT if not found
+     */
+    private void complete(Key key, CompletableFuture<VariantContext> future, VariantContext variantContext) {
+
+        long variantWeight = getWeight(variantContext);
+
+        synchronized (this) {
+
+            if (future.complete(variantContext) && variantContexts.get(key) == future) {
+
+                if (variantWeight > capacity) {
+
+                    variantContexts.remove(key);
+
+                } else {
+
+                    weight += variantWeight;
+                    evict(key);
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts loaded variant contexts until the weight is within capacity,
+     * keeping the variant context of the given key. Must be called while
+     * holding the lock on the cache.
+     *
+     * @param key the key of the variant context to keep
+     */
+    private void evict(Key key) {
+
+        Iterator<Map.Entry<Key, CompletableFuture<VariantContext>>> iterator = variantContexts.entrySet().iterator();
+
+        while (weight > capacity && iterator.hasNext()) {
+
+            Map.Entry<Key, CompletableFuture<VariantContext>> entry = iterator.next();
+
+            if (entry.getValue().isDone() && !entry.getKey().equals(key)) {
+
+                weight -= getWeight(entry.getValue().join());
+                iterator.remove();
+                evictions.incrementAndGet();
+
+            }
+        }
+    }
+
+    /**
+     * Waits for the variant context of a future and returns it, rethrowing
+     * the exception of a failed load.
+     *
+     * @param future the future
+     *
+     * @return the variant context
+     */
+    private static VariantContext join(CompletableFuture<VariantContext> future) {
+
+        try {
+
+            return future.join();
+
+        } catch (CompletionException e) {
+
+            if (e.getCause() instanceof RuntimeException) {
+
+                throw (RuntimeException) e.getCause();
+
+            }
+
+            if (e.getCause() instanceof Error) {
+
+                throw (Error) e.getCause();
+
+            }
+
+            throw e;
+
+        }
+    }
+
+    /**
+     * Returns the weight of a variant context in number of genotypes.
+     *
+     * @param variantContext the variant context
+     *
+     * @return the weight of a variant context
+     */
+    private static long getWeight(VariantContext variantContext) {
+
+        return variantContext == ABSENT ? 1 : 1 + variantContext.getNSamples();
+
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public synchronized void clear() {
+
+        variantContexts.clear();
+        weight = 0;
+
+    }
+
+    /**
+     * Returns the capacity of the cache in number of genotypes.
+     *
+     * @return the capacity of the cache in number of genotypes
+     */
+    public long getCapacity() {
+
+        return capacity;
+
+    }
+
+    /**
+     * Returns the eviction policy.
+     *
+     * @return the eviction policy
+     */
+    public EvictionPolicy getEvictionPolicy() {
+
+        return evictionPolicy;
+
+    }
+
+    /**
+     * Returns the current weight of the cache in number of genotypes.
+     *
+     * @return the current weight of the cache in number of genotypes
+     */
+    public synchronized long getWeight() {
+
+        return weight;
+
+    }
+
+    /**
+     * Returns the number of variant contexts in cache.
+     *
+     * @return the number of variant contexts in cache
+     */
+    public synchronized int size() {
+
+        return variantContexts.size();
+
+    }
+
+    /**
+     * Returns the number of hits.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+
+        return hits.get();
+
+    }
+
+    /**
+     * Returns the number of misses.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+
+        return misses.get();
+
+    }
+
+    /**
+     * Returns the number of evictions.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+
+        return evictions.get();
+
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetCounters() {
+
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+
+    }
+
+    /**
+     * Returns a short report on the cache usage.
+     *
+     * @return a short report on the cache usage
+     */
+    public String getReport() {
+
+        return String.join(" ",
+                "Variant context cache:",
+                Long.toString(getHits()), "hits,",
+                Long.toString(getMisses()), "misses,",
+                Long.toString(getEvictions()), "evictions,",
+                Integer.toString(size()), "variants held");
+
+    }
+
+    /**
+     * The key of a variant in the cache.
+     */
+    private static final class Key {
+
+        /**
+         * The chromosome.
+         */
+        private final String chr;
+        /**
+         * The position.
+         */
+        private final int bp;
+        /**
+         * The rsId.
+         */
+        private final String rsId;
+        /**
+         * The hash code.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         *
+         * @param variant the variant
+         */
+        private Key(Variant variant) {
+
+            this.chr = variant.chr;
+            this.bp = variant.bp;
+            this.rsId = variant.rsId;
+            this.hashCode = 31 * (31 * Objects.hashCode(chr) + bp) + Objects.hashCode(rsId);
+
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof Key)) {
+
+                return false;
+
+            }
+
+            Key other = (Key) object;
+
+            return bp == other.bp && Objects.equals(rsId, other.rsId) && Objects.equals(chr, other.chr);
+
+        }
+
+        @Override
+        public int hashCode() {
+
+            return hashCode;
+
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import no.uib.hunt.utils.Instrumentation;
+
+/**
+ * Codec decoding raw vcf lines into variant contexts using a header parsed
+ * beforehand. Instances are not thread safe.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfDecoder extends VCFCodec {
+
+    /**
+     * Constructor for a decoder that still needs to read the header.
+     */
+    public VcfDecoder() {
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param header the header of the file
+     * @param version the version of the file
+     */
+    public VcfDecoder(VCFHeader header, VCFHeaderVersion version) {
+
+        setVCFHeader(header, version);
+
+    }
+
+    /**
+     * Returns the vcf version of the header read or set.
+     *
+     * @return the vcf version
+     */
+    public VCFHeaderVersion getVersion() {
+
+        return version;
+
+    }
+
+    /**
+     * Decodes the given line into a variant context. The genotypes are
+     * decoded as well, so that the variant context does not refer to this
+     * decoder anymore and can be shared between threads.
+     *
+     * @param vcfLine the vcf line
+     *
+     * @return the variant context
+     */
+    public VariantContext decodeFully(VcfLine vcfLine) {
+
+        long start = Instrumentation.start();
+
+        VariantContext variantContext = decode(vcfLine.toString());
+
+        if (variantContext != null) {
+
+            GenotypesContext genotypes = variantContext.getGenotypes();
+
+            if (genotypes instanceof LazyGenotypesContext) {
+
+                ((LazyGenotypesContext) genotypes).decode();
+
+            }
+        }
+
+        Instrumentation.stop(Instrumentation.LINE_DECODE, start);
+
+        return variantContext;
+
+    }
+}
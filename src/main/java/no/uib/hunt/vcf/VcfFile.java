@@ -0,0 +1,293 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A bgzipped and tabix-indexed vcf file. The header and index are parsed on
+ * first use and shared by all readers, readers and decoders are pooled so that
+ * the file can be queried concurrently. Readers share decompressed blocks through a
+ * block cache and can inflate blocks ahead during sequential reads.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfFile implements AutoCloseable {
+
+    /**
+     * The chromosomes of the genotype files, one vcf file per chromosome
+     * named chr.vcf.gz.
+     */
+    public static final String[] CHROMOSOMES = {"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X"};
+    /**
+     * The vcf file.
+     */
+    public final File vcfFile;
+    /**
+     * The tbi index file.
+     */
+    public final File indexFile;
+    /**
+     * The tabix index, null until the file is opened. Set after the header
+     * and version.
+     */
+    private volatile TabixIndex index = null;
+    /**
+     * The header of the file, null until the file is opened.
+     */
+    private VCFHeader header = null;
+    /**
+     * The vcf version of the file, null until the file is opened.
+     */
+    private VCFHeaderVersion version = null;
+    /**
+     * The cache of decompressed blocks.
+     */
+    private final BgzfBlockCache blockCache;
+    /**
+     * The id of the file in the block cache.
+     */
+    private final long fileId = BgzfBlockCache.getNewFileId();
+    /**
+     * The pool of raw readers.
+     */
+    private final ReaderPool<RawVcfReader> readers;
+    /**
+     * The pool of decoders.
+     */
+    private final ReaderPool<VcfDecoder> decoders;
+    /**
+     * The pool of block readers used to inflate blocks ahead.
+     */
+    private final ReaderPool<BgzfBlockReader> inflaters;
+    /**
+     * The executor used to inflate blocks ahead, null if read-ahead is
+     * disabled.
+     */
+    private volatile ExecutorService readAheadExecutor = null;
+    /**
+     * The number of blocks to inflate ahead.
+     */
+    private volatile int readAheadBlocks = BgzfReadAhead.DEFAULT_N_BLOCKS;
+
+    /**
+     * Constructor using the block cache shared by the process. The file is
+     * opened on first use.
+     *
+     * @param vcfFile the vcf file
+     * @param indexFile the tbi index file
+     */
+    public VcfFile(File vcfFile, File indexFile) {
+
+        this(vcfFile, indexFile, BgzfBlockCache.getSharedCache());
+
+    }
+
+    /**
+     * Constructor. The file is opened on first use.
+     *
+     * @param vcfFile the vcf file
+     * @param indexFile the tbi index file
+     * @param blockCache the cache of decompressed blocks
+     */
+    public VcfFile(File vcfFile, File indexFile, BgzfBlockCache blockCache) {
+
+        this.blockCache = blockCache;
+        this.vcfFile = vcfFile;
+        this.indexFile = indexFile;
+
+        this.readers = new ReaderPool<>(() -> new RawVcfReader(vcfFile, getIndex(), blockCache, fileId));
+        this.decoders = new ReaderPool<>(() -> new VcfDecoder(getHeader(), version));
+        this.inflaters = new ReaderPool<>(() -> new BgzfBlockReader(vcfFile));
+
+    }
+
+    /**
+     * Parses the header and loads the index if not done already.
+     *
+     * @return the tabix index
+     */
+    private TabixIndex load() {
+
+        TabixIndex tabixIndex = index;
+
+        if (tabixIndex == null) {
+
+            synchronized (this) {
+
+                tabixIndex = index;
+
+                if (tabixIndex == null) {
+
+                    try {
+
+                        VcfDecoder headerDecoder = new VcfDecoder();
+
+                        try (AsciiLineReaderIterator lineIterator = new AsciiLineReaderIterator(AsciiLineReader.from(new BlockCompressedInputStream(vcfFile)))) {
+
+                            header = (VCFHeader) headerDecoder.readActualHeader(lineIterator);
+
+                        }
+
+                        version = headerDecoder.getVersion();
+                        tabixIndex = new TabixIndex(indexFile);
+                        index = tabixIndex;
+
+                    } catch (IOException e) {
+
+                        throw new RuntimeException(e);
+
+                    }
+                }
+            }
+        }
+
+        return tabixIndex;
+
+    }
+
+    /**
+     * Parses the header and loads the index now rather than on first use.
+     */
+    public void open() {
+
+        getIndex();
+
+    }
+
+    /**
+     * Indicates whether the header and index were loaded.
+     *
+     * @return a boolean indicating whether the file was opened
+     */
+    public boolean isOpen() {
+
+        return index != null;
+
+    }
+
+    /**
+     * Returns the header of the file, opening the file if needed.
+     *
+     * @return the header of the file
+     */
+    public VCFHeader getHeader() {
+
+        load();
+
+        return header;
+
+    }
+
+    /**
+     * Returns the tabix index of the file, opening the file if needed.
+     *
+     * @return the tabix index of the file
+     */
+    public TabixIndex getIndex() {
+
+        return load();
+
+    }
+
+    /**
+     * Returns the cache of decompressed blocks.
+     *
+     * @return the cache of decompressed blocks
+     */
+    public BgzfBlockCache getBlockCache() {
+
+        return blockCache;
+
+    }
+
+    /**
+     * Sets up read-ahead for the sequential reads of the readers borrowed
+     * from now on.
+     *
+     * @param executor the executor used to inflate blocks ahead, null to
+     * disable read-ahead
+     * @param nBlocks the number of blocks to inflate ahead
+     */
+    public void setReadAhead(ExecutorService executor, int nBlocks) {
+
+        this.readAheadBlocks = nBlocks;
+        this.readAheadExecutor = executor;
+
+    }
+
+    /**
+     * Borrows a raw reader, it must be returned using releaseReader.
+     *
+     * @return a raw reader
+     */
+    public RawVcfReader borrowReader() {
+
+        RawVcfReader rawVcfReader = readers.borrow();
+        rawVcfReader.setReadAhead(readAheadExecutor, inflaters, readAheadBlocks);
+
+        return rawVcfReader;
+
+    }
+
+    /**
+     * Returns a raw reader to the pool.
+     *
+     * @param rawVcfReader the raw reader
+     */
+    public void releaseReader(RawVcfReader rawVcfReader) {
+
+        rawVcfReader.stopReadAhead();
+        readers.release(rawVcfReader);
+
+    }
+
+    /**
+     * Borrows a decoder, it must be returned using releaseDecoder.
+     *
+     * @return a decoder
+     */
+    public VcfDecoder borrowDecoder() {
+
+        return decoders.borrow();
+
+    }
+
+    /**
+     * Returns a decoder to the pool.
+     *
+     * @param vcfDecoder the decoder
+     */
+    public void releaseDecoder(VcfDecoder vcfDecoder) {
+
+        decoders.release(vcfDecoder);
+
+    }
+
+    /**
+     * Returns the number of readers opened on this file.
+     *
+     * @return the number of readers opened on this file
+     */
+    public int getNReaders() {
+
+        return readers.size();
+
+    }
+
+    @Override
+    public void close() {
+
+        readers.close();
+        decoders.close();
+        inflaters.close();
+        blockCache.invalidate(fileId);
+
+    }
+}
@@ -0,0 +1,710 @@
+package no.uib.hunt.vcf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import no.uib.hunt.genotypes.GenotypeSource;
+
+/**
+ * Raw vcf line kept as bytes. Only the fixed columns are indexed, the sample
+ * columns are left untouched.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfLine {
+
+    /**
+     * The number of fixed columns before the samples, FORMAT included.
+     */
+    public static final int N_FIXED_COLUMNS = 9;
+    /**
+     * The index of the chromosome column.
+     */
+    public static final int CHROM = 0;
+    /**
+     * The index of the position column.
+     */
+    public static final int POS = 1;
+    /**
+     * The index of the id column.
+     */
+    public static final int ID = 2;
+    /**
+     * The index of the reference allele column.
+     */
+    public static final int REF = 3;
+    /**
+     * The index of the alternative allele column.
+     */
+    public static final int ALT = 4;
+    /**
+     * The index of the info column.
+     */
+    public static final int INFO = 7;
+    /**
+     * The index of the format column.
+     */
+    public static final int FORMAT = 8;
+    /**
+     * The separator of multiple ids in the ID column.
+     */
+    public static final byte ID_SEPARATOR = ';';
+    /**
+     * The largest mantissa that is exactly represented as a double.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /**
+     * The powers of ten that are exactly represented as doubles.
+     */
+    private static final double[] EXACT_POWERS_OF_TEN = new double[23];
+
+    static {
+
+        EXACT_POWERS_OF_TEN[0] = 1;
+
+        for (int i = 1; i < EXACT_POWERS_OF_TEN.length; i++) {
+
+            EXACT_POWERS_OF_TEN[i] = 10 * EXACT_POWERS_OF_TEN[i - 1];
+
+        }
+    }
+
+    /**
+     * The bytes of the line.
+     */
+    private byte[] bytes;
+    /**
+     * The length of the line.
+     */
+    private int length = 0;
+    /**
+     * The start index of the fixed columns, the last value is the start of the
+     * sample columns.
+     */
+    private final int[] columnStart = new int[N_FIXED_COLUMNS + 1];
+    /**
+     * The number of fixed columns indexed.
+     */
+    private int nColumnsIndexed = 0;
+
+    /**
+     * Constructor.
+     */
+    public VcfLine() {
+
+        this(1024);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param initialCapacity the initial capacity of the line buffer
+     */
+    public VcfLine(int initialCapacity) {
+
+        bytes = new byte[initialCapacity];
+
+    }
+
+    /**
+     * Empties the line.
+     */
+    public void clear() {
+
+        length = 0;
+        nColumnsIndexed = 0;
+
+    }
+
+    /**
+     * Appends a byte to the line.
+     *
+     * @param b the byte to append
+     */
+    public void append(byte b) {
+
+        if (length == bytes.length) {
+
+            bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+
+        }
+
+        bytes[length++] = b;
+
+    }
+
+    /**
+     * Appends bytes to the line.
+     *
+     * @param source the array to copy from
+     * @param offset the offset in the source
+     * @param len the number of bytes to copy
+     */
+    public void append(byte[] source, int offset, int len) {
+
+        if (length + len > bytes.length) {
+
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + len));
+
+        }
+
+        System.arraycopy(source, offset, bytes, length, len);
+        length += len;
+
+    }
+
+    /**
+     * Removes a trailing carriage return, if any.
+     */
+    public void trimCarriageReturn() {
+
+        if (length > 0 && bytes[length - 1] == '\r') {
+
+            length--;
+
+        }
+    }
+
+    /**
+     * Returns the bytes of the line. Only the first length bytes are valid.
+     *
+     * @return the bytes of the line
+     */
+    public byte[] getBytes() {
+
+        return bytes;
+
+    }
+
+    /**
+     * Returns the length of the line.
+     *
+     * @return the length of the line
+     */
+    public int getLength() {
+
+        return length;
+
+    }
+
+    /**
+     * Indexes the fixed columns.
+     */
+    private void indexFixedColumns() {
+
+        if (nColumnsIndexed > N_FIXED_COLUMNS) {
+
+            return;
+
+        }
+
+        int column = 0;
+        columnStart[column++] = 0;
+
+        for (int i = 0; i < length && column <= N_FIXED_COLUMNS; i++) {
+
+            if (bytes[i] == '\t') {
+
+                columnStart[column++] = i + 1;
+
+            }
+        }
+
+        for (; column <= N_FIXED_COLUMNS; column++) {
+
+            columnStart[column] = length + 1;
+
+        }
+
+        nColumnsIndexed = N_FIXED_COLUMNS + 1;
+
+    }
+
+    /**
+     * Returns the start of the given fixed column.
+     *
+     * @param column the index of the column
+     *
+     * @return the start of the given fixed column
+     */
+    public int getColumnStart(int column) {
+
+        indexFixedColumns();
+
+        return columnStart[column];
+
+    }
+
+    /**
+     * Returns the end (exclusive) of the given fixed column.
+     *
+     * @param column the index of the column
+     *
+     * @return the end of the given fixed column
+     */
+    public int getColumnEnd(int column) {
+
+        indexFixedColumns();
+
+        return column < N_FIXED_COLUMNS ? columnStart[column + 1] - 1 : getSamplesStart() - 1;
+
+    }
+
+    /**
+     * Returns the index where the first sample column starts.
+     *
+     * @return the index where the first sample column starts
+     */
+    public int getSamplesStart() {
+
+        indexFixedColumns();
+
+        return columnStart[N_FIXED_COLUMNS];
+
+    }
+
+    /**
+     * Returns the content of a fixed column as string.
+     *
+     * @param column the index of the column
+     *
+     * @return the content of the column
+     */
+    public String getColumn(int column) {
+
+        int start = getColumnStart(column);
+        int end = getColumnEnd(column);
+
+        return end > start ? new String(bytes, start, end - start, StandardCharsets.US_ASCII) : "";
+
+    }
+
+    /**
+     * Returns the position of the variant.
+     *
+     * @return the position of the variant
+     */
+    public int getPosition() {
+
+        return (int) parseLong(bytes, getColumnStart(POS), getColumnEnd(POS));
+
+    }
+
+    /**
+     * Indicates whether the ID column is the given id or contains it among
+     * ids separated by semicolons.
+     *
+     * @param id the id
+     *
+     * @return a boolean indicating whether the line has the given id
+     */
+    public boolean hasId(String id) {
+
+        if (columnEquals(ID, id)) {
+
+            return true;
+
+        }
+
+        int columnEnd = getColumnEnd(ID);
+        int start = getColumnStart(ID);
+
+        while (start <= columnEnd) {
+
+            int end = start;
+
+            while (end < columnEnd && bytes[end] != ID_SEPARATOR) {
+
+                end++;
+
+            }
+
+            if (end - start == id.length()) {
+
+                int i = 0;
+
+                while (i < id.length() && bytes[start + i] == id.charAt(i)) {
+
+                    i++;
+
+                }
+
+                if (i == id.length()) {
+
+                    return true;
+
+                }
+            }
+
+            start = end + 1;
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Indicates whether the content of a fixed column is the given string.
+     *
+     * @param column the index of the column
+     * @param value the value to compare to
+     *
+     * @return a boolean indicating whether the content of a fixed column is
+     * the given string
+     */
+    public boolean columnEquals(int column, String value) {
+
+        int start = getColumnStart(column);
+        int end = getColumnEnd(column);
+
+        if (end - start != value.length()) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+
+            if (bytes[start + i] != value.charAt(i)) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the index of the given key in the format column, -1 if not
+     * found.
+     *
+     * @param key the key
+     *
+     * @return the index of the given key
+     */
+    public int getFormatIndex(String key) {
+
+        int start = getColumnStart(FORMAT);
+        int end = getColumnEnd(FORMAT);
+
+        int index = 0;
+        int keyStart = start;
+
+        for (int i = start; i <= end; i++) {
+
+            if (i == end || bytes[i] == ':') {
+
+                if (i - keyStart == key.length()) {
+
+                    boolean match = true;
+
+                    for (int j = 0; j < key.length() && match; j++) {
+
+                        match = bytes[keyStart + j] == key.charAt(j);
+
+                    }
+
+                    if (match) {
+
+                        return index;
+
+                    }
+                }
+
+                index++;
+                keyStart = i + 1;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the hard call corresponding to a GT field, the number of
+     * alternative alleles, or GenotypeSource.MISSING. Haploid calls therefore
+     * give HOM_REF or HET, and calls of higher ploidy are capped at HOM_ALT.
+     *
+     * @param bytes the line bytes
+     * @param start the start of the GT field
+     * @param end the end of the GT field (exclusive)
+     *
+     * @return the hard call
+     */
+    public static byte parseCall(byte[] bytes, int start, int end) {
+
+        int nAlt = 0;
+        int alleleStart = start;
+
+        for (int i = start; i <= end; i++) {
+
+            if (i == end || bytes[i] == '/' || bytes[i] == '|') {
+
+                if (i == alleleStart || bytes[alleleStart] == '.') {
+
+                    return GenotypeSource.MISSING;
+
+                }
+
+                if (parseLong(bytes, alleleStart, i) != 0) {
+
+                    nAlt++;
+
+                }
+
+                alleleStart = i + 1;
+
+            }
+        }
+
+        return (byte) Math.min(nAlt, GenotypeSource.HOM_ALT);
+
+    }
+
+    /**
+     * Returns the number of alleles of a GT field, one for haploid calls, two
+     * for diploid calls.
+     *
+     * @param bytes the line bytes
+     * @param start the start of the GT field
+     * @param end the end of the GT field (exclusive)
+     *
+     * @return the number of alleles
+     */
+    public static int parsePloidy(byte[] bytes, int start, int end) {
+
+        int ploidy = 1;
+
+        for (int i = start; i < end; i++) {
+
+            if (bytes[i] == '/' || bytes[i] == '|') {
+
+                ploidy++;
+
+            }
+        }
+
+        return ploidy;
+
+    }
+
+    /**
+     * Returns the dosage of the alternative allele from a GP field, NaN if
+     * missing.
+     *
+     * @param bytes the line bytes
+     * @param start the start of the GP field
+     * @param end the end of the GP field (exclusive)
+     *
+     * @return the dosage
+     */
+    public static double parseDosageFromProbabilities(byte[] bytes, int start, int end) {
+
+        double dosage = 0;
+        int genotype = 0;
+        int valueStart = start;
+
+        for (int i = start; i <= end; i++) {
+
+            if (i == end || bytes[i] == ',') {
+
+                double probability = parseDouble(bytes, valueStart, i);
+
+                if (Double.isNaN(probability)) {
+
+                    return Double.NaN;
+
+                }
+
+                dosage += genotype * probability;
+                genotype++;
+                valueStart = i + 1;
+
+            }
+        }
+
+        return dosage;
+
+    }
+
+    /**
+     * Parses a positive integer from the given bytes.
+     *
+     * @param bytes the bytes
+     * @param start the start index
+     * @param end the end index (exclusive)
+     *
+     * @return the parsed value
+     */
+    public static long parseLong(byte[] bytes, int start, int end) {
+
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+
+            int digit = bytes[i] - '0';
+
+            if (digit < 0 || digit > 9) {
+
+                throw new IllegalArgumentException("Unexpected character '" + (char) bytes[i] + "' in number.");
+
+            }
+
+            value = 10 * value + digit;
+
+        }
+
+        return value;
+
+    }
+
+    /**
+     * Parses a decimal number from the given bytes, giving the same result as
+     * Double.parseDouble. Missing values ('.') are returned as NaN. Numbers
+     * whose digits fit in the 53 bits of a double mantissa and with a decimal
+     * exponent between -22 and 22 are computed from the bytes with a single
+     * rounding, other numbers are passed to Double.parseDouble.
+     *
+     * @param bytes the bytes
+     * @param start the start index
+     * @param end the end index (exclusive)
+     *
+     * @return the parsed value
+     *
+     * @throws NumberFormatException exception thrown if the bytes are not a
+     * number
+     */
+    public static double parseDouble(byte[] bytes, int start, int end) {
+
+        if (end <= start || end - start == 1 && bytes[start] == '.') {
+
+            return Double.NaN;
+
+        }
+
+        int i = start;
+        boolean negative = false;
+
+        if (bytes[i] == '-' || bytes[i] == '+') {
+
+            negative = bytes[i] == '-';
+            i++;
+
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int nDigits = 0;
+        boolean decimals = false;
+
+        for (; i < end; i++) {
+
+            byte b = bytes[i];
+
+            if (b >= '0' && b <= '9') {
+
+                int digit = b - '0';
+
+                if (mantissa > (MAX_EXACT_MANTISSA - digit) / 10) {
+
+                    return parseDoubleString(bytes, start, end);
+
+                }
+
+                mantissa = 10 * mantissa + digit;
+                nDigits++;
+
+                if (decimals) {
+
+                    exponent--;
+
+                }
+
+            } else if (b == '.' && !decimals) {
+
+                decimals = true;
+
+            } else if ((b == 'e' || b == 'E') && nDigits > 0) {
+
+                int exponentStart = i + 1;
+                boolean negativeExponent = exponentStart < end && bytes[exponentStart] == '-';
+
+                if (exponentStart < end && (bytes[exponentStart] == '-' || bytes[exponentStart] == '+')) {
+
+                    exponentStart++;
+
+                }
+
+                if (exponentStart == end || end - exponentStart > 3) {
+
+                    return parseDoubleString(bytes, start, end);
+
+                }
+
+                int explicitExponent = 0;
+
+                for (int j = exponentStart; j < end; j++) {
+
+                    int digit = bytes[j] - '0';
+
+                    if (digit < 0 || digit > 9) {
+
+                        return parseDoubleString(bytes, start, end);
+
+                    }
+
+                    explicitExponent = 10 * explicitExponent + digit;
+
+                }
+
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+                break;
+
+            } else {
+
+                return parseDoubleString(bytes, start, end);
+
+            }
+        }
+
+        if (nDigits == 0 || exponent < -22 || exponent > 22) {
+
+            return parseDoubleString(bytes, start, end);
+
+        }
+
+        double value = exponent >= 0 ? mantissa * EXACT_POWERS_OF_TEN[exponent] : mantissa / EXACT_POWERS_OF_TEN[-exponent];
+
+        return negative ? -value : value;
+
+    }
+
+    /**
+     * Parses a decimal number from the given bytes using Double.parseDouble.
+     *
+     * @param bytes the bytes
+     * @param start the start index
+     * @param end the end index (exclusive)
+     *
+     * @return the parsed value
+     *
+     * @throws NumberFormatException exception thrown if the bytes are not a
+     * number
+     */
+    private static double parseDoubleString(byte[] bytes, int start, int end) {
+
+        return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+
+    }
+
+    @Override
+    public String toString() {
+
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+
+    }
+}
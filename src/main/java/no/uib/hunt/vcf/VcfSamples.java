@@ -0,0 +1,258 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The samples of a vcf file in column order, with a hash of the list used to
+ * check that files share the same samples. The list is parsed from the
+ * #CHROM line of the vcf file without parsing the rest of the header, and
+ * saved to a sidecar file: later runs read the sidecar file, or only its
+ * hash when the names are not needed.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfSamples {
+
+    /**
+     * The extension of the sidecar files.
+     */
+    public static final String EXTENSION = ".samples";
+    /**
+     * Magic number at the start of the sidecar files.
+     */
+    public static final int MAGIC = 0x48534d50;
+    /**
+     * Version of the sidecar file format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The number of columns before the sample columns.
+     */
+    private static final int N_FIXED_COLUMNS = 9;
+    /**
+     * The samples in column order, null if only the hash was read.
+     */
+    public final List<String> samples;
+    /**
+     * The hash of the list of samples.
+     */
+    public final long hash;
+
+    /**
+     * Constructor.
+     *
+     * @param samples the samples in column order, null if only the hash was
+     * read
+     * @param hash the hash of the list of samples
+     */
+    private VcfSamples(List<String> samples, long hash) {
+
+        this.samples = samples;
+        this.hash = hash;
+
+    }
+
+    /**
+     * Returns the samples of a vcf file. The sidecar file is used if up to
+     * date, otherwise the samples are parsed from the vcf file and the sidecar
+     * file is written if possible.
+     *
+     * @param vcfFile the vcf file
+     * @param names boolean indicating whether the names of the samples are
+     * needed, if false only the hash may be read
+     *
+     * @return the samples of the vcf file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the vcf file or the sidecar file
+     */
+    public static VcfSamples get(File vcfFile, boolean names) throws IOException {
+
+        File sidecarFile = new File(vcfFile.getPath() + EXTENSION);
+
+        if (sidecarFile.exists()) {
+
+            VcfSamples vcfSamples = read(sidecarFile, vcfFile, names);
+
+            if (vcfSamples != null) {
+
+                return vcfSamples;
+
+            }
+        }
+
+        List<String> samples = parse(vcfFile);
+        VcfSamples vcfSamples = new VcfSamples(samples, hash(samples));
+
+        try {
+
+            vcfSamples.write(sidecarFile, vcfFile);
+
+        } catch (IOException e) {
+
+            // The sidecar file is optional, the folder might be read-only
+            sidecarFile.delete();
+
+        }
+
+        return vcfSamples;
+
+    }
+
+    /**
+     * Parses the samples from the #CHROM line of a vcf file.
+     *
+     * @param vcfFile the vcf file
+     *
+     * @return the samples in column order
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    public static List<String> parse(File vcfFile) throws IOException {
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new BlockCompressedInputStream(vcfFile), StandardCharsets.UTF_8))) {
+
+            String line = br.readLine();
+
+            while (line != null && line.startsWith("##")) {
+
+                line = br.readLine();
+
+            }
+
+            if (line == null || !line.startsWith("#CHROM")) {
+
+                throw new IllegalArgumentException("No #CHROM line found in " + vcfFile + ".");
+
+            }
+
+            String[] lineSplit = line.split("\t");
+
+            return Collections.unmodifiableList(Arrays.asList(
+                    Arrays.copyOfRange(lineSplit, Math.min(N_FIXED_COLUMNS, lineSplit.length), lineSplit.length)));
+
+        }
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of a list of samples, names separated by
+     * tabs.
+     *
+     * @param samples the samples
+     *
+     * @return the hash of the list
+     */
+    public static long hash(List<String> samples) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (String sample : samples) {
+
+            for (byte b : sample.getBytes(StandardCharsets.UTF_8)) {
+
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+
+            }
+
+            hash = (hash ^ '\t') * 0x100000001b3L;
+
+        }
+
+        return hash;
+
+    }
+
+    /**
+     * Writes the samples to a sidecar file, names are stored as a single
+     * tab-separated UTF-8 string.
+     *
+     * @param sidecarFile the sidecar file
+     * @param vcfFile the vcf file the samples were parsed from
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void write(File sidecarFile, File vcfFile) throws IOException {
+
+        byte[] bytes = String.join("\t", samples).getBytes(StandardCharsets.UTF_8);
+
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecarFile)))) {
+
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(vcfFile.length());
+            outputStream.writeLong(vcfFile.lastModified());
+            outputStream.writeLong(hash);
+            outputStream.writeInt(samples.size());
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+
+        }
+    }
+
+    /**
+     * Reads the samples from a sidecar file.
+     *
+     * @param sidecarFile the sidecar file
+     * @param vcfFile the vcf file the samples were parsed from
+     * @param names boolean indicating whether the names should be read
+     *
+     * @return the samples, null if the sidecar file was written by another
+     * version or if the vcf file changed since it was written
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private static VcfSamples read(File sidecarFile, File vcfFile, boolean names) throws IOException {
+
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(sidecarFile))) {
+
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION
+                    || inputStream.readLong() != vcfFile.length() || inputStream.readLong() != vcfFile.lastModified()) {
+
+                return null;
+
+            }
+
+            long hash = inputStream.readLong();
+
+            if (!names) {
+
+                return new VcfSamples(null, hash);
+
+            }
+
+            int nSamples = inputStream.readInt();
+            byte[] bytes = new byte[inputStream.readInt()];
+            inputStream.readFully(bytes);
+
+            List<String> samples = nSamples == 0
+                    ? new ArrayList<>(0)
+                    : Arrays.asList(new String(bytes, StandardCharsets.UTF_8).split("\t", -1));
+
+            if (samples.size() != nSamples) {
+
+                return null;
+
+            }
+
+            return new VcfSamples(Collections.unmodifiableList(samples), hash);
+
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package no.uib.hunt.genotypes;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the completion, failure and interruption of scheduled queries.
+ *
+ * @author Marc Vaudel
+ */
+public class QuerySchedulerTest {
+
+    /**
+     * Returns a list of the integers from 0 to n (exclusive).
+     *
+     * @param n the number of items
+     *
+     * @return the items
+     */
+    private static List<Integer> getItems(int n) {
+
+        return IntStream.range(0, n)
+                .boxed()
+                .collect(Collectors.toList());
+
+    }
+
+    /**
+     * Tests that every item is queried once in every mode.
+     */
+    @Test
+    public void testForEach() {
+
+        for (QueryScheduler.Mode mode : QueryScheduler.Mode.values()) {
+
+            try (QueryScheduler scheduler = new QueryScheduler(mode, 3)) {
+
+                AtomicInteger[] counts = new AtomicInteger[1000];
+
+                for (int i = 0; i < counts.length; i++) {
+
+                    counts[i] = new AtomicInteger();
+
+                }
+
+                scheduler.forEach(getItems(counts.length), i -> counts[i].incrementAndGet());
+
+                for (AtomicInteger count : counts) {
+
+                    Assert.assertEquals(mode.name(), 1, count.get());
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that the first failure is rethrown and that the queries after it
+     * are not run.
+     */
+    @Test(timeout = 60000)
+    public void testFailureStopsQueries() {
+
+        for (QueryScheduler.Mode mode : new QueryScheduler.Mode[]{QueryScheduler.Mode.FIXED, QueryScheduler.Mode.THREAD_PER_QUERY}) {
+
+            try (QueryScheduler scheduler = new QueryScheduler(mode, 2)) {
+
+                int nItems = 100000;
+                AtomicInteger nRun = new AtomicInteger();
+
+                try {
+
+                    scheduler.forEach(getItems(nItems), i -> {
+
+                        nRun.incrementAndGet();
+
+                        if (i == 10) {
+
+                            throw new IllegalStateException("Query " + i + " failed.");
+
+                        }
+                    });
+
+                    Assert.fail(mode + ": failure not rethrown.");
+
+                } catch (IllegalStateException e) {
+
+                    Assert.assertEquals("Query 10 failed.", e.getMessage());
+
+                }
+
+                Assert.assertTrue(mode + ": " + nRun.get() + " queries run.", nRun.get() < nItems / 2);
+
+            }
+        }
+    }
+
+    /**
+     * Tests that a closed scheduler rejects queries without leaking the
+     * permits of the queries in flight.
+     */
+    @Test(timeout = 60000)
+    public void testRejectedAfterClose() {
+
+        QueryScheduler scheduler = new QueryScheduler(QueryScheduler.Mode.THREAD_PER_QUERY, 1);
+        scheduler.close();
+
+        for (int attempt = 0; attempt < 3; attempt++) {
+
+            try {
+
+                scheduler.forEach(getItems(10), i -> {
+                });
+
+                Assert.fail("Query accepted after close.");
+
+            } catch (RejectedExecutionException e) {
+
+                // Expected
+
+            }
+        }
+    }
+
+    /**
+     * Tests that the interrupt status of the calling thread is restored when
+     * it is interrupted while waiting for the queries.
+     *
+     * @throws InterruptedException exception thrown if the test is
+     * interrupted
+     */
+    @Test(timeout = 60000)
+    public void testInterrupt() throws InterruptedException {
+
+        try (QueryScheduler scheduler = new QueryScheduler(QueryScheduler.Mode.FIXED, 2)) {
+
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicBoolean interrupted = new AtomicBoolean();
+            AtomicReference<Throwable> thrown = new AtomicReference<>();
+
+            Thread caller = new Thread(() -> {
+
+                try {
+
+                    scheduler.forEach(getItems(1), i -> {
+
+                        started.countDown();
+
+                        try {
+
+                            release.await();
+
+                        } catch (InterruptedException e) {
+
+                            Thread.currentThread().interrupt();
+
+                        }
+                    });
+
+                } catch (Throwable e) {
+
+                    thrown.set(e);
+
+                }
+
+                interrupted.set(Thread.currentThread().isInterrupted());
+
+            });
+
+            caller.start();
+            started.await();
+            caller.interrupt();
+            caller.join();
+            release.countDown();
+
+            Assert.assertTrue(thrown.get() instanceof RuntimeException);
+            Assert.assertTrue(thrown.get().getCause() instanceof InterruptedException);
+            Assert.assertTrue(interrupted.get());
+
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package no.uib.hunt.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the sorting, lookups and binary files of variant catalogues.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantCatalogueTest {
+
+    /**
+     * Folder for the files written by the tests.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Returns a sorted catalogue with alleles and weights, including ids that
+     * are not of the form rs123, a variant without id, and a duplicated id.
+     *
+     * @return the catalogue
+     */
+    private static VariantCatalogue getCatalogue() {
+
+        VariantCatalogue catalogue = new VariantCatalogue(2, true, true);
+
+        add(catalogue, "rs300", "2", 500, "A", "G", 0.1, 0.5);
+        add(catalogue, "rs100", "1", 2000, "C", "T", 0.2, -0.25);
+        add(catalogue, "1:1000_A_G", "1", 1000, "A", "G", 0.3, 1.5);
+        add(catalogue, null, "X", 42, "G", "GA", Double.NaN, 0.0);
+        add(catalogue, "rs200", "1", 1000, "T", "C", 0.4, 2.0);
+        add(catalogue, "rs100", "2", 100, "C", "T", 0.5, 0.125);
+        add(catalogue, "rs0123", "2", 300, "A", "C", 0.6, 3.0);
+
+        catalogue.sort();
+
+        return catalogue;
+
+    }
+
+    /**
+     * Adds a variant with alleles and weights to a catalogue.
+     *
+     * @param catalogue the catalogue
+     * @param rsId the rsId
+     * @param chr the chromosome
+     * @param bp the position
+     * @param riskAllele the risk allele
+     * @param otherAllele the other allele
+     * @param riskAlleleFrequency the risk allele frequency
+     * @param weight the weight
+     */
+    private static void add(VariantCatalogue catalogue, String rsId, String chr, int bp, String riskAllele, String otherAllele, double riskAlleleFrequency, double weight) {
+
+        int i = catalogue.add(rsId, chr, bp);
+        catalogue.setAlleles(i, riskAllele, otherAllele);
+        catalogue.setWeight(i, riskAlleleFrequency, weight);
+
+    }
+
+    /**
+     * Writes a catalogue and returns the file.
+     *
+     * @param catalogue the catalogue
+     * @param source the source file
+     *
+     * @return the file written
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    private File write(VariantCatalogue catalogue, File source) throws IOException {
+
+        File file = new File(folder.getRoot(), "catalogue.bin");
+        catalogue.write(file, source);
+
+        return file;
+
+    }
+
+    /**
+     * Asserts that two catalogues contain the same variants in the same
+     * order.
+     *
+     * @param expected the expected catalogue
+     * @param actual the actual catalogue
+     */
+    private static void assertSameCatalogue(VariantCatalogue expected, VariantCatalogue actual) {
+
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.getChromosomes(), actual.getChromosomes());
+        Assert.assertEquals(expected.hasRsIds(), actual.hasRsIds());
+        Assert.assertEquals(expected.hasChromosomes(), actual.hasChromosomes());
+        Assert.assertEquals(expected.hasPositions(), actual.hasPositions());
+        Assert.assertEquals(expected.hasAlleles(), actual.hasAlleles());
+        Assert.assertEquals(expected.hasWeights(), actual.hasWeights());
+
+        for (int i = 0; i < expected.size(); i++) {
+
+            Assert.assertEquals(expected.getRsId(i), actual.getRsId(i));
+            Assert.assertEquals(expected.getChr(i), actual.getChr(i));
+            Assert.assertEquals(expected.getPosition(i), actual.getPosition(i));
+
+            if (expected.hasAlleles()) {
+
+                Assert.assertEquals(expected.getRiskAllele(i), actual.getRiskAllele(i));
+                Assert.assertEquals(expected.getOtherAllele(i), actual.getOtherAllele(i));
+
+            }
+
+            if (expected.hasWeights()) {
+
+                Assert.assertEquals(Double.doubleToLongBits(expected.getRiskAlleleFrequency(i)), Double.doubleToLongBits(actual.getRiskAlleleFrequency(i)));
+                Assert.assertEquals(Double.doubleToLongBits(expected.getWeight(i)), Double.doubleToLongBits(actual.getWeight(i)));
+
+            }
+        }
+
+        for (String chr : expected.getChromosomes()) {
+
+            Assert.assertEquals(expected.getStart(chr), actual.getStart(chr));
+            Assert.assertEquals(expected.getEnd(chr), actual.getEnd(chr));
+
+        }
+
+        for (int i = 0; i < expected.size(); i++) {
+
+            String rsId = expected.getRsId(i);
+
+            if (rsId != null) {
+
+                Assert.assertEquals(expected.indexOf(rsId), actual.indexOf(rsId));
+
+            }
+        }
+    }
+
+    /**
+     * Tests that variants are sorted by chromosome in the order they were
+     * added and by position, ties in the order they were added.
+     */
+    @Test
+    public void testSort() {
+
+        VariantCatalogue catalogue = getCatalogue();
+
+        Assert.assertEquals(Arrays.asList("2", "1", "X"), catalogue.getChromosomes());
+
+        String[] rsIds = {"rs100", "rs0123", "rs300", "1:1000_A_G", "rs200", "rs100", null};
+        String[] chromosomes = {"2", "2", "2", "1", "1", "1", "X"};
+        int[] positions = {100, 300, 500, 1000, 1000, 2000, 42};
+
+        Assert.assertEquals(rsIds.length, catalogue.size());
+
+        for (int i = 0; i < rsIds.length; i++) {
+
+            Assert.assertEquals(rsIds[i], catalogue.getRsId(i));
+            Assert.assertEquals(chromosomes[i], catalogue.getChr(i));
+            Assert.assertEquals(positions[i], catalogue.getPosition(i));
+
+        }
+
+        Assert.assertEquals("1:1000_A_G", catalogue.getWeightedVariant(3).rsId);
+        Assert.assertEquals("G", catalogue.getWeightedVariant(3).otherAllele);
+        Assert.assertEquals(1.5, catalogue.getWeightedVariant(3).weight, 0.0);
+
+        List<Variant> chr1 = catalogue.getVariants("1");
+
+        Assert.assertEquals(3, chr1.size());
+        Assert.assertEquals(2000, chr1.get(2).bp);
+        Assert.assertTrue(catalogue.getVariants("22").isEmpty());
+
+    }
+
+    /**
+     * Tests the lookups by position.
+     */
+    @Test
+    public void testIndexOfPosition() {
+
+        VariantCatalogue catalogue = getCatalogue();
+
+        Assert.assertEquals(0, catalogue.indexOf("2", 100));
+        Assert.assertEquals(3, catalogue.indexOf("1", 1000));
+        Assert.assertEquals(5, catalogue.indexOf("1", 2000));
+        Assert.assertEquals(6, catalogue.indexOf("X", 42));
+        Assert.assertEquals(-1, catalogue.indexOf("1", 1500));
+        Assert.assertEquals(-1, catalogue.indexOf("2", 1000));
+        Assert.assertEquals(-1, catalogue.indexOf("22", 100));
+
+        Assert.assertEquals(0, catalogue.search("2", 0));
+        Assert.assertEquals(2, catalogue.search("2", 400));
+        Assert.assertEquals(3, catalogue.search("2", 600));
+        Assert.assertEquals(5, catalogue.search("1", 1001));
+
+    }
+
+    /**
+     * Tests the lookups by rsId.
+     */
+    @Test
+    public void testIndexOfRsId() {
+
+        VariantCatalogue catalogue = getCatalogue();
+
+        Assert.assertEquals(0, catalogue.indexOf("rs100"));
+        Assert.assertEquals(1, catalogue.indexOf("rs0123"));
+        Assert.assertEquals(2, catalogue.indexOf("rs300"));
+        Assert.assertEquals(3, catalogue.indexOf("1:1000_A_G"));
+        Assert.assertEquals(4, catalogue.indexOf("rs200"));
+        Assert.assertEquals(-1, catalogue.indexOf("rs123"));
+        Assert.assertEquals(-1, catalogue.indexOf("rs400"));
+        Assert.assertEquals(-1, catalogue.indexOf("2:1000_A_G"));
+
+        List<Variant> distinct = catalogue.getDistinctVariantsByRsId();
+
+        Assert.assertEquals(5, distinct.size());
+        Assert.assertEquals(100, distinct.stream().filter(variant -> "rs100".equals(variant.rsId)).findFirst().get().bp);
+
+    }
+
+    /**
+     * Tests that a catalogue read back from its file equals the catalogue
+     * written.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * or reading
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+
+        File source = folder.newFile("variants.txt");
+        VariantCatalogue catalogue = getCatalogue();
+
+        VariantCatalogue read = VariantCatalogue.read(write(catalogue, source), source);
+
+        Assert.assertNotNull(read);
+        assertSameCatalogue(catalogue, read);
+
+    }
+
+    /**
+     * Tests the round trip of a catalogue without alleles, weights,
+     * chromosomes and positions.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * or reading
+     */
+    @Test
+    public void testRoundTripRsIdsOnly() throws IOException {
+
+        File source = folder.newFile("variants.txt");
+        VariantCatalogue catalogue = new VariantCatalogue(4, true, false, false, false, false);
+
+        catalogue.add("rs5", null, 0);
+        catalogue.add("chr1_12_A_T", null, 0);
+        catalogue.addRsNumber(3, null, 0);
+        catalogue.sort();
+
+        VariantCatalogue read = VariantCatalogue.read(write(catalogue, source), source);
+
+        Assert.assertNotNull(read);
+        assertSameCatalogue(catalogue, read);
+        Assert.assertNull(read.getChr(0));
+        Assert.assertEquals(2, read.indexOf("rs3"));
+        Assert.assertEquals(1, read.indexOf("chr1_12_A_T"));
+
+    }
+
+    /**
+     * Tests that an empty catalogue can be written and read.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * or reading
+     */
+    @Test
+    public void testRoundTripEmpty() throws IOException {
+
+        File source = folder.newFile("variants.txt");
+        VariantCatalogue catalogue = new VariantCatalogue();
+        catalogue.sort();
+
+        VariantCatalogue read = VariantCatalogue.read(write(catalogue, source), source);
+
+        Assert.assertNotNull(read);
+        Assert.assertEquals(0, read.size());
+        Assert.assertEquals(-1, read.indexOf("rs1"));
+
+    }
+
+    /**
+     * Tests that missing, stale, truncated and other version files are not
+     * read.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * or reading
+     */
+    @Test
+    public void testReadRejected() throws IOException {
+
+        File source = folder.newFile("variants.txt");
+        VariantCatalogue catalogue = getCatalogue();
+
+        Assert.assertNull(VariantCatalogue.read(new File(folder.getRoot(), "missing.bin"), source));
+
+        File file = write(catalogue, source);
+
+        Files.write(source.toPath(), new byte[]{1});
+
+        Assert.assertNull(VariantCatalogue.read(file, source));
+
+        file = write(catalogue, source);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+
+            randomAccessFile.seek(Integer.BYTES);
+            randomAccessFile.writeInt(VariantCatalogue.VERSION + 1);
+
+        }
+
+        Assert.assertNull(VariantCatalogue.read(file, source));
+
+        for (int length : new int[]{0, 4, 12, bytes.length / 2, bytes.length - 1}) {
+
+            Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+
+            Assert.assertNull("Truncated to " + length, VariantCatalogue.read(file, source));
+
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package no.uib.hunt.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the writing of log lines and the handling of failures.
+ *
+ * @author Marc Vaudel
+ */
+public class AsyncLogWriterTest {
+
+    /**
+     * Writer failing on every write.
+     */
+    private static class FailingWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+
+            throw new IOException("Disk full.");
+
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+            throw new IOException("Disk full.");
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    /**
+     * Tests that lines written by concurrent threads are all written.
+     *
+     * @throws Exception exception thrown if an error occurred while writing
+     */
+    @Test(timeout = 60000)
+    public void testWrite() throws Exception {
+
+        StringWriter stringWriter = new StringWriter();
+        int nThreads = 4;
+        int nLines = 10000;
+
+        try (AsyncLogWriter logWriter = new AsyncLogWriter(new BufferedWriter(stringWriter), 16, AsyncLogWriter.OverflowPolicy.BLOCK)) {
+
+            Thread[] threads = new Thread[nThreads];
+
+            for (int t = 0; t < nThreads; t++) {
+
+                int thread = t;
+                threads[t] = new Thread(() -> {
+
+                    for (int i = 0; i < nLines; i++) {
+
+                        Assert.assertTrue(logWriter.write(thread + " " + i));
+
+                    }
+                });
+                threads[t].start();
+
+            }
+
+            for (Thread thread : threads) {
+
+                thread.join();
+
+            }
+        }
+
+        String[] lines = stringWriter.toString().split(System.lineSeparator());
+
+        Assert.assertEquals(nThreads * nLines, lines.length);
+
+    }
+
+    /**
+     * Tests that null lines are rejected.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullLine() throws IOException {
+
+        try (AsyncLogWriter logWriter = new AsyncLogWriter(new BufferedWriter(new StringWriter()), 16, AsyncLogWriter.OverflowPolicy.BLOCK)) {
+
+            logWriter.write(null);
+
+        }
+    }
+
+    /**
+     * Tests that producers blocked on a full buffer return when the writer
+     * thread fails, and that the failure is thrown on close.
+     *
+     * @throws InterruptedException exception thrown if the test is
+     * interrupted
+     */
+    @Test(timeout = 60000)
+    public void testWriteFailure() throws InterruptedException {
+
+        AsyncLogWriter logWriter = new AsyncLogWriter(new BufferedWriter(new FailingWriter(), 1), 4, AsyncLogWriter.OverflowPolicy.BLOCK);
+
+        Thread producer = new Thread(() -> {
+
+            for (int i = 0; i < 1000; i++) {
+
+                logWriter.write("line " + i);
+
+            }
+        });
+
+        producer.start();
+        producer.join();
+
+        Assert.assertFalse(logWriter.write("after failure"));
+
+        try {
+
+            logWriter.close();
+            Assert.fail("Failure not thrown on close.");
+
+        } catch (IOException e) {
+
+            Assert.assertEquals("Disk full.", e.getMessage());
+
+        }
+    }
+}
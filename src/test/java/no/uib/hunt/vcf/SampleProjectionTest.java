@@ -0,0 +1,115 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the genotypes of projected lines against the genotypes decoded by
+ * htsjdk.
+ *
+ * @author Marc Vaudel
+ */
+public class SampleProjectionTest {
+
+    /**
+     * The samples of the vcf.
+     */
+    private static final List<String> SAMPLES = Arrays.asList("S1", "S2", "S3", "S4");
+
+    /**
+     * The header of the vcf.
+     */
+    private static final String HEADER = "##fileformat=VCFv4.2\n"
+            + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+            + "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n"
+            + "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n"
+            + "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depths\">\n"
+            + "##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Phred likelihoods\">\n"
+            + "##FORMAT=<ID=DS,Number=1,Type=Float,Description=\"Dosage\">\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t" + String.join("\t", SAMPLES) + "\n";
+
+    /**
+     * The lines to test.
+     */
+    private static final String[] LINES = {
+        "1\t100\trs1\tA\tG\t.\tPASS\t.\tGT:GQ:DP:AD:PL:DS\t0/1:35:12:5,7:10,0,20:0.9\t1|1:.:.:.:.:.\t./.:-1:3:1,.:0,1,2:1.5\t0|0:99:30:30,0:0,90,900:0",
+        "1\t200\trs2\tC\tT,G\t.\tPASS\t.\tGT:DS:GQ\t1/2:1.2:40\t0:0:7\t2|0:1:12.6\t0/.:.:.",
+        "X\t300\trs3\tG\tA\t.\tPASS\t.\tGT\t0\t1\t.\t0/1"
+    };
+
+    /**
+     * Tests that the genotypes of all samples match the genotypes decoded by
+     * htsjdk.
+     */
+    @Test
+    public void testGetGenotypes() {
+
+        testGetGenotypes(SAMPLES);
+
+    }
+
+    /**
+     * Tests that the genotypes of a subset of samples in another order match
+     * the genotypes decoded by htsjdk.
+     */
+    @Test
+    public void testGetGenotypesSubset() {
+
+        testGetGenotypes(Arrays.asList("S4", "S2"));
+
+    }
+
+    /**
+     * Tests that the genotypes of the given samples match the genotypes
+     * decoded by htsjdk.
+     *
+     * @param samples the samples to project
+     */
+    private static void testGetGenotypes(List<String> samples) {
+
+        VCFCodec codec = new VCFCodec();
+        codec.readActualHeader(new LineIteratorImpl(new SynchronousLineReader(new StringReader(HEADER))));
+
+        SampleProjection sampleProjection = new SampleProjection(SAMPLES, samples);
+
+        for (String line : LINES) {
+
+            VariantContext variantContext = codec.decode(line);
+
+            VcfLine vcfLine = new VcfLine();
+            byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+            vcfLine.append(bytes, 0, bytes.length);
+
+            Genotype[] genotypes = sampleProjection.getGenotypes(vcfLine);
+
+            Assert.assertEquals(samples.size(), genotypes.length);
+
+            for (int i = 0; i < samples.size(); i++) {
+
+                Genotype expected = variantContext.getGenotype(samples.get(i));
+                Genotype actual = genotypes[i];
+                String message = line + " " + samples.get(i);
+
+                Assert.assertEquals(message, expected.getSampleName(), actual.getSampleName());
+                Assert.assertEquals(message, expected.getAlleles(), actual.getAlleles());
+                Assert.assertEquals(message, expected.isPhased(), actual.isPhased());
+                Assert.assertEquals(message, expected.getType(), actual.getType());
+                Assert.assertEquals(message, expected.getGQ(), actual.getGQ());
+                Assert.assertEquals(message, expected.getDP(), actual.getDP());
+                Assert.assertArrayEquals(message, expected.getAD(), actual.getAD());
+                Assert.assertArrayEquals(message, expected.getPL(), actual.getPL());
+                Assert.assertEquals(message, expected.getExtendedAttributes(), actual.getExtendedAttributes());
+
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.uib.hunt.model.Variant;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the caching, eviction and single loading of variant contexts.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantContextCacheTest {
+
+    /**
+     * Returns a variant context without samples for a variant.
+     *
+     * @param variant the variant
+     *
+     * @return the variant context
+     */
+    private static VariantContext getVariantContext(Variant variant) {
+
+        return new VariantContextBuilder("test", variant.chr, variant.bp, variant.bp, Arrays.asList(Allele.create("A", true), Allele.create("G", false)))
+                .id(variant.rsId)
+                .make();
+
+    }
+
+    /**
+     * Tests that variant contexts are loaded once and found by chromosome,
+     * position and rsId.
+     */
+    @Test
+    public void testGet() {
+
+        VariantContextCache cache = new VariantContextCache();
+        AtomicInteger nLoads = new AtomicInteger();
+
+        Variant variant = new Variant("rs1", "1", 100);
+        VariantContext variantContext = cache.get(variant, v -> {
+
+            nLoads.incrementAndGet();
+
+            return getVariantContext(v);
+
+        });
+
+        Assert.assertSame(variantContext, cache.get(new Variant("rs1", "1", 100), v -> null));
+        Assert.assertSame(variantContext, cache.get(new Variant("rs1", "1", 100)));
+        Assert.assertNull(cache.get(new Variant("rs1", "2", 100)));
+        Assert.assertNull(cache.get(new Variant("rs2", "1", 100)));
+        Assert.assertNull(cache.get(new Variant("rs1", "1", 101)));
+        Assert.assertEquals(1, nLoads.get());
+        Assert.assertEquals(2, cache.getHits());
+
+    }
+
+    /**
+     * Tests that absent variants are cached.
+     */
+    @Test
+    public void testAbsent() {
+
+        VariantContextCache cache = new VariantContextCache();
+        AtomicInteger nLoads = new AtomicInteger();
+        Variant variant = new Variant("rs1", "1", 100);
+
+        for (int i = 0; i < 10; i++) {
+
+            Assert.assertNull(cache.get(variant, v -> {
+
+                nLoads.incrementAndGet();
+
+                return null;
+
+            }));
+        }
+
+        Assert.assertEquals(1, nLoads.get());
+        Assert.assertSame(VariantContextCache.ABSENT, cache.get(variant));
+
+        Variant putVariant = new Variant("rs2", "1", 200);
+        cache.put(putVariant, null);
+
+        Assert.assertSame(VariantContextCache.ABSENT, cache.get(putVariant));
+
+    }
+
+    /**
+     * Tests that concurrent misses on a variant wait for a single load.
+     *
+     * @throws InterruptedException exception thrown if the test is
+     * interrupted
+     */
+    @Test(timeout = 60000)
+    public void testSingleLoad() throws InterruptedException {
+
+        VariantContextCache cache = new VariantContextCache();
+        AtomicInteger nLoads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Variant variant = new Variant("rs1", "1", 100);
+        VariantContext[] results = new VariantContext[8];
+        Thread[] threads = new Thread[results.length];
+
+        for (int t = 0; t < threads.length; t++) {
+
+            int thread = t;
+            threads[t] = new Thread(() -> results[thread] = cache.get(variant, v -> {
+
+                nLoads.incrementAndGet();
+                loading.countDown();
+
+                try {
+
+                    release.await();
+
+                } catch (InterruptedException e) {
+
+                    throw new RuntimeException(e);
+
+                }
+
+                return getVariantContext(v);
+
+            }));
+            threads[t].start();
+
+        }
+
+        loading.await();
+        release.countDown();
+
+        for (Thread thread : threads) {
+
+            thread.join();
+
+        }
+
+        Assert.assertEquals(1, nLoads.get());
+
+        for (VariantContext result : results) {
+
+            Assert.assertNotNull(result);
+            Assert.assertSame(results[0], result);
+
+        }
+    }
+
+    /**
+     * Tests that a failed load is rethrown and not cached.
+     */
+    @Test
+    public void testFailedLoad() {
+
+        VariantContextCache cache = new VariantContextCache();
+        Variant variant = new Variant("rs1", "1", 100);
+
+        try {
+
+            cache.get(variant, v -> {
+
+                throw new IllegalStateException("Read failed.");
+
+            });
+
+            Assert.fail("Failure not rethrown.");
+
+        } catch (IllegalStateException e) {
+
+            Assert.assertEquals("Read failed.", e.getMessage());
+
+        }
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNotNull(cache.get(variant, VariantContextCacheTest::getVariantContext));
+
+    }
+
+    /**
+     * Tests that the least recently used variant contexts are evicted when
+     * the capacity is exceeded.
+     */
+    @Test
+    public void testEviction() {
+
+        VariantContextCache cache = new VariantContextCache(3, VariantContextCache.EvictionPolicy.LRU);
+        Variant[] variants = {new Variant("rs1", "1", 100), new Variant("rs2", "1", 200), new Variant("rs3", "1", 300), new Variant("rs4", "1", 400)};
+
+        for (int i = 0; i < 3; i++) {
+
+            cache.get(variants[i], VariantContextCacheTest::getVariantContext);
+
+        }
+
+        Assert.assertEquals(3, cache.getWeight());
+
+        cache.get(variants[0]);
+        cache.get(variants[3], v -> null);
+
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(3, cache.getWeight());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNotNull(cache.get(variants[0]));
+        Assert.assertNull(cache.get(variants[1]));
+
+    }
+
+    /**
+     * Tests that a cache of capacity 0 loads every time.
+     */
+    @Test
+    public void testDisabled() {
+
+        VariantContextCache cache = new VariantContextCache(0, VariantContextCache.EvictionPolicy.LRU);
+        AtomicInteger nLoads = new AtomicInteger();
+        Variant variant = new Variant("rs1", "1", 100);
+
+        for (int i = 0; i < 3; i++) {
+
+            cache.get(variant, v -> {
+
+                nLoads.incrementAndGet();
+
+                return getVariantContext(v);
+
+            });
+        }
+
+        Assert.assertEquals(3, nLoads.get());
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNull(cache.get(variant));
+
+    }
+}
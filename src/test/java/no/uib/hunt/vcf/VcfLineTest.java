@@ -0,0 +1,313 @@
+package no.uib.hunt.vcf;
+
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import no.uib.hunt.genotypes.GenotypeSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the parsers of raw vcf fields against Double.parseDouble and the
+ * genotypes decoded by htsjdk.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfLineTest {
+
+    /**
+     * The header of the vcf used to decode genotypes with htsjdk.
+     */
+    private static final String HEADER = "##fileformat=VCFv4.2\n"
+            + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\n";
+
+    /**
+     * Numbers covering signs, leading and trailing zeros, long mantissas and
+     * exponents.
+     */
+    private static final String[] NUMBERS = {
+        "0", "1", "-1", "+1", "-0", "-0.0", "0.0", "0.5", ".5", "5.", "+.5", "-.5",
+        "007", "0.000123", "000.1000", "0.1", "0.2", "0.3", "0.7", "0.9999", "1.0000001",
+        "123456789", "9007199254740991", "9007199254740992", "9007199254740993",
+        "123456789012345678", "1234567890123456789012", "0.1234567890123456789",
+        "3.14159265358979323846", "0.30000000000000004", "2.2250738585072014E-308",
+        "1e5", "1E-5", "-2.5e+3", "1.e5", "1e0", "1e22", "1e23", "1e-22", "1e-23",
+        "123.456e-7", "4.9e-324", "1.7976931348623157e308", "1e400", "1e-400", "1e0001"
+    };
+
+    /**
+     * Strings that are not numbers.
+     */
+    private static final String[] NOT_NUMBERS = {"-", "+", "-.", "abc", "1e", "1e+", "1.2.3", "1,5", "e5", "1-1"};
+
+    /**
+     * Parses a whole string with VcfLine.parseDouble, the string is placed
+     * within a larger buffer to check the bounds.
+     *
+     * @param value the string to parse
+     *
+     * @return the parsed value
+     */
+    private static double parseDouble(String value) {
+
+        byte[] bytes = ("1:" + value + ":2").getBytes(StandardCharsets.US_ASCII);
+
+        return VcfLine.parseDouble(bytes, 2, bytes.length - 2);
+
+    }
+
+    /**
+     * Parses a GT field with VcfLine.parseCall.
+     *
+     * @param gt the GT field
+     *
+     * @return the call
+     */
+    private static byte parseCall(String gt) {
+
+        byte[] bytes = gt.getBytes(StandardCharsets.US_ASCII);
+
+        return VcfLine.parseCall(bytes, 0, bytes.length);
+
+    }
+
+    /**
+     * Asserts that two doubles have the same bits.
+     *
+     * @param message the message to display on failure
+     * @param expected the expected value
+     * @param actual the actual value
+     */
+    private static void assertSameDouble(String message, double expected, double actual) {
+
+        Assert.assertEquals(message, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+
+    }
+
+    /**
+     * Tests that numbers are parsed to the same double as Double.parseDouble.
+     */
+    @Test
+    public void testParseDouble() {
+
+        for (String number : NUMBERS) {
+
+            assertSameDouble(number, Double.parseDouble(number), parseDouble(number));
+
+        }
+    }
+
+    /**
+     * Tests that random numbers written in different formats are parsed to
+     * the same double as Double.parseDouble.
+     */
+    @Test
+    public void testParseDoubleRandom() {
+
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+
+            if (random.nextBoolean()) {
+
+                value = -value;
+
+            }
+
+            String[] formats = {
+                Double.toString(value),
+                String.format(Locale.US, "%.6f", value),
+                String.format(Locale.US, "%.17f", value),
+                String.format(Locale.US, "%.3e", value),
+                String.format(Locale.US, "%.16e", value)
+            };
+
+            for (String format : formats) {
+
+                assertSameDouble(format, Double.parseDouble(format), parseDouble(format));
+
+            }
+        }
+    }
+
+    /**
+     * Tests that missing values are parsed as NaN.
+     */
+    @Test
+    public void testParseDoubleMissing() {
+
+        Assert.assertTrue(Double.isNaN(parseDouble(".")));
+        Assert.assertTrue(Double.isNaN(parseDouble("")));
+
+    }
+
+    /**
+     * Tests that strings that are not numbers are rejected like by
+     * Double.parseDouble.
+     */
+    @Test
+    public void testParseDoubleInvalid() {
+
+        for (String notNumber : NOT_NUMBERS) {
+
+            try {
+
+                Double.parseDouble(notNumber);
+                Assert.fail("Double.parseDouble accepted " + notNumber);
+
+            } catch (NumberFormatException e) {
+
+                // Expected
+
+            }
+
+            try {
+
+                parseDouble(notNumber);
+                Assert.fail("VcfLine.parseDouble accepted " + notNumber);
+
+            } catch (NumberFormatException e) {
+
+                // Expected
+
+            }
+        }
+    }
+
+    /**
+     * Tests the calls of diploid, haploid, polyploid and missing genotypes.
+     */
+    @Test
+    public void testParseCall() {
+
+        Assert.assertEquals(GenotypeSource.HOM_REF, parseCall("0/0"));
+        Assert.assertEquals(GenotypeSource.HOM_REF, parseCall("0|0"));
+        Assert.assertEquals(GenotypeSource.HET, parseCall("0/1"));
+        Assert.assertEquals(GenotypeSource.HET, parseCall("1|0"));
+        Assert.assertEquals(GenotypeSource.HOM_ALT, parseCall("1/1"));
+        Assert.assertEquals(GenotypeSource.HOM_ALT, parseCall("1/2"));
+        Assert.assertEquals(GenotypeSource.HET, parseCall("0/10"));
+        Assert.assertEquals(GenotypeSource.HOM_REF, parseCall("0"));
+        Assert.assertEquals(GenotypeSource.HET, parseCall("1"));
+        Assert.assertEquals(GenotypeSource.HET, parseCall("2"));
+        Assert.assertEquals(GenotypeSource.HET, parseCall("0/0/1"));
+        Assert.assertEquals(GenotypeSource.HOM_ALT, parseCall("1/1/1"));
+        Assert.assertEquals(GenotypeSource.MISSING, parseCall("."));
+        Assert.assertEquals(GenotypeSource.MISSING, parseCall("./."));
+        Assert.assertEquals(GenotypeSource.MISSING, parseCall(".|."));
+        Assert.assertEquals(GenotypeSource.MISSING, parseCall("0/."));
+        Assert.assertEquals(GenotypeSource.MISSING, parseCall("./1"));
+        Assert.assertEquals(GenotypeSource.MISSING, parseCall(""));
+
+    }
+
+    /**
+     * Tests the calls and ploidy of GT fields against the genotypes decoded
+     * by htsjdk.
+     */
+    @Test
+    public void testParseCallAgainstHtsjdk() {
+
+        VCFCodec codec = new VCFCodec();
+        codec.readActualHeader(new LineIteratorImpl(new SynchronousLineReader(new StringReader(HEADER))));
+
+        String[] gts = {"0/0", "0|1", "1/0", "1|1", "1/2", "2/2", "0", "1", "2", ".", "./.", "0/.", ".|1", "0/0/1", "1/1/2", "0/1/2/2"};
+
+        for (String gt : gts) {
+
+            VariantContext variantContext = codec.decode("1\t100\trs1\tA\tC,G\t.\tPASS\t.\tGT\t" + gt);
+            Genotype genotype = variantContext.getGenotype(0);
+
+            byte expected;
+
+            if (genotype.getAlleles().stream().anyMatch(Allele::isNoCall)) {
+
+                expected = GenotypeSource.MISSING;
+
+            } else {
+
+                long nAlt = genotype.getAlleles().stream().filter(Allele::isNonReference).count();
+                expected = (byte) Math.min(nAlt, GenotypeSource.HOM_ALT);
+
+            }
+
+            byte[] bytes = gt.getBytes(StandardCharsets.US_ASCII);
+
+            Assert.assertEquals(gt, expected, VcfLine.parseCall(bytes, 0, bytes.length));
+            Assert.assertEquals(gt, genotype.getPloidy(), VcfLine.parsePloidy(bytes, 0, bytes.length));
+
+        }
+    }
+
+    /**
+     * Tests the matching of single and semicolon separated ids.
+     */
+    @Test
+    public void testHasId() {
+
+        VcfLine vcfLine = new VcfLine();
+        byte[] bytes = "1\t100\trs1;rs20;.\tA\tG\t.\tPASS\t.\tGT\t0/1".getBytes(StandardCharsets.US_ASCII);
+        vcfLine.append(bytes, 0, bytes.length);
+
+        Assert.assertTrue(vcfLine.hasId("rs1"));
+        Assert.assertTrue(vcfLine.hasId("rs20"));
+        Assert.assertTrue(vcfLine.hasId("rs1;rs20;."));
+        Assert.assertFalse(vcfLine.hasId("rs2"));
+        Assert.assertFalse(vcfLine.hasId("rs200"));
+        Assert.assertFalse(vcfLine.hasId("rs1;rs20"));
+        Assert.assertFalse(vcfLine.hasId(""));
+
+        vcfLine = new VcfLine();
+        bytes = "1\t100\trs1\tA\tG\t.\tPASS\t.\tGT\t0/1".getBytes(StandardCharsets.US_ASCII);
+        vcfLine.append(bytes, 0, bytes.length);
+
+        Assert.assertTrue(vcfLine.hasId("rs1"));
+        Assert.assertFalse(vcfLine.hasId("rs"));
+        Assert.assertFalse(vcfLine.hasId("rs10"));
+
+    }
+
+    /**
+     * Tests the dosages computed from genotype probabilities.
+     */
+    @Test
+    public void testParseDosageFromProbabilities() {
+
+        String[] gps = {"1,0,0", "0,1,0", "0,0,1", "0.1,0.2,0.7", "0.001,0.998,0.001", "0.25,0.75", "1e-3,2.5e-1,0.749"};
+
+        for (String gp : gps) {
+
+            double expected = 0;
+            String[] probabilities = gp.split(",");
+
+            for (int i = 0; i < probabilities.length; i++) {
+
+                expected += i * Double.parseDouble(probabilities[i]);
+
+            }
+
+            byte[] bytes = gp.getBytes(StandardCharsets.US_ASCII);
+
+            assertSameDouble(gp, expected, VcfLine.parseDosageFromProbabilities(bytes, 0, bytes.length));
+
+        }
+
+        for (String gp : new String[]{".", "0.1,.,0.7", ".,.,."}) {
+
+            byte[] bytes = gp.getBytes(StandardCharsets.US_ASCII);
+
+            Assert.assertTrue(gp, Double.isNaN(VcfLine.parseDosageFromProbabilities(bytes, 0, bytes.length)));
+
+        }
+    }
+}